@@ -124,6 +124,10 @@ public class CommandLineOptions {
       this.optimize = optimize;
     }
 
+    @Option(name = "--optimize-threads",
+        usage = "Threads used to prepare optimized code\n (defaults to one per processor)")
+    private int optimizeThreads = Runtime.getRuntime().availableProcessors();
+
     @Option(name = "--out",
         usage = "Write generated JavaScript to a file")
     private File outputFilename = null;
@@ -254,6 +258,13 @@ public class CommandLineOptions {
     public boolean generateHumanReadableOutput() {
       return generateHumanReadableOutput;
     }
+
+    /**
+     * Returns the number of threads used to translate the inputs of the optimizer.
+     */
+    public int getOptimizeThreads() {
+      return Math.max(optimizeThreads, 1);
+    }
     
     public String dumpAST(){
     	return dumpAST;
@@ -4,6 +4,7 @@
 
 package com.google.dart.compiler;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -40,6 +41,21 @@ public abstract class DartArtifactProvider {
    */
   public abstract URI getArtifactUri(Source source, String part, String extension);
 
+  /**
+   * Gets the {@link File} in which an artifact associated with this source is stored, if any.
+   * Readers and writers returned for the same artifact must read and write this file. Backends may
+   * use it to copy unchanged regions of an artifact without decoding them.
+   *
+   * @param source the source file (not <code>null</code>)
+   * @param part a component of the source file (may be empty).
+   * @param extension the file extension for this artifact (not
+   *          <code>null</code>, not empty)
+   * @return the file, or <code>null</code> if the artifact is not stored in a file
+   */
+  public File getArtifactFile(Source source, String part, String extension) {
+    return null;
+  }
+
   /**
    * Gets a writer for an artifact associated with this source. The caller is
    * responsible for closing the writer. Only one artifact may be associated
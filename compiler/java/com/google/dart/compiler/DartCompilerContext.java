@@ -7,6 +7,7 @@ package com.google.dart.compiler;
 import com.google.dart.compiler.ast.LibraryUnit;
 import com.google.dart.compiler.metrics.CompilerMetrics;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -78,6 +79,17 @@ public interface DartCompilerContext {
    */
   URI getArtifactUri(DartSource source, String part, String extension);
 
+  /**
+   * Gets the {@link File} in which an artifact associated with this source is stored.
+   *
+   * @param source the source file (not <code>null</code>)
+   * @param part a component of the source file (may be empty).
+   * @param extension the file extension for this artifact (not
+   *          <code>null</code>, not empty)
+   * @return the file, or <code>null</code> if the artifact is not stored in a file
+   */
+  File getArtifactFile(Source source, String part, String extension);
+
   /**
    * Gets a writer for an artifact associated with this source. The caller is
    * responsible for closing the writer. Only one artifact may be associated
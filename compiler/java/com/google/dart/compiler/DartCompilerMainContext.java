@@ -10,6 +10,7 @@ import com.google.dart.compiler.metrics.CompilerMetrics;
 import com.google.dart.compiler.parser.DartParser;
 import com.google.dart.compiler.resolver.ResolverErrorCode;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -97,6 +98,11 @@ final class DartCompilerMainContext extends DartCompilerListener implements
     return provider.getArtifactUri(source, part, extension);
   }
 
+  @Override
+  public File getArtifactFile(Source source, String part, String extension) {
+    return provider.getArtifactFile(source, part, extension);
+  }
+
   @Override
   public Writer getArtifactWriter(Source source, String part, String extension)
       throws IOException {
@@ -119,7 +119,8 @@ public class DefaultDartArtifactProvider extends DartArtifactProvider {
    *          <code>null</code>, not empty)
    * @return the artifact file (not <code>null</code>)
    */
-  protected File getArtifactFile(Source source, String part, String extension) {
+  @Override
+  public File getArtifactFile(Source source, String part, String extension) {
     String name = source.getName();
     name = URI.create(name).normalize().toString();
     name = normalizeArtifactName(name);
@@ -23,6 +23,7 @@ import com.google.dart.compiler.resolver.Scope;
 import com.google.dart.compiler.resolver.SupertypeResolver;
 import com.google.dart.compiler.type.TypeAnalyzer;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -167,6 +168,11 @@ class DeltaAnalyzer {
       throw new AssertionError();
     }
 
+    @Override
+    public File getArtifactFile(Source source, String part, String extension) {
+      throw new AssertionError();
+    }
+
     @Override
     public Writer getArtifactWriter(Source source, String part, String extension) {
       throw new AssertionError();
@@ -13,6 +13,7 @@ import com.google.dart.compiler.ast.DartNodeTraverser;
 import com.google.dart.compiler.ast.DartPropertyAccess;
 import com.google.dart.compiler.ast.DartTypeNode;
 import com.google.dart.compiler.ast.DartUnit;
+import com.google.dart.compiler.resolver.ClassElement;
 import com.google.dart.compiler.resolver.Element;
 import com.google.dart.compiler.resolver.ElementKind;
 import com.google.dart.compiler.resolver.EnclosingElement;
@@ -107,6 +108,17 @@ public class LibraryDepsVisitor extends DartNodeTraverser<Void> {
   @Override
   public Void visitClass(DartClass node) {
     currentClass = node;
+
+    // The runtime type markers emitted for a class depend on those of all of its superclasses,
+    // not only on its direct superclass.
+    ClassElement classElement = node.getSymbol();
+    if (classElement != null) {
+      InterfaceType superType = classElement.getSupertype();
+      while (superType != null && !superType.getElement().isObject()) {
+        addElementDependency(superType.getElement());
+        superType = superType.getElement().getSupertype();
+      }
+    }
     node.visitChildren(this);
     currentClass = null;
     return null;
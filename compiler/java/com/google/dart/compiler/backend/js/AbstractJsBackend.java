@@ -16,6 +16,7 @@ import com.google.common.io.Closeables;
 import com.google.dart.compiler.CommandLineOptions.CompilerOptions;
 import com.google.dart.compiler.DartCompilerContext;
 import com.google.dart.compiler.DartSource;
+import com.google.dart.compiler.LibrarySource;
 import com.google.dart.compiler.ast.DartClass;
 import com.google.dart.compiler.ast.DartNode;
 import com.google.dart.compiler.ast.DartUnit;
@@ -460,6 +461,24 @@ public abstract class AbstractJsBackend extends AbstractBackend {
     return sb.toString();
   }
 
+  /**
+   * Diet units carry a synthetic source built from their library's api, so the source a unit was
+   * originally parsed from is looked up through the library.
+   */
+  static DartSource getOriginalSource(LibraryUnit lib, DartUnit unit) {
+    DartSource src = unit.getSource();
+    if (unit.isDiet()) {
+      LibrarySource libSrc = lib.getSource();
+      for (LibraryNode node : lib.getSourcePaths()) {
+        DartSource dartSrc = libSrc.getSourceFor(node.getText());
+        if (dartSrc != null && dartSrc.getName().equals(src.getName())) {
+          return dartSrc;
+        }
+      }
+    }
+    return src;
+  }
+
   protected int writeEntryPointCall(String entry, Writer out) throws IOException {
     // Emit entry point call.
     // TODO: Actually validate that this method exists.
@@ -496,6 +515,14 @@ public abstract class AbstractJsBackend extends AbstractBackend {
       CoreTypeProvider typeProvider) throws IOException {
     // Translate the AST to JS.
     Map<String, JsProgram> parts = translateToJS(unit, context, typeProvider);
+    writeParts(parts, src, context);
+  }
+
+  /**
+   * Writes the text and source map artifacts of the translated parts of a unit.
+   */
+  protected void writeParts(Map<String, JsProgram> parts, DartSource src,
+      DartCompilerContext context) throws IOException {
     String srcName = src.getName();
 
     for (Map.Entry<String, JsProgram> entry : parts.entrySet()) {
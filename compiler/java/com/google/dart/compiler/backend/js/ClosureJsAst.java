@@ -74,6 +74,14 @@ public class ClosureJsAst implements SourceAst {
   }
 
   private void createAst(AbstractCompiler compiler) {
+    createAst();
+  }
+
+  /**
+   * Translates the program ahead of the Closure Compiler asking for it. The translation does not
+   * depend on the compiler, so distinct instances can be translated concurrently.
+   */
+  void createAst() {
     root = new ClosureJsAstTranslator(validate).translate(program, inputId, source);
   }
 }
@@ -0,0 +1,251 @@
+// Copyright (c) 2011, the Dart project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.google.dart.compiler.backend.js;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
+import com.google.dart.compiler.DartSource;
+import com.google.dart.compiler.LibraryDeps;
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.SourceAst;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.rhino.InputId;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.jstype.SimpleSourceFile;
+import com.google.javascript.rhino.jstype.StaticSourceFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the Closure Compiler AST of each part of a unit in a binary artifact. The artifact is
+ * stamped with a fingerprint of the unit's source and of the signatures of its dependencies, so
+ * that an incremental optimized package can hand unchanged units to the Closure Compiler without
+ * parsing their Javascript again.
+ */
+class ClosureJsAstCache {
+
+  private static final int VERSION = 1;
+
+  /**
+   * A Closure input whose AST was read from the cache.
+   */
+  static class CachedAst implements SourceAst {
+    private static final long serialVersionUID = 1L;
+
+    private final Node root;
+    private final InputId inputId;
+
+    CachedAst(Node root, String inputName) {
+      this.root = root;
+      this.inputId = new InputId(inputName);
+    }
+
+    @Override
+    public Node getAstRoot(AbstractCompiler compiler) {
+      return root;
+    }
+
+    @Override
+    public void clearAst() {
+      // The cached tree cannot be rebuilt, so it is kept.
+    }
+
+    @Override
+    public InputId getInputId() {
+      return inputId;
+    }
+
+    @Override
+    public SourceFile getSourceFile() {
+      return null;
+    }
+
+    @Override
+    public void setSourceFile(SourceFile file) {
+      throw new UnsupportedOperationException(
+          "CachedAst cannot be associated with a SourceFile instance.");
+    }
+  }
+
+  /**
+   * Stands in for the (non-serializable) source file attached to the nodes of a tree.
+   */
+  private static class SourceFileReference implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final boolean isExtern;
+
+    SourceFileReference(StaticSourceFile file) {
+      this.name = file.getName();
+      this.isExtern = file.isExtern();
+    }
+  }
+
+  private static class AstOutputStream extends ObjectOutputStream {
+    AstOutputStream(OutputStream out) throws IOException {
+      super(out);
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      if (obj instanceof StaticSourceFile) {
+        return new SourceFileReference((StaticSourceFile) obj);
+      }
+      return obj;
+    }
+  }
+
+  private static class AstInputStream extends ObjectInputStream {
+    private final Map<String, StaticSourceFile> sourceFiles =
+        new LinkedHashMap<String, StaticSourceFile>();
+
+    AstInputStream(InputStream in) throws IOException {
+      super(in);
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) {
+      if (obj instanceof SourceFileReference) {
+        SourceFileReference ref = (SourceFileReference) obj;
+        StaticSourceFile file = sourceFiles.get(ref.name);
+        if (file == null) {
+          file = new SimpleSourceFile(ref.name, ref.isExtern);
+          sourceFiles.put(ref.name, file);
+        }
+        return file;
+      }
+      return obj;
+    }
+  }
+
+  /**
+   * Computes the fingerprint of a unit from the contents of its source and the signatures of the
+   * declarations it depends upon.
+   *
+   * @return the fingerprint, or <code>null</code> if the source cannot be read
+   */
+  static String computeFingerprint(DartSource src, LibraryDeps.Source deps) throws IOException {
+    Reader reader = src.getSourceReader();
+    if (reader == null) {
+      return null;
+    }
+    String content;
+    boolean failed = true;
+    try {
+      content = CharStreams.toString(reader);
+      failed = false;
+    } finally {
+      Closeables.close(reader, failed);
+    }
+
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("Could not find MD5 digest");
+    }
+    StringBuilder sb = new StringBuilder(content);
+    if (deps != null) {
+      List<String> names = Lists.newArrayList(deps.getNodeNames());
+      Collections.sort(names);
+      for (String name : names) {
+        sb.append('\n').append(name);
+        if (!deps.isHole(name)) {
+          LibraryDeps.Dependency dep = deps.getDependency(name);
+          sb.append(' ').append(dep.getLibUri()).append(' ').append(dep.getHash());
+        }
+      }
+    }
+    byte[] digest = md.digest(sb.toString().getBytes("UTF-8"));
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest) {
+      hex.append(Integer.toHexString((b & 0xf0) >> 4));
+      hex.append(Integer.toHexString(b & 0xf));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Writes the trees of the parts of a unit, in the order given.
+   */
+  static void write(File file, String fingerprint, Map<String, Node> roots) throws IOException {
+    File dir = file.getParentFile();
+    if (dir != null) {
+      dir.mkdirs();
+    }
+    ObjectOutputStream out =
+        new AstOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    boolean failed = true;
+    try {
+      out.writeInt(VERSION);
+      out.writeUTF(fingerprint);
+      out.writeInt(roots.size());
+      for (Map.Entry<String, Node> entry : roots.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeObject(entry.getValue());
+      }
+      failed = false;
+    } finally {
+      Closeables.close(out, failed);
+      if (failed) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Reads the trees of the parts of a unit.
+   *
+   * @return the trees by part name, or <code>null</code> if there is no usable artifact for the
+   *         given fingerprint
+   */
+  static Map<String, Node> read(File file, String fingerprint) {
+    if (!file.exists()) {
+      return null;
+    }
+    ObjectInputStream in = null;
+    try {
+      in = new AstInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != VERSION || !in.readUTF().equals(fingerprint)) {
+        return null;
+      }
+      int count = in.readInt();
+      Map<String, Node> roots = new LinkedHashMap<String, Node>();
+      for (int i = 0; i < count; i++) {
+        String part = in.readUTF();
+        roots.put(part, (Node) in.readObject());
+      }
+      return roots;
+    } catch (IOException e) {
+      // A stale or truncated artifact is simply rebuilt.
+      return null;
+    } catch (ClassNotFoundException e) {
+      return null;
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+}
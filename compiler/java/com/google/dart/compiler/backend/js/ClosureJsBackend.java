@@ -5,6 +5,7 @@
 package com.google.dart.compiler.backend.js;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -15,6 +16,7 @@ import com.google.common.io.LimitInputStream;
 import com.google.dart.compiler.DartCompilationError;
 import com.google.dart.compiler.DartCompilerContext;
 import com.google.dart.compiler.DartSource;
+import com.google.dart.compiler.LibraryDeps;
 import com.google.dart.compiler.LibrarySource;
 import com.google.dart.compiler.Source;
 import com.google.dart.compiler.ast.DartUnit;
@@ -40,8 +42,11 @@ import com.google.javascript.jscomp.SourceMap.DetailLevel;
 import com.google.javascript.jscomp.SourceMap.Format;
 import com.google.javascript.jscomp.VariableRenamingPolicy;
 import com.google.javascript.jscomp.WarningLevel;
+import com.google.javascript.rhino.InputId;
+import com.google.javascript.rhino.Node;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
@@ -51,8 +56,14 @@ import java.io.Writer;
 import java.net.URI;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -63,6 +74,7 @@ import java.util.zip.ZipInputStream;
  * @author johnlenz@google.com (John Lenz)
  */
 public class ClosureJsBackend extends AbstractJsBackend {
+  public static final String EXTENSION_JS_AST = "js.ast";
   private static final String EXTENSION_OPT_JS = "opt.js";
   private static final String EXTENSION_OPT_JS_SRC_MAP = "opt.js.map";
 
@@ -124,10 +136,62 @@ public class ClosureJsBackend extends AbstractJsBackend {
     if (!incremental) {
       dartSrcToUnitMap.put(src.getName(), unit);
     } else {
-      super.compileUnit(unit, src, context, typeProvider);
+      Map<String, JsProgram> parts = translateToJS(unit, context, typeProvider);
+      writeParts(parts, src, context);
+      writeClosureJsAst(unit, src, parts, context);
     }
   }
 
+  /**
+   * Caches the Closure Compiler AST of the parts of a unit, when artifacts are stored in files, so
+   * that packaging the unchanged unit later does not have to parse its Javascript.
+   */
+  private void writeClosureJsAst(DartUnit unit, DartSource src, Map<String, JsProgram> parts,
+      DartCompilerContext context) throws IOException {
+    File file = context.getArtifactFile(src, "", EXTENSION_JS_AST);
+    if (file == null) {
+      return;
+    }
+    // The library's deps are only updated once the unit is compiled, so compute them here.
+    LibraryDeps deps = new LibraryDeps();
+    deps.update(unit, context);
+    String fingerprint =
+        ClosureJsAstCache.computeFingerprint(src, deps.getSource(src.getRelativePath()));
+    if (fingerprint == null) {
+      file.delete();
+      return;
+    }
+
+    ClosureJsAstTranslator translator = new ClosureJsAstTranslator(validate);
+    Map<String, Node> roots = new LinkedHashMap<String, Node>();
+    for (Map.Entry<String, JsProgram> part : parts.entrySet()) {
+      String inputName = src.getName() + ':' + part.getKey();
+      roots.put(part.getKey(), translator.translate(part.getValue(), new InputId(inputName), src));
+    }
+    ClosureJsAstCache.write(file, fingerprint, roots);
+  }
+
+  /**
+   * Answers the cached Closure Compiler AST of the parts of a unit, or <code>null</code> if the
+   * unit, or one of the declarations it depends upon, changed since it was cached.
+   */
+  private Map<String, Node> readClosureJsAst(Part part, DartCompilerContext context)
+      throws IOException {
+    DartSource src = part.unit.getSource();
+    File file = context.getArtifactFile(src, "", EXTENSION_JS_AST);
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    DartSource originalSrc = getOriginalSource(part.lib, part.unit);
+    LibraryDeps deps = part.lib.getDeps(context);
+    String fingerprint = ClosureJsAstCache.computeFingerprint(originalSrc,
+        deps.getSource(originalSrc.getRelativePath()));
+    if (fingerprint == null) {
+      return null;
+    }
+    return ClosureJsAstCache.read(file, fingerprint);
+  }
+
   private Map<String, CompilerInput> createClosureJsAst(Map<String,JsProgram> parts, Source source) {
     String name = source.getName();
     Preconditions.checkState(name != null && !name.isEmpty(), "A source name is required");
@@ -149,6 +213,7 @@ public class ClosureJsBackend extends AbstractJsBackend {
     private final List<CompilerInput> inputs;
     private final Map<String, Source> sourcesByName;
     private final Map<DartUnit, Map<String, CompilerInput>> translatedUnits = Maps.newHashMap();
+    private final Map<DartUnit, Map<String, Node>> cachedUnits = Maps.newHashMap();
 
     DepsWritingCallback(
         DartCompilerContext context,
@@ -189,13 +254,26 @@ public class ClosureJsBackend extends AbstractJsBackend {
         return;
       }
 
+      String inputName = src.getName() + ':' + part.part;
+      if (!cachedUnits.containsKey(part.unit)) {
+        cachedUnits.put(part.unit, readClosureJsAst(part, context));
+      }
+      Map<String, Node> cachedParts = cachedUnits.get(part.unit);
+      if (cachedParts != null) {
+        // Parts missing from the cache, like empty statics, have no Javascript either.
+        Node root = cachedParts.get(part.part);
+        if (root != null) {
+          inputs.add(new CompilerInput(new ClosureJsAstCache.CachedAst(root, inputName), false));
+        }
+        return;
+      }
+
       Reader r = context.getArtifactReader(src, part.part, EXTENSION_JS);
       if (r == null) {
         return;
       }
       StringWriter w = new StringWriter();
       CharStreams.copy(r, w);
-      String inputName = src.getName() + ':' + part.part;
       inputs.add(new CompilerInput(createSource(inputName, w), false));
     }
 
@@ -219,6 +297,8 @@ public class ClosureJsBackend extends AbstractJsBackend {
     // Lastly, add the entry point.
     inputs.add(getCompilerInputForEntry(context));
 
+    translateClosureJsAsts(inputs, context);
+
     // Currently, there is only a single module, add all the sources to it.
     JSModule mainModule = new JSModule("main");
     for (CompilerInput input : inputs) {
@@ -237,6 +317,54 @@ public class ClosureJsBackend extends AbstractJsBackend {
     }
   }
 
+  /**
+   * Translates the Dart generated inputs to Closure Compiler trees up front, spreading them over
+   * the configured number of threads. The Closure Compiler would otherwise translate each of them
+   * lazily on its own thread while parsing its inputs.
+   */
+  private void translateClosureJsAsts(List<CompilerInput> inputs, DartCompilerContext context)
+      throws IOException {
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (CompilerInput input : inputs) {
+      if (input != null && input.getAst() instanceof ClosureJsAst) {
+        final ClosureJsAst ast = (ClosureJsAst) input.getAst();
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            ast.createAst();
+            return null;
+          }
+        });
+      }
+    }
+    int threads = context.getCompilerConfiguration().getCompilerOptions().getOptimizeThreads();
+    if (tasks.size() < 2 || threads < 2) {
+      // Leave the translation to the Closure Compiler.
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while translating the inputs of the optimizer");
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new AssertionError(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    CompilerMetrics compilerMetrics = context.getCompilerMetrics();
+    if (compilerMetrics != null) {
+      compilerMetrics.optimizerInputsTranslated(System.currentTimeMillis() - start);
+    }
+  }
+
   private Map<String, CompilerInput> translateUnit(
       DartUnit unit, DartSource src, DartCompilerContext context, CoreTypeProvider typeProvider) {
     Map<String, JsProgram> parts = translateToJS(unit, context, typeProvider);
@@ -338,6 +466,13 @@ public class ClosureJsBackend extends AbstractJsBackend {
     modules.add(module);
     Result result = compiler.compileModules(externs, modules, options);
 
+    CompilerMetrics compilerMetrics = context.getCompilerMetrics();
+    if (compilerMetrics != null && compiler.tracker != null) {
+      for (Map.Entry<String, Long> pass : compiler.tracker.getRuntimeRecord().entrySet()) {
+        compilerMetrics.optimizerPassRan(pass.getKey(), pass.getValue());
+      }
+    }
+
     if (processResults(src, context, compiler, result, module, out) != 0) {
       for (JSError error : result.errors) {
         // Use the real dart source object when we can.
@@ -495,6 +630,11 @@ public class ClosureJsBackend extends AbstractJsBackend {
       options.setReplaceIdGenerators(false);
     }
 
+    // Time the passes of the optimizer when metrics are collected.
+    if (context.getCompilerMetrics() != null) {
+      options.tracer = CompilerOptions.TracerMode.FAST;
+    }
+
     return options;
   }
 
@@ -0,0 +1,67 @@
+// Copyright (c) 2011, the Dart project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.google.dart.compiler.backend.js;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.dart.compiler.backend.js.ast.JsBinaryOperation;
+import com.google.dart.compiler.backend.js.ast.JsBinaryOperator;
+import com.google.dart.compiler.backend.js.ast.JsBlock;
+import com.google.dart.compiler.backend.js.ast.JsExpression;
+import com.google.dart.compiler.backend.js.ast.JsName;
+import com.google.dart.compiler.backend.js.ast.JsProgram;
+import com.google.dart.compiler.backend.js.ast.JsScope;
+import com.google.dart.compiler.backend.js.ast.JsVars;
+import com.google.dart.compiler.common.SourceInfo;
+import com.google.dart.compiler.util.AstUtil;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pools the compile-time constants translated into one {@link JsProgram}. Identical constants
+ * share a single global holding the interned object, so that each constant is only built and
+ * interned the first time it is evaluated rather than every time.
+ */
+class ConstantPool {
+  private final JsScope scope;
+  private final Map<String, JsName> names = Maps.newHashMap();
+  private final List<JsName> undeclaredNames = Lists.newArrayList();
+
+  ConstantPool(JsProgram program) {
+    this.scope = program.getScope();
+  }
+
+  /**
+   * Answers <code>c || (c = intern)</code>, where <code>c</code> is the global shared by all the
+   * constants identical to <code>intern</code>.
+   */
+  JsExpression pool(JsExpression intern, SourceInfo srcRef) {
+    String key = intern.toSource();
+    JsName name = names.get(key);
+    if (name == null) {
+      name = scope.declareTemporary();
+      names.put(key, name);
+      undeclaredNames.add(name);
+    }
+    return new JsBinaryOperation(JsBinaryOperator.OR, name.makeRef(),
+        AstUtil.newAssignment(name.makeRef(), intern)).setSourceRef(srcRef);
+  }
+
+  /**
+   * Declares the globals pooled since the last call at the top of the given block.
+   */
+  void declarePooledNames(JsBlock block) {
+    if (undeclaredNames.isEmpty()) {
+      return;
+    }
+    JsVars jsVars = new JsVars();
+    for (JsName name : undeclaredNames) {
+      jsVars.insert(new JsVars.JsVar(name));
+    }
+    block.getStatements().add(0, jsVars);
+    undeclaredNames.clear();
+  }
+}
@@ -177,6 +177,9 @@ public class GenerateJavascriptAST {
   private final DartUnit unit;
   private final CoreTypeProvider typeProvider;
   private final boolean generateClosureCompatibleCode;
+  // The constants pooled in each program translated by this generator.
+  private final Map<JsProgram, ConstantPool> constantPools =
+      new HashMap<JsProgram, ConstantPool>();
 
   /**
    * Generates the Javascript AST using the names created in {@link GenerateNamesAndScopes}.
@@ -245,6 +248,7 @@ public class GenerateJavascriptAST {
     private ScopeRootInfo currentScopeInfo;
     private JsName traceCounter;
     private final RuntimeTypeInjector rtt;
+    private final ConstantPool constantPool;
 
     private final TranslationContext translationContext;
     private final OptimizationStrategy optStrategy;
@@ -259,7 +263,7 @@ public class GenerateJavascriptAST {
     public GenerateJavascriptVisitor(DartUnit unit, DartCompilerContext context,
         TranslationContext translationContext,
         OptimizationStrategy optStrategy, CoreTypeProvider typeProvider,
-        boolean generateClosureCompatibleCode) {
+        ConstantPool constantPool, boolean generateClosureCompatibleCode) {
       this.context = context;
       this.translationContext = translationContext;
       this.optStrategy = optStrategy;
@@ -267,6 +271,7 @@ public class GenerateJavascriptAST {
       this.typeUtils = Types.getInstance(typeProvider);
       this.unitLibrary = unit.getLibrary().getElement();
       this.generateClosureCompatibleCode = generateClosureCompatibleCode;
+      this.constantPool = constantPool;
 
       // Cache the mangler in a field since it is used frequently
       mangler = translationContext.getMangler();
@@ -2883,7 +2888,7 @@ public class GenerateJavascriptAST {
         JsNameRef consName = AstUtil.newNameRef(classJsName.makeRef(), name);
         newExpr = generateConstructorInvocation(x, consName, element);
         if (x.isConst()) {
-          newExpr = maybeInternConst(newExpr, Types.constructorType(x).getArguments());
+          newExpr = maybeInternConst(x, newExpr, Types.constructorType(x).getArguments());
         }
       } else {
         JsInvocation jsInvocation = AstUtil.newInvocation(new JsNameRef("$nsme2"));
@@ -2906,7 +2911,9 @@ public class GenerateJavascriptAST {
 
     // Compile time constants expressions must be canonicalized.
     // We do this with the javascript native "$intern" method.
-    private JsExpression maybeInternConst(JsExpression newExpr, List<? extends Type> typeParams) {
+    // The interned object is then pooled, so that it is only interned once.
+    private JsExpression maybeInternConst(DartNode x, JsExpression newExpr,
+        List<? extends Type> typeParams) {
       JsInvocation intern = AstUtil.newInvocation(new JsNameRef(INTERN_CONST_FUNCTION), newExpr);
       if (typeParams != null && typeParams.size() != 0) {
         JsArrayLiteral arr = new JsArrayLiteral();
@@ -2921,7 +2928,7 @@ public class GenerateJavascriptAST {
         }
         intern.getArguments().add(arr);
       }
-      return intern;
+      return constantPool.pool(intern, x);
     }
 
     private boolean shouldBindThis(ScopeRootInfo.ClosureInfo info) {
@@ -3211,7 +3218,7 @@ public class GenerateJavascriptAST {
       jsArray.setSourceRef(x);
       JsExpression result = rtt.maybeAddRuntimeTypeForArrayLiteral(getCurrentClass(), x, jsArray);
       if (x.isConst()) {
-        result = this.maybeInternConst(result, x.getType().getArguments());
+        result = this.maybeInternConst(x, result, x.getType().getArguments());
       }
       return result;
     }
@@ -3238,7 +3245,7 @@ public class GenerateJavascriptAST {
       }
       result = AstUtil.newSequence(result, tmpVar.makeRef());
       if (x.isConst()) {
-        result = this.maybeInternConst(result, x.getType().getArguments());
+        result = this.maybeInternConst(x, result, x.getType().getArguments());
       }
       return result;
     }
@@ -3845,11 +3852,18 @@ public class GenerateJavascriptAST {
 
   public void translateNode(TranslationContext translationContext, DartNode node,
       JsBlock blockStatics) {
+    JsProgram program = translationContext.getProgram();
+    ConstantPool constantPool = constantPools.get(program);
+    if (constantPool == null) {
+      constantPool = new ConstantPool(program);
+      constantPools.put(program, constantPool);
+    }
     GenerateJavascriptVisitor generator =
         new GenerateJavascriptVisitor(unit, context, translationContext,
-            optStrategy, typeProvider, generateClosureCompatibleCode);
+            optStrategy, typeProvider, constantPool, generateClosureCompatibleCode);
     // Generate the Javascript AST.
     node.accept(generator);
+    constantPool.declarePooledNames(program.getGlobalBlock());
     // Set aside the static initializations
     generator.addStaticInitsToBlock(blockStatics);
   }
@@ -0,0 +1,425 @@
+// Copyright (c) 2011, the Dart project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.google.dart.compiler.backend.js;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
+import com.google.dart.compiler.DartCompilerContext;
+import com.google.dart.compiler.DartSource;
+import com.google.dart.compiler.LibrarySource;
+import com.google.dart.compiler.ast.LibraryNode;
+import com.google.dart.compiler.ast.LibraryUnit;
+import com.google.dart.compiler.backend.js.AbstractJsBackend.DependencyBuilder;
+import com.google.dart.compiler.backend.js.AbstractJsBackend.DepsCallback;
+import com.google.dart.compiler.backend.js.AbstractJsBackend.Part;
+import com.google.debugging.sourcemap.SourceMapSection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Concatenates the Javascript parts of an application, in dependency order, into a single
+ * artifact. A manifest describing each packaged segment is written alongside the artifact so that
+ * the next incremental package can copy the segments of units which were not recompiled out of the
+ * previous output rather than re-reading their part artifacts. When the artifact is stored in a
+ * file, those segments are spliced with {@link FileChannel#transferTo}.
+ */
+class IncrementalPackager {
+
+  private static final String MANIFEST_VERSION = "v1";
+  private static final String ENTRY_POINT_KEY = "entry:";
+
+  /**
+   * A contiguous range of the packaged output produced by one part, native library or the entry
+   * point call.
+   */
+  private static class Segment {
+    final String key;
+    final long lastModified;
+    String mapUrl;
+    long charLength;
+    long byteLength = -1;
+    int lineCount;
+    int lastColumn;
+    long hash;
+
+    // Offsets into the output described by a manifest.
+    long charOffset;
+    long byteOffset;
+
+    // Either the segment of the previous output being reused, or the freshly read content.
+    Segment previous;
+    String content;
+
+    Segment(String key, long lastModified) {
+      this.key = key;
+      this.lastModified = lastModified;
+    }
+
+    void setContent(String content) {
+      this.content = content;
+      charLength = content.length();
+      // FNV-1a over the characters of the segment.
+      hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < content.length(); i++) {
+        char c = content.charAt(i);
+        hash = (hash ^ c) * 0x100000001b3L;
+        if (c == '\n') {
+          lineCount++;
+          lastColumn = 0;
+        } else {
+          lastColumn++;
+        }
+      }
+    }
+
+    void reuse(Segment previous) {
+      this.previous = previous;
+      mapUrl = previous.mapUrl;
+      charLength = previous.charLength;
+      byteLength = previous.byteLength;
+      lineCount = previous.lineCount;
+      lastColumn = previous.lastColumn;
+      hash = previous.hash;
+    }
+
+    boolean isSameAs(Segment other) {
+      return key.equals(other.key) && charLength == other.charLength && hash == other.hash;
+    }
+  }
+
+  private class PlanningCallback implements DepsCallback {
+    @Override
+    public void visitNative(LibraryUnit libUnit, LibraryNode node) throws IOException {
+      DartSource nativeSrc = libUnit.getSource().getSourceFor(node.getText());
+      Segment segment = new Segment("native:" + nativeSrc.getName(), nativeSrc.getLastModified());
+      Segment previous = getReusableSegment(segment);
+      if (previous != null) {
+        segment.reuse(previous);
+      } else {
+        segment.setContent(readFully(nativeSrc.getSourceReader()));
+      }
+      segments.add(segment);
+    }
+
+    @Override
+    public void visitPart(Part part) throws IOException {
+      DartSource src = part.unit.getSource();
+      assert(src != null);
+      Segment segment = new Segment("part:" + src.getName() + "$" + part.part,
+          AbstractJsBackend.getOriginalSource(part.lib, part.unit).getLastModified());
+
+      // Diet units were not recompiled, so their part artifacts are the ones already packaged.
+      Segment previous = part.unit.isDiet() ? getReusableSegment(segment) : null;
+      if (previous != null) {
+        segment.reuse(previous);
+      } else {
+        Reader r = context.getArtifactReader(src, part.part, AbstractJsBackend.EXTENSION_JS);
+        segment.setContent(r != null ? readFully(r) : "");
+        if (segment.charLength > 0) {
+          segment.mapUrl = context.getArtifactUri(src, part.part,
+              AbstractJsBackend.EXTENSION_JS_SRC_MAP).toString();
+        }
+      }
+      segments.add(segment);
+    }
+  }
+
+  private final LibrarySource app;
+  private final String artifactName;
+  private final DartCompilerContext context;
+  private final List<Segment> segments = Lists.newArrayList();
+
+  private List<Segment> previousSegments;
+  private Map<String, Segment> previousSegmentsByKey;
+  private String previousOutput;
+  private File previousFile;
+  private boolean rewritten;
+
+  IncrementalPackager(LibrarySource app, String artifactName, DartCompilerContext context) {
+    this.app = app;
+    this.artifactName = artifactName;
+    this.context = context;
+  }
+
+  /**
+   * Packages the application and appends its source map sections to <code>appSections</code>.
+   *
+   * @param entryPointCall the Javascript which invokes the application entry point
+   * @return the number of characters in the packaged output
+   */
+  long packageApp(String entryPointCall, List<SourceMapSection> appSections) throws IOException {
+    if (context.getCompilerConfiguration().incremental()) {
+      loadPreviousPackage();
+    }
+
+    DependencyBuilder.build(context.getAppLibraryUnit(), new PlanningCallback());
+    Segment entry = new Segment(ENTRY_POINT_KEY, 0);
+    entry.setContent(entryPointCall);
+    segments.add(entry);
+
+    rewritten = !isSameAsPreviousPackage();
+    if (rewritten) {
+      File file = context.getArtifactFile(app, "", artifactName);
+      if (file != null) {
+        writeToFile(file);
+      } else {
+        writeToArtifact();
+      }
+      writeManifest();
+    }
+
+    long charCount = 0;
+    int line = 0;
+    int column = 0;
+    for (Segment segment : segments) {
+      if (segment.mapUrl != null && segment.charLength > 0) {
+        appSections.add(SourceMapSection.forURL(segment.mapUrl, line, column));
+      }
+      if (segment.lineCount > 0) {
+        line += segment.lineCount;
+        column = segment.lastColumn;
+      } else {
+        column += segment.lastColumn;
+      }
+      charCount += segment.charLength;
+    }
+    return charCount;
+  }
+
+  /**
+   * Answer <code>true</code> if the packaged output was written, or <code>false</code> if the
+   * output of the previous package was left in place because nothing in it changed.
+   */
+  boolean wasRewritten() {
+    return rewritten;
+  }
+
+  private Segment getReusableSegment(Segment segment) {
+    if (previousSegmentsByKey == null) {
+      return null;
+    }
+    Segment previous = previousSegmentsByKey.get(segment.key);
+    if (previous == null || previous.lastModified != segment.lastModified) {
+      return null;
+    }
+    return previous;
+  }
+
+  private boolean isSameAsPreviousPackage() {
+    if (previousSegments == null || previousSegments.size() != segments.size()) {
+      return false;
+    }
+    for (int i = 0; i < segments.size(); i++) {
+      if (!segments.get(i).isSameAs(previousSegments.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the manifest of the previous package and checks that the output it describes is still
+   * there. If not, every segment is packaged from its artifact.
+   */
+  private void loadPreviousPackage() throws IOException {
+    Reader r = context.getArtifactReader(app, "", JavascriptBackend.EXTENSION_APP_JS_MANIFEST);
+    if (r == null) {
+      return;
+    }
+    List<Segment> manifest = readManifest(r);
+    if (manifest == null) {
+      return;
+    }
+
+    long charCount = 0;
+    long byteCount = 0;
+    for (Segment segment : manifest) {
+      segment.charOffset = charCount;
+      segment.byteOffset = byteCount;
+      charCount += segment.charLength;
+      byteCount = (byteCount < 0 || segment.byteLength < 0) ? -1 : byteCount + segment.byteLength;
+    }
+
+    File file = context.getArtifactFile(app, "", artifactName);
+    if (file != null) {
+      if (byteCount < 0 || !file.isFile() || file.length() != byteCount) {
+        return;
+      }
+      previousFile = file;
+    } else {
+      Reader output = context.getArtifactReader(app, "", artifactName);
+      if (output == null) {
+        return;
+      }
+      previousOutput = readFully(output);
+      if (previousOutput.length() != charCount) {
+        previousOutput = null;
+        return;
+      }
+    }
+
+    previousSegments = manifest;
+    previousSegmentsByKey = Maps.newHashMap();
+    for (Segment segment : manifest) {
+      previousSegmentsByKey.put(segment.key, segment);
+    }
+  }
+
+  /**
+   * Writes the output through a temporary file in the same directory, copying reused segments
+   * directly from the previous output, and then replaces the artifact with it.
+   */
+  private void writeToFile(File file) throws IOException {
+    File tempFile = new File(file.getPath() + ".tmp");
+    tempFile.getParentFile().mkdirs();
+    Charset charset = Charset.defaultCharset();
+    FileInputStream in = previousFile != null ? new FileInputStream(previousFile) : null;
+    FileOutputStream out = new FileOutputStream(tempFile);
+    boolean failed = true;
+    try {
+      FileChannel inChannel = in != null ? in.getChannel() : null;
+      FileChannel outChannel = out.getChannel();
+      for (Segment segment : segments) {
+        if (segment.previous != null) {
+          long position = segment.previous.byteOffset;
+          long remaining = segment.previous.byteLength;
+          while (remaining > 0) {
+            long transferred = inChannel.transferTo(position, remaining, outChannel);
+            if (transferred <= 0) {
+              throw new IOException("Unexpected end of " + previousFile);
+            }
+            position += transferred;
+            remaining -= transferred;
+          }
+        } else {
+          ByteBuffer bytes = charset.encode(segment.content);
+          segment.byteLength = bytes.remaining();
+          while (bytes.hasRemaining()) {
+            outChannel.write(bytes);
+          }
+        }
+      }
+      failed = false;
+    } finally {
+      Closeables.close(in, failed);
+      Closeables.close(out, failed);
+      if (failed) {
+        tempFile.delete();
+      }
+    }
+
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Could not replace " + file);
+    }
+    if (!tempFile.renameTo(file)) {
+      throw new IOException("Could not rename " + tempFile + " to " + file);
+    }
+  }
+
+  private void writeToArtifact() throws IOException {
+    Writer out = context.getArtifactWriter(app, "", artifactName);
+    boolean failed = true;
+    try {
+      for (Segment segment : segments) {
+        if (segment.previous != null) {
+          out.write(previousOutput, (int) segment.previous.charOffset,
+              (int) segment.previous.charLength);
+        } else {
+          out.write(segment.content);
+        }
+      }
+      failed = false;
+    } finally {
+      Closeables.close(out, failed);
+    }
+  }
+
+  private void writeManifest() throws IOException {
+    Writer out = context.getArtifactWriter(app, "", JavascriptBackend.EXTENSION_APP_JS_MANIFEST);
+    boolean failed = true;
+    try {
+      out.write(MANIFEST_VERSION);
+      out.write('\n');
+      for (Segment segment : segments) {
+        out.write(segment.key);
+        out.write('\t');
+        out.write(Long.toString(segment.lastModified));
+        out.write('\t');
+        out.write(Long.toString(segment.charLength));
+        out.write('\t');
+        out.write(Long.toString(segment.byteLength));
+        out.write('\t');
+        out.write(Integer.toString(segment.lineCount));
+        out.write('\t');
+        out.write(Integer.toString(segment.lastColumn));
+        out.write('\t');
+        out.write(Long.toString(segment.hash));
+        out.write('\t');
+        out.write(segment.mapUrl != null ? segment.mapUrl : "");
+        out.write('\n');
+      }
+      failed = false;
+    } finally {
+      Closeables.close(out, failed);
+    }
+  }
+
+  /**
+   * @return the segments described by the manifest, or <code>null</code> if it is not readable
+   */
+  private static List<Segment> readManifest(Reader r) throws IOException {
+    BufferedReader reader = new BufferedReader(r);
+    try {
+      if (!MANIFEST_VERSION.equals(reader.readLine())) {
+        return null;
+      }
+      List<Segment> manifest = Lists.newArrayList();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 8) {
+          return null;
+        }
+        Segment segment = new Segment(fields[0], Long.parseLong(fields[1]));
+        segment.charLength = Long.parseLong(fields[2]);
+        segment.byteLength = Long.parseLong(fields[3]);
+        segment.lineCount = Integer.parseInt(fields[4]);
+        segment.lastColumn = Integer.parseInt(fields[5]);
+        segment.hash = Long.parseLong(fields[6]);
+        segment.mapUrl = fields[7].isEmpty() ? null : fields[7];
+        manifest.add(segment);
+      }
+      return manifest;
+    } catch (NumberFormatException e) {
+      return null;
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+  }
+
+  private static String readFully(Reader r) throws IOException {
+    boolean failed = true;
+    try {
+      String content = CharStreams.toString(r);
+      failed = false;
+      return content;
+    } finally {
+      Closeables.close(r, failed);
+    }
+  }
+}
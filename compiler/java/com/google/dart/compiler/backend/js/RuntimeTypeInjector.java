@@ -77,6 +77,7 @@ import com.google.dart.compiler.type.TypeKind;
 import com.google.dart.compiler.type.TypeVariable;
 import com.google.dart.compiler.type.Types;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -96,6 +97,8 @@ public class RuntimeTypeInjector {
   private CoreTypeProvider typeProvider;
   private final TranslationContext translationContext;
   private final Types types;
+  // The interfaces marked on instances of each class.
+  private final Map<ClassElement, Set<ClassElement>> markersByClass = Maps.newHashMap();
 
   RuntimeTypeInjector(
       TraversalContextProvider context,
@@ -136,19 +139,50 @@ public class RuntimeTypeInjector {
   private void injectInterfaceMarkers(ClassElement classElement, SourceInfo srcRef) {
     JsProgram program = translationContext.getProgram();
     JsName classJsName = translationContext.getNames().getName(classElement);
-    for (InterfaceType iface : getAllInterfaces(classElement)) {
+    // Markers already set on the superclass prototypes are found through the prototype chain.
+    Set<ClassElement> inherited = getInheritedMarkers(classElement);
+    for (ClassElement iface : getMarkers(classElement)) {
+      if (inherited.contains(iface)) {
+        continue;
+      }
       JsStatement assignment = (JsStatement) newAssignment(
         newNameRef(
            newNameRef(new JsNameRef(classJsName), "prototype"),
-           "$implements$" + translationContext.getMangler().mangleClassName(iface.getElement())),
+           "$implements$" + translationContext.getMangler().mangleClassName(iface)),
         program.getNumberLiteral(1)).makeStmt().setSourceRef(srcRef);
       globalBlock.getStatements().add(assignment);
     }
   }
 
+  /**
+   * Answers the interfaces marked on the prototypes of the superclasses of the given class.
+   */
+  private Set<ClassElement> getInheritedMarkers(ClassElement classElement) {
+    InterfaceType superType = classElement.getSupertype();
+    if (superType == null || superType.getElement().isObject()) {
+      return Collections.emptySet();
+    }
+    return getMarkers(superType.getElement());
+  }
+
+  /**
+   * Answers the interfaces marked on instances of the given class, either on its own prototype or
+   * on those of its superclasses. Each class's set is computed once and shared by its subclasses.
+   */
+  private Set<ClassElement> getMarkers(ClassElement classElement) {
+    Set<ClassElement> markers = markersByClass.get(classElement);
+    if (markers == null) {
+      markers = Sets.newLinkedHashSet();
+      for (InterfaceType iface : getAllInterfaces(classElement)) {
+        markers.add(iface.getElement());
+      }
+      markers.addAll(getInheritedMarkers(classElement));
+      markersByClass.put(classElement, markers);
+    }
+    return markers;
+  }
+
   private Set<InterfaceType> getAllInterfaces(ClassElement classElement) {
-    // TODO(johnlenz): All interfaces here should not include the super class implemented interfaces
-    // those are handled by the super-class definition.
     Set<InterfaceType> interfaces = Sets.newLinkedHashSet();
     if (classElement.getType() == null) {
       throw new InternalCompilerException("type is null on ClassElement " + classElement);
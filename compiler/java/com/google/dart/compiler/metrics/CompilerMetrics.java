@@ -7,6 +7,9 @@ package com.google.dart.compiler.metrics;
 import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -46,6 +49,9 @@ public final class CompilerMetrics {
   private long nanoParseWallTime = 0;
   private AtomicLong nanoTotalParseTime = new AtomicLong();
   private long nativeLibCharCount;
+  // Optimizer metrics
+  private long optimizerInputTranslationTime = 0L;
+  private final Map<String, Long> optimizerPassTimes = new TreeMap<String, Long>();
   private long packageAppTime = 0L;
   private long packageAppTimeStart = 0L;
   // JavascriptBackend Data
@@ -133,6 +139,17 @@ public final class CompilerMetrics {
     return unitsParsed.get();
   }
 
+  public long getOptimizerInputTranslationTime() {
+    return optimizerInputTranslationTime;
+  }
+
+  /**
+   * Returns the time spent in each pass of the optimizer, by pass name.
+   */
+  public Map<String, Long> getOptimizerPassTimes() {
+    return Collections.unmodifiableMap(optimizerPassTimes);
+  }
+
   public long getPackageAppTime() {
     return packageAppTime;
   }
@@ -194,6 +211,21 @@ public final class CompilerMetrics {
     this.nativeLibCharCount = nativeLibCharCount;
   }
   
+  /**
+   * Records the wall time spent translating the inputs of the optimizer to its AST.
+   */
+  public void optimizerInputsTranslated(long millis) {
+    optimizerInputTranslationTime += millis;
+  }
+
+  /**
+   * Records the time spent in a pass of the optimizer. Passes that run several times accumulate.
+   */
+  public void optimizerPassRan(String pass, long millis) {
+    Long total = optimizerPassTimes.get(pass);
+    optimizerPassTimes.put(pass, total == null ? millis : total + millis);
+  }
+
   public void startCompileLibrariesTime() {
     compileLibrariesTimeStart = System.currentTimeMillis();
   }
@@ -227,6 +259,13 @@ public final class CompilerMetrics {
     out.format("# Update-and-resolve-time-ms     : %d\n", getUpdateAndResolveTime());
     out.format("# Compile-libraries-time-ms      : %d\n", getCompileLibrariesTime());
     out.format("# Package-app-time-ms            : %d\n", getPackageAppTime());
+    if (!optimizerPassTimes.isEmpty()) {
+      out.format("# Optimizer-input-time-ms        : %d\n", getOptimizerInputTranslationTime());
+      for (Map.Entry<String, Long> pass : optimizerPassTimes.entrySet()) {
+        String label = "Optimizer-pass-" + pass.getKey() + "-ms";
+        out.format("# %-30s : %d\n", label, pass.getValue());
+      }
+    }
     out.println("# Compile-time-unit-average-ms  : " + getTimeSpentPerUnit());
     out.format("# Parse-wall-time-ms             : %1$.2f%n", getParseWallTime());
     out.format("# Parse-time-ms                  : %1$.2f%n", getParseTime());
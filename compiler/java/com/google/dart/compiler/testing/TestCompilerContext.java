@@ -18,6 +18,7 @@ import com.google.dart.compiler.ast.DartUnit;
 import com.google.dart.compiler.ast.LibraryUnit;
 import com.google.dart.compiler.metrics.CompilerMetrics;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -98,6 +99,11 @@ public class TestCompilerContext extends DartCompilerListener implements DartCom
     throw new AssertionError(source.getName() + " " + part + "." + extension);
   }
 
+  @Override
+  public File getArtifactFile(Source source, String part, String extension) {
+    throw new AssertionError(source.getName() + " " + part + "." + extension);
+  }
+
   @Override
   public Writer getArtifactWriter(Source source, String part, String extension) throws IOException {
     throw new AssertionError(source.getName() + " " + part + "." + extension);
@@ -5,6 +5,11 @@
 package com.google.dart.compiler.backend.js;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author johnlenz@google.com (John Lenz)
@@ -18,7 +23,8 @@ public class RttTest extends SnippetTestCase {
 
     {
       String init = findMarkerAtOccurrence(js, "_marker_B1", DELIMETERS, 1);
-      assertEquals("var _marker_B1 = $intern(Test_app4a54ba$B$Dart.B$$Factory())", init);
+      assertEquals("var _marker_B1 = tmp$b59d555$0 || "
+          + "(tmp$b59d555$0 = $intern(Test_app4a54ba$B$Dart.B$$Factory()))", init);
 
       String expr = findMarkerAtOccurrence(js, "_marker_B1", "[\\n;]", 2);
       assertEquals("a = !!(tmp$0 = _marker_B1 , tmp$0 != null && tmp$0.$implements$Test_app4a54ba$B$Dart)", expr);
@@ -29,9 +35,16 @@ public class RttTest extends SnippetTestCase {
       assertEquals("var _marker_B2 = Test_app4a54ba$B$Dart.B$$Factory()", init);
     }
 
+    {
+      // Identical constants share the same pooled value.
+      String init = findMarkerAtOccurrence(js, "_marker_B3", DELIMETERS, 1);
+      assertEquals("var _marker_B3 = tmp$b59d555$0 || "
+          + "(tmp$b59d555$0 = $intern(Test_app4a54ba$B$Dart.B$$Factory()))", init);
+    }
+
     {
       String init = findMarkerAtOccurrence(js, "_marker_C1", DELIMETERS, 1);
-      assertEquals("var _marker_C1 = $intern("
+      assertEquals("var _marker_C1 = tmp$b59d555$1 || (tmp$b59d555$1 = $intern("
           + "Test_app4a54ba$C$Dart.C$$Factory("
               + "Test_app4a54ba$C$Dart.$lookupRTT())", init);
 
@@ -41,7 +54,8 @@ public class RttTest extends SnippetTestCase {
 
     {
       String init = findMarkerAtOccurrence(js, "_marker_C2", DELIMETERS, 1);
-      assertEquals("var _marker_C2 = $intern(Test_app4a54ba$C$Dart.C$$Factory("
+      assertEquals("var _marker_C2 = tmp$b59d555$2 || (tmp$b59d555$2 = "
+          + "$intern(Test_app4a54ba$C$Dart.C$$Factory("
           + "Test_app4a54ba$C$Dart.$lookupRTT([String$Dart.$lookupRTT()]))", init);
 
       String expr = findMarkerAtOccurrence(js, "_marker_C2", DELIMETERS, 2);
@@ -75,4 +89,22 @@ public class RttTest extends SnippetTestCase {
       assertEquals("a = !!(tmp$2 = _marker_D1 , tmp$2 != null && tmp$2.$implements$Test_app4a54ba$D$Dart)", expr);
     }
   }
+
+  public void testInterfaceMarkers() throws IOException {
+    // Each class only marks the interfaces its superclasses have not already marked.
+    assertEquals(Arrays.asList("A", "J", "I"),
+        getInterfaceMarkers(compileSingleUnit(getName(), "A")));
+    assertEquals(Arrays.asList("B"), getInterfaceMarkers(compileSingleUnit(getName(), "B")));
+    assertEquals(Arrays.asList("C"), getInterfaceMarkers(compileSingleUnit(getName(), "C")));
+  }
+
+  private static List<String> getInterfaceMarkers(String js) {
+    List<String> markers = new ArrayList<String>();
+    Matcher m = Pattern.compile(
+        "\\.prototype\\.\\$implements\\$Test_app4a54ba\\$(\\w+)\\$Dart = 1").matcher(js);
+    while (m.find()) {
+      markers.add(m.group(1));
+    }
+    return markers;
+  }
 }
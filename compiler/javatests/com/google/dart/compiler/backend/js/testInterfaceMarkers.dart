@@ -0,0 +1,29 @@
+// Copyright (c) 2011, the Dart project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+interface I {
+}
+
+interface J extends I {
+}
+
+class A implements J {
+  A() {}
+}
+
+class B extends A implements I {
+  B() : super() {}
+}
+
+class C extends B implements J {
+  C() : super() {}
+}
+
+class Main {
+
+  static void main() {
+    var c = new C();
+    var a = c is I && c is J && c is A;
+  }
+}
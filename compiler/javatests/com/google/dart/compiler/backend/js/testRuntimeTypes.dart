@@ -23,6 +23,7 @@ class Main {
     var _marker_0 = 1;
     var _marker_B1 = const B();
     var _marker_B2 = new B();
+    var _marker_B3 = const B();
     var _marker_C1 = const C();
     var _marker_C2 = const C<String>();
     var _marker_C3 = new C();
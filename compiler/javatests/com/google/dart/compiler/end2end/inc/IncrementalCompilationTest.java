@@ -6,7 +6,9 @@ package com.google.dart.compiler.end2end.inc;
 
 import static com.google.dart.compiler.DartCompiler.EXTENSION_API;
 import static com.google.dart.compiler.DartCompiler.EXTENSION_DEPS;
+import static com.google.dart.compiler.backend.js.ClosureJsBackend.EXTENSION_JS_AST;
 import static com.google.dart.compiler.backend.js.JavascriptBackend.EXTENSION_APP_JS;
+import static com.google.dart.compiler.backend.js.JavascriptBackend.EXTENSION_APP_JS_COMPLETE;
 import static com.google.dart.compiler.backend.js.JavascriptBackend.EXTENSION_JS;
 
 import com.google.dart.compiler.CompilerTestCase;
@@ -18,10 +20,12 @@ import com.google.dart.compiler.LibrarySource;
 import com.google.dart.compiler.MockArtifactProvider;
 import com.google.dart.compiler.MockBundleLibrarySource;
 import com.google.dart.compiler.Source;
+import com.google.dart.compiler.backend.js.ClosureJsBackend;
 import com.google.dart.compiler.backend.js.JavascriptBackend;
 
 import junit.framework.AssertionFailedError;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -174,6 +178,65 @@ public class IncrementalCompilationTest extends CompilerTestCase {
     didNotWrite("myother2.dart", EXTENSION_JS, provider);
   }
 
+  public void testTouchOneSource_packageReusesUnchangedParts() {
+    compile();
+
+    provider.resetReadsAndWrites();
+    myAppSource.touchSource("my.dart");
+    compile();
+
+    // Only the recompiled unit should be read back when packaging the app.
+    didRead("my.dart", EXTENSION_JS, provider);
+    didNotRead("someimpl.dart", EXTENSION_JS, provider);
+    didNotRead("some.dart", EXTENSION_JS, provider);
+    didNotRead("myother0.dart", EXTENSION_JS, provider);
+    didNotRead("myother1.dart", EXTENSION_JS, provider);
+    didNotRead("myother2.dart", EXTENSION_JS, provider);
+
+    // The result must be the same as packaging everything from scratch.
+    String incrementalApp = provider.getArtifactString(myAppSource, "", EXTENSION_APP_JS_COMPLETE);
+    provider = new IncMockArtifactProvider();
+    compile();
+    assertEquals(provider.getArtifactString(myAppSource, "", EXTENSION_APP_JS_COMPLETE),
+        incrementalApp);
+  }
+
+  public void testTouchOneSource_closurePackageUsesCachedAst() throws IOException {
+    final File astDir = File.createTempFile(getClass().getSimpleName(), null);
+    astDir.delete();
+    astDir.mkdirs();
+    config = new DefaultCompilerConfiguration(new ClosureJsBackend(false, true, true, false, false));
+    provider = new IncMockArtifactProvider() {
+      @Override
+      public File getArtifactFile(Source source, String part, String extension) {
+        if (!extension.equals(EXTENSION_JS_AST)) {
+          return null;
+        }
+        return new File(astDir, source.getName().replace('/', '_') + part + "." + extension);
+      }
+    };
+    try {
+      compile();
+      String fullApp = provider.getArtifactString(myAppSource, "", EXTENSION_APP_JS);
+
+      provider.resetReadsAndWrites();
+      myAppSource.touchSource("my.dart");
+      compile();
+
+      // Every unit, recompiled or not, should be handed to Closure from its cached AST.
+      didNotRead("my.dart", EXTENSION_JS, provider);
+      didNotRead("someimpl.dart", EXTENSION_JS, provider);
+      didNotRead("some.dart", EXTENSION_JS, provider);
+      didNotRead("myother0.dart", EXTENSION_JS, provider);
+      assertEquals(fullApp, provider.getArtifactString(myAppSource, "", EXTENSION_APP_JS));
+    } finally {
+      for (File file : astDir.listFiles()) {
+        file.delete();
+      }
+      astDir.delete();
+    }
+  }
+
   public void testNormalizationTracking() {
     compile();
 
@@ -749,6 +812,16 @@ public class IncrementalCompilationTest extends CompilerTestCase {
     }
   }
 
+  private void didRead(String sourceName, String extension, IncMockArtifactProvider provider) {
+    String spec = sourceName + "/" + extension;
+    assertTrue("Expected read: " + spec, provider.reads.contains(spec));
+  }
+
+  private void didNotRead(String sourceName, String extension, IncMockArtifactProvider provider) {
+    String spec = sourceName + "/" + extension;
+    assertFalse("Didn't expect read: " + spec, provider.reads.contains(spec));
+  }
+
   private void didWrite(String sourceName, String extension, IncMockArtifactProvider provider) {
     String spec = sourceName + "/" + extension;
     assertTrue("Expected write: " + spec, provider.writes.contains(spec));
@@ -54,6 +54,12 @@ public interface IndexerDebugOptions {
 
   public static final String MISCELLANEOUS = "com.google.dart.indexer/debug/miscellaneous";
 
+  /**
+   * The name of the option used to control whether tracing output should be produced for every
+   * page looked up in the page cache. The output can be replayed by <code>CacheReplay</code>.
+   */
+  public static final String PAGE_ACCESSES = "com.google.dart.indexer/debug/pageAccesses";
+
   public static final String RARE_ANOMALIES = "com.google.dart.indexer/debug/rareAnomalies";
 
   public static final String SESSION_LIFETIME = "com.google.dart.indexer/debug/sessionLifetime";
@@ -93,6 +93,13 @@ public class IndexSession {
     return diskBackedIndexImpl;
   }
 
+  public void beginBulkLoad() {
+    if (disposed) {
+      throw new IllegalStateException("Index session has already been disposed");
+    }
+    storage.beginBulkLoad();
+  }
+
   public IndexTransaction createTransaction(Index index) {
     if (disposed) {
       throw new IllegalStateException("Index session has already been disposed");
@@ -118,6 +125,13 @@ public class IndexSession {
         "IndexSession#" + id + " disposed");
   }
 
+  public void endBulkLoad() {
+    if (disposed) {
+      throw new IllegalStateException("Index session has already been disposed");
+    }
+    storage.endBulkLoad();
+  }
+
   public void flushCaches() {
     if (disposed) {
       throw new IllegalStateException("Index session has already been disposed");
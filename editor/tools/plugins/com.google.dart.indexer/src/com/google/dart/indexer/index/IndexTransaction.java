@@ -27,6 +27,7 @@ import com.google.dart.indexer.index.entries.LocationInfo;
 import com.google.dart.indexer.index.layers.Layer;
 import com.google.dart.indexer.index.updating.FileInfoUpdater;
 import com.google.dart.indexer.index.updating.FileInfoUpdaterImpl;
+import com.google.dart.indexer.index.updating.RecordingFileInfoUpdater;
 import com.google.dart.indexer.locations.Location;
 import com.google.dart.indexer.source.IndexableSource;
 import com.google.dart.indexer.storage.FileTransaction;
@@ -95,6 +96,59 @@ public class IndexTransaction {
     return targetsWithErrors.toArray(new IndexingTarget[targetsWithErrors.size()]);
   }
 
+  /**
+   * Record the information that the processors of the given configuration contribute for the given
+   * target, without accessing the storage. This method can be invoked concurrently from several
+   * threads, provided that each of them uses its own configuration instance.
+   * 
+   * @param target the target to be processed
+   * @param configuration the configuration whose processors are to be run
+   * @return the recorded updates, or <code>null</code> if no processor handles the target
+   * @see IndexConfigurationInstance#createPeer()
+   */
+  public static RecordingFileInfoUpdater recordTarget(IndexingTarget target,
+      IndexConfigurationInstance configuration) throws IndexRequestFailed {
+    try {
+      Processor[] processors = configuration.findProcessors(target.getFile());
+      if (processors.length == 0) {
+        return null;
+      }
+      RecordingFileInfoUpdater updater = new RecordingFileInfoUpdater();
+      for (int i = 0; i < processors.length; i++) {
+        processors[i].processTarget(target, updater);
+      }
+      return updater;
+    } catch (IndexRequestFailedUnchecked e) {
+      throw e.unwrap();
+    }
+  }
+
+  /**
+   * Replace the information stored for the given target by the updates that were recorded for it.
+   * 
+   * @param target the target whose information is to be replaced
+   * @param updates the updates recorded by {@link #recordTarget(IndexingTarget,
+   *          IndexConfigurationInstance)}, or <code>null</code> if no processor handles the target
+   */
+  public void applyTarget(IndexingTarget target, RecordingFileInfoUpdater updates)
+      throws IndexRequestFailed {
+    if (updates == null) {
+      return;
+    }
+    try {
+      IFile file = target.getFile();
+      if (TRACE_INDEXED_FILES) {
+        IndexerPlugin.getLogger().trace("Indexing " + file.getFullPath());
+      }
+      FileTransaction fileTransaction = storageTransaction.createFileTransaction(file);
+      removeInformationThatWillBeReconstructed(file, fileTransaction.getOriginalFileInfo());
+      updates.replay(new FileInfoUpdaterImpl(fileTransaction, file));
+      fileTransaction.commit();
+    } catch (IndexRequestFailedUnchecked e) {
+      throw e.unwrap();
+    }
+  }
+
   public void indexTarget(IndexingTarget target) throws IndexRequestFailed {
     try {
       IFile file = target.getFile();
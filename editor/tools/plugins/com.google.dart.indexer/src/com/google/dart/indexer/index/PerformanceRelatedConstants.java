@@ -19,4 +19,81 @@ public class PerformanceRelatedConstants {
   public static final int BUILDING_LOCATION_CACHE = 512;
 
   public static final int READING_LOCATION_CACHE = 128;
+
+  /**
+   * The name of the system property that, when set to <code>true</code>, turns off the indexing
+   * workers so that every target is processed and written by the indexing thread itself.
+   */
+  public static final String SERIAL_INDEXING_PROPERTY = "com.google.dart.indexer.serialIndexing";
+
+  /**
+   * The number of threads that process targets while the index is being updated. The updates they
+   * produce are applied to the storage by a single writer. Targets are processed serially when this
+   * is <code>1</code>.
+   */
+  public static final int INDEXING_WORKERS = Boolean.getBoolean(SERIAL_INDEXING_PROPERTY) ? 1
+      : Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The maximum number of processed targets applied to the storage at once.
+   */
+  public static final int INDEXING_BATCH_SIZE = 20;
+
+  /**
+   * The maximum number of processed targets waiting to be applied before the workers block.
+   */
+  public static final int INDEXING_PENDING_TARGETS = 4 * INDEXING_BATCH_SIZE;
+
+  /**
+   * The percentage of the maximum heap size that the page cache of the disk index may use.
+   */
+  public static final int PAGE_CACHE_HEAP_PERCENT = 10;
+
+  /**
+   * The bounds, in KB, of the memory budget of the page cache of the disk index.
+   */
+  public static final int PAGE_CACHE_MIN_KB = 4 * 1024, PAGE_CACHE_MAX_KB = 128 * 1024;
+
+  /**
+   * Return the memory budget, in KB, of the page cache of the disk index.
+   * 
+   * @return the memory budget of the page cache
+   */
+  public static int getPageCacheBudgetKb() {
+    long budgetKb = Runtime.getRuntime().maxMemory() / 1024 * PAGE_CACHE_HEAP_PERCENT / 100;
+    return (int) Math.max(PAGE_CACHE_MIN_KB, Math.min(PAGE_CACHE_MAX_KB, budgetKb));
+  }
+
+  /**
+   * The percentage of the maximum heap size that the references buffered during a full rebuild of
+   * the disk index may use before they are spilled to disk.
+   */
+  public static final int BULK_LOAD_HEAP_PERCENT = 10;
+
+  /**
+   * The bounds, in KB, of the memory budget of the references buffered during a full rebuild.
+   */
+  public static final int BULK_LOAD_MIN_KB = 4 * 1024, BULK_LOAD_MAX_KB = 64 * 1024;
+
+  /**
+   * Return the memory budget, in KB, of the references buffered during a full rebuild of the disk
+   * index.
+   * 
+   * @return the memory budget of the buffered references
+   */
+  public static int getBulkLoadBudgetKb() {
+    long budgetKb = Runtime.getRuntime().maxMemory() / 1024 * BULK_LOAD_HEAP_PERCENT / 100;
+    return (int) Math.max(BULK_LOAD_MIN_KB, Math.min(BULK_LOAD_MAX_KB, budgetKb));
+  }
+
+  /**
+   * The maximum number of rows the database storage buffers for a single statement before the
+   * batch is sent to the database.
+   */
+  public static final int DB_BATCH_SIZE = 1000;
+
+  /**
+   * The number of rows fetched at once when the database storage reads a whole layer.
+   */
+  public static final int DB_FETCH_SIZE = 1000;
 }
@@ -29,6 +29,12 @@ import java.io.IOException;
 public class VersionFile {
   private static final String ENCODING = "utf-8";
 
+  /**
+   * The version of the on-disk storage format. Changing it forces a full rebuild of existing
+   * indexes.
+   */
+  private static final int STORAGE_FORMAT = 2;
+
   /**
    * Checks that the index configuration file exists in the given folder and represents exactly the
    * given index configuration.
@@ -43,7 +49,7 @@ public class VersionFile {
     try {
       FileInputStream in = new FileInputStream(versionFile);
       try {
-        String correct = configuration.describe();
+        String correct = describe(configuration);
         byte[] correctBytes = correct.getBytes(ENCODING);
         byte[] actualBytes = new byte[correctBytes.length + 1];
         int actualLength = in.read(actualBytes);
@@ -74,7 +80,7 @@ public class VersionFile {
     try {
       FileOutputStream out = new FileOutputStream(versionFile);
       try {
-        String correct = configuration.describe();
+        String correct = describe(configuration);
         byte[] correctBytes = correct.getBytes(ENCODING);
         out.write(correctBytes);
       } finally {
@@ -85,6 +91,10 @@ public class VersionFile {
     }
   }
 
+  private static String describe(IndexConfigurationInstance configuration) {
+    return configuration.describe() + "\nstorage format " + STORAGE_FORMAT;
+  }
+
   private static File getFile(File folder) {
     return new File(folder, "version-info");
   }
@@ -26,6 +26,15 @@ import org.eclipse.core.resources.IFile;
  * The clients should create configurations using the <code>IndexConfigurationBuilder</code> class.
  */
 public interface IndexConfigurationInstance {
+  /**
+   * Return a new instance of the same configuration whose processors and contributors are distinct
+   * from the ones of this instance. Processors are not thread-safe, so each thread that processes
+   * targets concurrently with others needs its own instance.
+   * 
+   * @return a new instance of the same configuration
+   */
+  public IndexConfigurationInstance createPeer();
+
   public String describe();
 
   /**
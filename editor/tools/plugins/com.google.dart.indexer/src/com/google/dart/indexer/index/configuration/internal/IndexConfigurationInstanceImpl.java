@@ -67,6 +67,11 @@ public class IndexConfigurationInstanceImpl implements IndexConfigurationInstanc
     this.idsToLayers = indexLayersById(layers);
   }
 
+  @Override
+  public IndexConfigurationInstance createPeer() {
+    return new IndexConfigurationInstanceImpl(configuration, registrations, layers);
+  }
+
   @Override
   public String describe() {
     return configuration.describe();
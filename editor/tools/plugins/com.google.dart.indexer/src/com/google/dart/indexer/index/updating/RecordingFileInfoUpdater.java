@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.index.updating;
+
+import com.google.dart.indexer.exceptions.IndexRequestFailed;
+import com.google.dart.indexer.index.layers.Layer;
+import com.google.dart.indexer.index.layers.LayerId;
+import com.google.dart.indexer.locations.Location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instances of the class <code>RecordingFileInfoUpdater</code> implement a file info updater that
+ * does not touch the storage. The updates made by the processors are recorded, in order, so that
+ * they can be computed on one thread and applied to the storage on another by invoking
+ * {@link #replay(FileInfoUpdater)}.
+ */
+public class RecordingFileInfoUpdater implements FileInfoUpdater {
+  /**
+   * A location started by a processor, together with the references recorded from it.
+   */
+  private static class RecordedLocation implements LocationUpdater {
+    private final RecordingFileInfoUpdater owner;
+    private final Layer layer;
+    private final Location sourceLocation;
+
+    RecordedLocation(RecordingFileInfoUpdater owner, Layer layer, Location sourceLocation) {
+      this.owner = owner;
+      this.layer = layer;
+      this.sourceLocation = sourceLocation;
+    }
+
+    @Override
+    public Location getSourceLocation() {
+      return sourceLocation;
+    }
+
+    @Override
+    public void hasReferenceTo(Location location) {
+      owner.events.add(new Event(this, location));
+    }
+  }
+
+  /**
+   * Either the start of a location (when the destination is <code>null</code>) or a reference
+   * from a started location.
+   */
+  private static class Event {
+    private final RecordedLocation location;
+    private final Location destination;
+
+    Event(RecordedLocation location, Location destination) {
+      this.location = location;
+      this.destination = destination;
+    }
+  }
+
+  private final Map<LayerId, LayerUpdater> layerIdsToUpdaters =
+      new HashMap<LayerId, LayerUpdater>();
+
+  private final List<Event> events = new ArrayList<Event>();
+
+  @Override
+  public LayerUpdater getLayerUpdater(final Layer layer) {
+    LayerId layerId = layer.getId();
+    LayerUpdater layerUpdater = layerIdsToUpdaters.get(layerId);
+    if (layerUpdater == null) {
+      layerUpdater = new LayerUpdater() {
+        @Override
+        public LocationUpdater startLocation(Location location) {
+          RecordedLocation recorded = new RecordedLocation(RecordingFileInfoUpdater.this, layer,
+              location);
+          events.add(new Event(recorded, null));
+          return recorded;
+        }
+      };
+      layerIdsToUpdaters.put(layerId, layerUpdater);
+    }
+    return layerUpdater;
+  }
+
+  /**
+   * Apply the recorded updates, in the order in which they were made, to the given updater.
+   * 
+   * @param updater the updater to which the recorded updates are to be applied
+   * @throws IndexRequestFailed if one of the updates could not be applied
+   */
+  public void replay(FileInfoUpdater updater) throws IndexRequestFailed {
+    Map<RecordedLocation, LocationUpdater> locationUpdaters =
+        new IdentityHashMap<RecordedLocation, LocationUpdater>();
+    for (Event event : events) {
+      RecordedLocation recorded = event.location;
+      if (event.destination == null) {
+        LayerUpdater layerUpdater = updater.getLayerUpdater(recorded.layer);
+        locationUpdaters.put(recorded, layerUpdater.startLocation(recorded.sourceLocation));
+      } else {
+        locationUpdaters.get(recorded).hasReferenceTo(event.destination);
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.pagedstorage;
+
+import com.google.dart.indexer.IndexerPlugin;
+import com.google.dart.indexer.debug.IndexerDebugOptions;
+import com.google.dart.indexer.pagedstorage.util.Cache;
+import com.google.dart.indexer.pagedstorage.util.CacheARC;
+import com.google.dart.indexer.pagedstorage.util.CacheTQ;
+import com.google.dart.indexer.storage.paged.store.CacheObject;
+import com.google.dart.indexer.storage.paged.store.CacheWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a page-access trace against the page cache policies and reports their hit rates. A trace
+ * is recorded by enabling the {@link IndexerDebugOptions#PAGE_ACCESSES} option; every line of the
+ * trace file that contains "page &lt;id&gt;" counts as one access. Without a trace file, a
+ * synthetic trace is used in which a small hot set of pages is interleaved with full scans.
+ * <p>
+ * Usage: <code>CacheReplay [trace-file [cache-kb [page-size]]]</code>
+ */
+public class CacheReplay {
+  /**
+   * A page that only occupies memory in the cache.
+   */
+  private static class ReplayPage extends CacheObject {
+    private final int memorySize;
+
+    ReplayPage(int pageId, int pageSize) {
+      setPos(pageId);
+      memorySize = pageSize >> 2;
+    }
+
+    @Override
+    public boolean canRemove() {
+      return true;
+    }
+
+    @Override
+    public int getMemorySize() {
+      return memorySize;
+    }
+  }
+
+  private static final Pattern ACCESS = Pattern.compile("page (\\d+)");
+
+  public static void main(String[] args) throws Exception {
+    int[] trace = args.length > 0 ? readTrace(new File(args[0])) : syntheticTrace();
+    int cacheKb = args.length > 1 ? Integer.parseInt(args[1]) : 4 * 1024;
+    int pageSize = args.length > 2 ? Integer.parseInt(args[2]) : PagedStorage.PAGE_SIZE_DEFAULT;
+
+    CacheWriter writer = new CacheWriter() {
+      @Override
+      public void writeBack(CacheObject entry) {
+        // nothing is persisted during a replay
+      }
+    };
+    Cache[] caches = new Cache[] {new CacheTQ(writer, cacheKb), new CacheARC(writer, cacheKb)};
+    for (int i = 0; i < caches.length; i++) {
+      Cache cache = caches[i];
+      int misses = 0;
+      long start = System.currentTimeMillis();
+      for (int t = 0; t < trace.length; t++) {
+        int pageId = trace[t];
+        if (cache.get(pageId) == null) {
+          misses++;
+          cache.put(new ReplayPage(pageId, pageSize));
+        }
+      }
+      long end = System.currentTimeMillis();
+      IndexerPlugin.getLogger().trace(
+          IndexerDebugOptions.MISCELLANEOUS,
+          cache.getTypeName() + ": " + trace.length + " accesses, " + misses + " misses ("
+              + ((trace.length - misses) * 100L / Math.max(1, trace.length)) + "% hits), "
+              + (end - start) + " ms.");
+    }
+  }
+
+  private static int[] readTrace(File file) throws IOException {
+    int[] trace = new int[1024];
+    int count = 0;
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher matcher = ACCESS.matcher(line);
+        if (matcher.find()) {
+          if (count == trace.length) {
+            int[] grown = new int[trace.length * 2];
+            System.arraycopy(trace, 0, grown, 0, count);
+            trace = grown;
+          }
+          trace[count++] = Integer.parseInt(matcher.group(1));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    int[] result = new int[count];
+    System.arraycopy(trace, 0, result, 0, count);
+    return result;
+  }
+
+  private static int[] syntheticTrace() {
+    int hotPages = 64, allPages = 4096, rounds = 20, lookupsPerRound = 20000;
+    Random random = new Random(0);
+    int[] trace = new int[rounds * (lookupsPerRound + allPages)];
+    int count = 0;
+    for (int round = 0; round < rounds; round++) {
+      for (int i = 0; i < lookupsPerRound; i++) {
+        trace[count++] = 1 + random.nextInt(hotPages);
+      }
+      for (int page = 1; page <= allPages; page++) {
+        trace[count++] = page;
+      }
+    }
+    return trace;
+  }
+}
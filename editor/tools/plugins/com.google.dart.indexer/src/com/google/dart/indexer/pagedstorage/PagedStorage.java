@@ -14,6 +14,7 @@
 package com.google.dart.indexer.pagedstorage;
 
 import com.google.dart.indexer.IndexerPlugin;
+import com.google.dart.indexer.debug.IndexerDebugOptions;
 import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageCorruptedException;
 import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageException;
 import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageNonexistentPageReferenceException;
@@ -21,10 +22,10 @@ import com.google.dart.indexer.pagedstorage.filesystem.AccessMode;
 import com.google.dart.indexer.pagedstorage.filesystem.FileSystem;
 import com.google.dart.indexer.pagedstorage.pagestore.Record;
 import com.google.dart.indexer.pagedstorage.pagestore.RecordFactory;
-import com.google.dart.indexer.pagedstorage.util.Cache;
-import com.google.dart.indexer.pagedstorage.util.CacheTQ;
+import com.google.dart.indexer.pagedstorage.util.CacheARC;
 import com.google.dart.indexer.pagedstorage.util.FileUtils;
 import com.google.dart.indexer.pagedstorage.util.ObjectArray;
+import com.google.dart.indexer.storage.paged.PageCacheStats;
 import com.google.dart.indexer.storage.paged.store.CacheObject;
 import com.google.dart.indexer.storage.paged.store.CacheWriter;
 import com.google.dart.indexer.storage.paged.store.Data;
@@ -52,6 +53,18 @@ import java.util.zip.CRC32;
  * <li>X-(X+8): checksum of bytes 0-X (CRC32)</li>
  * </ul>
  * Page 3 contains the first free list page. Page 4 contains the first special page.
+ * <p>
+ * Lookups may run concurrently. The monitor of this object only guards the record cache and the
+ * allocation state, and is never held across file I/O, which is serialized separately. Records
+ * latch themselves while they are lazily decoded or written back. Callers are expected to exclude
+ * lookups while making structural changes (see <code>DiskMappedStorage</code>); a checkpoint may
+ * run alongside lookups, so it does not stall readers.
+ * <p>
+ * Changes reach the data file through a {@link WriteAheadLog}. A page changed since the last
+ * {@link #commit()} is never written to the data file; a commit appends the changed pages to the
+ * log with a single sync, and a later {@link #checkpoint()} copies the committed pages into the
+ * data file and truncates the log. Committed batches that were not yet copied when the process
+ * died are replayed when the file is opened again.
  */
 public class PagedStorage implements CacheWriter, DataHandler {
   public static final int PAGE_SIZE_MIN = 128;
@@ -66,6 +79,11 @@ public class PagedStorage implements CacheWriter, DataHandler {
 
   private static final int INCREMENT_PAGES = 128;
 
+  /**
+   * The number of bytes of committed batches in the log after which a checkpoint is due.
+   */
+  private static final long CHECKPOINT_LOG_LENGTH = 16 * 1024 * 1024;
+
   private static final int READ_VERSION = 0;
   private static final int WRITE_VERSION = 0;
 
@@ -79,7 +97,18 @@ public class PagedStorage implements CacheWriter, DataHandler {
   private int specialPageCount;
 
   private int cacheSize;
-  private Cache cache;
+  private CacheARC cache;
+  private WriteAheadLog log;
+
+  /**
+   * The object used to serialize positioned reads and writes of the file.
+   */
+  private final Object fileLock = new Object();
+
+  /**
+   * The object used to prevent commits and checkpoints from running at the same time.
+   */
+  private final Object checkpointLock = new Object();
 
   private int freeListPagesPerList;
 
@@ -101,7 +130,7 @@ public class PagedStorage implements CacheWriter, DataHandler {
    * @param database the database
    * @param fileName the file name
    * @param accessMode the access mode
-   * @param cacheSizeDefault the default cache size
+   * @param cacheSizeDefault the memory budget of the page cache in KB
    */
   public PagedStorage(String fileName, AccessMode accessMode, int cacheSizeDefault,
       int specialPageCount) {
@@ -110,7 +139,7 @@ public class PagedStorage implements CacheWriter, DataHandler {
     this.specialPageCount = specialPageCount;
     this.specialPages = new int[specialPageCount];
     this.cacheSize = cacheSizeDefault;
-    this.cache = new CacheTQ(this, cacheSize);
+    this.cache = new CacheARC(this, cacheSize);
     setPageSize(PAGE_SIZE_DEFAULT);
   }
 
@@ -133,23 +162,35 @@ public class PagedStorage implements CacheWriter, DataHandler {
     return pos;
   }
 
-  public void cacheRecord(Record record) throws PagedStorageException {
+  public synchronized void cacheRecord(Record record) throws PagedStorageException {
     cache.put(record);
   }
 
   /**
-   * Flush all pending changes to disk, and re-open the log file.
+   * Copy all committed pages into the data file, force it to disk and truncate the log. Pages
+   * changed since the last commit stay out of the data file. Lookups may proceed while the pages
+   * are written, but structural changes must not.
    */
-  public synchronized void checkpoint() throws PagedStorageException {
-    writeBack();
-    byte[] empty = new byte[pageSize];
-    // TODO avoid to write empty pages
-    for (int i = FIRST_PAGE_ALLOCATION_BITMAP_PAGE; i < pageCount; i++) {
-      if (!isUsed(i)) {
-        file.seek((long) i << pageSizeShift);
-        file.write(empty, 0, pageSize);
-        writeCount++;
+  public void checkpoint() throws PagedStorageException {
+    synchronized (checkpointLock) {
+      for (int pageId : log.getPendingPages()) {
+        writePageToFile(pageId, log.getCommittedImage(pageId));
+      }
+      writeBack();
+      if (!log.hasUncommittedPages()) {
+        // the allocation bitmap is only trusted once it has been committed
+        byte[] empty = new byte[pageSize];
+        // TODO avoid to write empty pages
+        for (int i = FIRST_PAGE_ALLOCATION_BITMAP_PAGE; i < pageCount; i++) {
+          if (!isUsed(i)) {
+            writePageToFile(i, empty);
+          }
+        }
+      }
+      synchronized (fileLock) {
+        file.sync();
       }
+      log.truncate();
     }
     // TODO shrink file if required here
     // int pageCount = getFreeList().getLastUsed() + 1;
@@ -161,6 +202,10 @@ public class PagedStorage implements CacheWriter, DataHandler {
    * Close the file without further writing.
    */
   public void close() {
+    if (log != null) {
+      log.close();
+      log = null;
+    }
     if (file != null) {
       try {
         file.close();
@@ -173,6 +218,28 @@ public class PagedStorage implements CacheWriter, DataHandler {
     }
   }
 
+  /**
+   * Make all pages changed since the last commit durable by appending them to the log, which is
+   * forced to disk once for the whole batch. The data file is not touched.
+   * 
+   * @return the number of pages that were committed
+   */
+  public int commit() throws PagedStorageException {
+    synchronized (checkpointLock) {
+      for (int pageId : log.getUncommittedPages()) {
+        Record record;
+        synchronized (this) {
+          record = (Record) cache.find(pageId);
+        }
+        if (record != null && record.isChanged()) {
+          // stages the image in the log, the record stays changed until the next checkpoint
+          record.write();
+        }
+      }
+      return log.commit();
+    }
+  }
+
   /**
    * Create a data object.
    * 
@@ -228,7 +295,10 @@ public class PagedStorage implements CacheWriter, DataHandler {
    * @return the record or null
    */
   public synchronized Record getRecord(int pos) {
-    CacheObject obj = cache.find(pos);
+    if (IndexerPlugin.getLogger().isTracing(IndexerDebugOptions.PAGE_ACCESSES)) {
+      IndexerPlugin.getLogger().trace(IndexerDebugOptions.PAGE_ACCESSES, "page " + pos);
+    }
+    CacheObject obj = cache.get(pos);
     return (Record) obj;
   }
 
@@ -243,6 +313,24 @@ public class PagedStorage implements CacheWriter, DataHandler {
     return writeCount;
   }
 
+  /**
+   * Return <code>true</code> if the log has grown large enough that a checkpoint should be run.
+   * 
+   * @return <code>true</code> if a checkpoint is due
+   */
+  public boolean isCheckpointDue() throws PagedStorageException {
+    return log.length() > CHECKPOINT_LOG_LENGTH;
+  }
+
+  /**
+   * Return <code>true</code> if the file is open.
+   * 
+   * @return <code>true</code> if the file is open
+   */
+  public boolean isOpen() {
+    return file != null;
+  }
+
   @Override
   public void handleInvalidChecksum() throws PagedStorageException {
     // TODO implement checksum
@@ -296,7 +384,14 @@ public class PagedStorage implements CacheWriter, DataHandler {
     }
     Data data = readPage(pageId);
     record = factory.read(this, data, pageId, false);
-    cacheRecord(record);
+    synchronized (this) {
+      // another reader may have loaded the same page in the meantime
+      Record cached = (Record) cache.find(pageId);
+      if (cached != null) {
+        return cached;
+      }
+      cacheRecord(record);
+    }
     return record;
   }
 
@@ -335,7 +430,7 @@ public class PagedStorage implements CacheWriter, DataHandler {
     pageSizeShift = shift;
   }
 
-  public void setSpecialPage(int index, int page) {
+  public void setSpecialPage(int index, int page) throws PagedStorageException {
     if (index < 0 || index >= specialPageCount) {
       throw new IllegalArgumentException("special page index incorrect: " + index);
     }
@@ -343,6 +438,21 @@ public class PagedStorage implements CacheWriter, DataHandler {
     writeVariableHeader();
   }
 
+  /**
+   * Copy the counters of the page cache into the given statistics.
+   * 
+   * @param stats the statistics to be filled in
+   */
+  public synchronized void stats(PageCacheStats stats) {
+    stats.typeName = cache.getTypeName();
+    stats.hits = cache.getHits();
+    stats.misses = cache.getMisses();
+    stats.evictions = cache.getEvictions();
+    stats.sizeKb = cache.getSize() * 4 / 1024;
+    stats.maxSizeKb = cache.getMaxSize() * 4 / 1024;
+    stats.recentTargetKb = cache.getRecentTargetSize() * 4 / 1024;
+  }
+
   /**
    * Update a record.
    * 
@@ -361,6 +471,7 @@ public class PagedStorage implements CacheWriter, DataHandler {
     int pos = record.getPos();
     allocatePage(pos);
     cache.update(pos, record);
+    log.markUncommitted(pos);
     if (logUndo && !recoveryRunning) {
       if (old == null) {
         old = readPage(pos);
@@ -370,7 +481,7 @@ public class PagedStorage implements CacheWriter, DataHandler {
   }
 
   @Override
-  public synchronized void writeBack(CacheObject obj) throws PagedStorageException {
+  public void writeBack(CacheObject obj) throws PagedStorageException {
     Record record = (Record) obj;
     record.write();
     record.setChanged(false);
@@ -382,10 +493,11 @@ public class PagedStorage implements CacheWriter, DataHandler {
    * @param pageId the page id
    * @param data the data
    */
-  public synchronized void writePage(int pageId, Data data) {
-    file.seek((long) pageId << pageSizeShift);
-    file.write(data.getBytes(), 0, pageSize);
-    writeCount++;
+  public void writePage(int pageId, Data data) throws PagedStorageException {
+    if (log != null && log.stageIfUncommitted(pageId, data.getBytes())) {
+      return;
+    }
+    writePageToFile(pageId, data.getBytes());
   }
 
   /**
@@ -404,12 +516,19 @@ public class PagedStorage implements CacheWriter, DataHandler {
    * @param pos the page id
    * @param page the page
    */
-  synchronized void readPage(int pos, Data page) throws PagedStorageException {
+  void readPage(int pos, Data page) throws PagedStorageException {
     if (pos >= pageCount) {
       throw new PagedStorageNonexistentPageReferenceException(pos + " of " + pageCount);
     }
-    file.seek((long) pos << pageSizeShift);
-    file.readFully(page.getBytes(), 0, pageSize);
+    byte[] image = log == null ? null : log.getImage(pos);
+    if (image != null) {
+      System.arraycopy(image, 0, page.getBytes(), 0, pageSize);
+      return;
+    }
+    synchronized (fileLock) {
+      file.seek((long) pos << pageSizeShift);
+      file.readFully(page.getBytes(), 0, pageSize);
+    }
   }
 
   private void checkOpen() {
@@ -423,7 +542,7 @@ public class PagedStorage implements CacheWriter, DataHandler {
     bitmap.free(pageId);
   }
 
-  private PageAllocationBitmapPage getAllocationBitmapPage(int ordinal)
+  private synchronized PageAllocationBitmapPage getAllocationBitmapPage(int ordinal)
       throws PagedStorageException {
     int p = FIRST_PAGE_ALLOCATION_BITMAP_PAGE + ordinal * freeListPagesPerList;
     while (p >= pageCount) {
@@ -449,7 +568,9 @@ public class PagedStorage implements CacheWriter, DataHandler {
   private void increaseFileSize(int increment) {
     pageCount += increment;
     long newLength = (long) pageCount << pageSizeShift;
-    file.setLength(newLength);
+    synchronized (fileLock) {
+      file.setLength(newLength);
+    }
     writeCount++;
     fileLength = newLength;
   }
@@ -476,6 +597,8 @@ public class PagedStorage implements CacheWriter, DataHandler {
       openNew();
       return;
     }
+    openLog();
+    replayLog();
     readVariableHeader();
     checkpoint();
   }
@@ -490,6 +613,8 @@ public class PagedStorage implements CacheWriter, DataHandler {
       throw e;
     }
     file = store;
+    openLog();
+    log.truncate();
     recoveryRunning = true;
     writeStaticHeader();
 
@@ -506,9 +631,15 @@ public class PagedStorage implements CacheWriter, DataHandler {
       allocatePage(specialPages[i]);
     }
     writeVariableHeader();
+    commit();
     checkpoint();
   }
 
+  private void openLog() throws PagedStorageException {
+    log = new WriteAheadLog(this, fileName + ".log", pageSize);
+    log.open(accessMode);
+  }
+
   private void readStaticHeader() throws PagedStorageException {
     file.seek(FileStore.HEADER_LENGTH);
     Data page = Data.create(this, new byte[PAGE_SIZE_MIN - FileStore.HEADER_LENGTH]);
@@ -546,8 +677,29 @@ public class PagedStorage implements CacheWriter, DataHandler {
     }
   }
 
+  /**
+   * Recover the pages committed to the log before the last shutdown. They are read from the log
+   * until the checkpoint run when the file is opened copies them into the data file.
+   */
+  private void replayLog() throws PagedStorageException {
+    int[] pageIds = log.recover();
+    if (pageIds.length == 0) {
+      return;
+    }
+    IndexerPlugin.getLogger().trace(IndexerDebugOptions.ANOMALIES,
+        "Replaying " + pageIds.length + " committed pages from the log of " + fileName);
+    for (int pageId : pageIds) {
+      while (pageId >= pageCount) {
+        increaseFileSize(INCREMENT_PAGES);
+      }
+    }
+  }
+
   private void writeBack() throws PagedStorageException {
-    ObjectArray<CacheObject> list = cache.getAllChanged();
+    ObjectArray<CacheObject> list;
+    synchronized (this) {
+      list = cache.getAllChanged();
+    }
     CacheObject.sort(list);
     for (Iterator<CacheObject> iterator = list.iterator(); iterator.hasNext();) {
       CacheObject rec = iterator.next();
@@ -555,6 +707,14 @@ public class PagedStorage implements CacheWriter, DataHandler {
     }
   }
 
+  private void writePageToFile(int pageId, byte[] bytes) {
+    synchronized (fileLock) {
+      file.seek((long) pageId << pageSizeShift);
+      file.write(bytes, 0, pageSize);
+      writeCount++;
+    }
+  }
+
   private void writeStaticHeader() {
     Data page = Data.create(this, new byte[pageSize - FileStore.HEADER_LENGTH]);
     page.writeInt(pageSize);
@@ -564,7 +724,11 @@ public class PagedStorage implements CacheWriter, DataHandler {
     file.write(page.getBytes(), 0, pageSize - FileStore.HEADER_LENGTH);
   }
 
-  private void writeVariableHeader() {
+  /**
+   * Write both copies of the variable header. Like any other page, they reach the data file only
+   * once they have been committed to the log.
+   */
+  private void writeVariableHeader() throws PagedStorageException {
     Data page = Data.create(this, pageSize);
     page.writeLong(writeCount);
     for (int pp = 0; pp < specialPageCount; pp++) {
@@ -573,10 +737,8 @@ public class PagedStorage implements CacheWriter, DataHandler {
     CRC32 crc = new CRC32();
     crc.update(page.getBytes(), 0, page.length());
     page.writeLong(crc.getValue());
-    file.seek(pageSize);
-    file.write(page.getBytes(), 0, pageSize);
-    file.seek(pageSize + pageSize);
-    file.write(page.getBytes(), 0, pageSize);
+    log.stage(1, page.getBytes());
+    log.stage(2, page.getBytes());
     writeCount++;
   }
 }
@@ -15,65 +15,115 @@ package com.google.dart.indexer.pagedstorage;
 
 import com.google.dart.indexer.IndexerPlugin;
 import com.google.dart.indexer.debug.IndexerDebugOptions;
-import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageException;
 import com.google.dart.indexer.pagedstorage.filesystem.AccessMode;
-import com.google.dart.indexer.pagedstorage.filesystem.DiskFileSystem;
 import com.google.dart.indexer.pagedstorage.filesystem.FileObject;
 import com.google.dart.indexer.pagedstorage.filesystem.FileSystem;
-import com.google.dart.indexer.pagedstorage.filesystem.InMemoryFileSystem;
-import com.google.dart.indexer.pagedstorage.filesystem.MemoryMappedFileSystem;
-import com.google.dart.indexer.pagedstorage.filesystem.NioFileSystem;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Random;
 
+/**
+ * A benchmark comparing the file systems that can back a {@link PagedStorage}. For each file system
+ * a file is written page by page, read back sequentially, read at random page positions and
+ * updated at random page positions, the way the page store accesses its file. Every file system
+ * sees the same sequence of positions. The arguments are the path of the scratch file (default
+ * <code>/tmp/test.foo</code>) and its size in MB (default 100).
+ */
 public class SpeedTest {
-  public static void main(String[] args) throws Exception {
-    File file = new File("/tmp/test.foo");
-    int fileSize = 1024 * 1024 * 100;
-    int readAttemps = 1000000;
-    int readSize = 1024;
+  private static final int PAGE_SIZE = PagedStorage.PAGE_SIZE_DEFAULT;
 
-    Random random = new Random();
+  private static final int WARM_UP_ROUNDS = 1;
 
-    byte[] buf = new byte[readSize];
+  private static final int MEASURED_ROUNDS = 3;
 
-    FileSystem[] fileSystems = new FileSystem[] {
-        InMemoryFileSystem.getInstance(), MemoryMappedFileSystem.getInstance(),
-        DiskFileSystem.getInstance(), NioFileSystem.getInstance(),};
-    for (int i = 0; i < fileSystems.length; i++) {
-      FileSystem fileSystem = fileSystems[i];
-      if (!fileSystem.exists(file.getPath())) {
-        createFile(fileSystem, fileSize, file, random);
-      }
+  public static void main(String[] args) throws Exception {
+    String path = args.length > 0 ? args[0] : "/tmp/test.foo";
+    int fileSizeMb = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int pageCount = (int) ((long) fileSizeMb * 1024 * 1024 / PAGE_SIZE);
+    int randomAccesses = 4 * pageCount;
 
-      FileObject fileObject = fileSystem.openFileObject(file.getPath(), AccessMode.READ_WRITE);
-      IndexerPlugin.getLogger().trace(IndexerDebugOptions.MISCELLANEOUS,
-          "Running read test with " + fileSystem.getClass().getName() + "... ");
-      long start = System.currentTimeMillis();
-      for (int attemp = 0; attemp < readAttemps; attemp++) {
-        long offset = random.nextInt(fileSize - readSize);
-        fileObject.seek(offset);
-        fileObject.readFully(buf, 0, buf.length);
+    String[] prefixes = new String[] {
+        FileSystem.PREFIX_MEMORY, "", FileSystem.PREFIX_NIO, FileSystem.PREFIX_NIO_MAPPED,
+        FileSystem.PREFIX_NIO_CHUNKED};
+    for (String prefix : prefixes) {
+      String fileName = prefix + new File(path).getPath();
+      FileSystem fileSystem = FileSystem.getInstance(fileName);
+      long[] times = new long[4];
+      for (int round = 0; round < WARM_UP_ROUNDS + MEASURED_ROUNDS; round++) {
+        if (fileSystem.exists(fileName)) {
+          fileSystem.delete(fileName);
+        }
+        FileObject file = fileSystem.openFileObject(fileName, AccessMode.READ_WRITE);
+        try {
+          long[] roundTimes = runRound(file, pageCount, randomAccesses);
+          if (round >= WARM_UP_ROUNDS) {
+            for (int i = 0; i < times.length; i++) {
+              times[i] += roundTimes[i];
+            }
+          }
+        } finally {
+          file.close();
+        }
       }
-      fileObject.close();
-      long end = System.currentTimeMillis();
-      IndexerPlugin.getLogger().trace(IndexerDebugOptions.MISCELLANEOUS, (end - start) + " ms.");
+      fileSystem.delete(fileName);
+      long megabytes = (long) pageCount * PAGE_SIZE / (1024 * 1024);
+      IndexerPlugin.getLogger().trace(
+          IndexerDebugOptions.MISCELLANEOUS,
+          fileSystem.getClass().getSimpleName() + ": sequential write "
+              + throughput(megabytes, times[0]) + " MB/s, sequential read "
+              + throughput(megabytes, times[1]) + " MB/s, random read "
+              + throughput(randomAccesses, times[2]) + " pages/s, random write "
+              + throughput(randomAccesses, times[3]) + " pages/s");
     }
   }
 
-  private static void createFile(FileSystem fileSystem, int fileSize, File file, Random random)
-      throws FileNotFoundException, IOException, PagedStorageException {
-    OutputStream os = fileSystem.openFileOutputStream(file.getPath(), false);
-    byte[] buf = new byte[1024];
-    random.nextBytes(buf);
-    int rows = fileSize / buf.length;
-    for (int i = 0; i < rows; i++) {
-      os.write(buf);
+  /**
+   * Run each of the access patterns once against the given empty file.
+   * 
+   * @return the time taken by each access pattern, in nanoseconds
+   */
+  private static long[] runRound(FileObject file, int pageCount, int randomAccesses)
+      throws Exception {
+    long[] times = new long[4];
+    byte[] page = new byte[PAGE_SIZE];
+    Random random = new Random(0);
+    random.nextBytes(page);
+
+    long start = System.nanoTime();
+    file.setFileLength((long) pageCount * PAGE_SIZE);
+    file.seek(0);
+    for (int i = 0; i < pageCount; i++) {
+      file.write(page, 0, PAGE_SIZE);
+    }
+    file.sync();
+    times[0] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    file.seek(0);
+    for (int i = 0; i < pageCount; i++) {
+      file.readFully(page, 0, PAGE_SIZE);
     }
-    os.close();
+    times[1] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < randomAccesses; i++) {
+      file.seek((long) random.nextInt(pageCount) * PAGE_SIZE);
+      file.readFully(page, 0, PAGE_SIZE);
+    }
+    times[2] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < randomAccesses; i++) {
+      file.seek((long) random.nextInt(pageCount) * PAGE_SIZE);
+      file.write(page, 0, PAGE_SIZE);
+    }
+    file.sync();
+    times[3] = System.nanoTime() - start;
+    return times;
+  }
+
+  private static long throughput(long amount, long totalNanos) {
+    long nanos = totalNanos / MEASURED_ROUNDS;
+    return nanos == 0 ? 0 : amount * 1000000000L / nanos;
   }
 }
@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.pagedstorage;
+
+import com.google.dart.indexer.IndexerPlugin;
+import com.google.dart.indexer.debug.IndexerDebugOptions;
+import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageException;
+import com.google.dart.indexer.pagedstorage.filesystem.AccessMode;
+import com.google.dart.indexer.pagedstorage.util.Constants;
+import com.google.dart.indexer.storage.paged.store.Data;
+import com.google.dart.indexer.storage.paged.store.DataHandler;
+import com.google.dart.indexer.storage.paged.store.FileStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only redo log for a {@link PagedStorage}. Pages changed since the last commit are
+ * never written to the data file; when they have to leave the page cache, their images are staged
+ * in memory instead. Once more than {@link #MAX_STAGED_BYTES} of images are staged, they are
+ * appended to the log as an uncommitted batch and only their position in the log is kept. A
+ * commit appends the remaining staged images as one batch and forces the log with a single sync,
+ * so a transaction becomes durable without touching the data file. Committed images are read back
+ * from the log until a checkpoint has copied them into the data file, after which the log is
+ * truncated.
+ * <p>
+ * After the file header, the log is a sequence of batches. Each batch consists of:
+ * <ul>
+ * <li>a block holding a marker and the number of pages in the batch</li>
+ * <li>for each page, a block holding the page id followed by the page image</li>
+ * <li>a block holding the CRC32 of everything before it in the batch, the marker and the number
+ * of pages again</li>
+ * </ul>
+ * The marker tells a commit batch from a staged one. A commit batch, which may be empty, commits
+ * itself together with every staged batch since the previous commit batch. A batch whose trailer
+ * is missing or does not match was torn by a crash; it is ignored, together with everything after
+ * it and with the staged batches that were not followed by a commit.
+ */
+public class WriteAheadLog {
+  /**
+   * Instances of the class <code>PageImage</code> hold the image of a page that is about to be
+   * appended to the log.
+   */
+  private static class PageImage {
+    private final int pageId;
+    private final byte[] bytes;
+
+    PageImage(int pageId, byte[] bytes) {
+      this.pageId = pageId;
+      this.bytes = bytes;
+    }
+  }
+
+  private static final int COMMIT_MARKER = 0x57414C31;
+
+  private static final int STAGED_MARKER = 0x57414C53;
+
+  private static final int BLOCK = Constants.FILE_BLOCK_SIZE;
+
+  /**
+   * The number of bytes of staged images that are kept in memory before they are appended to the
+   * log.
+   */
+  private static final int MAX_STAGED_BYTES = 4 * 1024 * 1024;
+
+  private final DataHandler handler;
+  private final String fileName;
+  private final int pageSize;
+  private final int maxStagedPages;
+  private FileStore file;
+
+  /**
+   * The ids of the pages that have been changed since the last commit.
+   */
+  private final Set<Integer> uncommittedPages = new HashSet<Integer>();
+
+  /**
+   * The images of uncommitted pages that had to be written while they were uncommitted and are not
+   * yet in the log, by page id.
+   */
+  private final Map<Integer, byte[]> stagedImages = new LinkedHashMap<Integer, byte[]>();
+
+  /**
+   * The positions in the log of the images of uncommitted pages that were appended to make room in
+   * memory, by page id.
+   */
+  private final Map<Integer, Long> spilledImages = new HashMap<Integer, Long>();
+
+  /**
+   * The positions in the log of the images of committed pages that have not yet been copied into
+   * the data file, by page id.
+   */
+  private final Map<Integer, Long> pendingImages = new LinkedHashMap<Integer, Long>();
+
+  public WriteAheadLog(DataHandler handler, String fileName, int pageSize) {
+    this.handler = handler;
+    this.fileName = fileName;
+    this.pageSize = pageSize;
+    this.maxStagedPages = Math.max(1, MAX_STAGED_BYTES / pageSize);
+  }
+
+  /**
+   * Close the log file without further writing.
+   */
+  public synchronized void close() {
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        IndexerPlugin.getLogger().logError(e, "Could not close file: \"" + fileName + "\"");
+      } finally {
+        file = null;
+      }
+    }
+  }
+
+  /**
+   * Append the images of all pages changed since the last commit that are not yet in the log as
+   * one batch, and force the log to disk. The images of the pages must have been staged
+   * beforehand.
+   * 
+   * @return the number of pages that were committed
+   */
+  public synchronized int commit() throws PagedStorageException {
+    List<PageImage> images = new ArrayList<PageImage>(stagedImages.size());
+    for (Map.Entry<Integer, byte[]> entry : stagedImages.entrySet()) {
+      images.add(new PageImage(entry.getKey().intValue(), entry.getValue()));
+    }
+    uncommittedPages.clear();
+    stagedImages.clear();
+    if (images.isEmpty() && spilledImages.isEmpty()) {
+      return 0;
+    }
+    long pos = append(COMMIT_MARKER, images);
+    file.sync();
+    Set<Integer> committed = new HashSet<Integer>(spilledImages.keySet());
+    pendingImages.putAll(spilledImages);
+    spilledImages.clear();
+    for (int i = 0; i < images.size(); i++) {
+      int pageId = images.get(i).pageId;
+      committed.add(pageId);
+      pendingImages.put(pageId, getImagePosition(pos, i));
+    }
+    IndexerPlugin.getLogger().trace(IndexerDebugOptions.ALL_IO,
+        "WriteAheadLog.commit " + committed.size() + " pages, log length " + file.length());
+    return committed.size();
+  }
+
+  /**
+   * Return the committed image of the given page that has not yet been copied into the data file.
+   * 
+   * @param pageId the id of one of the pages returned by {@link #getPendingPages()}
+   * @return the committed image
+   */
+  public synchronized byte[] getCommittedImage(int pageId) {
+    return readImage(pendingImages.get(pageId).longValue());
+  }
+
+  /**
+   * Return the most recent image of the given page that is not yet in the data file, or
+   * <code>null</code> if the data file is up to date.
+   * 
+   * @param pageId the page id
+   * @return the staged or committed image, or <code>null</code>
+   */
+  public synchronized byte[] getImage(int pageId) {
+    byte[] image = stagedImages.get(pageId);
+    if (image != null) {
+      return image;
+    }
+    Long pos = spilledImages.get(pageId);
+    if (pos == null) {
+      pos = pendingImages.get(pageId);
+    }
+    return pos == null ? null : readImage(pos.longValue());
+  }
+
+  /**
+   * Return the ids of the committed pages that have not yet been copied into the data file.
+   * 
+   * @return the ids of the committed pages
+   */
+  public synchronized int[] getPendingPages() {
+    return toArray(pendingImages.keySet());
+  }
+
+  /**
+   * Return the ids of the pages that have been changed since the last commit.
+   * 
+   * @return the ids of the uncommitted pages
+   */
+  public synchronized int[] getUncommittedPages() {
+    return toArray(uncommittedPages);
+  }
+
+  /**
+   * Return <code>true</code> if pages have been changed since the last commit.
+   * 
+   * @return <code>true</code> if there are uncommitted pages
+   */
+  public synchronized boolean hasUncommittedPages() {
+    return !uncommittedPages.isEmpty();
+  }
+
+  /**
+   * Return the number of bytes of batches in the log.
+   * 
+   * @return the length of the log
+   */
+  public synchronized long length() throws PagedStorageException {
+    return file.length() - FileStore.HEADER_LENGTH;
+  }
+
+  /**
+   * Record that the given page has been changed and must not reach the data file before the next
+   * commit.
+   * 
+   * @param pageId the page id
+   */
+  public synchronized void markUncommitted(int pageId) {
+    uncommittedPages.add(pageId);
+  }
+
+  /**
+   * Open the log file, creating it if necessary.
+   */
+  public synchronized void open(AccessMode accessMode) throws PagedStorageException {
+    FileStore store = FileStore.open(handler, fileName, accessMode);
+    try {
+      store.init();
+    } catch (PagedStorageException e) {
+      store.closeSilently();
+      throw e;
+    }
+    file = store;
+  }
+
+  /**
+   * Read the batches left in the log by the last session and make the images they committed
+   * pending, so that the next checkpoint copies them into the data file. Reading stops at the
+   * first batch that is incomplete or does not match its checksum. Everything after the last
+   * complete commit batch is removed from the log.
+   * 
+   * @return the ids of the pages whose committed images were recovered
+   */
+  public synchronized int[] recover() throws PagedStorageException {
+    Map<Integer, Long> staged = new HashMap<Integer, Long>();
+    long length = file.length();
+    long pos = FileStore.HEADER_LENGTH;
+    long committedEnd = pos;
+    Data block = Data.create(handler, BLOCK);
+    while (pos + BLOCK <= length) {
+      block.reset();
+      file.seek(pos);
+      file.readFully(block.getBytes(), 0, BLOCK);
+      int marker = block.readInt();
+      if (marker != COMMIT_MARKER && marker != STAGED_MARKER) {
+        break;
+      }
+      int count = block.readInt();
+      long batchLength = BLOCK + (long) count * (BLOCK + pageSize) + BLOCK;
+      if (count < 0 || count > maxStagedPages || pos + batchLength > length) {
+        break;
+      }
+      Data batch = Data.create(handler, (int) batchLength);
+      file.seek(pos);
+      file.readFully(batch.getBytes(), 0, (int) batchLength);
+      CRC32 crc = new CRC32();
+      crc.update(batch.getBytes(), 0, (int) batchLength - BLOCK);
+      batch.setPos((int) batchLength - BLOCK);
+      if (batch.readLong() != crc.getValue() || batch.readInt() != marker
+          || batch.readInt() != count) {
+        break;
+      }
+      for (int i = 0; i < count; i++) {
+        long imagePos = getImagePosition(pos, i);
+        batch.setPos((int) (imagePos - pos - BLOCK));
+        staged.put(batch.readInt(), imagePos);
+      }
+      pos += batchLength;
+      if (marker == COMMIT_MARKER) {
+        pendingImages.putAll(staged);
+        staged.clear();
+        committedEnd = pos;
+      }
+    }
+    if (committedEnd < length) {
+      IndexerPlugin.getLogger().trace(IndexerDebugOptions.ANOMALIES,
+          "Discarding " + (length - committedEnd) + " bytes of uncommitted or torn log at the end of "
+              + fileName);
+      file.setLength(committedEnd);
+      file.sync();
+    }
+    return toArray(pendingImages.keySet());
+  }
+
+  /**
+   * Record that the given page, which is not held in the page cache, has been changed, and stage
+   * its image until the next commit.
+   * 
+   * @param pageId the page id
+   * @param bytes the page image
+   */
+  public synchronized void stage(int pageId, byte[] bytes) throws PagedStorageException {
+    uncommittedPages.add(pageId);
+    addStagedImage(pageId, bytes);
+  }
+
+  /**
+   * Stage the image of the given page if the page has been changed since the last commit.
+   * 
+   * @param pageId the page id
+   * @param bytes the page image
+   * @return <code>true</code> if the image was staged, <code>false</code> if the page is committed
+   *         and may be written to the data file
+   */
+  public synchronized boolean stageIfUncommitted(int pageId, byte[] bytes)
+      throws PagedStorageException {
+    if (!uncommittedPages.contains(pageId)) {
+      return false;
+    }
+    addStagedImage(pageId, bytes);
+    return true;
+  }
+
+  /**
+   * Discard all committed batches. Must only be called once the data file holds every committed
+   * page and has been forced to disk. The log keeps its length while it holds images of
+   * uncommitted pages; it is truncated by the first checkpoint after they have been committed.
+   */
+  public synchronized void truncate() {
+    pendingImages.clear();
+    if (spilledImages.isEmpty()) {
+      file.setLength(FileStore.HEADER_LENGTH);
+      file.sync();
+    }
+  }
+
+  private void addStagedImage(int pageId, byte[] bytes) throws PagedStorageException {
+    byte[] image = new byte[pageSize];
+    System.arraycopy(bytes, 0, image, 0, pageSize);
+    stagedImages.put(pageId, image);
+    if (stagedImages.size() >= maxStagedPages) {
+      spillStagedImages();
+    }
+  }
+
+  /**
+   * Append the given images to the end of the log as one batch with the given marker.
+   * 
+   * @return the position of the batch in the log
+   */
+  private long append(int marker, List<PageImage> images) throws PagedStorageException {
+    int count = images.size();
+    Data batch = Data.create(handler, BLOCK + count * (BLOCK + pageSize) + BLOCK);
+    batch.writeInt(marker);
+    batch.writeInt(count);
+    batch.fill(BLOCK);
+    for (PageImage image : images) {
+      batch.writeInt(image.pageId);
+      batch.fill(batch.length() + BLOCK - 4);
+      batch.write(image.bytes, 0, pageSize);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(batch.getBytes(), 0, batch.length());
+    batch.writeLong(crc.getValue());
+    batch.writeInt(marker);
+    batch.writeInt(count);
+    long pos = file.length();
+    file.seek(pos);
+    file.write(batch.getBytes(), 0, batch.length());
+    return pos;
+  }
+
+  /**
+   * Return the position in the log of the image of the page with the given index in the batch
+   * at the given position. The id of the page immediately precedes it, at the start of a block.
+   */
+  private long getImagePosition(long batchPos, int index) {
+    return batchPos + BLOCK + (long) index * (BLOCK + pageSize) + BLOCK;
+  }
+
+  private byte[] readImage(long pos) {
+    byte[] image = new byte[pageSize];
+    file.seek(pos);
+    file.readFully(image, 0, pageSize);
+    return image;
+  }
+
+  /**
+   * Append the staged images to the log without forcing it, so that they no longer take up memory.
+   * They remain uncommitted until the next commit batch.
+   */
+  private void spillStagedImages() throws PagedStorageException {
+    List<PageImage> images = new ArrayList<PageImage>(stagedImages.size());
+    for (Map.Entry<Integer, byte[]> entry : stagedImages.entrySet()) {
+      images.add(new PageImage(entry.getKey().intValue(), entry.getValue()));
+    }
+    long pos = append(STAGED_MARKER, images);
+    for (int i = 0; i < images.size(); i++) {
+      spilledImages.put(images.get(i).pageId, getImagePosition(pos, i));
+    }
+    stagedImages.clear();
+    IndexerPlugin.getLogger().trace(IndexerDebugOptions.ALL_IO,
+        "WriteAheadLog.spill " + images.size() + " pages, log length " + file.length());
+  }
+
+  private int[] toArray(Set<Integer> pageIds) {
+    int[] result = new int[pageIds.size()];
+    int i = 0;
+    for (Iterator<Integer> iterator = pageIds.iterator(); iterator.hasNext();) {
+      result[i++] = iterator.next().intValue();
+    }
+    return result;
+  }
+}
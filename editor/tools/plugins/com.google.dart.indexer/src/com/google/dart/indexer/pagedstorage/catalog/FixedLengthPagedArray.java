@@ -156,9 +156,14 @@ public class FixedLengthPagedArray {
       return readableData(index).seek(0).readInt() == -2;
     }
 
+    /**
+     * Return a view of the entry with the given index. The view shares the bytes of this page but
+     * has its own position, so that concurrent readers do not disturb each other.
+     */
     public Data readableData(int index) {
-      data.setPos(DATA_OVERHEAD + index * dataSize);
-      return data;
+      Data view = Data.create(pagedStorage, data.getBytes());
+      view.setPos(DATA_OVERHEAD + index * dataSize);
+      return view;
     }
 
     public void setInfoPage(int index, int layer, int infoPage) {
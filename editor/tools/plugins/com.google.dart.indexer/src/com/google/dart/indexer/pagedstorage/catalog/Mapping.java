@@ -37,6 +37,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * Maps tree paths to row ids and row ids to the info stored for them. Lookups (<code>find</code>,
+ * <code>load</code>, <code>locateInfo</code>, <code>parentOf</code> and <code>resolve</code>) may
+ * run concurrently with each other; the pages they touch latch themselves while decoding.
+ * Modifications must be performed while holding the exclusive storage lock.
+ */
 public class Mapping implements TreeCoordListener, InfoStoreItemsHierarchy {
   public static final int ID_NONE = -1;
 
@@ -127,7 +133,7 @@ public class Mapping implements TreeCoordListener, InfoStoreItemsHierarchy {
     pos.delete();
   }
 
-  public synchronized int find(String[] path) throws PagedStorageException {
+  public int find(String[] path) throws PagedStorageException {
     return lookup(path, false);
   }
 
@@ -170,7 +176,7 @@ public class Mapping implements TreeCoordListener, InfoStoreItemsHierarchy {
     }
   }
 
-  public synchronized int[] load(int id) throws PagedStorageException {
+  public int[] load(int id) throws PagedStorageException {
     int[] result = new int[infoStores.length];
     CatalogPos pos = catalog.resolve(id);
     Data data = pos.readableData();
@@ -180,7 +186,7 @@ public class Mapping implements TreeCoordListener, InfoStoreItemsHierarchy {
     return result;
   }
 
-  public synchronized InfoPos locateInfo(int id, int layerId) throws PagedStorageException {
+  public InfoPos locateInfo(int id, int layerId) throws PagedStorageException {
     CatalogPos pos = catalog.resolve(id);
     if (pos == null) {
       return null;
@@ -189,7 +195,7 @@ public class Mapping implements TreeCoordListener, InfoStoreItemsHierarchy {
     return infoStores[layerId].readPos(data);
   }
 
-  public synchronized int parentOf(int id) throws PagedStorageException {
+  public int parentOf(int id) throws PagedStorageException {
     CatalogPos pos = catalog.resolve(id);
     if (pos == null) {
       return -1;
@@ -198,7 +204,7 @@ public class Mapping implements TreeCoordListener, InfoStoreItemsHierarchy {
     return data.readInt();
   }
 
-  public synchronized String[] resolve(int id) throws PagedStorageException {
+  public String[] resolve(int id) throws PagedStorageException {
     List<String> path = new ArrayList<String>();
     do {
       CatalogPos pos = catalog.resolve(id);
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.pagedstorage.filesystem;
+
+import com.google.dart.indexer.pagedstorage.util.FileUtils;
+import com.google.dart.indexer.pagedstorage.util.SysProperties;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * FileObject which maps the file into memory in fixed-size chunks. When the file grows, only the
+ * last, partially filled chunk is mapped again and new chunks are added; the mappings of the other
+ * chunks are left untouched, so a growing file is never remapped as a whole and files larger than
+ * 2 GB are supported. Reads and writes copy directly between the caller's array and the mapped
+ * memory. Mappings are released explicitly when they are replaced and when the file is closed,
+ * rather than when the buffers happen to be collected.
+ */
+public class ChunkedMappedFileObject implements FileObject {
+  private static final int CHUNK_SHIFT = 24;
+  private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final String name;
+  private final MapMode mode;
+  private RandomAccessFile file;
+  private FileChannel channel;
+
+  /**
+   * The mappings of the chunks of the file, in order.
+   */
+  private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+  /**
+   * For each chunk, whether it has been written since it was last forced to disk.
+   */
+  private boolean[] dirty = new boolean[0];
+
+  private long length;
+  private long pos;
+
+  ChunkedMappedFileObject(String fileName, AccessMode mode) throws IOException {
+    this.mode = mode == AccessMode.READ_ONLY ? MapMode.READ_ONLY : MapMode.READ_WRITE;
+    this.name = fileName;
+    file = new RandomAccessFile(fileName, mode.getMode());
+    channel = file.getChannel();
+    map(file.length());
+  }
+
+  /**
+   * Release the given mapping immediately. The buffer must not be accessed afterwards.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    if (!SysProperties.NIO_CLEANER_HACK) {
+      return;
+    }
+    // see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4724038
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+      unsafeField.setAccessible(true);
+      invokeCleaner.invoke(unsafeField.get(null), buffer);
+      return;
+    } catch (Throwable exception) {
+      // not available before Java 9
+    }
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      Method cleanMethod = cleaner.getClass().getMethod("clean");
+      cleanMethod.invoke(cleaner);
+    } catch (Throwable exception) {
+      // the mapping is released when the buffer is collected
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (int i = 0; i < chunks.length; i++) {
+      if (dirty[i]) {
+        chunks[i].force();
+      }
+      release(i);
+    }
+    chunks = new MappedByteBuffer[0];
+    dirty = new boolean[0];
+    file.close();
+    file = null;
+    channel = null;
+  }
+
+  @Override
+  public long getFilePointer() {
+    return pos;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+  @Override
+  public void readFully(byte[] b, int off, int len) throws IOException {
+    if (pos + len > length) {
+      throw new EOFException("Reading " + len + " bytes at " + pos + " beyond the end of " + name);
+    }
+    while (len > 0) {
+      MappedByteBuffer chunk = chunks[(int) (pos >>> CHUNK_SHIFT)];
+      int offset = (int) (pos & CHUNK_MASK);
+      int count = Math.min(len, chunk.capacity() - offset);
+      chunk.position(offset);
+      chunk.get(b, off, count);
+      pos += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  @Override
+  public void seek(long pos) {
+    this.pos = pos;
+  }
+
+  @Override
+  public void setFileLength(long newLength) throws IOException {
+    map(newLength);
+    if (pos > newLength) {
+      pos = newLength;
+    }
+  }
+
+  @Override
+  public void sync() throws IOException {
+    for (int i = 0; i < chunks.length; i++) {
+      if (dirty[i]) {
+        chunks[i].force();
+        dirty[i] = false;
+      }
+    }
+    file.getFD().sync();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (pos + len > length) {
+      setFileLength(pos + len);
+    }
+    while (len > 0) {
+      int index = (int) (pos >>> CHUNK_SHIFT);
+      MappedByteBuffer chunk = chunks[index];
+      int offset = (int) (pos & CHUNK_MASK);
+      int count = Math.min(len, chunk.capacity() - offset);
+      chunk.position(offset);
+      chunk.put(b, off, count);
+      dirty[index] = true;
+      pos += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  /**
+   * Change the length of the file and update the mappings. Only the chunks whose extent changes
+   * are mapped again.
+   */
+  private void map(long newLength) throws IOException {
+    int newCount = (int) ((newLength + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+    // release the mappings that no longer match before the file is resized; unmapping a shared
+    // mapping loses no data, and a remapped chunk stays dirty so that the next sync forces it
+    for (int i = 0; i < chunks.length; i++) {
+      if (i >= newCount || chunks[i].capacity() != chunkLength(newLength, i)) {
+        release(i);
+      }
+    }
+    if (newLength != file.length()) {
+      FileUtils.setLength(file, newLength);
+    }
+    MappedByteBuffer[] newChunks = new MappedByteBuffer[newCount];
+    boolean[] newDirty = new boolean[newCount];
+    int common = Math.min(chunks.length, newCount);
+    System.arraycopy(chunks, 0, newChunks, 0, common);
+    System.arraycopy(dirty, 0, newDirty, 0, common);
+    for (int i = 0; i < newCount; i++) {
+      if (newChunks[i] == null) {
+        newChunks[i] = channel.map(mode, (long) i << CHUNK_SHIFT, chunkLength(newLength, i));
+        if (SysProperties.NIO_LOAD_MAPPED) {
+          newChunks[i].load();
+        }
+      }
+    }
+    chunks = newChunks;
+    dirty = newDirty;
+    length = newLength;
+  }
+
+  private int chunkLength(long fileLength, int index) {
+    return (int) Math.min(CHUNK_SIZE, fileLength - ((long) index << CHUNK_SHIFT));
+  }
+
+  /**
+   * Release the mapping of the given chunk without forcing it to disk.
+   */
+  private void release(int index) {
+    MappedByteBuffer chunk = chunks[index];
+    if (chunk == null) {
+      return;
+    }
+    chunks[index] = null;
+    unmap(chunk);
+  }
+}
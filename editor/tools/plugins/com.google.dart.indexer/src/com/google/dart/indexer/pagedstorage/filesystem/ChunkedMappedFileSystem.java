@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.pagedstorage.filesystem;
+
+import java.io.IOException;
+
+/**
+ * This file system stores files on disk and accesses them through memory mappings that are made
+ * one chunk at a time.
+ */
+public class ChunkedMappedFileSystem extends NioFileSystem {
+  private static final ChunkedMappedFileSystem INSTANCE = new ChunkedMappedFileSystem();
+
+  public static DiskFileSystem getInstance() {
+    return INSTANCE;
+  }
+
+  @Override
+  protected String getPrefix() {
+    return FileSystem.PREFIX_NIO_CHUNKED;
+  }
+
+  @Override
+  protected FileObject open(String fileName, AccessMode mode) throws IOException {
+    return new ChunkedMappedFileObject(fileName, mode);
+  }
+}
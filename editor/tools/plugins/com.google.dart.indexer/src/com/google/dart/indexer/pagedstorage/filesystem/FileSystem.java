@@ -38,6 +38,11 @@ public abstract class FileSystem {
    */
   public static final String PREFIX_NIO_MAPPED = "nioMapped:";
 
+  /**
+   * The prefix used for the NIO file system that maps files in chunks.
+   */
+  public static final String PREFIX_NIO_CHUNKED = "nioChunked:";
+
   /**
    * Get the file system object.
    * 
@@ -53,6 +58,8 @@ public abstract class FileSystem {
       return NioFileSystem.getInstance();
     } else if (fileName.startsWith(PREFIX_NIO_MAPPED)) {
       return MemoryMappedFileSystem.getInstance();
+    } else if (fileName.startsWith(PREFIX_NIO_CHUNKED)) {
+      return ChunkedMappedFileSystem.getInstance();
     }
     return DiskFileSystem.getInstance();
   }
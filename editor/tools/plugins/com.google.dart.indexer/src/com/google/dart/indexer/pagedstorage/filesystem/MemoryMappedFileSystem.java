@@ -31,7 +31,8 @@ public class MemoryMappedFileSystem extends NioFileSystem {
     return FileSystem.PREFIX_NIO_MAPPED;
   }
 
-  protected FileObject open(String fileName, String mode) throws IOException {
-    return new MemoryMappedFileObject(fileName, mode);
+  @Override
+  protected FileObject open(String fileName, AccessMode mode) throws IOException {
+    return new MemoryMappedFileObject(fileName, mode.getMode());
   }
 }
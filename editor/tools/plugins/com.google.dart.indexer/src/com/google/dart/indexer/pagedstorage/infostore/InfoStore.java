@@ -288,7 +288,7 @@ public class InfoStore {
       return InfoStore.this;
     }
 
-    public boolean hasItem(int id) {
+    public synchronized boolean hasItem(int id) {
       return find(id) >= 0;
     }
 
@@ -318,7 +318,7 @@ public class InfoStore {
       }
     }
 
-    public int[] read(int itemId) {
+    public synchronized int[] read(int itemId) {
       int item = find(itemId);
       IndexerPlugin.getLogger().trace(IndexerDebugOptions.INFOSTORE_CALLS,
           "InfoStore.Page.read(): page " + getPos() + " item id " + itemId + " at " + item);
@@ -370,7 +370,7 @@ public class InfoStore {
       changed();
     }
 
-    public void stats(MappingLayerStats stats) {
+    public synchronized void stats(MappingLayerStats stats) {
       deserializeAll();
       for (int i = 0; i < count; i++) {
         stats.itemLength.add(items[i].length);
@@ -382,6 +382,9 @@ public class InfoStore {
     @Override
     protected void changed() {
       updateOffsets();
+      // mark the page as changed, so that it is logged and put back into the cache if it has been
+      // evicted while it was being modified
+      super.changed();
     }
 
     @Override
@@ -39,8 +39,13 @@ public abstract class StdRecord extends Record {
     return pagedStorage.getPageSize() >> 2;
   }
 
+  /**
+   * Serialize and write this record. The record's monitor is its page latch: readers that
+   * deserialize the page lazily hold it too, so a concurrent write-back never sees a half-decoded
+   * page.
+   */
   @Override
-  public final void write() throws PagedStorageException {
+  public final synchronized void write() throws PagedStorageException {
     serializeCached();
     pagedStorage.writePage(pageId, data);
   }
@@ -149,11 +149,26 @@ public class TreeStore {
    * <p>
    * Each record: N off1 child1 off2 child2 ... offN childN offL data1 data2 ... dataN
    * </p>
+   * <p>
+   * Each item: rowId [timestamp] shared suffix
+   * </p>
+   * <p>
+   * The items of a record are sorted by the UTF-8 bytes of their names. A name is stored as the
+   * number of leading bytes it shares with the name of the previous item, followed by the remaining
+   * bytes. Every {@link #RESTART_INTERVAL}th item is stored in full, so that lookups can binary
+   * search those items and scan forward from the nearest one, comparing bytes in place. Records
+   * that have not been changed are searched without being deserialized; names are only decoded
+   * into strings when they are read.
+   * </p>
    */
   class Page extends StdRecord {
     private static final int COUNT_LEN = 2;
     private static final int OFFSET_LEN = 2;
     private static final int CHILDREN_LEN = 2;
+    private static final int SHARED_LEN = 1;
+
+    private static final int MAX_SHARED = 0xFF;
+    private static final int RESTART_INTERVAL = 16;
 
     private static final int CB_EMPTY_PAGE_METADATA = COUNT_LEN + OFFSET_LEN /*
                                                                               * N, offL
@@ -280,11 +295,7 @@ public class TreeStore {
       }
       deserializeAll();
 
-      int size = CB_PAGE_METADATA_PER_RECORD + CB_EMPTY_RECORD_METADATA
-          + CB_RECORD_METADATA_PER_ITEM * itemCounts[record];
-      for (int item = 0; item < itemCounts[record]; item++) {
-        size += additionalData + itemNamesEncoded[record][item].length;
-      }
+      int size = CB_PAGE_METADATA_PER_RECORD + recordSize(record);
       for (int rec = 0; rec < recordCount; rec++) {
         int count = itemCounts[rec];
         for (int item = 0; item < count; item++) {
@@ -328,7 +339,7 @@ public class TreeStore {
       checkItem(record, item);
       deserializeAll();
 
-      int nameLength = itemNamesEncoded[record][item].length;
+      int oldSize = recordSize(record);
       itemChildren[record] = ArrayUtils.remove(itemChildren[record], item);
       itemRowIds[record] = ArrayUtils.remove(itemRowIds[record], item);
       if (itemTimeStamps != null) {
@@ -337,7 +348,7 @@ public class TreeStore {
       itemNames[record] = ArrayUtils.remove(itemNames[record], item);
       itemNamesEncoded[record] = ArrayUtils.remove(itemNamesEncoded[record], item);
       --itemCounts[record];
-      totalSize -= CB_RECORD_METADATA_PER_ITEM + additionalData + nameLength;
+      totalSize += recordSize(record) - oldSize;
       notifyRecordItemsPosChanged(record, item);
 
       changed();
@@ -355,18 +366,22 @@ public class TreeStore {
       }
     }
 
-    public int find(int record, String name) {
+    public synchronized int find(int record, String name) {
       if (record < 0 || record >= recordCount) {
         throw new IllegalArgumentException("Invalid record: " + record);
       }
+      byte[] key = new byte[Data.encodeString(name, null)];
+      Data.encodeString(name, key);
+      if (isSerialized(record)) {
+        return findSerialized(record, key);
+      }
 
-      deserializeRecordEntirely(record);
-
-      int count = itemCounts[record];
-      int l = 0, r = count;
+      byte[][] namesEncoded = itemNamesEncoded[record];
+      int l = 0, r = itemCounts[record];
       while (l < r) {
         int m = (l + r) >>> 1;
-        int cmp = itemNames[record][m].compareTo(name);
+        byte[] itemName = namesEncoded[m];
+        int cmp = compareNames(itemName, 0, itemName.length, key, 0);
         if (cmp == 0) {
           return m;
         }
@@ -398,8 +413,12 @@ public class TreeStore {
       return maxRecord;
     }
 
-    public int getChildren(int record, int index) {
-      deserializeMeta(record);
+    public synchronized int getChildren(int record, int index) {
+      if (isSerialized(record)) {
+        data.setPos(recordOffsets[record] + COUNT_LEN + index * CB_RECORD_METADATA_PER_ITEM
+            + OFFSET_LEN);
+        return data.readShortInt();
+      }
       return itemChildren[record][index];
     }
 
@@ -407,13 +426,19 @@ public class TreeStore {
       return recordCount;
     }
 
-    public int getRowId(int record, int item) {
-      deserializeRecordEntirely(record);
+    public synchronized int getRowId(int record, int item) {
+      if (isSerialized(record)) {
+        data.setPos(serializedItemPos(record, item));
+        return data.readInt();
+      }
       return itemRowIds[record][item];
     }
 
-    public long getTimestamp(int record, int item) {
-      deserializeRecordEntirely(record);
+    public synchronized long getTimestamp(int record, int item) {
+      if (isSerialized(record)) {
+        data.setPos(serializedItemPos(record, item) + 4);
+        return data.readLong();
+      }
       return itemTimeStamps[record][item];
     }
 
@@ -421,8 +446,11 @@ public class TreeStore {
       return TreeStore.this;
     }
 
-    public int itemCount(int record) {
-      deserializeMeta(record);
+    public synchronized int itemCount(int record) {
+      if (isSerialized(record)) {
+        data.setPos(recordOffsets[record]);
+        return data.readShortInt();
+      }
       return itemCounts[record];
     }
 
@@ -478,10 +506,10 @@ public class TreeStore {
       return newRecords;
     }
 
-    public String readName(int record, int item) {
-      deserializeMeta(record);
+    public synchronized String readName(int record, int item) {
+      deserializeRecordEntirely(record);
       checkItem(record, item);
-      return itemNames[record][item];
+      return name(record, item);
     }
 
     public void setChildPage(int record, int index, int pageId) {
@@ -531,11 +559,6 @@ public class TreeStore {
         consistencyCheck();
       }
       byte[] nameEncoded = Data.encodeStringAndCopy(name, new byte[10240]);
-      int size = CB_RECORD_METADATA_PER_ITEM + additionalData + nameEncoded.length;
-      if (totalSize + size > pagedStorage.getPageSize()) {
-        return ADD_NOROOM;
-      }
-      deserializeAll();
 
       // decide a position to insert at
       int item = find(record, name);
@@ -543,6 +566,16 @@ public class TreeStore {
         return ADD_EXISTS;
       }
       item = -(item + 1);
+      deserializeAll();
+
+      // Inserting shifts the later items relative to the restart points, so the names of other
+      // items may be stored with less of their prefix shared; measure the whole record again.
+      byte[][] namesEncoded = ArrayUtils.add(itemNamesEncoded[record], nameEncoded, item);
+      int oldSize = recordSize(record);
+      int newSize = recordSize(itemCounts[record] + 1, namesEncoded);
+      if (totalSize + newSize - oldSize > pagedStorage.getPageSize()) {
+        return ADD_NOROOM;
+      }
 
       itemChildren[record] = ArrayUtils.add(itemChildren[record], 0, item);
       itemRowIds[record] = ArrayUtils.add(itemRowIds[record], 0, item);
@@ -550,9 +583,9 @@ public class TreeStore {
         itemTimeStamps[record] = ArrayUtils.add(itemTimeStamps[record], 0, item);
       }
       itemNames[record] = ArrayUtils.add(itemNames[record], name, item);
-      itemNamesEncoded[record] = ArrayUtils.add(itemNamesEncoded[record], nameEncoded, item);
-      totalSize += size;
+      itemNamesEncoded[record] = namesEncoded;
       ++itemCounts[record];
+      totalSize += newSize - oldSize;
 
       if (coordListener != null) {
         for (int k = item + 1; k < itemCounts[record]; k++) {
@@ -610,7 +643,9 @@ public class TreeStore {
           if (timeStamps != null) {
             data.writeLong(timeStamps[item]);
           }
-          data.write(namesEncoded[item]);
+          int shared = sharedLength(namesEncoded, item);
+          data.writeByte((byte) shared);
+          data.write(namesEncoded[item], shared, namesEncoded[item].length - shared);
         }
         if (data.getPos() != recordOffsets[record] + offsets[count]) {
           throw new AssertionError("TreeStore page item offset calculation failed (at count="
@@ -646,11 +681,26 @@ public class TreeStore {
       if (record < 0 || record >= recordCount) {
         throw new IllegalArgumentException("Invalid record: " + record);
       }
-      if (item < 0 || item >= itemCounts[record]) {
+      if (item < 0 || item >= itemCount(record)) {
         throw new IllegalArgumentException("Invalid index " + item + " in record " + record);
       }
     }
 
+    /**
+     * Compare the name stored in the given range of bytes with the given key, byte by byte.
+     */
+    private int compareNames(byte[] bytes, int start, int end, byte[] key, int keyStart) {
+      int i = start, k = keyStart;
+      while (i < end && k < key.length) {
+        int b = bytes[i++] & 0xFF;
+        int c = key[k++] & 0xFF;
+        if (b != c) {
+          return b - c;
+        }
+      }
+      return (end - i) - (key.length - k);
+    }
+
     private void consistencyCheck() {
       updateRecordOffsets();
 
@@ -682,10 +732,6 @@ public class TreeStore {
       recordOffsets = null;
     }
 
-    private void deserializeMeta(int record) {
-      deserializeRecordEntirely(record);
-    }
-
     private void deserializeRecordEntirely(int record) {
       if (record < 0 || record >= recordCount) {
         throw new IllegalArgumentException("Invalid record: " + record);
@@ -703,7 +749,7 @@ public class TreeStore {
       int[] rowIds = itemRowIds[record] = new int[count];
       long[] timeStamps = (itemTimeStamps == null ? null
           : (itemTimeStamps[record] = new long[count]));
-      String[] names = itemNames[record] = new String[count];
+      itemNames[record] = new String[count];
       byte[][] namesEncoded = itemNamesEncoded[record] = new byte[count][];
 
       for (int item = 0; item < count; item++) {
@@ -718,11 +764,14 @@ public class TreeStore {
         if (timeStamps != null) {
           timeStamps[item] = data.readLong();
         }
-        int nameLength = offsets[item + 1] - offsets[item] - additionalData;
+        int shared = data.readByte() & 0xFF;
+        int suffixLength = offsets[item + 1] - offsets[item] - additionalData - SHARED_LEN;
 
-        byte[] nameEncoded = namesEncoded[item] = new byte[nameLength];
-        data.read(nameEncoded, 0, nameEncoded.length);
-        names[item] = Data.decodeString(nameEncoded, nameEncoded.length);
+        byte[] nameEncoded = namesEncoded[item] = new byte[shared + suffixLength];
+        if (shared > 0) {
+          System.arraycopy(namesEncoded[item - 1], 0, nameEncoded, 0, shared);
+        }
+        data.read(nameEncoded, shared, suffixLength);
       }
     }
 
@@ -737,7 +786,7 @@ public class TreeStore {
         Page childPage = readPage(child - PAGE_MARKER);
         pagesToDump.add(childPage);
       }
-      out.append(" ").append('"').append(itemNames[rec][index]).append('"');
+      out.append(" ").append('"').append(name(rec, index)).append('"');
       out.append(" 0 0 0 ").append(itemRowIds[rec][index]);
       out.append("\n");
     }
@@ -769,6 +818,95 @@ public class TreeStore {
       }
     }
 
+    /**
+     * Search the given record in the serialized form of the page. The items that start a run are
+     * binary searched, and the run that may contain the key is scanned using the number of bytes
+     * each name shares with its predecessor, so no name is ever decoded.
+     */
+    private int findSerialized(int record, byte[] key) {
+      byte[] bytes = data.getBytes();
+      int count = itemCount(record);
+
+      // find the last run whose first name is not greater than the key
+      int l = 0, r = (count + RESTART_INTERVAL - 1) / RESTART_INTERVAL;
+      while (l < r) {
+        int m = (l + r) >>> 1;
+        int item = m * RESTART_INTERVAL;
+        int nameStart = serializedItemPos(record, item) + additionalData + SHARED_LEN;
+        int cmp = compareNames(bytes, nameStart, serializedItemEnd(record, item), key, 0);
+        if (cmp == 0) {
+          return item;
+        }
+        if (cmp < 0) {
+          l = m + 1;
+        } else {
+          r = m;
+        }
+      }
+      if (l == 0) {
+        return -1;
+      }
+      int item = (l - 1) * RESTART_INTERVAL;
+      int runEnd = Math.min(count, item + RESTART_INTERVAL);
+
+      // the number of leading bytes the previous name has in common with the key; the previous
+      // name is known to be less than the key
+      int nameStart = serializedItemPos(record, item) + additionalData + SHARED_LEN;
+      int matched = matchedLength(bytes, nameStart, serializedItemEnd(record, item), key, 0);
+      while (++item < runEnd) {
+        int itemPos = serializedItemPos(record, item) + additionalData;
+        int shared = bytes[itemPos] & 0xFF;
+        if (shared > matched) {
+          // shares a smaller byte with the previous name
+          continue;
+        }
+        if (shared < matched && shared < MAX_SHARED) {
+          // differs from the previous name where the previous name still matched the key
+          return -item - 1;
+        }
+        int suffixStart = itemPos + SHARED_LEN;
+        int suffixEnd = serializedItemEnd(record, item);
+        int cmp = compareNames(bytes, suffixStart, suffixEnd, key, shared);
+        if (cmp == 0) {
+          return item;
+        }
+        if (cmp > 0) {
+          return -item - 1;
+        }
+        matched = shared + matchedLength(bytes, suffixStart, suffixEnd, key, shared);
+      }
+      return -runEnd - 1;
+    }
+
+    private boolean isSerialized(int record) {
+      return recordOffsets != null && itemChildren[record] == null;
+    }
+
+    /**
+     * Return the number of bytes in the given range that are equal to the bytes of the key
+     * starting at the given position.
+     */
+    private int matchedLength(byte[] bytes, int start, int end, byte[] key, int keyStart) {
+      int i = start, k = keyStart;
+      while (i < end && k < key.length && bytes[i] == key[k]) {
+        i++;
+        k++;
+      }
+      return i - start;
+    }
+
+    /**
+     * Return the name of the given item of a deserialized record, decoding it if necessary.
+     */
+    private String name(int record, int item) {
+      String name = itemNames[record][item];
+      if (name == null) {
+        byte[] nameEncoded = itemNamesEncoded[record][item];
+        name = itemNames[record][item] = Data.decodeString(nameEncoded, nameEncoded.length);
+      }
+      return name;
+    }
+
     private void notifyRecordItemsPosChanged(int record, int lowerItem)
         throws PagedStorageException {
       int count = itemCount(record);
@@ -781,12 +919,16 @@ public class TreeStore {
     }
 
     private int recordSize(int record) {
-      int count = itemCounts[record];
-      String[] names = itemNames[record];
+      return recordSize(itemCounts[record], itemNamesEncoded[record]);
+    }
 
+    /**
+     * Return the number of bytes taken by a record holding the given names.
+     */
+    private int recordSize(int count, byte[][] namesEncoded) {
       int size = CB_EMPTY_RECORD_METADATA + CB_RECORD_METADATA_PER_ITEM * count;
       for (int item = 0; item < count; item++) {
-        size += additionalData + Data.encodeString(names[item], null);
+        size += storedItemSize(namesEncoded, item);
       }
       return size;
     }
@@ -812,6 +954,22 @@ public class TreeStore {
       return newRecord;
     }
 
+    /**
+     * Return the position in the page of the given item of a serialized record.
+     */
+    private int serializedItemPos(int record, int item) {
+      data.setPos(recordOffsets[record] + COUNT_LEN + item * CB_RECORD_METADATA_PER_ITEM);
+      return recordOffsets[record] + data.readShortInt();
+    }
+
+    /**
+     * Return the position in the page just after the given item of a serialized record.
+     */
+    private int serializedItemEnd(int record, int item) {
+      data.setPos(recordOffsets[record] + COUNT_LEN + (item + 1) * CB_RECORD_METADATA_PER_ITEM);
+      return recordOffsets[record] + data.readShortInt();
+    }
+
     private void setChildrenX(int rec, int item, int child) {
       itemChildren[rec][item] = child;
     }
@@ -821,6 +979,23 @@ public class TreeStore {
       return targetPage.addChildRecord(size, this, record);
     }
 
+    /**
+     * Return the number of bytes the given name shares with the name before it, as stored.
+     */
+    private int sharedLength(byte[][] namesEncoded, int item) {
+      if (item % RESTART_INTERVAL == 0) {
+        return 0;
+      }
+      byte[] previous = namesEncoded[item - 1];
+      byte[] current = namesEncoded[item];
+      int max = Math.min(MAX_SHARED, Math.min(previous.length, current.length));
+      int shared = 0;
+      while (shared < max && previous[shared] == current[shared]) {
+        shared++;
+      }
+      return shared;
+    }
+
     private void statsItem(TreeStoreStats stats, List<Page> pagesToDump, int rec, int index)
         throws PagedStorageException {
       int child = itemChildren[rec][index];
@@ -828,7 +1003,7 @@ public class TreeStore {
         Page childPage = readPage(child - PAGE_MARKER);
         pagesToDump.add(childPage);
       }
-      stats.componentLength.add(itemNames[rec][index].length());
+      stats.componentLength.add(name(rec, index).length());
     }
 
     private void statsRecord(TreeStoreStats stats, List<Page> pagesToDump, int rec)
@@ -840,6 +1015,14 @@ public class TreeStore {
       }
     }
 
+    /**
+     * Return the number of bytes taken by the data of the given item, excluding its slot.
+     */
+    private int storedItemSize(byte[][] namesEncoded, int item) {
+      return additionalData + SHARED_LEN + namesEncoded[item].length
+          - sharedLength(namesEncoded, item);
+    }
+
     private void updateRecordOffsets() {
       if (recordOffsets != null) {
         return;
@@ -847,26 +1030,18 @@ public class TreeStore {
 
       recordOffsets = new int[recordCount + 1];
 
-      byte[] buf = new byte[10240];
       int offset = CB_EMPTY_PAGE_METADATA + recordCount * CB_PAGE_METADATA_PER_RECORD;
       for (int record = 0; record < recordCount; record++) {
         recordOffsets[record] = offset;
 
         int count = itemCounts[record];
         byte[][] namesEncoded = itemNamesEncoded[record];
-        String[] names = itemNames[record];
         int[] offsets = itemOffsets[record] = new int[count + 1];
 
-        for (int item = 0; item < count; item++) {
-          if (namesEncoded[item] == null) {
-            namesEncoded[item] = Data.encodeStringAndCopy(names[item], buf);
-          }
-        }
-
         int itemOffset = CB_EMPTY_RECORD_METADATA + CB_RECORD_METADATA_PER_ITEM * count;
         for (int item = 0; item < count; item++) {
           offsets[item] = itemOffset;
-          itemOffset += additionalData + namesEncoded[item].length;
+          itemOffset += storedItemSize(namesEncoded, item);
         }
         offsets[count] = itemOffset;
 
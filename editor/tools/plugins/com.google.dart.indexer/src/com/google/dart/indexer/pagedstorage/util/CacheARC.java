@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.pagedstorage.util;
+
+import com.google.dart.indexer.IndexerPlugin;
+import com.google.dart.indexer.debug.IndexerDebugOptions;
+import com.google.dart.indexer.pagedstorage.DebugConstants;
+import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageException;
+import com.google.dart.indexer.storage.paged.store.CacheObject;
+import com.google.dart.indexer.storage.paged.store.CacheWriter;
+
+/**
+ * A cache implementation based on the adaptive replacement cache (ARC) algorithm. For more about
+ * the algorithm, see http://www.usenix.org/events/fast03/tech/megiddo.html . Objects referenced
+ * once live in the 'recent' queue and move to the 'frequent' queue when they are referenced again.
+ * The keys of objects evicted from either queue are remembered in a ghost queue; a miss on a ghost
+ * key shifts the target size of the 'recent' queue towards the queue that would have kept it. A
+ * scan that touches many pages once therefore only cycles through the 'recent' queue and leaves the
+ * pages in the 'frequent' queue alone.
+ * <p>
+ * All sizes are measured in words (4 bytes), so that the cache is sized by a memory budget rather
+ * than by a number of records.
+ */
+public class CacheARC implements Cache {
+  /**
+   * The key of an object that has been evicted, remembered together with the size it had.
+   */
+  private static class Ghost extends CacheHead {
+    private final int size;
+
+    Ghost(int pos, int size) {
+      setPos(pos);
+      this.size = size;
+    }
+  }
+
+  static final String TYPE_NAME = "ARC";
+
+  private static final int RECENT = 1, FREQUENT = 2, GHOST_RECENT = 3, GHOST_FREQUENT = 4;
+
+  private final CacheWriter writer;
+  private final CacheObject headRecent = new CacheHead();
+  private final CacheObject headFrequent = new CacheHead();
+  private final CacheObject headGhostRecent = new CacheHead();
+  private final CacheObject headGhostFrequent = new CacheHead();
+  private final int len;
+  private final int mask;
+  private int maxSize;
+
+  /**
+   * The size the 'recent' queue is aimed to have; adapted on every miss on a ghost key.
+   */
+  private int targetRecent;
+
+  private int sizeRecent, sizeFrequent, sizeGhostRecent, sizeGhostFrequent;
+
+  /**
+   * The number of cached objects, not counting ghost keys.
+   */
+  private int recordCount;
+  private CacheObject[] values;
+
+  private long hits, misses, evictions;
+
+  public CacheARC(CacheWriter writer, int maxKb) {
+    this.writer = writer;
+    this.maxSize = maxKb * 1024 / 4;
+    this.len = MathUtils.nextPowerOf2(maxSize / 64);
+    this.mask = len - 1;
+    MathUtils.checkPowerOf2(len);
+    clear();
+  }
+
+  @Override
+  public void clear() {
+    headRecent.next = headRecent.previous = headRecent;
+    headFrequent.next = headFrequent.previous = headFrequent;
+    headGhostRecent.next = headGhostRecent.previous = headGhostRecent;
+    headGhostFrequent.next = headGhostFrequent.previous = headGhostFrequent;
+    // first set to null - avoiding out of memory
+    values = null;
+    values = new CacheObject[len];
+    sizeRecent = sizeFrequent = sizeGhostRecent = sizeGhostFrequent = 0;
+    targetRecent = 0;
+    recordCount = 0;
+  }
+
+  @Override
+  public CacheObject find(int pos) {
+    CacheObject rec = findCacheObject(pos);
+    if (rec != null && !(rec instanceof Ghost)) {
+      return rec;
+    }
+    return null;
+  }
+
+  @Override
+  public CacheObject get(int pos) {
+    CacheObject rec = find(pos);
+    if (rec == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    touch(rec);
+    return rec;
+  }
+
+  @Override
+  public ObjectArray<CacheObject> getAllChanged() {
+    ObjectArray<CacheObject> list = ObjectArray.newInstance();
+    for (CacheObject o = headFrequent.next; o != headFrequent; o = o.next) {
+      if (o.isChanged()) {
+        list.add(o);
+      }
+    }
+    for (CacheObject o = headRecent.next; o != headRecent; o = o.next) {
+      if (o.isChanged()) {
+        list.add(o);
+      }
+    }
+    CacheObject.sort(list);
+    return list;
+  }
+
+  /**
+   * Return the number of objects that have been removed to make room for others.
+   * 
+   * @return the number of evicted objects
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Return the number of calls to {@link #get(int)} that found the requested object.
+   * 
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  @Override
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Return the number of calls to {@link #get(int)} that did not find the requested object.
+   * 
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Return the size the 'recent' queue is currently aimed to have.
+   * 
+   * @return the target size in number of double words (4 bytes)
+   */
+  public int getRecentTargetSize() {
+    return targetRecent;
+  }
+
+  @Override
+  public int getSize() {
+    return sizeRecent + sizeFrequent;
+  }
+
+  @Override
+  public String getTypeName() {
+    return TYPE_NAME;
+  }
+
+  @Override
+  public void put(CacheObject rec) throws PagedStorageException {
+    int pos = rec.getPos();
+    int size = rec.getMemorySize();
+    CacheObject ghost = findCacheObject(pos);
+    if (ghost instanceof Ghost) {
+      // the object was evicted too early: grow the queue that would have kept it
+      if (ghost.cacheQueue == GHOST_RECENT) {
+        int delta = size * Math.max(1, sizeGhostFrequent / Math.max(1, sizeGhostRecent));
+        targetRecent = Math.min(maxSize, targetRecent + delta);
+      } else {
+        int delta = size * Math.max(1, sizeGhostRecent / Math.max(1, sizeGhostFrequent));
+        targetRecent = Math.max(0, targetRecent - delta);
+      }
+      removeGhost((Ghost) ghost);
+      rec.cacheQueue = FREQUENT;
+      putCacheObject(rec);
+      addToFront(headFrequent, rec);
+      sizeFrequent += size;
+      recordCount++;
+    } else {
+      if (DebugConstants.CHECK && ghost != null) {
+        throw new IllegalArgumentException("try to add a record twice pos:" + pos);
+      }
+      rec.cacheQueue = RECENT;
+      putCacheObject(rec);
+      addToFront(headRecent, rec);
+      sizeRecent += size;
+      recordCount++;
+    }
+    trimGhosts();
+    removeOldIfRequired();
+  }
+
+  @Override
+  public void remove(int pos) {
+    CacheObject rec = findCacheObject(pos);
+    if (rec == null) {
+      return;
+    }
+    if (rec instanceof Ghost) {
+      removeGhost((Ghost) rec);
+      return;
+    }
+    removeCacheObject(pos);
+    removeFromList(rec);
+    recordCount--;
+    if (rec.cacheQueue == RECENT) {
+      sizeRecent -= rec.getMemorySize();
+    } else {
+      sizeFrequent -= rec.getMemorySize();
+    }
+  }
+
+  @Override
+  public void setMaxSize(int maxKb) throws PagedStorageException {
+    int newSize = maxKb * 1024 / 4;
+    maxSize = newSize < 0 ? 0 : newSize;
+    targetRecent = Math.min(targetRecent, maxSize);
+    // can not resize, otherwise existing records are lost
+    // resize(maxSize);
+    removeOldIfRequired();
+  }
+
+  @Override
+  public CacheObject update(int pos, CacheObject rec) throws PagedStorageException {
+    CacheObject old = find(pos);
+    if (old == null) {
+      put(rec);
+    } else {
+      if (DebugConstants.CHECK) {
+        if (old != rec) {
+          throw new IllegalArgumentException(
+              "Attemp to write conflicting records into cache - pos:" + pos + " old:" + old
+                  + " new:" + rec);
+        }
+      }
+      touch(rec);
+    }
+    return old;
+  }
+
+  private void addGhost(CacheObject head, int queue, int pos, int size) {
+    Ghost ghost = new Ghost(pos, size);
+    ghost.cacheQueue = queue;
+    putCacheObject(ghost);
+    addToFront(head, ghost);
+    if (queue == GHOST_RECENT) {
+      sizeGhostRecent += size;
+    } else {
+      sizeGhostFrequent += size;
+    }
+  }
+
+  private void addToFront(CacheObject head, CacheObject rec) {
+    if (DebugConstants.CHECK) {
+      if (rec == head) {
+        throw new IllegalArgumentException("try to move head");
+      }
+      if (rec.next != null || rec.previous != null) {
+        throw new IllegalArgumentException("already linked");
+      }
+    }
+    rec.next = head;
+    rec.previous = head.previous;
+    rec.previous.next = rec;
+    head.previous = rec;
+  }
+
+  /**
+   * Remove the least recently used object from the given queue and remember its key in the
+   * corresponding ghost queue.
+   * 
+   * @return the evicted object, or <code>null</code> if the object could not be removed and was
+   *         moved to the front of its queue instead
+   */
+  private CacheObject evict(CacheObject head) {
+    CacheObject rec = head.next;
+    if (!rec.canRemove()) {
+      removeFromList(rec);
+      addToFront(head, rec);
+      return null;
+    }
+    int pos = rec.getPos();
+    int size = rec.getMemorySize();
+    removeCacheObject(pos);
+    removeFromList(rec);
+    recordCount--;
+    if (head == headRecent) {
+      sizeRecent -= size;
+      addGhost(headGhostRecent, GHOST_RECENT, pos, size);
+    } else {
+      sizeFrequent -= size;
+      addGhost(headGhostFrequent, GHOST_FREQUENT, pos, size);
+    }
+    evictions++;
+    return rec;
+  }
+
+  private CacheObject findCacheObject(int pos) {
+    CacheObject rec = values[pos & mask];
+    while (rec != null && rec.getPos() != pos) {
+      rec = rec.chained;
+    }
+    return rec;
+  }
+
+  private void putCacheObject(CacheObject rec) {
+    int index = rec.getPos() & mask;
+    rec.chained = values[index];
+    values[index] = rec;
+  }
+
+  private CacheObject removeCacheObject(int pos) {
+    int index = pos & mask;
+    CacheObject rec = values[index];
+    if (rec == null) {
+      return null;
+    }
+    if (rec.getPos() == pos) {
+      values[index] = rec.chained;
+    } else {
+      CacheObject last;
+      do {
+        last = rec;
+        rec = rec.chained;
+        if (rec == null) {
+          return null;
+        }
+      } while (rec.getPos() != pos);
+      last.chained = rec.chained;
+    }
+    if (DebugConstants.CHECK) {
+      rec.chained = null;
+    }
+    return rec;
+  }
+
+  private void removeFromList(CacheObject rec) {
+    rec.previous.next = rec.next;
+    rec.next.previous = rec.previous;
+    rec.next = null;
+    rec.previous = null;
+  }
+
+  private void removeGhost(Ghost ghost) {
+    removeCacheObject(ghost.getPos());
+    removeFromList(ghost);
+    if (ghost.cacheQueue == GHOST_RECENT) {
+      sizeGhostRecent -= ghost.size;
+    } else {
+      sizeGhostFrequent -= ghost.size;
+    }
+  }
+
+  private void removeOld() throws PagedStorageException {
+    int i = 0;
+    ObjectArray<CacheObject> changed = ObjectArray.newInstance();
+    while (sizeRecent + sizeFrequent > maxSize && recordCount > Constants.CACHE_MIN_RECORDS) {
+      i++;
+      if (i >= recordCount * 2) {
+        // hopefully this does not happen too much, but it could happen
+        // theoretically
+        IndexerPlugin.getLogger().trace(IndexerDebugOptions.RARE_ANOMALIES,
+            "Cannot remove records, cache size too small?");
+        break;
+      }
+      boolean fromRecent = sizeRecent > 0 && (sizeRecent > targetRecent || sizeFrequent == 0);
+      CacheObject rec = evict(fromRecent ? headRecent : headFrequent);
+      if (rec != null && rec.isChanged()) {
+        changed.add(rec);
+      }
+    }
+    trimGhosts();
+    if (changed.size() > 0) {
+      CacheObject.sort(changed);
+      for (i = 0; i < changed.size(); i++) {
+        CacheObject rec = changed.get(i);
+        writer.writeBack(rec);
+      }
+    }
+  }
+
+  private void removeOldIfRequired() throws PagedStorageException {
+    // a small method, to allow inlining
+    if (sizeRecent + sizeFrequent > maxSize) {
+      removeOld();
+    }
+  }
+
+  /**
+   * Record a reference to a cached object: move it to the front of the 'frequent' queue.
+   */
+  private void touch(CacheObject rec) {
+    removeFromList(rec);
+    if (rec.cacheQueue == RECENT) {
+      int size = rec.getMemorySize();
+      sizeRecent -= size;
+      sizeFrequent += size;
+      rec.cacheQueue = FREQUENT;
+    }
+    addToFront(headFrequent, rec);
+  }
+
+  /**
+   * Bound the ghost queues: the 'recent' queue and its ghosts together, and all four queues
+   * together, never remember more than one and two cache sizes respectively.
+   */
+  private void trimGhosts() {
+    while (sizeRecent + sizeGhostRecent > maxSize && headGhostRecent.next != headGhostRecent) {
+      removeGhost((Ghost) headGhostRecent.next);
+    }
+    while (sizeRecent + sizeFrequent + sizeGhostRecent + sizeGhostFrequent > 2 * maxSize
+        && headGhostFrequent.next != headGhostFrequent) {
+      removeGhost((Ghost) headGhostFrequent.next);
+    }
+  }
+}
@@ -38,6 +38,14 @@ public abstract class AbstractIntegratedStorage {
     this.configuration = configuration;
   }
 
+  /**
+   * Prepare the storage for a full rebuild of the index. Storages that have no faster way of
+   * loading a whole index simply discard their contents.
+   */
+  public void beginBulkLoad() {
+    destroy();
+  }
+
   public void checkpoint() {
   }
 
@@ -61,6 +69,13 @@ public abstract class AbstractIntegratedStorage {
   public void destroy() {
   }
 
+  /**
+   * Complete a full rebuild started by {@link #beginBulkLoad()}, making everything written since
+   * then visible. Does nothing if no rebuild is in progress.
+   */
+  public void endBulkLoad() {
+  }
+
   public void flushCaches() {
   }
 
@@ -17,15 +17,25 @@ import com.google.dart.indexer.IndexerPlugin;
 import com.google.dart.indexer.debug.IndexerDebugOptions;
 import com.google.dart.indexer.index.configuration.IndexConfigurationInstance;
 import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageException;
+import com.google.dart.indexer.pagedstorage.filesystem.FileSystem;
 import com.google.dart.indexer.storage.db.DbStorage;
 import com.google.dart.indexer.storage.inmemory.OptimizedIndexStorage;
+import com.google.dart.indexer.storage.inmemory.StorageManager;
 import com.google.dart.indexer.storage.paged.DiskMappedStorage;
 
 import java.io.File;
+import java.io.IOException;
 
 public class StorageFactory {
   private static final int STORAGE_TYPE = 2;
 
+  /**
+   * The prefix selecting the file system used by the paged storage: one of
+   * {@link FileSystem#PREFIX_NIO_CHUNKED}, {@link FileSystem#PREFIX_NIO_MAPPED} or
+   * {@link FileSystem#PREFIX_NIO}.
+   */
+  private static final String PAGED_FILE_SYSTEM = FileSystem.PREFIX_NIO_CHUNKED;
+
   @SuppressWarnings("fallthrough")
   public static AbstractIntegratedStorage createStorage(IndexConfigurationInstance configuration,
       File rootFolder) {
@@ -33,6 +43,14 @@ public class StorageFactory {
       case 0:
         IndexerPlugin.getLogger().trace(IndexerDebugOptions.MISCELLANEOUS,
             "Creating in-memory ('old') storage.");
+        try {
+          OptimizedIndexStorage storage = StorageManager.loadFromCache(configuration);
+          if (storage != null) {
+            return storage;
+          }
+        } catch (IOException exception) {
+          IndexerPlugin.getLogger().logError(exception, "Could not load the index snapshot");
+        }
         return new OptimizedIndexStorage(configuration);
       case 1:
         IndexerPlugin.getLogger().trace(IndexerDebugOptions.MISCELLANEOUS, "Creating DB storage.");
@@ -40,8 +58,8 @@ public class StorageFactory {
       case 2:
         try {
           IndexerPlugin.getLogger().trace(IndexerDebugOptions.MISCELLANEOUS,
-              "Creating paged memory storage.");
-          return new DiskMappedStorage(configuration, rootFolder);
+              "Creating paged memory storage using " + PAGED_FILE_SYSTEM);
+          return new DiskMappedStorage(configuration, rootFolder, PAGED_FILE_SYSTEM);
         } catch (PagedStorageException exception) {
           IndexerPlugin.getLogger().logError(exception);
         }
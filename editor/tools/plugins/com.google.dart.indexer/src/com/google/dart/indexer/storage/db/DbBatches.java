@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Instances of the class <code>DbBatches</code> manage the batches of the statements inserting rows
+ * into the connection and file tables of a {@link DbStorage}. They record which connections and
+ * files the rows that have not been executed yet belong to, so that a batch is only executed when
+ * it grows too large, when everything is flushed, or before a query that may read or delete its
+ * rows.
+ */
+public class DbBatches {
+  /**
+   * Return the value identifying the connections to the given destination in the given layer.
+   */
+  private static Long connectionKey(int destinationId, int layerId) {
+    return Long.valueOf(((long) destinationId << 32) | layerId);
+  }
+
+  /**
+   * The number of rows a batch can hold before it is executed.
+   */
+  private final int batchSize;
+
+  /**
+   * The statement inserting rows into the connection table.
+   */
+  private final PreparedStatement connectionStatement;
+
+  /**
+   * The statements inserting rows into the file tables.
+   */
+  private final PreparedStatement[] fileStatements;
+
+  /**
+   * The statements that have rows added to their batch that have not been executed yet, mapped to
+   * the number of these rows.
+   */
+  private final Map<PreparedStatement, Integer> pendingBatches =
+      new LinkedHashMap<PreparedStatement, Integer>();
+
+  /**
+   * The destination and layer of the connections that have been added to the batch of the
+   * connection statement, see {@link #connectionKey(int, int)}.
+   */
+  private final Set<Long> pendingConnections = new HashSet<Long>();
+
+  /**
+   * The IDs of the files whose rows have been added to the batches of the file statements.
+   */
+  private final Set<Integer> pendingFiles = new HashSet<Integer>();
+
+  /**
+   * Initialize a newly created set of batches for the given statements.
+   * 
+   * @param batchSize the number of rows a batch can hold before it is executed
+   * @param connectionStatement the statement inserting rows into the connection table
+   * @param fileStatements the statements inserting rows into the file tables
+   */
+  public DbBatches(int batchSize, PreparedStatement connectionStatement,
+      PreparedStatement... fileStatements) {
+    this.batchSize = batchSize;
+    this.connectionStatement = connectionStatement;
+    this.fileStatements = fileStatements;
+  }
+
+  /**
+   * Add the current parameters of the connection statement to its batch.
+   * 
+   * @param destinationId the ID of the destination of the connection
+   * @param layerId the ID of the layer of the connection
+   */
+  public void addConnection(int destinationId, int layerId) throws SQLException {
+    addToBatch(connectionStatement);
+    pendingConnections.add(connectionKey(destinationId, layerId));
+  }
+
+  /**
+   * Add the current parameters of the given file statement to its batch.
+   * 
+   * @param statement one of the statements inserting rows into the file tables
+   * @param fileId the ID of the file the row belongs to
+   */
+  public void addFileRow(PreparedStatement statement, int fileId) throws SQLException {
+    addToBatch(statement);
+    pendingFiles.add(Integer.valueOf(fileId));
+  }
+
+  /**
+   * Discard the rows that have been added to the batches but not executed yet.
+   */
+  public void discard() throws SQLException {
+    try {
+      for (PreparedStatement statement : pendingBatches.keySet()) {
+        statement.clearBatch();
+      }
+    } finally {
+      pendingBatches.clear();
+      pendingConnections.clear();
+      pendingFiles.clear();
+    }
+  }
+
+  /**
+   * Execute the batches of all of the statements that have rows added to them.
+   */
+  public void flush() throws SQLException {
+    flushConnections();
+    flushFileContents();
+  }
+
+  /**
+   * Execute the batch of the connection statement, so that queries of the connection table see its
+   * rows.
+   */
+  public void flushConnections() throws SQLException {
+    executeBatches(connectionStatement);
+    pendingConnections.clear();
+  }
+
+  /**
+   * Execute the batch of the connection statement if it holds connections to the given destination
+   * in the given layer.
+   */
+  public void flushConnections(int destinationId, int layerId) throws SQLException {
+    if (pendingConnections.contains(connectionKey(destinationId, layerId))) {
+      flushConnections();
+    }
+  }
+
+  /**
+   * Execute the batches of the file statements, so that queries of the file tables see their rows.
+   */
+  public void flushFileContents() throws SQLException {
+    executeBatches(fileStatements);
+    pendingFiles.clear();
+  }
+
+  /**
+   * Execute the batches of the file statements if they hold rows of the given file.
+   */
+  public void flushFileContents(int fileId) throws SQLException {
+    if (pendingFiles.contains(Integer.valueOf(fileId))) {
+      flushFileContents();
+    }
+  }
+
+  /**
+   * Add the current parameters of the given statement to its batch, executing the batch if it has
+   * grown too large.
+   */
+  private void addToBatch(PreparedStatement statement) throws SQLException {
+    statement.addBatch();
+    Integer count = pendingBatches.get(statement);
+    int newCount = count == null ? 1 : count.intValue() + 1;
+    pendingBatches.put(statement, Integer.valueOf(newCount));
+    if (newCount >= batchSize) {
+      executeBatches(statement);
+    }
+  }
+
+  /**
+   * Execute the batches of the given statements that have rows added to them. If one of them fails,
+   * the rows of all of the batches are discarded.
+   */
+  private void executeBatches(PreparedStatement... statements) throws SQLException {
+    try {
+      for (PreparedStatement statement : statements) {
+        if (pendingBatches.remove(statement) != null) {
+          statement.executeBatch();
+        }
+      }
+    } catch (SQLException exception) {
+      discard();
+      throw exception;
+    }
+  }
+}
@@ -14,6 +14,7 @@
 package com.google.dart.indexer.storage.db;
 
 import com.google.dart.indexer.IndexerPlugin;
+import com.google.dart.indexer.index.PerformanceRelatedConstants;
 import com.google.dart.indexer.index.configuration.IndexConfigurationInstance;
 import com.google.dart.indexer.index.entries.DependentEntity;
 import com.google.dart.indexer.index.entries.DependentFileInfo;
@@ -52,16 +53,16 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * Instances of the class <code>DbStorage</code> store the index in an H2 database.
+ * <p>
+ * The connection does not auto-commit: everything written between two checkpoints, which is what a
+ * {@link com.google.dart.indexer.storage.StorageTransaction StorageTransaction} writes, is
+ * committed as a single database transaction. The rows inserted into the connection and file
+ * tables are added to batches of their prepared statements, which {@link DbBatches} executes when
+ * they grow too large, at a checkpoint, or before a query that may read or delete their rows.
+ */
 public class DbStorage extends AbstractIntegratedStorage {
-  class LocationData {
-    final int id;
-    final String handle;
-
-    public LocationData(int id, String handle) {
-      this.id = id;
-      this.handle = handle;
-    }
-  }
 
   /**
    * @deprecated use {@link #sourceFromPortableString(String)}
@@ -102,8 +103,10 @@ public class DbStorage extends AbstractIntegratedStorage {
   private PreparedStatement deleteConnectionsStatement;
   private PreparedStatement selectLayerStatement;
   private PreparedStatement insertLayerStatement;
-  private PreparedStatement selectAllLocationsStatement;
-  private PreparedStatement deleteConnectionsByLocationStatement;
+  private PreparedStatement selectLayerSourcesStatement;
+  private PreparedStatement selectLayerDestinationsStatement;
+  private PreparedStatement deleteConnectionsBySourceStatement;
+  private PreparedStatement deleteConnectionsByDestinationStatement;
   private PreparedStatement deleteLocationByIdStatement;
   private PreparedStatement selectDestinationHandlesStatement;
   private PreparedStatement findFileByNameStatement;
@@ -123,12 +126,18 @@ public class DbStorage extends AbstractIntegratedStorage {
 
   private PreparedStatement selectAllFilesStatement;
 
+  /**
+   * The batches of the statements inserting into the connection and file tables.
+   */
+  private DbBatches batches;
+
   public DbStorage(IndexConfigurationInstance configuration) {
     super(configuration);
     try {
       Class.forName("org.h2.Driver");
       // connection = DriverManager.getConnection("jdbc:h2:mem:", "sa", "");
       connection = DriverManager.getConnection("jdbc:h2:~/indexerdba", "sa", "");
+      connection.setAutoCommit(false);
       Statement stat = connection.createStatement();
 
       // stat.executeUpdate("DROP TABLE IF EXISTS locations");
@@ -145,7 +154,16 @@ public class DbStorage extends AbstractIntegratedStorage {
       stat.executeUpdate("CREATE TABLE IF NOT EXISTS file_source_locations(file_id int not null, location_id int not null, primary key(file_id, location_id))");
       stat.executeUpdate("CREATE TABLE IF NOT EXISTS file_dependent_locations(file_id int not null, location_id int not null, layer_id int not null, internal bool, primary key(file_id, location_id, layer_id, internal))");
       stat.executeUpdate("CREATE TABLE IF NOT EXISTS file_dependent_files(file_id int not null, dependent_file_id int not null, internal bool, primary key(file_id, dependent_file_id, internal))");
-      selectAllLocationsStatement = connection.prepareStatement("SELECT id, handle FROM locations");
+      stat.executeUpdate("CREATE INDEX IF NOT EXISTS locations_handle ON locations(handle)");
+      stat.executeUpdate("CREATE INDEX IF NOT EXISTS layers_name ON layers(name)");
+      stat.executeUpdate("CREATE INDEX IF NOT EXISTS files_name ON files(name)");
+      stat.executeUpdate("CREATE INDEX IF NOT EXISTS connections_destination ON connections(dst_id, layer_id)");
+      stat.executeUpdate("CREATE INDEX IF NOT EXISTS connections_layer_destination ON connections(layer_id, dst_id)");
+      stat.executeUpdate("CREATE INDEX IF NOT EXISTS connections_layer_source ON connections(layer_id, src_id)");
+      stat.close();
+      connection.commit();
+      selectLayerSourcesStatement = connection.prepareStatement("SELECT dst_id, destinations.handle, sources.handle FROM connections INNER JOIN locations destinations ON connections.dst_id = destinations.id INNER JOIN locations sources ON connections.src_id = sources.id WHERE layer_id = ? ORDER BY dst_id");
+      selectLayerDestinationsStatement = connection.prepareStatement("SELECT src_id, sources.handle, destinations.handle FROM connections INNER JOIN locations sources ON connections.src_id = sources.id INNER JOIN locations destinations ON connections.dst_id = destinations.id WHERE layer_id = ? ORDER BY src_id");
       selectLocationStatement = connection.prepareStatement("SELECT id FROM locations WHERE handle = ?");
       insertLocationStatement = connection.prepareStatement(
           "INSERT INTO locations(handle) VALUES(?)", Statement.RETURN_GENERATED_KEYS);
@@ -156,7 +174,8 @@ public class DbStorage extends AbstractIntegratedStorage {
       selectDestinationHandlesStatement = connection.prepareStatement("SELECT handle FROM connections INNER JOIN locations ON connections.dst_id = locations.id WHERE src_id = ? and layer_id = ?");
       insertConnectionStatement = connection.prepareStatement("INSERT INTO connections(src_id, dst_id, layer_id) VALUES(?, ?, ?)");
       deleteConnectionsStatement = connection.prepareStatement("DELETE FROM connections WHERE dst_id = ? AND layer_id = ?");
-      deleteConnectionsByLocationStatement = connection.prepareStatement("DELETE FROM connections WHERE src_id = ? OR dst_id = ?");
+      deleteConnectionsBySourceStatement = connection.prepareStatement("DELETE FROM connections WHERE src_id = ?");
+      deleteConnectionsByDestinationStatement = connection.prepareStatement("DELETE FROM connections WHERE dst_id = ?");
       deleteLocationByIdStatement = connection.prepareStatement("DELETE FROM locations WHERE id = ?");
       findFileByNameStatement = connection.prepareStatement("SELECT id FROM files WHERE name = ?");
       insertFileStatement = connection.prepareStatement("INSERT INTO files(name, mod_stamp) VALUES (?, ?)");
@@ -171,6 +190,9 @@ public class DbStorage extends AbstractIntegratedStorage {
       selectFileDependentLocations = connection.prepareStatement("SELECT handle, layers.name, internal FROM locations INNER JOIN file_dependent_locations ON locations.id=file_dependent_locations.location_id INNER JOIN layers ON layers.id=file_dependent_locations.layer_id WHERE file_id = ?");
       selectFileDependentFiles = connection.prepareStatement("SELECT name, internal FROM files INNER JOIN file_dependent_files ON files.id=file_dependent_files.dependent_file_id WHERE file_id = ?");
       selectAllFilesStatement = connection.prepareStatement("SELECT id, name, mod_stamp FROM files");
+      batches = new DbBatches(PerformanceRelatedConstants.DB_BATCH_SIZE,
+          insertConnectionStatement, insertFileSourceLocationStatement,
+          insertFileDependentLocationStatement, insertFileDependentFileStatement);
     } catch (ClassNotFoundException exception) {
       IndexerPlugin.getLogger().logError(exception);
     } catch (SQLException exception) {
@@ -178,8 +200,23 @@ public class DbStorage extends AbstractIntegratedStorage {
     }
   }
 
+  /**
+   * Execute the pending batches and commit everything written since the last checkpoint.
+   */
+  @Override
+  public void checkpoint() {
+    try {
+      batches.flush();
+      connection.commit();
+    } catch (SQLException exception) {
+      IndexerPlugin.getLogger().logError(exception);
+      rollback();
+    }
+  }
+
   @Override
   public void close() {
+    checkpoint();
     try {
       connection.close();
     } catch (SQLException exception) {
@@ -196,16 +233,7 @@ public class DbStorage extends AbstractIntegratedStorage {
       if (fileId == -1) {
         return;
       }
-
-      deleteFileSourceLocationsStatement.setInt(1, fileId);
-      deleteFileSourceLocationsStatement.executeUpdate();
-
-      deleteFileDependentLocationsStatement.setInt(1, fileId);
-      deleteFileDependentLocationsStatement.executeUpdate();
-
-      deleteFileDependentFilesStatement.setInt(1, fileId);
-      deleteFileDependentFilesStatement.executeUpdate();
-
+      deleteFileContents(fileId);
       deleteFileByIdStatement.setInt(1, fileId);
       deleteFileByIdStatement.executeUpdate();
     } catch (SQLException exception) {
@@ -221,16 +249,7 @@ public class DbStorage extends AbstractIntegratedStorage {
       if (fileId == -1) {
         return;
       }
-
-      deleteFileSourceLocationsStatement.setInt(1, fileId);
-      deleteFileSourceLocationsStatement.executeUpdate();
-
-      deleteFileDependentLocationsStatement.setInt(1, fileId);
-      deleteFileDependentLocationsStatement.executeUpdate();
-
-      deleteFileDependentFilesStatement.setInt(1, fileId);
-      deleteFileDependentFilesStatement.executeUpdate();
-
+      deleteFileContents(fileId);
       deleteFileByIdStatement.setInt(1, fileId);
       deleteFileByIdStatement.executeUpdate();
     } catch (SQLException exception) {
@@ -247,9 +266,11 @@ public class DbStorage extends AbstractIntegratedStorage {
         return;
       }
 
-      deleteConnectionsByLocationStatement.setInt(1, id);
-      deleteConnectionsByLocationStatement.setInt(2, id);
-      deleteConnectionsByLocationStatement.executeUpdate();
+      batches.flushConnections();
+      deleteConnectionsBySourceStatement.setInt(1, id);
+      deleteConnectionsBySourceStatement.executeUpdate();
+      deleteConnectionsByDestinationStatement.setInt(1, id);
+      deleteConnectionsByDestinationStatement.executeUpdate();
 
       deleteLocationByIdStatement.setInt(1, id);
       deleteLocationByIdStatement.executeUpdate();
@@ -263,6 +284,7 @@ public class DbStorage extends AbstractIntegratedStorage {
   public Map<IndexableSource, FileInfo> newReadAllFileInfos(IndexConfigurationInstance configuration) {
     HashMap<IndexableSource, FileInfo> result = new HashMap<IndexableSource, FileInfo>();
     try {
+      batches.flushFileContents();
       ResultSet resultSet = selectAllFilesStatement.executeQuery();
       while (resultSet.next()) {
         int id = resultSet.getInt(1);
@@ -285,6 +307,7 @@ public class DbStorage extends AbstractIntegratedStorage {
   public Map<IFile, FileInfo> readAllFileInfos(IndexConfigurationInstance instance) {
     HashMap<IFile, FileInfo> result = new HashMap<IFile, FileInfo>();
     try {
+      batches.flushFileContents();
       ResultSet resultSet = selectAllFilesStatement.executeQuery();
       while (resultSet.next()) {
         int id = resultSet.getInt(1);
@@ -305,22 +328,33 @@ public class DbStorage extends AbstractIntegratedStorage {
   @Override
   public void readAllLayerLocationsInto(Map<Location, LocationInfo> locationInfos, Layer layer) {
     try {
+      batches.flushConnections();
       int layerId = lookupLayer(layer.getId().stringValue());
-
-      Collection<LocationData> ids = new ArrayList<LocationData>();
-      ResultSet resultSet = selectAllLocationsStatement.executeQuery();
-      while (resultSet.next()) {
-        ids.add(new LocationData(resultSet.getInt(1), resultSet.getString(2)));
-      }
-      resultSet.close();
-
-      for (Iterator<LocationData> iterator = ids.iterator(); iterator.hasNext();) {
-        LocationData data = iterator.next();
-        LocationInfo info = doReadLocation(layerId, data.id, layer);
-        Location location = LocationPersitence.getInstance().byUniqueIdentifier(data.handle);
-        if (location != null && !info.isEmpty()) {
-          locationInfos.put(location, info);
+      Map<Location, Collection<Location>> sources = readLayerEdges(selectLayerSourcesStatement,
+          layerId);
+      if (layer instanceof ReverseEdgesLayer) {
+        for (Map.Entry<Location, Collection<Location>> entry : sources.entrySet()) {
+          if (!entry.getValue().isEmpty()) {
+            locationInfos.put(entry.getKey(), new ReverseEdgesLocationInfo(entry.getValue()));
+          }
+        }
+      } else if (layer instanceof BidirectionalEdgesLayer) {
+        Map<Location, Collection<Location>> destinations = readLayerEdges(
+            selectLayerDestinationsStatement, layerId);
+        Set<Location> locations = new HashSet<Location>(sources.keySet());
+        locations.addAll(destinations.keySet());
+        for (Location location : locations) {
+          Collection<Location> sourceLocations = sources.get(location);
+          Collection<Location> destinationLocations = destinations.get(location);
+          LocationInfo info = new BidirectionalEdgesLocationInfo(
+              sourceLocations == null ? new ArrayList<Location>() : sourceLocations,
+              destinationLocations == null ? new ArrayList<Location>() : destinationLocations);
+          if (!info.isEmpty()) {
+            locationInfos.put(location, info);
+          }
         }
+      } else {
+        throw new AssertionError("Unsupported kind of layer");
       }
     } catch (SQLException exception) {
       IndexerPlugin.getLogger().logError(exception);
@@ -421,28 +455,8 @@ public class DbStorage extends AbstractIntegratedStorage {
     String name = getPortableString(file);
     try {
       int fileId = lookupFile(name, file.getModificationStamp());
-
-      deleteFileSourceLocationsStatement.setInt(1, fileId);
-      deleteFileSourceLocationsStatement.executeUpdate();
-
-      deleteFileDependentLocationsStatement.setInt(1, fileId);
-      deleteFileDependentLocationsStatement.executeUpdate();
-
-      deleteFileDependentFilesStatement.setInt(1, fileId);
-      deleteFileDependentFilesStatement.executeUpdate();
-
-      Collection<Location> sourceLocations = info.getSourceLocations();
-      for (Iterator<Location> iterator = sourceLocations.iterator(); iterator.hasNext();) {
-        Location location = iterator.next();
-        int locationId = lookupLocation(LocationPersitence.getInstance().getUniqueIdentifier(
-            location));
-        insertFileSourceLocationStatement.setInt(1, fileId);
-        insertFileSourceLocationStatement.setInt(2, locationId);
-        insertFileSourceLocationStatement.executeUpdate();
-      }
-
-      insertDependencies(fileId, info.getInternalDependencies(), true);
-      insertDependencies(fileId, info.getExternalDependencies(), false);
+      deleteFileContents(fileId);
+      insertFileContents(fileId, info);
     } catch (SQLException exception) {
       IndexerPlugin.getLogger().logError(exception);
     }
@@ -453,28 +467,8 @@ public class DbStorage extends AbstractIntegratedStorage {
     String name = getPortableString(source);
     try {
       int fileId = lookupFile(name, source.getModificationStamp());
-
-      deleteFileSourceLocationsStatement.setInt(1, fileId);
-      deleteFileSourceLocationsStatement.executeUpdate();
-
-      deleteFileDependentLocationsStatement.setInt(1, fileId);
-      deleteFileDependentLocationsStatement.executeUpdate();
-
-      deleteFileDependentFilesStatement.setInt(1, fileId);
-      deleteFileDependentFilesStatement.executeUpdate();
-
-      Collection<Location> sourceLocations = info.getSourceLocations();
-      for (Iterator<Location> iterator = sourceLocations.iterator(); iterator.hasNext();) {
-        Location location = iterator.next();
-        int locationId = lookupLocation(LocationPersitence.getInstance().getUniqueIdentifier(
-            location));
-        insertFileSourceLocationStatement.setInt(1, fileId);
-        insertFileSourceLocationStatement.setInt(2, locationId);
-        insertFileSourceLocationStatement.executeUpdate();
-      }
-
-      insertDependencies(fileId, info.getInternalDependencies(), true);
-      insertDependencies(fileId, info.getExternalDependencies(), false);
+      deleteFileContents(fileId);
+      insertFileContents(fileId, info);
     } catch (SQLException exception) {
       IndexerPlugin.getLogger().logError(exception);
     }
@@ -497,6 +491,7 @@ public class DbStorage extends AbstractIntegratedStorage {
       int destinationId = lookupLocation(destinationHandleIdentifier);
       int layer = lookupLayer(layerObj.getId().stringValue());
 
+      batches.flushConnections(destinationId, layer);
       deleteConnectionsStatement.setInt(1, destinationId);
       deleteConnectionsStatement.setInt(2, layer);
       deleteConnectionsStatement.executeUpdate();
@@ -522,7 +517,7 @@ public class DbStorage extends AbstractIntegratedStorage {
           insertConnectionStatement.setInt(1, sourceId);
           insertConnectionStatement.setInt(2, destinationId);
           insertConnectionStatement.setInt(3, layer);
-          insertConnectionStatement.executeUpdate();
+          batches.addConnection(destinationId, layer);
         }
       }
     } catch (SQLException exception) {
@@ -565,7 +560,7 @@ public class DbStorage extends AbstractIntegratedStorage {
   }
 
   int lookupFile(String name, long modStamp) throws SQLException {
-    int result = findLayer(name);
+    int result = findFile(name);
     if (result == -1) {
       insertFileStatement.setString(1, name);
       insertFileStatement.setLong(2, modStamp);
@@ -616,8 +611,21 @@ public class DbStorage extends AbstractIntegratedStorage {
     return result;
   }
 
+  private void deleteFileContents(int fileId) throws SQLException {
+    batches.flushFileContents(fileId);
+    deleteFileSourceLocationsStatement.setInt(1, fileId);
+    deleteFileSourceLocationsStatement.executeUpdate();
+
+    deleteFileDependentLocationsStatement.setInt(1, fileId);
+    deleteFileDependentLocationsStatement.executeUpdate();
+
+    deleteFileDependentFilesStatement.setInt(1, fileId);
+    deleteFileDependentFilesStatement.executeUpdate();
+  }
+
   private FileInfo doReadFileInfo(IndexConfigurationInstance instance, int fileId)
       throws SQLException {
+    batches.flushFileContents(fileId);
     Collection<Location> sourceLocations = new ArrayList<Location>();
     Collection<DependentEntity> internalDependencies = new ArrayList<DependentEntity>();
     Collection<DependentEntity> externalDependencies = new ArrayList<DependentEntity>();
@@ -630,6 +638,12 @@ public class DbStorage extends AbstractIntegratedStorage {
   }
 
   private LocationInfo doReadLocation(int layerId, int id, Layer layer) throws SQLException {
+    // the destinations of a bidirectional location are the connections of which it is the source
+    if (layer instanceof BidirectionalEdgesLayer) {
+      batches.flushConnections();
+    } else {
+      batches.flushConnections(id, layerId);
+    }
     Collection<Location> sourceLocations = new ArrayList<Location>();
     {
       selectSourceHandlesStatement.setInt(1, id);
@@ -667,6 +681,9 @@ public class DbStorage extends AbstractIntegratedStorage {
 
   private void insertDependencies(int fileId, Collection<DependentEntity> dependencies,
       boolean internal) throws SQLException, AssertionError {
+    // The rows are only inserted when the batch is executed, so duplicates must be skipped here.
+    Set<Long> usedLocations = new HashSet<Long>();
+    Set<Integer> usedFiles = new HashSet<Integer>();
     for (Iterator<DependentEntity> iterator = dependencies.iterator(); iterator.hasNext();) {
       DependentEntity dependentEntity = iterator.next();
       if (dependentEntity instanceof DependentLocation) {
@@ -674,26 +691,50 @@ public class DbStorage extends AbstractIntegratedStorage {
         int locationId = lookupLocation(LocationPersitence.getInstance().getUniqueIdentifier(
             dependentLocation.getDependentLocation()));
         int layerId = lookupLayer(dependentLocation.getDependentLayer().getId().stringValue());
+        if (!usedLocations.add(Long.valueOf(((long) locationId << 32) | layerId))) {
+          continue;
+        }
         insertFileDependentLocationStatement.setInt(1, fileId);
         insertFileDependentLocationStatement.setInt(2, locationId);
         insertFileDependentLocationStatement.setInt(3, layerId);
         insertFileDependentLocationStatement.setBoolean(4, internal);
-        insertFileDependentLocationStatement.executeUpdate();
+        batches.addFileRow(insertFileDependentLocationStatement, fileId);
       } else if (dependentEntity instanceof DependentFileInfo) {
         DependentFileInfo dependentFileInfo = (DependentFileInfo) dependentEntity;
         IFile dependentFile = dependentFileInfo.getFile();
         int dependentFileId = lookupFile(getPortableString(dependentFile),
             dependentFile.getModificationStamp());
+        if (!usedFiles.add(Integer.valueOf(dependentFileId))) {
+          continue;
+        }
         insertFileDependentFileStatement.setInt(1, fileId);
         insertFileDependentFileStatement.setInt(2, dependentFileId);
         insertFileDependentFileStatement.setBoolean(3, internal);
-        insertFileDependentFileStatement.executeUpdate();
+        batches.addFileRow(insertFileDependentFileStatement, fileId);
       } else {
         throw new AssertionError("Unexpected kind of dependent entity");
       }
     }
   }
 
+  private void insertFileContents(int fileId, FileInfo info) throws SQLException {
+    Set<Integer> usedLocationIds = new HashSet<Integer>();
+    Collection<Location> sourceLocations = info.getSourceLocations();
+    for (Iterator<Location> iterator = sourceLocations.iterator(); iterator.hasNext();) {
+      Location location = iterator.next();
+      int locationId = lookupLocation(LocationPersitence.getInstance().getUniqueIdentifier(
+          location));
+      if (usedLocationIds.add(Integer.valueOf(locationId))) {
+        insertFileSourceLocationStatement.setInt(1, fileId);
+        insertFileSourceLocationStatement.setInt(2, locationId);
+        batches.addFileRow(insertFileSourceLocationStatement, fileId);
+      }
+    }
+
+    insertDependencies(fileId, info.getInternalDependencies(), true);
+    insertDependencies(fileId, info.getExternalDependencies(), false);
+  }
+
   private void loadDependentFiles(int fileId, Collection<DependentEntity> internalDependencies,
       Collection<DependentEntity> externalDependencies) throws SQLException {
     selectFileDependentFiles.setInt(1, fileId);
@@ -732,4 +773,51 @@ public class DbStorage extends AbstractIntegratedStorage {
       sourceLocations.add(location);
     }
   }
+
+  /**
+   * Read the edges of a whole layer with a single query, whose rows consist of the ID and handle of
+   * a location followed by the handle of one of its edges, ordered by the ID of the location.
+   * 
+   * @return the locations mapped to the locations at the other end of their edges
+   */
+  private Map<Location, Collection<Location>> readLayerEdges(PreparedStatement statement,
+      int layerId) throws SQLException {
+    Map<Location, Collection<Location>> result = new HashMap<Location, Collection<Location>>();
+    statement.setInt(1, layerId);
+    statement.setFetchSize(PerformanceRelatedConstants.DB_FETCH_SIZE);
+    ResultSet resultSet = statement.executeQuery();
+    try {
+      int currentId = -1;
+      Collection<Location> edges = null;
+      while (resultSet.next()) {
+        int id = resultSet.getInt(1);
+        if (edges == null || id != currentId) {
+          currentId = id;
+          edges = new ArrayList<Location>();
+          Location location = LocationPersitence.getInstance().byUniqueIdentifier(
+              resultSet.getString(2));
+          if (location != null) {
+            result.put(location, edges);
+          }
+        }
+        Location otherLocation = LocationPersitence.getInstance().byUniqueIdentifier(
+            resultSet.getString(3));
+        if (otherLocation != null) {
+          edges.add(otherLocation);
+        }
+      }
+    } finally {
+      resultSet.close();
+    }
+    return result;
+  }
+
+  private void rollback() {
+    try {
+      batches.discard();
+      connection.rollback();
+    } catch (SQLException exception) {
+      IndexerPlugin.getLogger().logError(exception);
+    }
+  }
 }
@@ -16,12 +16,32 @@ package com.google.dart.indexer.storage.inmemory;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public final class ByteByteArray {
   public byte[][] data;
   public int elementsCount = 0;
 
+  /**
+   * The part of a snapshot holding the elements that have not been read yet, or <code>null</code>
+   * if the elements were not loaded from a snapshot.
+   */
+  private ByteBuffer snapshot;
+
+  /**
+   * The offset in the snapshot of each element, valid for the elements whose length is not
+   * negative.
+   */
+  private int[] snapshotOffsets;
+
+  /**
+   * The length in the snapshot of each element, or <code>-1</code> once the element has been read
+   * or replaced.
+   */
+  private int[] snapshotLengths;
+
   public ByteByteArray(DataInputStream stream) throws IOException {
     this.elementsCount = stream.readInt();
     data = new byte[elementsCount][];
@@ -39,6 +59,28 @@ public final class ByteByteArray {
     data = new byte[capacity][];
   }
 
+  /**
+   * Initialize a newly created array whose elements are read from the given part of a snapshot
+   * the first time they are accessed.
+   * 
+   * @param snapshot the concatenated contents of the elements
+   * @param lengths the length of each element, or <code>-1</code> for a <code>null</code> element
+   */
+  ByteByteArray(ByteBuffer snapshot, int[] lengths) {
+    elementsCount = lengths.length;
+    data = new byte[elementsCount][];
+    this.snapshot = snapshot;
+    snapshotLengths = lengths;
+    snapshotOffsets = new int[lengths.length];
+    int offset = 0;
+    for (int i = 0; i < lengths.length; i++) {
+      snapshotOffsets[i] = offset;
+      if (lengths[i] > 0) {
+        offset += lengths[i];
+      }
+    }
+  }
+
   public void add(byte[] value) {
     if (data.length == elementsCount) {
       byte[][] newData = new byte[data.length * 2][];
@@ -57,11 +99,49 @@ public final class ByteByteArray {
       return true;
     }
     ByteByteArray other = (ByteByteArray) obj;
+    readAll();
+    other.readAll();
 
     return elementsCount == other.elementsCount && arrayEqual(data, other.data, elementsCount);
   }
 
+  public byte[] get(int index) {
+    if (isInSnapshot(index)) {
+      byte[] value = new byte[snapshotLengths[index]];
+      ByteBuffer source = snapshot.duplicate();
+      source.position(snapshotOffsets[index]);
+      source.get(value);
+      data[index] = value;
+      snapshotLengths[index] = -1;
+    }
+    return data[index];
+  }
+
+  /**
+   * Read all of the elements that are still in the snapshot, so that the snapshot is no longer
+   * referenced.
+   */
+  public void readAll() {
+    if (snapshotLengths == null) {
+      return;
+    }
+    for (int i = 0; i < snapshotLengths.length; i++) {
+      get(i);
+    }
+    snapshot = null;
+    snapshotOffsets = null;
+    snapshotLengths = null;
+  }
+
+  public void set(int index, byte[] value) {
+    if (snapshotLengths != null && index < snapshotLengths.length) {
+      snapshotLengths[index] = -1;
+    }
+    data[index] = value;
+  }
+
   public byte[][] toArray() {
+    readAll();
     if (data.length == elementsCount) {
       return data;
     } else {
@@ -72,7 +152,20 @@ public final class ByteByteArray {
     }
   }
 
+  /**
+   * Return the length of the element at the given index, or <code>-1</code> if the element is
+   * <code>null</code>, without reading the element from the snapshot.
+   */
+  int length(int index) {
+    if (isInSnapshot(index)) {
+      return snapshotLengths[index];
+    }
+    byte[] value = data[index];
+    return value == null ? -1 : value.length;
+  }
+
   void store(DataOutputStream stream) throws IOException {
+    readAll();
     stream.writeInt(elementsCount);
     for (int a = 0; a < elementsCount; a++) {
       byte[] b = data[a];
@@ -85,6 +178,27 @@ public final class ByteByteArray {
     }
   }
 
+  /**
+   * Write the contents of the element at the given index to the given stream. An element that is
+   * still in the snapshot is copied straight out of it, through the given buffer, without being
+   * read into this array.
+   */
+  void write(int index, OutputStream out, byte[] buffer) throws IOException {
+    if (isInSnapshot(index)) {
+      ByteBuffer source = snapshot.duplicate();
+      source.position(snapshotOffsets[index]);
+      int remaining = snapshotLengths[index];
+      while (remaining > 0) {
+        int count = Math.min(buffer.length, remaining);
+        source.get(buffer, 0, count);
+        out.write(buffer, 0, count);
+        remaining -= count;
+      }
+    } else if (data[index] != null) {
+      out.write(data[index]);
+    }
+  }
+
   private boolean arrayEqual(byte[][] data2, byte[][] data3, int count) {
     if (data2 == data3) {
       return true;
@@ -97,4 +211,8 @@ public final class ByteByteArray {
     }
     return true;
   }
+
+  private boolean isInSnapshot(int index) {
+    return snapshotLengths != null && index < snapshotLengths.length && snapshotLengths[index] >= 0;
+  }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.inmemory;
+
+import com.google.dart.indexer.index.configuration.IndexConfigurationInstance;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The class <code>IndexSnapshot</code> saves the contents of an {@link OptimizedIndexStorage} to a
+ * versioned, checksummed binary file and loads them back by mapping the file into memory.
+ * <p>
+ * Every primitive array is written as its length followed by its raw contents, so that loading it
+ * is a bulk copy out of the mapping. The location infos of the layers, which make up most of the
+ * file, are not copied at all: each of them is read from the mapping the first time it is
+ * accessed. The string pools are kept in their encoded form and only decoded when a string is
+ * needed.
+ * <p>
+ * The file ends with a CRC-32 of everything before it, followed by the magic number again, so that
+ * a snapshot that was only partially written is rejected.
+ */
+public final class IndexSnapshot {
+  private static final long MAGIC = 0x494E445853505348L;
+
+  /**
+   * The version of the snapshot format, to be incremented whenever the layout changes.
+   */
+  private static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 12;
+
+  private static final int TRAILER_LENGTH = 16;
+
+  private static final int ENCODER_PLAIN = 1;
+
+  private static final int ENCODER_OPTIMIZED = 2;
+
+  /**
+   * Load the storage saved in the given snapshot.
+   * 
+   * @param file the snapshot to be loaded
+   * @param configuration the configuration of the index
+   * @return the storage saved in the snapshot
+   * @throws IOException if the snapshot cannot be read, was written by another version or is
+   *           corrupted
+   */
+  public static OptimizedIndexStorage load(File file, IndexConfigurationInstance configuration)
+      throws IOException {
+    MappedByteBuffer buffer;
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      long length = randomAccessFile.length();
+      if (length < HEADER_LENGTH + TRAILER_LENGTH || length > Integer.MAX_VALUE) {
+        throw new IOException("Invalid snapshot length " + length + ": " + file);
+      }
+      buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+    } finally {
+      randomAccessFile.close();
+    }
+    int bodyEnd = buffer.limit() - TRAILER_LENGTH;
+    if (buffer.getLong(0) != MAGIC || buffer.getLong(bodyEnd + 8) != MAGIC) {
+      throw new IOException("Not an index snapshot: " + file);
+    }
+    if (buffer.getInt(8) != VERSION) {
+      throw new IOException("Unsupported index snapshot version " + buffer.getInt(8) + ": " + file);
+    }
+    if (buffer.getLong(bodyEnd) != checksum(buffer, bodyEnd)) {
+      throw new IOException("Corrupted index snapshot: " + file);
+    }
+    buffer.position(HEADER_LENGTH);
+    buffer.limit(bodyEnd);
+
+    int maxLocationsSize = buffer.getInt();
+    SimpleStringPool layerIds = readStringPool(buffer);
+    int size = buffer.getInt();
+    int[] ids = readInts(buffer);
+    IntArray locationInfos = new IntArray(readInts(buffer));
+    IntArray positions = new IntArray(readInts(buffer));
+    LocationInfoManager locationInfoPool = new LocationInfoManager(size, ids, locationInfos,
+        positions, readByteArray(buffer), null);
+    size = buffer.getInt();
+    ids = readInts(buffer);
+    IntArray fileInfoIds = new IntArray(readInts(buffer));
+    positions = new IntArray(readInts(buffer));
+    FileInfoManager fileInfoPool = new FileInfoManager(size, ids, fileInfoIds, positions,
+        readByteArray(buffer), null);
+    ByteByteArray fileInfos = readByteByteArray(buffer);
+    int layerCount = buffer.getInt();
+    HashMap<String, ByteByteArray> layers = new HashMap<String, ByteByteArray>();
+    for (int i = 0; i < layerCount; i++) {
+      byte[] name = new byte[buffer.getInt()];
+      buffer.get(name);
+      String layerId = new String(name, "UTF-8");
+      layers.put(layerId, readByteByteArray(buffer));
+    }
+    BitSet deletedFiles = readBitSet(buffer);
+    BitSet deletedLocations = readBitSet(buffer);
+    if (buffer.hasRemaining()) {
+      throw new IOException("Unexpected data at the end of the index snapshot: " + file);
+    }
+
+    OptimizedIndexStorage storage = new OptimizedIndexStorage(configuration);
+    storage.setAllDatas(fileInfoPool, layerIds, layers, maxLocationsSize, fileInfos, deletedFiles,
+        deletedLocations, locationInfoPool);
+    return storage;
+  }
+
+  /**
+   * Save the contents of the given storage to a snapshot. The caller must hold the lock of the
+   * storage.
+   * 
+   * @param storage the storage to be saved
+   * @param file the file to which the snapshot is written
+   * @throws IOException if the snapshot could not be written
+   */
+  public static void save(OptimizedIndexStorage storage, File file) throws IOException {
+    OutputStream stream = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+    try {
+      CheckedOutputStream checkedStream = new CheckedOutputStream(stream, new CRC32());
+      DataOutputStream out = new DataOutputStream(checkedStream);
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(storage.getMaxLocationSize());
+      writeStringPool(storage.getLayerIds(), out);
+      LocationInfoManager locationInfoPool = storage.getLocationInfoPool();
+      out.writeInt(locationInfoPool.size);
+      writeInts(locationInfoPool.ids, locationInfoPool.ids.length, out);
+      writeInts(locationInfoPool.locationInfos, out);
+      writeInts(locationInfoPool.positions, out);
+      writeByteArray(locationInfoPool.array, out);
+      FileInfoManager fileInfoPool = storage.getFileInfoPool();
+      out.writeInt(fileInfoPool.size);
+      writeInts(fileInfoPool.ids, fileInfoPool.ids.length, out);
+      writeInts(fileInfoPool.locationInfos, out);
+      writeInts(fileInfoPool.positions, out);
+      writeByteArray(fileInfoPool.array, out);
+      writeByteByteArray(storage.getFileInfos(), out);
+      Map<String, ByteByteArray> layers = storage.getLayersMap();
+      out.writeInt(layers.size());
+      for (Map.Entry<String, ByteByteArray> entry : layers.entrySet()) {
+        byte[] name = entry.getKey().getBytes("UTF-8");
+        out.writeInt(name.length);
+        out.write(name);
+        writeByteByteArray(entry.getValue(), out);
+      }
+      writeBitSet(storage.getDeletedFileIds(), out);
+      writeBitSet(storage.getDeletedElementIds(), out);
+      out.flush();
+
+      DataOutputStream trailer = new DataOutputStream(stream);
+      trailer.writeLong(checkedStream.getChecksum().getValue());
+      trailer.writeLong(MAGIC);
+      trailer.flush();
+    } finally {
+      stream.close();
+    }
+  }
+
+  private static long checksum(ByteBuffer buffer, int length) {
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[1 << 16];
+    ByteBuffer source = buffer.duplicate();
+    source.position(0);
+    int remaining = length;
+    while (remaining > 0) {
+      int count = Math.min(chunk.length, remaining);
+      source.get(chunk, 0, count);
+      crc.update(chunk, 0, count);
+      remaining -= count;
+    }
+    return crc.getValue();
+  }
+
+  private static BitSet readBitSet(ByteBuffer buffer) {
+    BitSet result = new BitSet();
+    for (int bit : readInts(buffer)) {
+      result.set(bit);
+    }
+    return result;
+  }
+
+  private static ByteArray readByteArray(ByteBuffer buffer) throws IOException {
+    byte[] data = new byte[buffer.getInt()];
+    buffer.get(data);
+    int encoderKind = buffer.get();
+    AbstractStringEncoder encoder;
+    if (encoderKind == ENCODER_PLAIN) {
+      encoder = new PlainStringEncoder();
+    } else if (encoderKind == ENCODER_OPTIMIZED) {
+      encoder = new OptimizedStringEncoder2(readStringPool(buffer));
+    } else {
+      throw new IOException("Unknown string encoder " + encoderKind);
+    }
+    return new ByteArray(data.length, data, encoder);
+  }
+
+  private static ByteByteArray readByteByteArray(ByteBuffer buffer) {
+    int[] lengths = readInts(buffer);
+    int contentsLength = buffer.getInt();
+    ByteBuffer contents = buffer.slice();
+    contents.limit(contentsLength);
+    buffer.position(buffer.position() + contentsLength);
+    return new ByteByteArray(contents, lengths);
+  }
+
+  private static int[] readInts(ByteBuffer buffer) {
+    int[] result = new int[buffer.getInt()];
+    buffer.asIntBuffer().get(result);
+    buffer.position(buffer.position() + 4 * result.length);
+    return result;
+  }
+
+  private static SimpleStringPool readStringPool(ByteBuffer buffer) throws IOException {
+    int size = buffer.getInt();
+    int[] ids = readInts(buffer);
+    IntArray positions = new IntArray(readInts(buffer));
+    return new SimpleStringPool(size, ids, positions, readByteArray(buffer));
+  }
+
+  private static void writeBitSet(BitSet bits, DataOutputStream out) throws IOException {
+    out.writeInt(bits.cardinality());
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      out.writeInt(i);
+    }
+  }
+
+  private static void writeByteArray(ByteArray array, DataOutputStream out) throws IOException {
+    out.writeInt(array.elementsCount);
+    out.write(array.data, 0, array.elementsCount);
+    if (array.encoder instanceof PlainStringEncoder) {
+      out.write(ENCODER_PLAIN);
+    } else if (array.encoder instanceof OptimizedStringEncoder2) {
+      out.write(ENCODER_OPTIMIZED);
+      writeStringPool(((OptimizedStringEncoder2) array.encoder).packagePool, out);
+    } else {
+      throw new IllegalArgumentException("Unsupported string encoder "
+          + array.encoder.getClass().getName());
+    }
+  }
+
+  /**
+   * Write the given array. Elements that were loaded from a snapshot and have not been read since
+   * are copied straight out of the mapping, so that saving does not read the whole index into the
+   * heap.
+   */
+  private static void writeByteByteArray(ByteByteArray array, DataOutputStream out)
+      throws IOException {
+    int contentsLength = 0;
+    out.writeInt(array.elementsCount);
+    for (int i = 0; i < array.elementsCount; i++) {
+      int length = array.length(i);
+      out.writeInt(length);
+      if (length > 0) {
+        contentsLength += length;
+      }
+    }
+    out.writeInt(contentsLength);
+    byte[] buffer = new byte[1 << 16];
+    for (int i = 0; i < array.elementsCount; i++) {
+      array.write(i, out, buffer);
+    }
+  }
+
+  private static void writeInts(int[] values, int count, DataOutputStream out) throws IOException {
+    out.writeInt(count);
+    for (int i = 0; i < count; i++) {
+      out.writeInt(values[i]);
+    }
+  }
+
+  private static void writeInts(IntArray array, DataOutputStream out) throws IOException {
+    writeInts(array.data, array.elementsCount, out);
+  }
+
+  private static void writeStringPool(SimpleStringPool pool, DataOutputStream out)
+      throws IOException {
+    out.writeInt(pool.size);
+    writeInts(pool.ids, pool.ids.length, out);
+    writeInts(pool.positions, out);
+    writeByteArray(pool.array, out);
+  }
+
+  private IndexSnapshot() {
+  }
+}
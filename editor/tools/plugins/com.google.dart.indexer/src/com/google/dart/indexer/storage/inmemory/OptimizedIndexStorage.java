@@ -27,8 +27,8 @@ import com.google.dart.indexer.locations.Location;
 import com.google.dart.indexer.locations.LocationPersitence;
 import com.google.dart.indexer.source.IndexableSource;
 import com.google.dart.indexer.storage.AbstractIntegratedStorage;
+import com.google.dart.indexer.storage.inmemory.api.DeltaLocationInfoEncoder;
 import com.google.dart.indexer.storage.inmemory.api.ILocationEncoder;
-import com.google.dart.indexer.storage.inmemory.api.SimpleLocationInfoEncoder;
 import com.google.dart.indexer.utils.PathUtils;
 
 import org.eclipse.core.resources.IFile;
@@ -52,6 +52,11 @@ import java.util.Map;
 public class OptimizedIndexStorage extends AbstractIntegratedStorage implements ILocationEncoder {
   private static final boolean DEBUG = true;
 
+  /**
+   * The number of decoded locations that are remembered. Must be a power of two.
+   */
+  private static final int DECODED_LOCATIONS_CACHE_SIZE = 4096;
+
   /**
    * @deprecated use {@link #getPortableString(IndexableSource)}
    */
@@ -64,7 +69,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
     return file.getUri().toString();
   }
 
-  private SimpleLocationInfoEncoder locationInfoEncoder = new SimpleLocationInfoEncoder();
+  private DeltaLocationInfoEncoder locationInfoEncoder = new DeltaLocationInfoEncoder();
   private LocationInfoManager locationInfoPool = new LocationInfoManager(10,
       new OptimizedStringEncoder2());
   private FileInfoManager fileInfoPool = new FileInfoManager(1000, new PlainStringEncoder());
@@ -80,13 +85,12 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
 
   private HashSet<IStorageChangeListener> listeners = new HashSet<IStorageChangeListener>();
 
-  // OptimizedIndexStorage(LocationInfoManager lip, FileInfoManager fip,
-  // SimpleStringPool lids, HashMap layers, int maxLocsSize,
-  // ByteByteArray fInfos, BitSet deletedFiles2, BitSet deletedLocations2) {
-  // setAllDatas(fip, lids, layers, maxLocsSize, fInfos, deletedFiles2,
-  // deletedLocations2, lip);
-  // StorageManager.registerStorage(this);
-  // }
+  /**
+   * The locations that were decoded most recently, and their IDs, each in the slot selected by the
+   * low bits of the ID. Location IDs are never reused, so an entry stays valid.
+   */
+  private final Location[] decodedLocations = new Location[DECODED_LOCATIONS_CACHE_SIZE];
+  private final int[] decodedLocationIds = new int[DECODED_LOCATIONS_CACHE_SIZE];
 
   public OptimizedIndexStorage(IndexConfigurationInstance configuration) {
     super(configuration);
@@ -100,9 +104,15 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
   }
 
   @Override
-  public Location decode(int position) {
+  public synchronized Location decode(int position) {
+    int slot = position & (DECODED_LOCATIONS_CACHE_SIZE - 1);
+    if (decodedLocationIds[slot] == position && decodedLocations[slot] != null) {
+      return decodedLocations[slot];
+    }
     String string = locationInfoPool.getString(position);
     Location byUniqueIdentifier = LocationPersitence.getInstance().byUniqueIdentifier(string);
+    decodedLocationIds[slot] = position;
+    decodedLocations[slot] = byUniqueIdentifier;
     return byUniqueIdentifier;
   }
 
@@ -114,7 +124,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
     deletedFiles.set(add);
     int fileInfo = fileInfoPool.getFileInfo(add);
     if (fileInfo != 0) {
-      fileInfos.data[fileInfo - 1] = null;
+      fileInfos.set(fileInfo - 1, null);
     }
     fireChanged();
   }
@@ -126,7 +136,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
     deletedFiles.set(add);
     int fileInfo = fileInfoPool.getFileInfo(add);
     if (fileInfo != 0) {
-      fileInfos.data[fileInfo - 1] = null;
+      fileInfos.set(fileInfo - 1, null);
     }
     fireChanged();
   }
@@ -142,7 +152,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
       if (locationInfo2 != 0) {
         while (i.hasNext()) {
           ByteByteArray ba = i.next();
-          ba.data[locationInfo2 - 1] = null;
+          ba.set(locationInfo2 - 1, null);
         }
       }
       fireChanged();
@@ -287,7 +297,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
     }
     int fileInfo = fileInfoPool.getFileInfo(add);
     if (fileInfo != 0) {
-      byte[] bytes = fileInfos.data[fileInfo - 1];
+      byte[] bytes = fileInfos.get(fileInfo - 1);
       if (bytes != null) {
         return decodeInfo(bytes, configuration);
       }
@@ -304,7 +314,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
     }
     int fileInfo = fileInfoPool.getFileInfo(add);
     if (fileInfo != 0) {
-      byte[] bytes = fileInfos.data[fileInfo - 1];
+      byte[] bytes = fileInfos.get(fileInfo - 1);
       if (bytes != null) {
         return decodeInfo(bytes, configuration);
       }
@@ -323,7 +333,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
         String str = fileInfoPool.getString(id);
         int fileInfo = fileInfoPool.getFileInfo(str);
         if (fileInfo != 0) {
-          byte[] bs = fileInfos.data[fileInfo - 1];
+          byte[] bs = fileInfos.get(fileInfo - 1);
           if (bs != null) {
             long long1 = ByteBuffer.wrap(bs).getLong();
             ls.add(new PathAndModStamp(str, long1));
@@ -353,7 +363,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
         String str = fileInfoPool.getString(id);
         int fileInfo = fileInfoPool.getFileInfo(str);
         if (fileInfo != 0) {
-          byte[] bs = fileInfos.data[fileInfo - 1];
+          byte[] bs = fileInfos.get(fileInfo - 1);
           if (bs != null) {
             long long1 = ByteBuffer.wrap(bs).getLong();
             ls.add(new PathAndModStamp(str, long1));
@@ -430,7 +440,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
     }
     long modificationStamp = file.getModificationStamp();
     byte[] encode = encodeInfo(modificationStamp, info);
-    intBuf.data[fileInfo - 1] = encode;
+    intBuf.set(fileInfo - 1, encode);
     fileInfoPool.setFileInfo(add, fileInfo);
 
     fireChanged();
@@ -454,7 +464,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
     }
     long modificationStamp = source.getModificationStamp();
     byte[] encode = encodeInfo(modificationStamp, info);
-    intBuf.data[fileInfo - 1] = encode;
+    intBuf.set(fileInfo - 1, encode);
     fileInfoPool.setFileInfo(add, fileInfo);
 
     fireChanged();
@@ -473,7 +483,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
         locationInfo = expandLayers();
       }
       byte[] encode = locationInfoEncoder.encode(info, this);
-      intBuf.data[locationInfo - 1] = encode;
+      intBuf.set(locationInfo - 1, encode);
       locationInfoPool.setLocationInfo(toRet, locationInfo);
     }
     fireChanged();
@@ -563,7 +573,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
 
   private LocationInfo readLocationInfo(int locationInfo, String id) {
     ByteByteArray intBuf = getLayerBuf(id);
-    byte[] data = intBuf.data[locationInfo - 1];
+    byte[] data = intBuf.get(locationInfo - 1);
     if (data == null) {
       return null;
     }
@@ -571,8 +581,7 @@ public class OptimizedIndexStorage extends AbstractIntegratedStorage implements
     return decode;
   }
 
-  @SuppressWarnings("unused")
-  private void setAllDatas(FileInfoManager fip, SimpleStringPool lids,
+  void setAllDatas(FileInfoManager fip, SimpleStringPool lids,
       HashMap<String, ByteByteArray> layers, int maxLocsSize, ByteByteArray fInfos,
       BitSet deletedFiles2, BitSet deletedLocations2, LocationInfoManager lip) {
     this.fileInfoPool = fip;
@@ -14,26 +14,14 @@
 package com.google.dart.indexer.storage.inmemory;
 
 import com.google.dart.indexer.IndexerPlugin;
+import com.google.dart.indexer.index.configuration.IndexConfigurationInstance;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.BitSet;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public final class StorageManager {
-  private static final long MAGIC = 0xCAFEBABEL;
-
   protected static final long FLUSH_TIMEOUT = 180000;
 
   private static Thread storagePersistenceManager = new Thread("Indexer State Saver") {
@@ -56,7 +44,13 @@ public final class StorageManager {
 
   private static File wholeIndexFileStorage;
 
-  private static File tmpFile;
+  /**
+   * The generation of the most recent snapshot. Each snapshot is written to a new file whose name
+   * is the target file followed by its generation, because the previous snapshot may still be
+   * mapped by the storage that was loaded from it, and a mapped file cannot be replaced on every
+   * platform.
+   */
+  private static int generation;
 
   static {
     storagePersistenceManager.setDaemon(true);
@@ -69,226 +63,116 @@ public final class StorageManager {
     });
   }
 
-  public static OptimizedIndexStorage loadFromCache() throws FileNotFoundException, IOException {
-    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
-        wholeIndexFileStorage)));
-    try {
-      OptimizedIndexStorage storage = loadOptimizedIndexStorage(in);
-      // registerStorage(storage);
-      return storage;
-    } finally {
-      in.close();
+  /**
+   * Return the storage saved in the most recent snapshot of the target file, or <code>null</code>
+   * if no snapshot has been saved.
+   * 
+   * @param configuration the configuration of the index
+   * @return the storage saved in the snapshot
+   * @throws IOException if the snapshot exists but cannot be loaded
+   */
+  public static OptimizedIndexStorage loadFromCache(IndexConfigurationInstance configuration)
+      throws IOException {
+    File file = findLatestSnapshot();
+    if (file == null) {
+      return null;
     }
+    return IndexSnapshot.load(file, configuration);
   }
 
   public static void setTargetFile(File file) {
     wholeIndexFileStorage = file;
-  }
-
-  static void registerStorage(OptimizedIndexStorage storage) {
-    storage.addStorageChangeListener(new IStorageChangeListener() {
-
-      @Override
-      public void storageChanged(OptimizedIndexStorage storage) {
-        synchronized (changed) {
-          changed.add(storage);
-        }
-        // saveIfNeeded();
+    generation = 0;
+  }
+
+  /**
+   * Delete the snapshots older than the current generation. A snapshot that cannot be deleted,
+   * because it is still mapped, is deleted after a later save instead.
+   */
+  private static void deleteOlderSnapshots(File targetFile) {
+    File[] files = targetFile.getParentFile().listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      int fileGeneration = getGeneration(targetFile, file);
+      if (fileGeneration >= 0 && fileGeneration < generation) {
+        file.delete();
       }
-
-    });
-  }
-
-  private static void checkMagic(DataInputStream in) throws IOException {
-    if (MAGIC != in.readLong()) {
-      throw new RuntimeException("invalid magic!");
     }
-
   }
 
-  private static File getTargetIndexFile() {
-    if (wholeIndexFileStorage == null) {
-      wholeIndexFileStorage = new File("c:\\test.indx");
+  /**
+   * Return the most recent snapshot of the target file, or <code>null</code> if none has been
+   * saved, and continue the generations from it.
+   */
+  private static File findLatestSnapshot() {
+    File targetFile = wholeIndexFileStorage;
+    if (targetFile == null || targetFile.getParentFile() == null) {
+      return null;
     }
-    wholeIndexFileStorage.delete();
-    return wholeIndexFileStorage;
-  }
-
-  private static File getTemporaryFile(OptimizedIndexStorage ip) throws IOException {
-    if (tmpFile == null) {
-      tmpFile = File.createTempFile("indexer", null);
-      tmpFile.deleteOnExit();
+    File[] files = targetFile.getParentFile().listFiles();
+    if (files == null) {
+      return null;
     }
-    return tmpFile;
-  }
-
-  private static BitSet loadBitSet(DataInputStream in) throws IOException {
-    int cardinality = in.readInt();
-    BitSet result = new BitSet();
-    while (cardinality-- != 0) {
-      result.set(in.readInt());
+    File latest = null;
+    int latestGeneration = -1;
+    for (File file : files) {
+      int fileGeneration = getGeneration(targetFile, file);
+      if (fileGeneration > latestGeneration && file.isFile()) {
+        latest = file;
+        latestGeneration = fileGeneration;
+      }
     }
-    return result;
+    generation = Math.max(generation, latestGeneration);
+    return latest;
   }
 
-  private static ByteArray loadByteArray(DataInputStream in) throws IOException {
-    int size = in.readInt();
-    byte[] data = new byte[size];
-    in.readFully(data);
-    AbstractStringEncoder e = null;
-    int x = in.read();
-    if (x == 1) {
-      e = new PlainStringEncoder();
-    } else if (x == 2) {
-      e = new OptimizedStringEncoder2(loadSimpleStringPool(in));
-    } else {
-      throw new IllegalStateException();
+  /**
+   * Return the generation of the given snapshot of the target file, <code>0</code> for a snapshot
+   * saved directly to the target file, or <code>-1</code> if the file is not a snapshot of the
+   * target file.
+   */
+  private static int getGeneration(File targetFile, File file) {
+    String name = file.getName();
+    String prefix = targetFile.getName();
+    if (name.equals(prefix)) {
+      return 0;
     }
-    return new ByteArray(size, data, e);
-  }
-
-  private static FileInfoManager loadFileInfoManager(DataInputStream in) throws IOException {
-    int size = in.readInt();
-    int[] ids = readInts(in);
-    IntArray locInfos = loadIntArray(in);
-    IntArray poss = loadIntArray(in);
-    ByteArray array = loadByteArray(in);
-    checkMagic(in);
-
-    return new FileInfoManager(size, ids, locInfos, poss, array, new PlainStringEncoder());
-  }
-
-  private static IntArray loadIntArray(DataInputStream in) throws IOException {
-    return new IntArray(readInts(in));
-  }
-
-  private static HashMap<String, ByteByteArray> loadLayersMap(DataInputStream in)
-      throws IOException {
-    int size = in.readInt();
-    HashMap<String, ByteByteArray> result = new HashMap<String, ByteByteArray>();
-    for (int i = 0; i < size; i++) {
-      String key = in.readUTF();
-      ByteByteArray value = new ByteByteArray(in);
-      result.put(key, value);
+    if (!name.startsWith(prefix + ".")) {
+      return -1;
     }
-    checkMagic(in);
-    return result;
-  }
-
-  private static LocationInfoManager loadLocationInfoManager(DataInputStream in) throws IOException {
-    int size = in.readInt();
-    int[] ids = readInts(in);
-    IntArray locInfos = loadIntArray(in);
-    IntArray poss = loadIntArray(in);
-    ByteArray array = loadByteArray(in);
-    checkMagic(in);
-
-    return new LocationInfoManager(size, ids, locInfos, poss, array, new OptimizedStringEncoder2());
-  }
-
-  private static int loadMaxLocationsSize(DataInputStream in) throws IOException {
-    return in.readInt();
-  }
-
-  private static OptimizedIndexStorage loadOptimizedIndexStorage(DataInputStream in)
-      throws IOException {
-    /* int maxLoc = */loadMaxLocationsSize(in);
-    /* SimpleStringPool layerIds = */loadSimpleStringPool(in);
-
-    /* LocationInfoManager locInfoMananger = */loadLocationInfoManager(in);
-    /* FileInfoManager fileInfoManager = */loadFileInfoManager(in);
-    /* ByteByteArray fileInfos = */new ByteByteArray(in);
-    /* HashMap<String, ByteByteArray> layers = */loadLayersMap(in);
-
-    /* BitSet deletedFiles = */loadBitSet(in);
-    /* BitSet deletedLocations = */loadBitSet(in);
-    checkMagic(in);
-
-    throw new AssertionError("unused method, disabled");
-
-    // return new OptimizedIndexStorage(locInfoMananger, fileInfoManager,
-    // layerIds, layers, maxLoc, fileInfos, deletedFiles,
-    // deletedLocations);
-  }
-
-  private static SimpleStringPool loadSimpleStringPool(DataInputStream in) throws IOException {
-    int size = in.readInt();
-    int[] ids = readInts(in);
-    IntArray intArray = loadIntArray(in);
-    ByteArray byteArray = loadByteArray(in);
-    checkMagic(in);
-    return new SimpleStringPool(size, ids, intArray, byteArray);
-  }
-
-  private static int[] readInts(DataInputStream in) throws IOException {
-    int[] result = new int[in.readInt()];
-    for (int i = 0; i < result.length; i++) {
-      result[i] = in.readInt();
-    }
-    checkMagic(in);
-    return result;
-  }
-
-  private static boolean saveAllDeletionMarks(BitSet deletedFileIds, BitSet deletedElementIds,
-      DataOutputStream out) {
-    try {
-      saveBitSet(deletedFileIds, out);
-      saveBitSet(deletedElementIds, out);
-      writeMagic(out);
-      return true;
-    } catch (Exception e) {
-      return false;
+    String suffix = name.substring(prefix.length() + 1);
+    if (suffix.length() == 0 || suffix.length() > 9) {
+      return -1;
     }
-  }
-
-  private static boolean saveBitSet(BitSet bs, DataOutputStream out) {
-    try {
-      int elements = bs.cardinality();
-      out.writeInt(elements);
-      for (int i = bs.nextSetBit(0); i >= 0; i = bs.nextSetBit(i + 1)) {
-        out.writeInt(i);
+    for (int i = 0; i < suffix.length(); i++) {
+      if (!Character.isDigit(suffix.charAt(i))) {
+        return -1;
       }
-      return true;
-    } catch (Exception e) {
-      return false;
     }
+    return Integer.parseInt(suffix);
   }
 
-  private static void saveByteArray(ByteArray array, DataOutputStream out) throws IOException {
-    out.writeInt(array.elementsCount);
-    out.write(array.data, 0, array.elementsCount);
-    if (array.encoder instanceof PlainStringEncoder) {
-      out.write(1);
-    } else if (array.encoder instanceof OptimizedStringEncoder2) {
-      out.write(2);
-      OptimizedStringEncoder2 e = (OptimizedStringEncoder2) array.encoder;
-      saveSimpleStringPool(e.packagePool, out);
-    } else {
-      throw new RuntimeException();
-    }
+  /**
+   * Return the file to which the snapshot of the given generation is saved.
+   */
+  private static File getSnapshotFile(File targetFile, int snapshotGeneration) {
+    return new File(targetFile.getPath() + "." + snapshotGeneration);
   }
 
-  private static boolean saveFileInfoManager(FileInfoManager fileInfoPool, DataOutputStream out) {
-    try {
-      out.writeInt(fileInfoPool.size);
-      writeInts(fileInfoPool.ids, out);
-      saveIntArray(fileInfoPool.locationInfos, out);
-      saveIntArray(fileInfoPool.positions, out);
-      saveByteArray(fileInfoPool.array, out);
-      writeMagic(out);
-      return true;
-    } catch (Exception e) {
-      return false;
-    }
-  }
+  static void registerStorage(OptimizedIndexStorage storage) {
+    storage.addStorageChangeListener(new IStorageChangeListener() {
 
-  private static boolean saveFileInfos(ByteByteArray bbarray, DataOutputStream out) {
-    try {
-      bbarray.store(out);
-      return true;
-    } catch (Exception e) {
-      return false;
-    }
+      @Override
+      public void storageChanged(OptimizedIndexStorage storage) {
+        synchronized (changed) {
+          changed.add(storage);
+        }
+        // saveIfNeeded();
+      }
+
+    });
   }
 
   private static void saveIfNeeded() {
@@ -297,121 +181,37 @@ public final class StorageManager {
       toSave.addAll(changed);
       changed.clear();
     }
+    File targetFile = wholeIndexFileStorage;
+    if (targetFile == null) {
+      return;
+    }
+    if (generation == 0) {
+      // continue the generations of the snapshots saved by an earlier session
+      findLatestSnapshot();
+    }
     Iterator<OptimizedIndexStorage> i = toSave.iterator();
     while (i.hasNext()) {
       OptimizedIndexStorage ip = i.next();
-
-      synchronized (ip) {
-
-        try {
-          File fls = getTemporaryFile(ip);
-          DataOutputStream out = null;
-          try {
-            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fls)));
-            if (saveOptimizedStorage(ip, out)) {
-              out.close();
-
-              File targetFile = getTargetIndexFile();
-              if (!fls.renameTo(targetFile)) {
-                targetFile.delete();
-
-                fls.renameTo(targetFile);
-
-              } else {
-              }
-            }
-          } finally {
-            if (null != out) {
-              out.close();
-            }
-          }
-
-        } catch (IOException exception) {
-          IndexerPlugin.getLogger().logError(exception);
+      File snapshotFile = getSnapshotFile(targetFile, generation + 1);
+      // The snapshot is written next to its final name so that it can be renamed to it.
+      File tempFile = new File(snapshotFile.getPath() + ".tmp");
+      try {
+        targetFile.getParentFile().mkdirs();
+        synchronized (ip) {
+          IndexSnapshot.save(ip, tempFile);
         }
+        if (!tempFile.renameTo(snapshotFile)) {
+          throw new IOException("Could not rename " + tempFile + " to " + snapshotFile);
+        }
+        generation++;
+        deleteOlderSnapshots(targetFile);
+      } catch (IOException exception) {
+        tempFile.delete();
+        IndexerPlugin.getLogger().logError(exception);
       }
     }
   }
 
-  private static void saveIntArray(IntArray array, DataOutputStream out) throws IOException {
-    writeInts(array.toArray(), out);
-
-  }
-
-  private static boolean saveLayersMap(HashMap<String, ByteByteArray> map, DataOutputStream out) {
-    try {
-      int elements = map.size();
-      out.writeInt(elements);
-      for (Iterator<Map.Entry<String, ByteByteArray>> i = map.entrySet().iterator(); i.hasNext();) {
-        Entry<String, ByteByteArray> entry = i.next();
-        out.writeUTF(entry.getKey());
-        entry.getValue().store(out);
-      }
-      writeMagic(out);
-      return true;
-    } catch (Exception e) {
-      return false;
-    }
-  }
-
-  private static boolean saveLocationInfoManager(LocationInfoManager manager, DataOutputStream out) {
-    try {
-      out.writeInt(manager.size);
-      writeInts(manager.ids, out);
-      saveIntArray(manager.locationInfos, out);
-      saveIntArray(manager.positions, out);
-      saveByteArray(manager.array, out);
-      writeMagic(out);
-      return true;
-    } catch (Exception e) {
-      return false;
-    }
-  }
-
-  private static boolean saveMaxLocationsSize(int maxLocationSize, DataOutputStream out) {
-    try {
-      out.writeInt(maxLocationSize);
-      return true;
-    } catch (Exception e) {
-      return false;
-    }
-  }
-
-  private static boolean saveOptimizedStorage(OptimizedIndexStorage ip, DataOutputStream out) {
-
-    return saveMaxLocationsSize(ip.getMaxLocationSize(), out)
-        && saveSimpleStringPool(ip.getLayerIds(), out)
-        && saveLocationInfoManager(ip.getLocationInfoPool(), out)
-        && saveFileInfoManager(ip.getFileInfoPool(), out) && saveFileInfos(ip.getFileInfos(), out)
-        && saveLayersMap(ip.getLayersMap(), out)
-        && saveAllDeletionMarks(ip.getDeletedFileIds(), ip.getDeletedElementIds(), out);
-  }
-
-  private static boolean saveSimpleStringPool(SimpleStringPool stringsPool, DataOutputStream out) {
-    try {
-      out.writeInt(stringsPool.size);
-      writeInts(stringsPool.ids, out);
-      saveIntArray(stringsPool.positions, out);
-      saveByteArray(stringsPool.array, out);
-      writeMagic(out);
-      return true;
-    } catch (Exception e) {
-      return false;
-    }
-  }
-
-  private static void writeInts(int[] ints, DataOutputStream out) throws IOException {
-    out.writeInt(ints.length);
-    for (int i = 0; i < ints.length; i++) {
-      out.writeInt(ints[i]);
-    }
-    writeMagic(out);
-  }
-
-  private static void writeMagic(DataOutputStream out) throws IOException {
-    out.writeLong(MAGIC);
-  }
-
   private StorageManager() {
   }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.inmemory.api;
+
+import com.google.dart.indexer.index.entries.LocationInfo;
+import com.google.dart.indexer.index.layers.bidirectional_edges.BidirectionalEdgesLocationInfo;
+import com.google.dart.indexer.index.layers.reverse_edges.ReverseEdgesLocationInfo;
+import com.google.dart.indexer.locations.Location;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Instances of the class <code>DeltaLocationInfoEncoder</code> encode the edges of a location as
+ * lists of location IDs. Each list is written as its length followed by its IDs in increasing
+ * order, the first one as is and every other one as the difference to its predecessor, all of them
+ * as variable-length integers. The edges are decoded lazily, see {@link EncodedLocationList}.
+ */
+public class DeltaLocationInfoEncoder implements ILocationInfoCoder {
+  private static final int BIDIRECTIONAL = 1;
+
+  private static final int[] NO_IDS = new int[0];
+
+  @Override
+  public LocationInfo decode(byte[] data, ILocationEncoder encoder) {
+    int[] pos = new int[] {1};
+    if ((data[0] & BIDIRECTIONAL) != 0) {
+      Collection<Location> source = toLocations(readIds(data, pos), encoder);
+      Collection<Location> destination = toLocations(readIds(data, pos), encoder);
+      return new BidirectionalEdgesLocationInfo(source, destination);
+    }
+    return new ReverseEdgesLocationInfo(toLocations(readIds(data, pos), encoder));
+  }
+
+  @Override
+  public byte[] encode(LocationInfo info, ILocationEncoder locationCoder) {
+    if (info instanceof BidirectionalEdgesLocationInfo) {
+      BidirectionalEdgesLocationInfo inf = (BidirectionalEdgesLocationInfo) info;
+      int[] source = toIds(inf.getSourceLocations(), locationCoder);
+      int[] destination = toIds(inf.getDestinationLocations(), locationCoder);
+      byte[] result = new byte[1 + maxEncodedLength(source) + maxEncodedLength(destination)];
+      result[0] = BIDIRECTIONAL;
+      int pos = writeIds(source, result, 1);
+      pos = writeIds(destination, result, pos);
+      return Arrays.copyOf(result, pos);
+    }
+    if (info instanceof ReverseEdgesLocationInfo) {
+      ReverseEdgesLocationInfo inf = (ReverseEdgesLocationInfo) info;
+      int[] source = toIds(inf.getSourceLocations(), locationCoder);
+      byte[] result = new byte[1 + maxEncodedLength(source)];
+      int pos = writeIds(source, result, 1);
+      return Arrays.copyOf(result, pos);
+    }
+    return null;
+  }
+
+  private int maxEncodedLength(int[] ids) {
+    return 5 * (ids.length + 1);
+  }
+
+  private int[] readIds(byte[] data, int[] pos) {
+    int count = readVarint(data, pos);
+    if (count == 0) {
+      return NO_IDS;
+    }
+    int[] ids = new int[count];
+    int id = 0;
+    for (int i = 0; i < count; i++) {
+      id += readVarint(data, pos);
+      ids[i] = id;
+    }
+    return ids;
+  }
+
+  private int readVarint(byte[] data, int[] pos) {
+    int p = pos[0];
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = data[p++];
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    pos[0] = p;
+    return value;
+  }
+
+  /**
+   * Return the IDs of the given locations, sorted and without duplicates.
+   */
+  private int[] toIds(Location[] locations, ILocationEncoder locationCoder) {
+    if (locations.length == 0) {
+      return NO_IDS;
+    }
+    int[] ids = new int[locations.length];
+    for (int i = 0; i < locations.length; i++) {
+      ids[i] = locationCoder.encode(locations[i]);
+    }
+    Arrays.sort(ids);
+    int count = 1;
+    for (int i = 1; i < ids.length; i++) {
+      if (ids[i] != ids[count - 1]) {
+        ids[count++] = ids[i];
+      }
+    }
+    return count == ids.length ? ids : Arrays.copyOf(ids, count);
+  }
+
+  private Collection<Location> toLocations(int[] ids, ILocationEncoder encoder) {
+    if (ids.length == 0) {
+      return Collections.emptyList();
+    }
+    return new EncodedLocationList(ids, encoder);
+  }
+
+  private int writeIds(int[] ids, byte[] result, int pos) {
+    pos = writeVarint(ids.length, result, pos);
+    int previous = 0;
+    for (int i = 0; i < ids.length; i++) {
+      pos = writeVarint(ids[i] - previous, result, pos);
+      previous = ids[i];
+    }
+    return pos;
+  }
+
+  private int writeVarint(int value, byte[] result, int pos) {
+    while ((value & ~0x7F) != 0) {
+      result[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    result[pos++] = (byte) value;
+    return pos;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.inmemory.api;
+
+import com.google.dart.indexer.locations.Location;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instances of the class <code>EncodedLocationList</code> implement a list of locations that are
+ * kept as their IDs and only decoded when they are accessed. The first change to the list decodes
+ * all of the locations into an ordinary list.
+ */
+public class EncodedLocationList extends AbstractList<Location> {
+  private final int[] ids;
+  private final ILocationEncoder encoder;
+
+  /**
+   * The decoded locations, or <code>null</code> if the list has not been changed.
+   */
+  private List<Location> locations;
+
+  public EncodedLocationList(int[] ids, ILocationEncoder encoder) {
+    this.ids = ids;
+    this.encoder = encoder;
+  }
+
+  @Override
+  public void add(int index, Location location) {
+    decodeAll().add(index, location);
+  }
+
+  @Override
+  public Location get(int index) {
+    if (locations != null) {
+      return locations.get(index);
+    }
+    if (index < 0 || index >= ids.length) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + ids.length);
+    }
+    return encoder.decode(ids[index]);
+  }
+
+  @Override
+  public Location remove(int index) {
+    return decodeAll().remove(index);
+  }
+
+  @Override
+  public Location set(int index, Location location) {
+    return decodeAll().set(index, location);
+  }
+
+  @Override
+  public int size() {
+    return locations != null ? locations.size() : ids.length;
+  }
+
+  private List<Location> decodeAll() {
+    if (locations == null) {
+      locations = new ArrayList<Location>(ids.length + 1);
+      for (int i = 0; i < ids.length; i++) {
+        locations.add(encoder.decode(ids[i]));
+      }
+    }
+    return locations;
+  }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.paged;
+
+import com.google.dart.indexer.IndexerPlugin;
+import com.google.dart.indexer.debug.IndexerDebugOptions;
+import com.google.dart.indexer.locations.Location;
+import com.google.dart.indexer.locations.LocationPersitence;
+import com.google.dart.indexer.pagedstorage.catalog.Mapping;
+import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Instances of the class <code>BulkLoader</code> buffer the references added to a
+ * {@link LocationTreeStore} during a full rebuild of the index. The references are kept in sorted
+ * runs, which are spilled to temporary files whenever the memory budget is exceeded. Applying the
+ * loader merges the runs, creates the locations in the order of their unique identifiers, so that
+ * the tree is filled from left to right instead of being split at random places, and then writes
+ * the references of each location and layer with a single update.
+ */
+public class BulkLoader {
+  /**
+   * A reference, or the declaration of a location when the layer is negative, that is waiting to
+   * be applied.
+   */
+  private static class Entry {
+    private final String target;
+    private final int layerId;
+    private final int kind;
+    private final String other;
+
+    Entry(String target, int layerId, int kind, String other) {
+      this.target = target;
+      this.layerId = layerId;
+      this.kind = kind;
+      this.other = other;
+    }
+
+    int estimatedSize() {
+      return ENTRY_OVERHEAD + 2 * (target.length() + other.length());
+    }
+  }
+
+  /**
+   * A source of entries in sorted order.
+   */
+  private static abstract class Run {
+    private Entry current;
+
+    Entry current() {
+      return current;
+    }
+
+    void advance() throws IOException {
+      current = readNext();
+    }
+
+    abstract void close();
+
+    abstract Entry readNext() throws IOException;
+  }
+
+  /**
+   * A run that is still held in memory.
+   */
+  private static class MemoryRun extends Run {
+    private final List<Entry> entries;
+    private int index;
+
+    MemoryRun(List<Entry> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    void close() {
+    }
+
+    @Override
+    Entry readNext() {
+      return index < entries.size() ? entries.get(index++) : null;
+    }
+  }
+
+  /**
+   * A run that has been spilled to a file.
+   */
+  private static class FileRun extends Run {
+    private final DataInputStream in;
+
+    FileRun(File file) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    @Override
+    void close() {
+      try {
+        in.close();
+      } catch (IOException exception) {
+        // Ignored, the file is deleted anyway.
+      }
+    }
+
+    @Override
+    Entry readNext() throws IOException {
+      if (!in.readBoolean()) {
+        return null;
+      }
+      String target = in.readUTF();
+      int layerId = in.readShort();
+      int kind = in.readByte();
+      String other = in.readUTF();
+      return new Entry(target, layerId, kind, other);
+    }
+  }
+
+  private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry first, Entry second) {
+      int result = first.target.compareTo(second.target);
+      if (result != 0) {
+        return result;
+      }
+      if (first.layerId != second.layerId) {
+        return first.layerId < second.layerId ? -1 : 1;
+      }
+      if (first.kind != second.kind) {
+        return first.kind < second.kind ? -1 : 1;
+      }
+      return first.other.compareTo(second.other);
+    }
+  };
+
+  /**
+   * The approximate number of bytes used by an entry in addition to the characters of its
+   * identifiers.
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  /**
+   * The layer of an entry that only declares its target location.
+   */
+  private static final int DECLARATION = -1;
+
+  /**
+   * The maximum number of location IDs remembered while the references are being written.
+   */
+  private static final int ID_CACHE_SIZE = 10000;
+
+  private final LocationTreeStore locationTreeStore;
+
+  /**
+   * The folder in which the runs are spilled.
+   */
+  private final File spillFolder;
+
+  /**
+   * The number of bytes the buffered entries may use before they are spilled.
+   */
+  private final long budget;
+
+  private List<Entry> entries = new ArrayList<Entry>();
+
+  private long bufferedSize;
+
+  private final List<File> spilledRuns = new ArrayList<File>();
+
+  /**
+   * Initialize a newly created loader to apply references to the given store.
+   * 
+   * @param locationTreeStore the store to which the references are applied
+   * @param spillFolder the folder in which runs that do not fit in memory are written
+   * @param budgetKb the memory budget, in KB, of the buffered references
+   */
+  public BulkLoader(LocationTreeStore locationTreeStore, File spillFolder, int budgetKb) {
+    this.locationTreeStore = locationTreeStore;
+    this.spillFolder = spillFolder;
+    this.budget = budgetKb * 1024L;
+  }
+
+  /**
+   * Buffer a reference from the source location to the destination location.
+   */
+  public void addReference(Location sourceLocation, Location destinationLocation, int layerId,
+      boolean bidirectional) throws PagedStorageException {
+    LocationPersitence persistence = LocationPersitence.getInstance();
+    String source = persistence.getUniqueIdentifier(sourceLocation);
+    String destination = persistence.getUniqueIdentifier(destinationLocation);
+    add(new Entry(destination, layerId, LocationTreeStore.KIND_SOURCE, source));
+    if (bidirectional) {
+      add(new Entry(source, layerId, LocationTreeStore.KIND_DESTINATION, destination));
+    } else {
+      add(new Entry(source, DECLARATION, 0, ""));
+    }
+  }
+
+  /**
+   * Write the buffered references to the store and start over with an empty buffer.
+   */
+  public void apply() throws PagedStorageException {
+    if (entries.isEmpty() && spilledRuns.isEmpty()) {
+      return;
+    }
+    IndexerPlugin.getLogger().trace(IndexerDebugOptions.MISCELLANEOUS,
+        "BulkLoader.apply(): " + spilledRuns.size() + " spilled run(s), " + entries.size()
+            + " buffered reference(s)");
+    Collections.sort(entries, ENTRY_ORDER);
+    try {
+      createLocations();
+      writeReferences();
+    } catch (IOException exception) {
+      throw new PagedStorageException("Could not read the spilled references", exception);
+    } finally {
+      discard();
+    }
+  }
+
+  /**
+   * Drop the buffered references without writing them.
+   */
+  public void discard() {
+    entries = new ArrayList<Entry>();
+    bufferedSize = 0;
+    for (File file : spilledRuns) {
+      file.delete();
+    }
+    spilledRuns.clear();
+  }
+
+  /**
+   * Return <code>true</code> if there are references that have not yet been applied.
+   */
+  public boolean hasPendingReferences() {
+    return !entries.isEmpty() || !spilledRuns.isEmpty();
+  }
+
+  private void add(Entry entry) throws PagedStorageException {
+    entries.add(entry);
+    bufferedSize += entry.estimatedSize();
+    if (bufferedSize > budget) {
+      spill();
+    }
+  }
+
+  private void closeRuns(PriorityQueue<Run> runs) {
+    for (Run run : runs) {
+      run.close();
+    }
+  }
+
+  /**
+   * Create the locations in the order of their unique identifiers.
+   */
+  private void createLocations() throws IOException, PagedStorageException {
+    PriorityQueue<Run> runs = openRuns();
+    try {
+      String previous = null;
+      Entry entry;
+      while ((entry = nextEntry(runs)) != null) {
+        if (!entry.target.equals(previous)) {
+          locationTreeStore.uniqueIdentifierToId(entry.target);
+          previous = entry.target;
+        }
+      }
+    } finally {
+      closeRuns(runs);
+    }
+  }
+
+  private Entry nextEntry(PriorityQueue<Run> runs) throws IOException {
+    Run run = runs.poll();
+    if (run == null) {
+      return null;
+    }
+    Entry entry = run.current();
+    run.advance();
+    if (run.current() != null) {
+      runs.add(run);
+    } else {
+      run.close();
+    }
+    return entry;
+  }
+
+  private PriorityQueue<Run> openRuns() throws IOException {
+    Comparator<Run> runOrder = new Comparator<Run>() {
+      @Override
+      public int compare(Run first, Run second) {
+        return ENTRY_ORDER.compare(first.current(), second.current());
+      }
+    };
+    PriorityQueue<Run> runs = new PriorityQueue<Run>(spilledRuns.size() + 1, runOrder);
+    List<Run> opened = new ArrayList<Run>();
+    try {
+      for (File file : spilledRuns) {
+        opened.add(new FileRun(file));
+      }
+      opened.add(new MemoryRun(entries));
+      for (Run run : opened) {
+        run.advance();
+        if (run.current() != null) {
+          runs.add(run);
+        } else {
+          run.close();
+        }
+      }
+    } catch (IOException exception) {
+      for (Run run : opened) {
+        run.close();
+      }
+      throw exception;
+    }
+    return runs;
+  }
+
+  /**
+   * Sort the buffered entries and write them to a new run file.
+   */
+  private void spill() throws PagedStorageException {
+    Collections.sort(entries, ENTRY_ORDER);
+    File file = null;
+    DataOutputStream out = null;
+    try {
+      file = File.createTempFile("indexerdb", ".run", spillFolder);
+      spilledRuns.add(file);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      for (Entry entry : entries) {
+        out.writeBoolean(true);
+        out.writeUTF(entry.target);
+        out.writeShort(entry.layerId);
+        out.writeByte(entry.kind);
+        out.writeUTF(entry.other);
+      }
+      out.writeBoolean(false);
+      out.close();
+      out = null;
+    } catch (IOException exception) {
+      throw new PagedStorageException("Could not spill the buffered references to " + file,
+          exception);
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException exception) {
+          // Ignored, the original exception is more relevant.
+        }
+      }
+    }
+    IndexerPlugin.getLogger().trace(IndexerDebugOptions.MISCELLANEOUS,
+        "BulkLoader.spill(): " + entries.size() + " reference(s) to " + file);
+    entries = new ArrayList<Entry>();
+    bufferedSize = 0;
+  }
+
+  /**
+   * Write the references of each location and layer with a single update.
+   */
+  @SuppressWarnings("serial")
+  private void writeReferences() throws IOException, PagedStorageException {
+    Map<String, Integer> ids = new LinkedHashMap<String, Integer>(ID_CACHE_SIZE, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+        return size() > ID_CACHE_SIZE;
+      }
+    };
+    PriorityQueue<Run> runs = openRuns();
+    try {
+      int[] items = new int[16];
+      int count = 0;
+      Entry group = null;
+      int groupId = Mapping.ID_NONE;
+      Entry entry;
+      do {
+        entry = nextEntry(runs);
+        if (group != null && (entry == null || !isSameGroup(group, entry))) {
+          if (count > 0 && groupId != Mapping.ID_NONE) {
+            int[] payload = new int[count];
+            System.arraycopy(items, 0, payload, 0, count);
+            locationTreeStore.addToInfo(groupId, group.layerId, payload);
+          }
+          group = null;
+          count = 0;
+        }
+        if (entry == null || entry.layerId == DECLARATION) {
+          continue;
+        }
+        if (group == null) {
+          group = entry;
+          groupId = idOf(ids, entry.target);
+        }
+        int otherId = idOf(ids, entry.other);
+        if (otherId == Mapping.ID_NONE) {
+          continue;
+        }
+        int item = (entry.kind << 29) | otherId;
+        if (count > 0 && items[count - 1] == item) {
+          continue;
+        }
+        if (count == items.length) {
+          int[] newItems = new int[count * 2];
+          System.arraycopy(items, 0, newItems, 0, count);
+          items = newItems;
+        }
+        items[count++] = item;
+      } while (entry != null);
+    } finally {
+      closeRuns(runs);
+    }
+  }
+
+  private int idOf(Map<String, Integer> ids, String uniqueIdentifier) throws PagedStorageException {
+    Integer id = ids.get(uniqueIdentifier);
+    if (id == null) {
+      id = locationTreeStore.uniqueIdentifierToId(uniqueIdentifier);
+      ids.put(uniqueIdentifier, id);
+    }
+    return id;
+  }
+
+  private boolean isSameGroup(Entry first, Entry second) {
+    return first.layerId == second.layerId && first.target.equals(second.target);
+  }
+}
@@ -15,6 +15,7 @@ package com.google.dart.indexer.storage.paged;
 
 import com.google.dart.indexer.IndexerPlugin;
 import com.google.dart.indexer.debug.IndexerDebugOptions;
+import com.google.dart.indexer.index.PerformanceRelatedConstants;
 import com.google.dart.indexer.index.configuration.IndexConfigurationInstance;
 import com.google.dart.indexer.index.entries.DependentEntity;
 import com.google.dart.indexer.index.entries.FileInfo;
@@ -26,6 +27,7 @@ import com.google.dart.indexer.locations.Location;
 import com.google.dart.indexer.pagedstorage.PagedStorage;
 import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageException;
 import com.google.dart.indexer.pagedstorage.filesystem.AccessMode;
+import com.google.dart.indexer.pagedstorage.filesystem.FileSystem;
 import com.google.dart.indexer.source.IndexableSource;
 import com.google.dart.indexer.storage.AbstractIntegratedStorage;
 import com.google.dart.indexer.storage.StorageTransaction;
@@ -39,20 +41,71 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Instances of the class <code>DiskMappedStorage</code> implement an index storage on top of a
+ * paged file. Lookups hold the shared side of a read-write lock and run concurrently; updates,
+ * reopening and closing hold the exclusive side. A checkpoint only needs the shared side, so
+ * queries are not stalled while dirty pages are written.
+ * <p>
+ * Committing a transaction only appends the changed pages to the write-ahead log of the paged
+ * file. Copying them into the file itself is left to a checkpoint that runs in the background
+ * once the log has grown large enough.
+ * <p>
+ * A full rebuild is written to a separate paged file in bulk-load mode: references are buffered in
+ * sorted runs by a {@link BulkLoader} and applied in key order, and the new file replaces the old
+ * one once the rebuild is complete.
+ */
 public class DiskMappedStorage extends AbstractIntegratedStorage {
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * A flag indicating whether a background checkpoint has been scheduled and has not yet finished.
+   */
+  private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+
   private PagedStorage pagedStorage;
   private FileTreeStore fileTreeStore;
   private LocationTreeStore locationTreeStore;
   private File file;
 
+  /**
+   * The paged file to which a full rebuild is written.
+   */
+  private final File bulkFile;
+
+  /**
+   * The loader buffering the references of a full rebuild, or <code>null</code> if the storage is
+   * not in bulk-load mode.
+   */
+  private volatile BulkLoader bulkLoader;
+
+  /**
+   * The prefix selecting the file system through which the paged file is accessed.
+   */
+  private final String fileSystemPrefix;
+
   private final IndexConfigurationInstance configuration;
 
-  public DiskMappedStorage(IndexConfigurationInstance configuration, File rootFolder)
-      throws PagedStorageException {
+  /**
+   * Initialize a newly created storage to store its pages in a file in the given folder.
+   * 
+   * @param configuration the configuration of the index
+   * @param rootFolder the folder containing the paged file
+   * @param fileSystemPrefix the prefix selecting the file system used to access the paged file,
+   *          such as {@link FileSystem#PREFIX_NIO_CHUNKED}
+   */
+  public DiskMappedStorage(IndexConfigurationInstance configuration, File rootFolder,
+      String fileSystemPrefix) throws PagedStorageException {
     super(configuration);
     this.configuration = configuration;
+    this.fileSystemPrefix = fileSystemPrefix;
     file = new File(rootFolder, "indexerdb");
+    bulkFile = new File(rootFolder, "indexerdb.bulk");
+    deleteBulkFiles();
     createPageStore();
   }
 
@@ -67,10 +120,13 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
     if (dependencies.isEmpty()) {
       return;
     }
+    lock.writeLock().lock();
     try {
       fileTreeStore.addDependenciesToFileInfo(file, dependencies, internal);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -81,10 +137,13 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
     if (dependencies.isEmpty()) {
       return;
     }
+    lock.writeLock().lock();
     try {
       fileTreeStore.addDependenciesToFileInfo(source, dependencies, internal);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -93,11 +152,45 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
         IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.addReference(" + sourceLocation + ", " + destinationLocation + ", "
             + layer.getId().stringValue() + ")");
+    lock.writeLock().lock();
     try {
+      if (bulkLoader != null) {
+        bulkLoader.addReference(sourceLocation, destinationLocation, layer.ordinal(),
+            layer.isBidirectional());
+        return;
+      }
       locationTreeStore.addReference(sourceLocation, destinationLocation, layer.ordinal(),
           layer.isBidirectional());
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void beginBulkLoad() {
+    IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
+        "DiskMappedStorage.beginBulkLoad()");
+    lock.writeLock().lock();
+    try {
+      if (bulkLoader != null) {
+        bulkLoader.discard();
+        bulkLoader = null;
+        pagedStorage.close();
+      } else {
+        pagedStorage.commit();
+        pagedStorage.checkpoint();
+        pagedStorage.close();
+      }
+      deleteBulkFiles();
+      openPageStore(bulkFile);
+      bulkLoader = new BulkLoader(locationTreeStore, file.getParentFile(),
+          PerformanceRelatedConstants.getBulkLoadBudgetKb());
+    } catch (PagedStorageException exception) {
+      IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -105,20 +198,38 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
   public void checkpoint() {
     IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.checkpoint()");
+    boolean checkpointDue = false;
+    lock.readLock().lock();
     try {
-      pagedStorage.checkpoint();
+      pagedStorage.commit();
+      checkpointDue = pagedStorage.isCheckpointDue();
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (checkpointDue) {
+      scheduleCheckpoint();
     }
   }
 
   @Override
   public void close() {
+    lock.writeLock().lock();
     try {
+      if (bulkLoader != null) {
+        // Keep what has been rebuilt so far, the files that are missing are picked up by the
+        // next resync.
+        finishBulkLoad();
+        return;
+      }
+      pagedStorage.commit();
       pagedStorage.checkpoint();
       pagedStorage.close();
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -132,10 +243,13 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
   public void deleteFileInfo(IFile file) {
     IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.deleteFileInfo(" + file + ")");
+    lock.writeLock().lock();
     try {
       fileTreeStore.delete(file);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -143,10 +257,13 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
   public void deleteFileInfo(IndexableSource source) {
     IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.deleteFileInfo(" + file + ")");
+    lock.writeLock().lock();
     try {
       fileTreeStore.delete(source);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -154,10 +271,14 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
   public void deleteLocationInfo(Location location) {
     IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.deleteLocationInfo(" + location + ")");
+    lock.writeLock().lock();
     try {
+      applyBufferedReferences();
       locationTreeStore.delete(location);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -165,119 +286,201 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
   public void destroy() {
     IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.destroy()");
+    lock.writeLock().lock();
     try {
-      pagedStorage.close();
-      file.delete();
+      if (bulkLoader != null) {
+        bulkLoader.discard();
+        bulkLoader = null;
+        pagedStorage.close();
+        deleteBulkFiles();
+      } else {
+        pagedStorage.close();
+      }
+      deletePagedFile(file);
       createPageStore();
     } catch (PagedStorageException exception) {
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void endBulkLoad() {
+    IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
+        "DiskMappedStorage.endBulkLoad()");
+    lock.writeLock().lock();
+    try {
+      if (bulkLoader != null) {
+        try {
+          finishBulkLoad();
+        } finally {
+          createPageStore();
+        }
+      }
+    } catch (PagedStorageException exception) {
+      IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   @Override
   public void flushCaches() {
+    lock.writeLock().lock();
     try {
+      if (bulkLoader != null) {
+        applyBufferedReferences();
+        return;
+      }
       close();
       createPageStore();
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   @Override
   public Object gatherStatistics() {
-    PagedIndexStatistics stats = new PagedIndexStatistics();
-    locationTreeStore.stats(stats.locationStats);
-    fileTreeStore.stats(stats.fileStats);
-    stats.resolve(pagedStorage.getPageSize());
-    return stats;
+    applyBufferedReferences();
+    lock.readLock().lock();
+    try {
+      PagedIndexStatistics stats = new PagedIndexStatistics();
+      locationTreeStore.stats(stats.locationStats);
+      fileTreeStore.stats(stats.fileStats);
+      pagedStorage.stats(stats.cacheStats);
+      stats.resolve(pagedStorage.getPageSize());
+      return stats;
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   @Override
   public Map<IndexableSource, FileInfo> newReadAllFileInfos(IndexConfigurationInstance configuration) {
+    lock.readLock().lock();
     try {
       return fileTreeStore.readAllSources();
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
       return new HashMap<IndexableSource, FileInfo>();
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
   @Override
   @Deprecated
   public Map<IFile, FileInfo> readAllFileInfos(IndexConfigurationInstance configuration) {
+    lock.readLock().lock();
     try {
       return fileTreeStore.readAll();
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
       return new HashMap<IFile, FileInfo>();
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
   @Override
   public void readAllLayerLocationsInto(Map<Location, LocationInfo> locationInfos, Layer layer) {
     int layerId = layer.ordinal();
+    applyBufferedReferences();
+    lock.readLock().lock();
     try {
       locationInfos.putAll(locationTreeStore.readAll(layerId, layer.isBidirectional()));
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
   @Override
   @Deprecated
   public FileInfo readFileInfo(IFile file) {
+    lock.readLock().lock();
     try {
       return fileTreeStore.read(file);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
       return new FileInfo();
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
   @Override
   public FileInfo readFileInfo(IndexableSource source) {
+    lock.readLock().lock();
     try {
       return fileTreeStore.read(source);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
       return new FileInfo();
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
   @Override
   @Deprecated
   public PathAndModStamp[] readFileNamesAndStamps(HashSet<IFile> unprocessedExistingFiles) {
-    return fileTreeStore.readFileNamesAndStamps();
+    lock.readLock().lock();
+    try {
+      return fileTreeStore.readFileNamesAndStamps();
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   @Override
   public LocationInfo readLocationInfo(Location location, Layer layer) {
+    applyBufferedReferences();
+    lock.readLock().lock();
     try {
       return locationTreeStore.read(location, layer.ordinal(), layer.isBidirectional());
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
       return new BidirectionalEdgesLocationInfo();
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
   @Override
   public PathAndModStamp[] readPathAndModStamps() {
-    return fileTreeStore.readFileNamesAndStamps();
+    lock.readLock().lock();
+    try {
+      return fileTreeStore.readFileNamesAndStamps();
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   @Override
   public void runConsistencyCheck(IProgressMonitor monitor) {
     SubMonitor progress = SubMonitor.convert(monitor, 10);
+    applyBufferedReferences();
+    lock.readLock().lock();
     try {
       locationTreeStore.runConsistencyCheck(progress.newChild(10));
     } finally {
+      lock.readLock().unlock();
       monitor.done();
     }
   }
 
   @Override
   public String toString() {
-    return locationTreeStore.toString() + fileTreeStore.toString();
+    lock.readLock().lock();
+    try {
+      return locationTreeStore.toString() + fileTreeStore.toString();
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   @Override
@@ -285,10 +488,13 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
   public void writeFileInfo(IFile file, FileInfo info) {
     IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.writeFileInfo(" + file + ")");
+    lock.writeLock().lock();
     try {
       fileTreeStore.write(file, info);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -296,10 +502,13 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
   public void writeFileInfo(IndexableSource source, FileInfo info) {
     IndexerPlugin.getLogger().trace(IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.writeFileInfo(" + file + ")");
+    lock.writeLock().lock();
     try {
       fileTreeStore.write(source, info);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -309,17 +518,92 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
         IndexerDebugOptions.STORAGE_CALLS,
         "DiskMappedStorage.writeLocationInfo(" + location + ", " + layer.getId().stringValue()
             + ")");
+    lock.writeLock().lock();
     try {
+      applyBufferedReferences();
       locationTreeStore.write(location, layer.ordinal(), info);
     } catch (PagedStorageException exception) {
       IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Write the references buffered in bulk-load mode to the location store, so that they can be
+   * read or replaced.
+   */
+  private void applyBufferedReferences() {
+    if (bulkLoader == null) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      if (bulkLoader != null && bulkLoader.hasPendingReferences()) {
+        bulkLoader.apply();
+      }
+    } catch (PagedStorageException exception) {
+      IndexerPlugin.getLogger().logError(exception);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   private void createPageStore() throws PagedStorageException {
-    int cacheSizeKb = 1024 * 128;
-    // nioMapped:
-    pagedStorage = new PagedStorage("nio:" + file.getPath(), AccessMode.READ_WRITE, cacheSizeKb, 4);
+    openPageStore(file);
+  }
+
+  /**
+   * Delete the paged file of an unfinished rebuild, together with its log and spilled runs.
+   */
+  private void deleteBulkFiles() {
+    deletePagedFile(bulkFile);
+    File[] runs = file.getParentFile().listFiles();
+    if (runs != null) {
+      for (File run : runs) {
+        if (run.getName().startsWith("indexerdb") && run.getName().endsWith(".run")) {
+          run.delete();
+        }
+      }
+    }
+  }
+
+  private void deletePagedFile(File pagedFile) {
+    pagedFile.delete();
+    new File(pagedFile.getPath() + ".log").delete();
+  }
+
+  /**
+   * Apply the buffered references, make the rebuilt file durable and move it in place of the
+   * paged file. The storage is left closed and out of bulk-load mode.
+   */
+  private void finishBulkLoad() throws PagedStorageException {
+    BulkLoader loader = bulkLoader;
+    bulkLoader = null;
+    boolean completed = false;
+    try {
+      loader.apply();
+      pagedStorage.commit();
+      pagedStorage.checkpoint();
+      completed = true;
+    } finally {
+      pagedStorage.close();
+      if (!completed) {
+        loader.discard();
+        deleteBulkFiles();
+      }
+    }
+    deletePagedFile(file);
+    new File(bulkFile.getPath() + ".log").delete();
+    if (!bulkFile.renameTo(file)) {
+      throw new PagedStorageException("Could not replace " + file + " with " + bulkFile);
+    }
+  }
+
+  private void openPageStore(File pagedFile) throws PagedStorageException {
+    int cacheSizeKb = PerformanceRelatedConstants.getPageCacheBudgetKb();
+    pagedStorage = new PagedStorage(fileSystemPrefix + pagedFile.getPath(), AccessMode.READ_WRITE,
+        cacheSizeKb, 4);
     pagedStorage.open();
 
     locationTreeStore = new LocationTreeStore(pagedStorage, pagedStorage.getSpecialPage(2),
@@ -327,4 +611,32 @@ public class DiskMappedStorage extends AbstractIntegratedStorage {
     fileTreeStore = new FileTreeStore(pagedStorage, pagedStorage.getSpecialPage(0),
         pagedStorage.getSpecialPage(1), locationTreeStore, configuration);
   }
+
+  /**
+   * Copy the committed pages into the paged file on a background thread, unless a checkpoint is
+   * already pending.
+   */
+  private void scheduleCheckpoint() {
+    if (!checkpointScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    Thread thread = new Thread("Index checkpoint") {
+      @Override
+      public void run() {
+        lock.readLock().lock();
+        try {
+          if (pagedStorage.isOpen()) {
+            pagedStorage.checkpoint();
+          }
+        } catch (PagedStorageException exception) {
+          IndexerPlugin.getLogger().logError(exception);
+        } finally {
+          lock.readLock().unlock();
+          checkpointScheduled.set(false);
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
 }
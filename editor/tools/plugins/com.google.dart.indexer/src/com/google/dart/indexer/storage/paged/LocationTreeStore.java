@@ -49,9 +49,9 @@ public class LocationTreeStore implements LocationIdEncoder {
     }
   }
 
-  private static final int KIND_SOURCE = 0;
+  static final int KIND_SOURCE = 0;
 
-  private static final int KIND_DESTINATION = 1;
+  static final int KIND_DESTINATION = 1;
 
   static final int ID_UNKNOWN = Mapping.ID_NONE - 1;
 
@@ -356,6 +356,13 @@ public class LocationTreeStore implements LocationIdEncoder {
     mapping.writeInfo(id, layerId, payload);
   }
 
+  /**
+   * Add the given encoded references to the info of the location with the given ID.
+   */
+  void addToInfo(int id, int layerId, int[] items) throws PagedStorageException {
+    mapping.addToInfo(id, layerId, items);
+  }
+
   int decodeKind(int encoded) {
     return (encoded >> 29);
   }
@@ -409,6 +416,14 @@ public class LocationTreeStore implements LocationIdEncoder {
     return locationFromId(id);
   }
 
+  /**
+   * Return the ID of the location with the given unique identifier, creating the location if it
+   * does not exist yet. Might return <code>ID_NONE</code> to indicate that creation has failed.
+   */
+  int uniqueIdentifierToId(String uniqueIdentifier) throws PagedStorageException {
+    return mapping.findOrCreate(splitPath(uniqueIdentifier));
+  }
+
   private int[] encode(LocationInfo info) throws PagedStorageException {
     Location[] source, destination;
     if (info instanceof ReverseEdgesLocationInfo) {
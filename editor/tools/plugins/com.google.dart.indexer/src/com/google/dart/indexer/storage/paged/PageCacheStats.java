@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.paged;
+
+public class PageCacheStats {
+  public String typeName;
+
+  public long hits, misses, evictions;
+
+  public int sizeKb, maxSizeKb, recentTargetKb;
+
+  @Override
+  public String toString() {
+    long lookups = hits + misses;
+    String s = typeName + " " + sizeKb + " of " + maxSizeKb + " KB (recent target "
+        + recentTargetKb + " KB)  lookups " + lookups;
+    if (lookups > 0) {
+      s += " (" + (hits * 100 / lookups) + "% hits)";
+    }
+    return s + "  evictions " + evictions;
+  }
+}
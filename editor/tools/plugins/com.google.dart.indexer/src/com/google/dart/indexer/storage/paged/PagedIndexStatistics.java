@@ -18,6 +18,8 @@ public class PagedIndexStatistics {
 
   public final MappingStats locationStats = new MappingStats();
 
+  public final PageCacheStats cacheStats = new PageCacheStats();
+
   public void resolve(int pageSize) {
     fileStats.resolve(pageSize);
     locationStats.resolve(pageSize);
@@ -25,6 +27,7 @@ public class PagedIndexStatistics {
 
   @Override
   public String toString() {
-    return "\nFILE " + fileStats.toString() + "\nLOCA " + locationStats.toString() + "\n";
+    return "\nFILE " + fileStats.toString() + "\nLOCA " + locationStats.toString() + "\nPAGE "
+        + cacheStats.toString() + "\n";
   }
 }
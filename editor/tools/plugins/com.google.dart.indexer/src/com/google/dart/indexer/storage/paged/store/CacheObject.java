@@ -69,7 +69,7 @@ public abstract class CacheObject {
   public CacheObject chained;
 
   /**
-   * The cache queue identifier. This field is only used for the 2Q cache algorithm.
+   * The cache queue identifier. This field is only used for the 2Q and ARC cache algorithms.
    */
   public int cacheQueue;
   public int pageId;
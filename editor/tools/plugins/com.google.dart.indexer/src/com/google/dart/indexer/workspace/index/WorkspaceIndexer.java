@@ -22,10 +22,13 @@ import com.google.dart.indexer.exceptions.IndexTemporarilyNonOperational;
 import com.google.dart.indexer.index.IndexSession;
 import com.google.dart.indexer.index.IndexSessionStats;
 import com.google.dart.indexer.index.IndexTransaction;
+import com.google.dart.indexer.index.PerformanceRelatedConstants;
 import com.google.dart.indexer.index.configuration.IndexConfigurationInstance;
+import com.google.dart.indexer.index.configuration.Processor;
 import com.google.dart.indexer.index.entries.PathAndModStamp;
 import com.google.dart.indexer.index.queries.Query;
 import com.google.dart.indexer.index.readonly.Index;
+import com.google.dart.indexer.index.updating.RecordingFileInfoUpdater;
 import com.google.dart.indexer.storage.inmemory.StorageManager;
 import com.google.dart.indexer.utilities.io.PrintStringWriter;
 import com.google.dart.indexer.utils.ToStringComparator;
@@ -48,7 +51,18 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class was designed to be testable easily, so it does not interact with workspace events.
@@ -57,6 +71,91 @@ import java.util.Set;
  * <code>indexPendingFiles</code> method is running.
  */
 public class WorkspaceIndexer {
+  /**
+   * The outcome of processing a target on one of the indexing workers, waiting to be applied to the
+   * storage by the writer.
+   */
+  private static class ProcessedTarget {
+    private final IndexingTarget target;
+    private final boolean removed;
+    private final RecordingFileInfoUpdater updates;
+    private final Throwable failure;
+
+    ProcessedTarget(IndexingTarget target, boolean removed, RecordingFileInfoUpdater updates,
+        Throwable failure) {
+      this.target = target;
+      this.removed = removed;
+      this.updates = updates;
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * A task, run on one of the pooled indexing threads, that dequeues targets and processes them with
+   * its own processors, handing the results to the writer. Workers block when the writer falls
+   * behind, and stop dequeuing targets once the writer asks them to or the indexing is cancelled or
+   * out of time.
+   */
+  private class IndexingWorker implements Runnable {
+    private final IndexConfigurationInstance workerConfiguration;
+    private final BlockingQueue<ProcessedTarget> results;
+    private final AtomicBoolean stopRequested;
+    private final AtomicInteger activeWorkers;
+    private final long stopProcessingAt;
+    private final IProgressMonitor monitor;
+
+    IndexingWorker(IndexConfigurationInstance workerConfiguration,
+        BlockingQueue<ProcessedTarget> results, AtomicBoolean stopRequested,
+        AtomicInteger activeWorkers, long stopProcessingAt, IProgressMonitor monitor) {
+      this.workerConfiguration = workerConfiguration;
+      this.results = results;
+      this.stopRequested = stopRequested;
+      this.activeWorkers = activeWorkers;
+      this.stopProcessingAt = stopProcessingAt;
+      this.monitor = monitor;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopRequested.get() && !monitor.isCanceled()
+            && (stopProcessingAt == -1 || System.currentTimeMillis() < stopProcessingAt)) {
+          IndexingTarget target = queue.dequeue();
+          if (target == null) {
+            break;
+          }
+          ProcessedTarget result = processTarget(target);
+          while (!results.offer(result, 100, TimeUnit.MILLISECONDS)) {
+            if (stopRequested.get()) {
+              // The writer has given up; hand the target back to the queue.
+              queue.reenqueue(target);
+              return;
+            }
+          }
+        }
+      } catch (InterruptedException exception) {
+        // Stop processing targets.
+      } finally {
+        activeWorkers.decrementAndGet();
+      }
+    }
+
+    private ProcessedTarget processTarget(IndexingTarget target) {
+      try {
+        if (!target.exists()) {
+          return new ProcessedTarget(target, true, null, null);
+        }
+        RecordingFileInfoUpdater updates = IndexTransaction.recordTarget(target,
+            workerConfiguration);
+        return new ProcessedTarget(target, false, updates, null);
+      } catch (ThreadDeath exception) {
+        throw exception;
+      } catch (Throwable exception) {
+        return new ProcessedTarget(target, false, null, exception);
+      }
+    }
+  }
+
   private final IndexSession session;
 
   /**
@@ -70,6 +169,18 @@ public class WorkspaceIndexer {
 
   private final IndexConfigurationInstance configuration;
 
+  /**
+   * The configurations used by the indexing workers, created the first time targets are indexed
+   * concurrently.
+   */
+  private IndexConfigurationInstance[] workerConfigurations;
+
+  /**
+   * The threads on which the indexing workers are run, created the first time targets are indexed
+   * concurrently and reused until this indexer is disposed.
+   */
+  private ExecutorService workerExecutor;
+
   public WorkspaceIndexer(IndexConfigurationInstance configuration) {
     this(configuration, null);
   }
@@ -104,6 +215,12 @@ public class WorkspaceIndexer {
   }
 
   public void dispose() {
+    synchronized (this) {
+      if (workerExecutor != null) {
+        workerExecutor.shutdown();
+        workerExecutor = null;
+      }
+    }
     session.dispose();
     index = null;
   }
@@ -236,6 +353,12 @@ public class WorkspaceIndexer {
       } finally {
         transaction.close();
       }
+      synchronized (this) {
+        if (queue.getQueueSize() == 0 && !queue.isPendingResyncOrRebuild()) {
+          // A full rebuild, if one was in progress, is complete.
+          session.endBulkLoad();
+        }
+      }
       File metadata = new File(getWorkspaceIndexMetadataLocation());
       synchronized (this) {
         index = session.createRegularIndex(metadata);
@@ -390,6 +513,9 @@ public class WorkspaceIndexer {
   private boolean doIndexPendingFiles(IndexTransaction transaction,
       LinkedList<IndexingTarget> dequeued, long stopProcessingAt, IProgressMonitor monitor)
       throws IndexRequestFailed {
+    if (PerformanceRelatedConstants.INDEXING_WORKERS > 1) {
+      return doIndexPendingFilesConcurrently(transaction, dequeued, stopProcessingAt, monitor);
+    }
     boolean didSomething = false;
     int filesIndexedAfterCheckpoint = 0;
     int filesIndexed = 0;
@@ -427,27 +553,170 @@ public class WorkspaceIndexer {
         }
       }
     } while (stopProcessingAt == -1 || System.currentTimeMillis() < stopProcessingAt);
-    IndexingTarget[] targetsWithErrors = transaction.getTargetsWithErrors();
-    if (targetsWithErrors.length > 0) {
-      monitor.subTask(targetsWithErrors.length + " files to reindex");
-      for (IndexingTarget target : targetsWithErrors) {
+    reindexTargetsWithErrors(transaction, monitor);
+    return didSomething;
+  }
+
+  /**
+   * Index the pending targets using {@link PerformanceRelatedConstants#INDEXING_WORKERS} worker
+   * threads to parse the targets and run the contributors. The current thread is the only one that
+   * writes to the storage: it applies the updates produced by the workers in batches.
+   */
+  private boolean doIndexPendingFilesConcurrently(IndexTransaction transaction,
+      LinkedList<IndexingTarget> dequeued, long stopProcessingAt, IProgressMonitor monitor)
+      throws IndexRequestFailed {
+    IndexConfigurationInstance[] configurations = getWorkerConfigurations();
+    BlockingQueue<ProcessedTarget> results = new ArrayBlockingQueue<ProcessedTarget>(
+        PerformanceRelatedConstants.INDEXING_PENDING_TARGETS);
+    AtomicBoolean stopRequested = new AtomicBoolean();
+    AtomicInteger activeWorkers = new AtomicInteger(configurations.length);
+    ExecutorService executor = getWorkerExecutor();
+    List<Future<?>> workers = new ArrayList<Future<?>>(configurations.length);
+    for (IndexConfigurationInstance workerConfiguration : configurations) {
+      workers.add(executor.submit(new IndexingWorker(workerConfiguration, results, stopRequested,
+          activeWorkers, stopProcessingAt, monitor)));
+    }
+
+    boolean didSomething = false;
+    int filesIndexed = 0;
+    List<ProcessedTarget> batch = new ArrayList<ProcessedTarget>(
+        PerformanceRelatedConstants.INDEXING_BATCH_SIZE);
+    try {
+      while (true) {
+        ProcessedTarget first;
         try {
-          synchronized (this) {
-            indexTarget(target, transaction, true);
+          first = results.poll(100, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        if (first == null) {
+          if (activeWorkers.get() == 0 && results.isEmpty()) {
+            break;
+          }
+          continue;
+        }
+        batch.add(first);
+        results.drainTo(batch, PerformanceRelatedConstants.INDEXING_BATCH_SIZE - 1);
+        didSomething = true;
+        for (ProcessedTarget result : batch) {
+          dequeued.addLast(result.target);
+        }
+        synchronized (this) {
+          for (ProcessedTarget result : batch) {
+            applyProcessedTarget(result, transaction);
+          }
+        }
+        filesIndexed += batch.size();
+        monitor.worked(batch.size());
+        monitor.subTask(queue.size() + " files left to index");
+        IndexerPlugin.getLogger().trace(IndexerDebugOptions.MISCELLANEOUS,
+            filesIndexed + " files total.");
+        for (ProcessedTarget result : batch) {
+          IProject project = result.target.getProject();
+          if (!queue.hasQueuedFilesIn(project)) {
+            synchronized (this) {
+              this.notifyAll();
+            }
+            break;
+          }
+        }
+        batch.clear();
+      }
+    } finally {
+      stopRequested.set(true);
+      for (Future<?> worker : workers) {
+        joinWorker(worker);
+      }
+      // Targets processed after the writer stopped have not been applied, so they are indexed again
+      // next time.
+      ProcessedTarget result;
+      while ((result = results.poll()) != null) {
+        queue.reenqueue(result.target);
+      }
+      for (IndexConfigurationInstance workerConfiguration : configurations) {
+        for (Processor processor : workerConfiguration.getKnownProcessors()) {
+          try {
+            processor.transactionEnded();
+          } catch (Exception exception) {
+            IndexerPlugin.getLogger().logError(exception,
+                "Processor failed while transaction was ending: " + processor.getClass().getName());
           }
-        } catch (TargetIndexingFailed exception) {
-          IndexerPlugin.getLogger().logError(exception);
         }
       }
     }
+    reindexTargetsWithErrors(transaction, monitor);
     return didSomething;
   }
 
+  /**
+   * Apply the result of processing a target on a worker, in the same way that
+   * {@link #indexTarget(IndexingTarget, IndexTransaction, boolean)} would have indexed it.
+   */
+  private void applyProcessedTarget(ProcessedTarget result, IndexTransaction transaction)
+      throws IndexRequestFailed {
+    IndexingTarget target = result.target;
+    try {
+      Throwable failure = result.failure;
+      if (failure instanceof IndexRequestFailed) {
+        throw (IndexRequestFailed) failure;
+      } else if (failure instanceof RuntimeException) {
+        throw new TargetIndexingFailed(target, (RuntimeException) failure, false);
+      } else if (failure instanceof Error) {
+        throw new TargetIndexingFailed(target, (Error) failure, false);
+      }
+      try {
+        if (result.removed) {
+          IFile[] affectedFiles = transaction.removeTarget(target);
+          queue.enqueue(affectedFiles);
+        } else {
+          transaction.applyTarget(target, result.updates);
+        }
+      } catch (RuntimeException exception) {
+        throw new TargetIndexingFailed(target, exception, false);
+      } catch (Error exception) {
+        throw new TargetIndexingFailed(target, exception, false);
+      }
+    } catch (TargetIndexingFailed exception) {
+      IndexerPlugin.getLogger().logError(exception);
+      transaction.addErrorTarget(target, exception);
+    }
+  }
+
   private void enqueueFullRebuild(IFile[] filesToIndex) {
-    session.destroyIndex();
+    session.beginBulkLoad();
     queue.replaceWith(filesToIndex);
   }
 
+  private IndexConfigurationInstance[] getWorkerConfigurations() {
+    if (workerConfigurations == null) {
+      int workerCount = PerformanceRelatedConstants.INDEXING_WORKERS;
+      workerConfigurations = new IndexConfigurationInstance[workerCount];
+      for (int i = 0; i < workerConfigurations.length; i++) {
+        workerConfigurations[i] = configuration.createPeer();
+      }
+    }
+    return workerConfigurations;
+  }
+
+  /**
+   * Return the executor used to run the indexing workers.
+   */
+  private synchronized ExecutorService getWorkerExecutor() {
+    if (workerExecutor == null) {
+      workerExecutor = Executors.newFixedThreadPool(PerformanceRelatedConstants.INDEXING_WORKERS,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "Indexing worker");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+    return workerExecutor;
+  }
+
   private PathAndModStamp[] findAllIndexedFiles(final HashSet<IFile> unprocessedExistingFiles)
       throws IndexRequiresFullRebuild {
     PathAndModStamp[] indexedFiles;
@@ -484,6 +753,52 @@ public class WorkspaceIndexer {
     }
   }
 
+  private void joinWorker(Future<?> worker) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        worker.get();
+        break;
+      } catch (InterruptedException exception) {
+        interrupted = true;
+      } catch (ExecutionException exception) {
+        IndexerPlugin.getLogger().logError(exception.getCause());
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Index once more, on the current thread, the targets that could not be indexed the first time.
+   * Nothing is retried once indexing has been cancelled; the targets remain recorded as having
+   * errors.
+   */
+  private void reindexTargetsWithErrors(IndexTransaction transaction, IProgressMonitor monitor)
+      throws IndexRequestFailed {
+    if (monitor.isCanceled()) {
+      return;
+    }
+    IndexingTarget[] targetsWithErrors = transaction.getTargetsWithErrors();
+    if (targetsWithErrors.length > 0) {
+      monitor.subTask(targetsWithErrors.length + " files to reindex");
+      for (IndexingTarget target : targetsWithErrors) {
+        if (monitor.isCanceled()) {
+          return;
+        }
+        try {
+          synchronized (this) {
+            indexTarget(target, transaction, true);
+          }
+        } catch (TargetIndexingFailed exception) {
+          IndexerPlugin.getLogger().logError(exception);
+        }
+      }
+    }
+  }
+
   private void resyncAllFiles() throws IndexRequiresFullRebuild {
     final HashSet<IFile> unprocessedExistingFiles = new HashSet<IFile>(collectAllExistingFiles());
     PathAndModStamp[] indexedFiles = findAllIndexedFiles(unprocessedExistingFiles);
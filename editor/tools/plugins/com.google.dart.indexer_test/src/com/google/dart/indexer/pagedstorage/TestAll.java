@@ -20,6 +20,7 @@ public class TestAll {
   public static Test suite() {
     TestSuite suite = new TestSuite("Tests in " + TestAll.class.getPackage().getName());
     suite.addTest(com.google.dart.indexer.pagedstorage.util.TestAll.suite());
+    suite.addTestSuite(WriteAheadLogTest.class);
     return suite;
   }
 }
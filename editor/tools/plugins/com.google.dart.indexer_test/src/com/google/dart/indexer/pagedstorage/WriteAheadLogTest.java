@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.pagedstorage;
+
+import com.google.dart.indexer.pagedstorage.exceptions.PagedStorageException;
+import com.google.dart.indexer.pagedstorage.filesystem.AccessMode;
+import com.google.dart.indexer.pagedstorage.treestore.TreeStore;
+import com.google.dart.indexer.storage.paged.store.DataHandler;
+import com.google.dart.indexer.storage.paged.store.FileStore;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class WriteAheadLogTest extends TestCase {
+  private static final int PAGE_SIZE = PagedStorage.PAGE_SIZE_MAX;
+
+  private static final DataHandler HANDLER = new DataHandler() {
+    @Override
+    public int getChecksum(byte[] data, int start, int end) {
+      return 0;
+    }
+
+    @Override
+    public void handleInvalidChecksum() {
+    }
+  };
+
+  private static byte[] image(int value) {
+    byte[] bytes = new byte[PAGE_SIZE];
+    Arrays.fill(bytes, (byte) value);
+    return bytes;
+  }
+
+  private static int[] sorted(int[] pageIds) {
+    Arrays.sort(pageIds);
+    return pageIds;
+  }
+
+  private String fileName;
+
+  public void test_commit_groupsPagesInOneBatch() throws Exception {
+    WriteAheadLog log = openLog();
+    log.stage(5, image(1));
+    log.stage(6, image(2));
+    log.stage(5, image(3));
+    assertEquals(2, log.commit());
+    assertEquals(16 + 2 * (16 + PAGE_SIZE) + 16, log.length());
+    assertEquals(0, log.commit());
+    assertTrue(Arrays.equals(image(3), log.getImage(5)));
+    log.close();
+  }
+
+  public void test_recover_afterCommit() throws Exception {
+    WriteAheadLog log = openLog();
+    log.stage(5, image(1));
+    log.stage(6, image(2));
+    log.commit();
+    log.stage(6, image(3));
+    log.commit();
+    log.close();
+
+    log = openLog();
+    assertTrue(Arrays.equals(new int[] {5, 6}, sorted(log.recover())));
+    assertTrue(Arrays.equals(image(1), log.getCommittedImage(5)));
+    assertTrue(Arrays.equals(image(3), log.getCommittedImage(6)));
+    log.close();
+  }
+
+  public void test_recover_beforeCommit() throws Exception {
+    WriteAheadLog log = openLog();
+    log.stage(5, image(1));
+    log.commit();
+    long committedLength = log.length();
+    // enough images to be appended to the log before they are committed
+    int spilled = 4 * 1024 * 1024 / PAGE_SIZE + 1;
+    for (int i = 0; i < spilled; i++) {
+      log.stage(10 + i, image(2));
+    }
+    assertTrue(log.length() > committedLength);
+    assertTrue(Arrays.equals(image(2), log.getImage(10)));
+    log.close();
+
+    log = openLog();
+    assertTrue(Arrays.equals(new int[] {5}, log.recover()));
+    assertEquals(committedLength, log.length());
+    assertNull(log.getImage(10));
+    log.close();
+  }
+
+  public void test_recover_spilledThenCommitted() throws Exception {
+    WriteAheadLog log = openLog();
+    int count = 4 * 1024 * 1024 / PAGE_SIZE + 10;
+    for (int i = 0; i < count; i++) {
+      log.stage(10 + i, image(i));
+    }
+    assertEquals(count, log.commit());
+    log.close();
+
+    log = openLog();
+    assertEquals(count, log.recover().length);
+    for (int i = 0; i < count; i++) {
+      assertTrue(Arrays.equals(image(i), log.getCommittedImage(10 + i)));
+    }
+    log.close();
+  }
+
+  public void test_recover_tornCommit() throws Exception {
+    WriteAheadLog log = openLog();
+    log.stage(5, image(1));
+    log.commit();
+    long committedLength = log.length();
+    log.stage(5, image(2));
+    log.stage(6, image(2));
+    log.commit();
+    log.close();
+    // lose the trailer of the second commit, as if the process died while it was written
+    FileStore store = FileStore.open(HANDLER, fileName, AccessMode.READ_WRITE);
+    store.init();
+    store.setLength(store.length() - 16);
+    store.close();
+
+    log = openLog();
+    assertTrue(Arrays.equals(new int[] {5}, log.recover()));
+    assertTrue(Arrays.equals(image(1), log.getCommittedImage(5)));
+    assertEquals(committedLength, log.length());
+    log.close();
+  }
+
+  public void test_storage_crashAfterCommit() throws Exception {
+    PagedStorage storage = openStorage();
+    TreeStore treeStore = new TreeStore(storage, 4, storage.getSpecialPage(0));
+    treeStore.lookup(new String[] {"foo"}, true);
+    treeStore.lookup(new String[] {"bar"}, true);
+    storage.commit();
+    // close without a checkpoint: the changes are only in the log
+    storage.close();
+
+    storage = openStorage();
+    treeStore = new TreeStore(storage, 4, storage.getSpecialPage(0));
+    assertEquals("TreeStore root=4\n" + "  PAGE 4: 1 records\n" + "    Rec0: 2 items\n"
+        + "      Item0: child NONE \"bar\" 0 0 0 0\n" + "      Item1: child NONE \"foo\" 0 0 0 0\n",
+        treeStore.toTestableString());
+    storage.close();
+  }
+
+  public void test_storage_crashBeforeCommit() throws Exception {
+    PagedStorage storage = openStorage();
+    TreeStore treeStore = new TreeStore(storage, 4, storage.getSpecialPage(0));
+    treeStore.lookup(new String[] {"foo"}, true);
+    storage.commit();
+    treeStore.lookup(new String[] {"bar"}, true);
+    storage.close();
+
+    storage = openStorage();
+    treeStore = new TreeStore(storage, 4, storage.getSpecialPage(0));
+    assertEquals("TreeStore root=4\n" + "  PAGE 4: 1 records\n" + "    Rec0: 1 items\n"
+        + "      Item0: child NONE \"foo\" 0 0 0 0\n", treeStore.toTestableString());
+    storage.close();
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    fileName = "memFS:walTest" + System.nanoTime();
+  }
+
+  private WriteAheadLog openLog() throws PagedStorageException {
+    WriteAheadLog log = new WriteAheadLog(HANDLER, fileName, PAGE_SIZE);
+    log.open(AccessMode.READ_WRITE);
+    return log;
+  }
+
+  private PagedStorage openStorage() throws PagedStorageException {
+    PagedStorage storage = new PagedStorage(fileName, AccessMode.READ_WRITE, 10240, 1);
+    storage.setPageSize(1024);
+    storage.open();
+    return storage;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.pagedstorage.util;
+
+import com.google.dart.indexer.storage.paged.store.CacheObject;
+import com.google.dart.indexer.storage.paged.store.CacheWriter;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CacheARCTest extends TestCase {
+  private static class TestObject extends CacheObject {
+    TestObject(int pos) {
+      setPos(pos);
+    }
+
+    @Override
+    public boolean canRemove() {
+      return true;
+    }
+
+    @Override
+    public int getMemorySize() {
+      return OBJECT_SIZE;
+    }
+  }
+
+  /**
+   * The size of every object, in words, so that the cache holds exactly 32 objects.
+   */
+  private static final int OBJECT_SIZE = 128;
+
+  private static final int MAX_KB = 16;
+
+  private final List<Integer> writtenBack = new ArrayList<Integer>();
+
+  private final CacheWriter writer = new CacheWriter() {
+    @Override
+    public void writeBack(CacheObject entry) {
+      writtenBack.add(entry.getPos());
+      entry.setChanged(false);
+    }
+  };
+
+  public void test_CacheARC_getAllChanged() throws Exception {
+    CacheARC cache = new CacheARC(writer, MAX_KB);
+    for (int pos = 0; pos < 4; pos++) {
+      TestObject object = new TestObject(pos);
+      object.setChanged(pos % 2 == 0);
+      cache.put(object);
+    }
+    ObjectArray<CacheObject> changed = cache.getAllChanged();
+    assertEquals(2, changed.size());
+    cache.remove(0);
+    assertNull(cache.find(0));
+    assertEquals(1, cache.getAllChanged().size());
+  }
+
+  public void test_CacheARC_put_evictsLeastRecent() throws Exception {
+    CacheARC cache = new CacheARC(writer, MAX_KB);
+    for (int pos = 0; pos < 40; pos++) {
+      TestObject object = new TestObject(pos);
+      object.setChanged(true);
+      cache.put(object);
+    }
+    assertEquals(8, cache.getEvictions());
+    assertTrue(cache.getSize() <= cache.getMaxSize());
+    for (int pos = 0; pos < 8; pos++) {
+      assertNull(cache.get(pos));
+      assertTrue(writtenBack.contains(pos));
+    }
+    for (int pos = 8; pos < 40; pos++) {
+      assertNotNull(cache.get(pos));
+    }
+    assertEquals(8, writtenBack.size());
+  }
+
+  public void test_CacheARC_put_ghostHitGrowsRecentTarget() throws Exception {
+    CacheARC cache = new CacheARC(writer, MAX_KB);
+    for (int pos = 0; pos < 16; pos++) {
+      cache.put(new TestObject(pos));
+      assertNotNull(cache.get(pos));
+    }
+    for (int pos = 100; pos < 132; pos++) {
+      cache.put(new TestObject(pos));
+    }
+    assertEquals(0, cache.getRecentTargetSize());
+    assertNull(cache.find(100));
+    // evicted too early: the object comes back and the 'recent' queue is aimed to be larger
+    cache.put(new TestObject(100));
+    assertNotNull(cache.find(100));
+    assertTrue(cache.getRecentTargetSize() > 0);
+  }
+
+  public void test_CacheARC_scanResistance() throws Exception {
+    CacheARC cache = new CacheARC(writer, MAX_KB);
+    for (int pos = 0; pos < 16; pos++) {
+      cache.put(new TestObject(pos));
+      assertNotNull(cache.get(pos));
+    }
+    // a scan referencing many objects once
+    for (int pos = 1000; pos < 1300; pos++) {
+      cache.put(new TestObject(pos));
+    }
+    for (int pos = 0; pos < 16; pos++) {
+      assertNotNull(cache.find(pos));
+    }
+    assertTrue(cache.getSize() <= cache.getMaxSize());
+  }
+}
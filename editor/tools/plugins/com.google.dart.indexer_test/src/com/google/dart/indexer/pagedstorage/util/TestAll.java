@@ -20,6 +20,7 @@ public class TestAll {
   public static Test suite() {
     TestSuite suite = new TestSuite("Tests in " + TestAll.class.getPackage().getName());
     suite.addTestSuite(BitFieldTest.class);
+    suite.addTestSuite(CacheARCTest.class);
     suite.addTestSuite(StringUtilsTest.class);
     return suite;
   }
@@ -16,10 +16,16 @@ package com.google.dart.indexer.pagestore;
 import com.google.dart.indexer.pagedstorage.PagedStorage;
 import com.google.dart.indexer.pagedstorage.filesystem.AccessMode;
 import com.google.dart.indexer.pagedstorage.treestore.PageRecPos;
+import com.google.dart.indexer.pagedstorage.treestore.TreeLeaf;
 import com.google.dart.indexer.pagedstorage.treestore.TreeStore;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
 public class TreeStoreBasicTests extends TestCase {
   protected static String makeLongName(String name, int size) {
     StringBuffer result = new StringBuffer();
@@ -30,6 +36,14 @@ public class TreeStoreBasicTests extends TestCase {
     return result.toString();
   }
 
+  private static String makePrefix(char c, int length) {
+    char[] chars = new char[length];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  private String fileName;
+
   private PagedStorage pagedStorage;
 
   private TreeStore treeStore;
@@ -105,6 +119,45 @@ public class TreeStoreBasicTests extends TestCase {
 
   }
 
+  public void testInsertInMiddleOfPrefixCompressedPage() throws Exception {
+    // families of 16 names with long shared prefixes, so that every family starts at a restart point
+    List<String[]> paths = new ArrayList<String[]>();
+    for (char family = 'a'; family <= 'c'; family++) {
+      for (int i = 10; i < 26; i++) {
+        paths.add(new String[] {"foo", makePrefix(family, 50) + i});
+      }
+    }
+    // another record that fills the rest of the page
+    for (int i = 10; i < 30; i++) {
+      paths.add(new String[] {"bar", "filler" + i});
+    }
+    for (String[] path : paths) {
+      treeStore.lookup(path, true);
+    }
+    // shifts the last name of every family onto a restart point, where it is stored in full, so
+    // the record grows by more than the size of the new name
+    String[] inserted = new String[] {"foo", makePrefix('a', 50) + "15x"};
+    treeStore.lookup(inserted, true);
+    paths.add(inserted);
+    pagedStorage.commit();
+    pagedStorage.checkpoint();
+    pagedStorage.close();
+    openStorage();
+
+    for (String[] path : paths) {
+      PageRecPos pos = treeStore.lookup(path, false);
+      assertNotNull(path[1], pos);
+      assertEquals(path[1], pos.readName());
+    }
+    Iterator<TreeLeaf> leaves = treeStore.pathIterator();
+    int count = 0;
+    while (leaves.hasNext()) {
+      leaves.next();
+      count++;
+    }
+    assertEquals(paths.size(), count);
+  }
+
   public void testLevel2ContainerOverflow() throws Exception {
     // int items = 10;
     // int size = pagedStorage.getPageSize() * 1 / 5;
@@ -148,14 +201,18 @@ public class TreeStoreBasicTests extends TestCase {
   }
 
   protected void setUp() throws Exception {
-    pagedStorage = new PagedStorage("memFS:test" + System.currentTimeMillis(),
-        AccessMode.READ_WRITE, 10240, 1);
-    pagedStorage.setPageSize(1024);
-    pagedStorage.open();
-    treeStore = new TreeStore(pagedStorage, 4, pagedStorage.getSpecialPage(0));
+    fileName = "memFS:test" + System.nanoTime();
+    openStorage();
   }
 
   protected void tearDown() throws Exception {
     pagedStorage.close();
   }
+
+  private void openStorage() throws Exception {
+    pagedStorage = new PagedStorage(fileName, AccessMode.READ_WRITE, 10240, 1);
+    pagedStorage.setPageSize(1024);
+    pagedStorage.open();
+    treeStore = new TreeStore(pagedStorage, 4, pagedStorage.getSpecialPage(0));
+  }
 }
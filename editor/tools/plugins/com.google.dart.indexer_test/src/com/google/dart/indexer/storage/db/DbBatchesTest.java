@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.db;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DbBatchesTest extends TestCase {
+  /**
+   * Instances of the class <code>RecordingStatement</code> stand for prepared statements, logging
+   * the number of rows of every batch that is executed or cleared.
+   */
+  private class RecordingStatement implements InvocationHandler {
+    private final String name;
+
+    private int batchSize;
+
+    private boolean failing;
+
+    RecordingStatement(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      if (methodName.equals("addBatch")) {
+        batchSize++;
+        return null;
+      } else if (methodName.equals("executeBatch")) {
+        if (failing) {
+          throw new SQLException("Cannot execute " + name);
+        }
+        log.add(name + " " + batchSize);
+        int[] result = new int[batchSize];
+        batchSize = 0;
+        return result;
+      } else if (methodName.equals("clearBatch")) {
+        log.add(name + " cleared");
+        batchSize = 0;
+        return null;
+      } else if (methodName.equals("hashCode")) {
+        return System.identityHashCode(proxy);
+      } else if (methodName.equals("equals")) {
+        return proxy == args[0];
+      }
+      throw new UnsupportedOperationException(methodName);
+    }
+
+    PreparedStatement newStatement() {
+      return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] {PreparedStatement.class}, this);
+    }
+  }
+
+  private final List<String> log = new ArrayList<String>();
+
+  private RecordingStatement connections;
+
+  private PreparedStatement connectionStatement;
+
+  private PreparedStatement sourceStatement;
+
+  private PreparedStatement dependencyStatement;
+
+  public void test_DbBatches_addConnection_batchSize() throws Exception {
+    DbBatches batches = newBatches(2);
+    batches.addConnection(1, 7);
+    batches.addConnection(1, 7);
+    batches.addConnection(2, 7);
+    assertLog("connections 2");
+    batches.flushConnections(2, 7);
+    assertLog("connections 1");
+  }
+
+  public void test_DbBatches_addFileRow_flushFile() throws Exception {
+    DbBatches batches = newBatches(100);
+    batches.addFileRow(sourceStatement, 3);
+    batches.addFileRow(dependencyStatement, 3);
+    batches.addConnection(1, 7);
+    batches.flushFileContents(4);
+    assertLog();
+    batches.flushFileContents(3);
+    assertLog("sources 1", "dependencies 1");
+    batches.flushFileContents(3);
+    assertLog();
+    batches.flush();
+    assertLog("connections 1");
+  }
+
+  public void test_DbBatches_discard() throws Exception {
+    DbBatches batches = newBatches(100);
+    batches.addConnection(1, 7);
+    batches.addFileRow(sourceStatement, 3);
+    batches.discard();
+    assertLog("connections cleared", "sources cleared");
+    batches.flush();
+    assertLog();
+  }
+
+  public void test_DbBatches_flush() throws Exception {
+    DbBatches batches = newBatches(100);
+    batches.flush();
+    assertLog();
+    batches.addFileRow(dependencyStatement, 3);
+    batches.addConnection(1, 7);
+    batches.addFileRow(sourceStatement, 4);
+    batches.flush();
+    assertLog("connections 1", "sources 1", "dependencies 1");
+  }
+
+  public void test_DbBatches_flushConnections_destination() throws Exception {
+    DbBatches batches = newBatches(100);
+    batches.addConnection(1, 7);
+    batches.addConnection(2, 7);
+    batches.addFileRow(sourceStatement, 1);
+    batches.flushConnections(3, 7);
+    batches.flushConnections(1, 8);
+    assertLog();
+    // every pending connection is executed, not only those to the destination
+    batches.flushConnections(1, 7);
+    assertLog("connections 2");
+    batches.flushConnections(2, 7);
+    assertLog();
+  }
+
+  public void test_DbBatches_flushFailure() throws Exception {
+    DbBatches batches = newBatches(100);
+    batches.addConnection(1, 7);
+    batches.addFileRow(sourceStatement, 3);
+    connections.failing = true;
+    try {
+      batches.flush();
+      fail("Expected the failure of the connection batch to be reported");
+    } catch (SQLException exception) {
+      // expected
+    }
+    assertLog("sources cleared");
+    connections.failing = false;
+    batches.flushFileContents(3);
+    batches.flush();
+    assertLog();
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    connections = new RecordingStatement("connections");
+    connectionStatement = connections.newStatement();
+    sourceStatement = new RecordingStatement("sources").newStatement();
+    dependencyStatement = new RecordingStatement("dependencies").newStatement();
+  }
+
+  /**
+   * Assert that the given batches were executed or cleared since the previous assertion.
+   */
+  private void assertLog(String... expected) {
+    assertEquals(Arrays.asList(expected), log);
+    log.clear();
+  }
+
+  private DbBatches newBatches(int batchSize) {
+    return new DbBatches(batchSize, connectionStatement, sourceStatement, dependencyStatement);
+  }
+}
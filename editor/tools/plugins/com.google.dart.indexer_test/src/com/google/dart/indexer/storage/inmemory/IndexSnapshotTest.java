@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.inmemory;
+
+import com.google.dart.indexer.index.configuration.IndexConfigurationBuilder;
+import com.google.dart.indexer.index.configuration.IndexConfigurationInstance;
+import com.google.dart.indexer.index.configuration.internal.LayerInfo;
+import com.google.dart.indexer.index.layers.Layer;
+import com.google.dart.indexer.index.layers.LayerId;
+import com.google.dart.indexer.index.layers.bidirectional_edges.BidirectionalEdgesLayer;
+import com.google.dart.indexer.index.layers.bidirectional_edges.BidirectionalEdgesLocationInfo;
+import com.google.dart.indexer.index.layers.reverse_edges.ReverseEdgesLayer;
+import com.google.dart.indexer.index.layers.reverse_edges.ReverseEdgesLocationInfo;
+import com.google.dart.indexer.locations.Location;
+import com.google.dart.indexer.tests.internal.TestLocation;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class IndexSnapshotTest extends TestCase {
+  private static final int LOCATION_COUNT = 50;
+
+  private static Location location(int index) {
+    return new TestLocation("lib.dart#member" + index);
+  }
+
+  private static List<Location> locations(int... indexes) {
+    List<Location> result = new ArrayList<Location>();
+    for (int index : indexes) {
+      result.add(location(index));
+    }
+    return result;
+  }
+
+  private IndexConfigurationInstance configuration;
+
+  private Layer reverseLayer;
+
+  private Layer bidirectionalLayer;
+
+  private File folder;
+
+  public void test_IndexSnapshot_corrupted() throws Exception {
+    File file = new File(folder, "index");
+    IndexSnapshot.save(createStorage(), file);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.seek(randomAccessFile.length() / 2);
+      int value = randomAccessFile.read();
+      randomAccessFile.seek(randomAccessFile.length() / 2);
+      randomAccessFile.write(value ^ 0xFF);
+    } finally {
+      randomAccessFile.close();
+    }
+    try {
+      IndexSnapshot.load(file, configuration);
+      fail("Corrupted snapshot was loaded");
+    } catch (IOException exception) {
+      // expected
+    }
+  }
+
+  public void test_IndexSnapshot_roundTrip() throws Exception {
+    File file = new File(folder, "index");
+    IndexSnapshot.save(createStorage(), file);
+    OptimizedIndexStorage storage = IndexSnapshot.load(file, configuration);
+    assertContents(storage, -1);
+  }
+
+  public void test_IndexSnapshot_saveLoadedStorage() throws Exception {
+    File first = new File(folder, "index.1");
+    IndexSnapshot.save(createStorage(), first);
+    OptimizedIndexStorage loaded = IndexSnapshot.load(first, configuration);
+    loaded.writeLocationInfo(location(3),
+        new ReverseEdgesLocationInfo(locations(LOCATION_COUNT - 1)), reverseLayer);
+    File second = new File(folder, "index.2");
+    IndexSnapshot.save(loaded, second);
+    // saving copies the location infos that were not read straight out of the mapping
+    ByteByteArray layer = loaded.getLayersMap().get(reverseLayer.getId().stringValue());
+    int readCount = 0;
+    for (int i = 0; i < layer.elementsCount; i++) {
+      if (layer.data[i] != null) {
+        readCount++;
+      }
+    }
+    assertEquals(1, readCount);
+    OptimizedIndexStorage reloaded = IndexSnapshot.load(second, configuration);
+    assertContents(reloaded, 3);
+    assertEquals(locations(LOCATION_COUNT - 1), Arrays.asList(((ReverseEdgesLocationInfo)
+        reloaded.readLocationInfo(location(3), reverseLayer)).getSourceLocations()));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    TestLocation.register();
+    IndexConfigurationBuilder builder = new IndexConfigurationBuilder();
+    builder.addLayer(new LayerInfo(new LayerId("test.reverse")) {
+      @Override
+      public Layer create() {
+        return new ReverseEdgesLayer();
+      }
+    });
+    builder.addLayer(new LayerInfo(new LayerId("test.bidirectional")) {
+      @Override
+      public Layer create() {
+        return new BidirectionalEdgesLayer();
+      }
+    });
+    configuration = builder.build().instantiate();
+    reverseLayer = configuration.getLayer(new LayerId("test.reverse"));
+    bidirectionalLayer = configuration.getLayer(new LayerId("test.bidirectional"));
+    folder = File.createTempFile("snapshot", "");
+    folder.delete();
+    folder.mkdir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : folder.listFiles()) {
+      file.delete();
+    }
+    folder.delete();
+  }
+
+  /**
+   * Assert that the given storage holds the location infos written by {@link #createStorage()},
+   * except for the reverse edges of the location with the given index.
+   */
+  private void assertContents(OptimizedIndexStorage storage, int changed) {
+    for (int i = 0; i < LOCATION_COUNT; i++) {
+      if (i != changed) {
+        ReverseEdgesLocationInfo reverse = (ReverseEdgesLocationInfo) storage.readLocationInfo(
+            location(i), reverseLayer);
+        assertEquals(
+            new HashSet<Location>(locations((i + 1) % LOCATION_COUNT, (i + 2) % LOCATION_COUNT)),
+            new HashSet<Location>(Arrays.asList(reverse.getSourceLocations())));
+      }
+      BidirectionalEdgesLocationInfo edges = (BidirectionalEdgesLocationInfo)
+          storage.readLocationInfo(location(i), bidirectionalLayer);
+      if (i % 2 == 0) {
+        assertEquals(locations(i + 1), Arrays.asList(edges.getSourceLocations()));
+        assertEquals(Collections.emptyList(), Arrays.asList(edges.getDestinationLocations()));
+      } else {
+        assertNull(edges);
+      }
+    }
+  }
+
+  private OptimizedIndexStorage createStorage() {
+    OptimizedIndexStorage storage = new OptimizedIndexStorage(configuration);
+    for (int i = 0; i < LOCATION_COUNT; i++) {
+      storage.writeLocationInfo(location(i), new ReverseEdgesLocationInfo(locations(
+          (i + 1) % LOCATION_COUNT, (i + 2) % LOCATION_COUNT)), reverseLayer);
+      if (i % 2 == 0) {
+        storage.writeLocationInfo(location(i), new BidirectionalEdgesLocationInfo(locations(i + 1),
+            new ArrayList<Location>()), bidirectionalLayer);
+      }
+    }
+    return storage;
+  }
+}
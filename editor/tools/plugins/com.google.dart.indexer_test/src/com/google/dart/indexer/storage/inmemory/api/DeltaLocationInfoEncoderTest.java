@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.inmemory.api;
+
+import com.google.dart.indexer.index.layers.bidirectional_edges.BidirectionalEdgesLocationInfo;
+import com.google.dart.indexer.index.layers.reverse_edges.ReverseEdgesLocationInfo;
+import com.google.dart.indexer.locations.Location;
+import com.google.dart.indexer.tests.internal.TestLocation;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DeltaLocationInfoEncoderTest extends TestCase {
+  /**
+   * A location encoder that uses the number in the name of a test location as its ID and counts
+   * the locations it decodes.
+   */
+  private static class CountingEncoder implements ILocationEncoder {
+    private int decodeCount;
+
+    @Override
+    public Location decode(int position) {
+      decodeCount++;
+      return location(position);
+    }
+
+    @Override
+    public int encode(Location location) {
+      return Integer.parseInt(location.getSemiUniqueIdentifier().substring(1));
+    }
+  }
+
+  private static Location location(int id) {
+    return new TestLocation("L" + id);
+  }
+
+  private static List<Location> locations(int... ids) {
+    List<Location> result = new ArrayList<Location>();
+    for (int id : ids) {
+      result.add(location(id));
+    }
+    return result;
+  }
+
+  private final DeltaLocationInfoEncoder coder = new DeltaLocationInfoEncoder();
+
+  private final CountingEncoder encoder = new CountingEncoder();
+
+  public void test_DeltaLocationInfoEncoder_bidirectional() throws Exception {
+    BidirectionalEdgesLocationInfo info = new BidirectionalEdgesLocationInfo(locations(7, 3),
+        locations(Integer.MAX_VALUE, 0, 200));
+    byte[] data = coder.encode(info, encoder);
+    BidirectionalEdgesLocationInfo decoded = (BidirectionalEdgesLocationInfo) coder.decode(data,
+        encoder);
+    assertEquals(locations(3, 7), Arrays.asList(decoded.getSourceLocations()));
+    assertEquals(locations(0, 200, Integer.MAX_VALUE),
+        Arrays.asList(decoded.getDestinationLocations()));
+  }
+
+  public void test_DeltaLocationInfoEncoder_empty() throws Exception {
+    byte[] data = coder.encode(new ReverseEdgesLocationInfo(), encoder);
+    assertEquals(2, data.length);
+    ReverseEdgesLocationInfo decoded = (ReverseEdgesLocationInfo) coder.decode(data, encoder);
+    assertTrue(decoded.isEmpty());
+    decoded.addSourceLocation(location(1));
+    assertEquals(locations(1), Arrays.asList(decoded.getSourceLocations()));
+  }
+
+  public void test_DeltaLocationInfoEncoder_lazyDecoding() throws Exception {
+    ReverseEdgesLocationInfo info = new ReverseEdgesLocationInfo(locations(5, 10, 15, 20));
+    ReverseEdgesLocationInfo decoded = (ReverseEdgesLocationInfo) coder.decode(
+        coder.encode(info, encoder), encoder);
+    assertFalse(decoded.isEmpty());
+    assertEquals(0, encoder.decodeCount);
+    decoded.addSourceLocation(location(25));
+    assertEquals(4, encoder.decodeCount);
+    assertEquals(locations(5, 10, 15, 20, 25), Arrays.asList(decoded.getSourceLocations()));
+  }
+
+  public void test_DeltaLocationInfoEncoder_reverse() throws Exception {
+    List<Location> source = new ArrayList<Location>();
+    for (int i = 0; i < 1000; i++) {
+      source.add(location(i * i));
+    }
+    source.add(location(4));
+    Collections.shuffle(source);
+    byte[] data = coder.encode(new ReverseEdgesLocationInfo(source), encoder);
+    // small deltas take a single byte each
+    assertTrue(data.length < 3 * 1000);
+    ReverseEdgesLocationInfo decoded = (ReverseEdgesLocationInfo) coder.decode(data, encoder);
+    Location[] locations = decoded.getSourceLocations();
+    assertEquals(1000, locations.length);
+    for (int i = 0; i < locations.length; i++) {
+      assertEquals(location(i * i), locations[i]);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.storage.paged;
+
+import com.google.dart.indexer.index.entries.LocationInfo;
+import com.google.dart.indexer.index.layers.bidirectional_edges.BidirectionalEdgesLocationInfo;
+import com.google.dart.indexer.index.layers.reverse_edges.ReverseEdgesLocationInfo;
+import com.google.dart.indexer.locations.Location;
+import com.google.dart.indexer.pagedstorage.PagedStorage;
+import com.google.dart.indexer.pagedstorage.filesystem.AccessMode;
+import com.google.dart.indexer.tests.internal.TestLocation;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class BulkLoaderTest extends TestCase {
+  private static final int LOCATION_COUNT = 60;
+
+  private static Set<Location> asSet(Location[] locations) {
+    return new HashSet<Location>(Arrays.asList(locations));
+  }
+
+  private static Location location(int index) {
+    return new TestLocation("lib" + (index % 4) + ".dart#member" + index);
+  }
+
+  private File spillFolder;
+
+  private PagedStorage expectedStorage;
+
+  private PagedStorage actualStorage;
+
+  private LocationTreeStore expected;
+
+  private LocationTreeStore actual;
+
+  public void test_BulkLoader_apply_inMemory() throws Exception {
+    BulkLoader loader = new BulkLoader(actual, spillFolder, 1024);
+    addReferences(loader);
+    assertEquals(0, spillFolder.list().length);
+    loader.apply();
+    assertFalse(loader.hasPendingReferences());
+    assertSameReferences();
+  }
+
+  public void test_BulkLoader_apply_spilled() throws Exception {
+    BulkLoader loader = new BulkLoader(actual, spillFolder, 0);
+    addReferences(loader);
+    assertTrue(spillFolder.list().length > 1);
+    loader.apply();
+    assertFalse(loader.hasPendingReferences());
+    assertEquals(0, spillFolder.list().length);
+    assertSameReferences();
+  }
+
+  public void test_BulkLoader_discard() throws Exception {
+    BulkLoader loader = new BulkLoader(actual, spillFolder, 0);
+    addReferences(loader);
+    loader.discard();
+    assertFalse(loader.hasPendingReferences());
+    assertEquals(0, spillFolder.list().length);
+    loader.apply();
+    assertNull(actual.read(location(0), 0, false));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    TestLocation.register();
+    spillFolder = File.createTempFile("bulkloader", "");
+    spillFolder.delete();
+    spillFolder.mkdir();
+    expectedStorage = openStorage("expected");
+    actualStorage = openStorage("actual");
+    expected = openStore(expectedStorage);
+    actual = openStore(actualStorage);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    expectedStorage.close();
+    actualStorage.close();
+    for (File file : spillFolder.listFiles()) {
+      file.delete();
+    }
+    spillFolder.delete();
+  }
+
+  /**
+   * Add the same references to the expected store directly and to the given loader: a dense set of
+   * one-way references in layer 0 and a sparser set of bidirectional references in layer 1.
+   */
+  private void addReferences(BulkLoader loader) throws Exception {
+    for (int i = 0; i < LOCATION_COUNT; i++) {
+      for (int j = 1; j <= 3; j++) {
+        Location source = location(i);
+        Location destination = location((i * 7 + j) % LOCATION_COUNT);
+        expected.addReference(source, destination, 0, false);
+        loader.addReference(source, destination, 0, false);
+      }
+      if (i % 3 == 0) {
+        Location source = location(i);
+        Location destination = location((i + 5) % LOCATION_COUNT);
+        expected.addReference(source, destination, 1, true);
+        loader.addReference(source, destination, 1, true);
+      }
+    }
+    assertTrue(loader.hasPendingReferences());
+  }
+
+  private void assertSameReferences() throws Exception {
+    for (int i = 0; i < LOCATION_COUNT; i++) {
+      Location location = location(i);
+      ReverseEdgesLocationInfo expectedReverse = (ReverseEdgesLocationInfo) expected.read(
+          location, 0, false);
+      LocationInfo actualReverse = actual.read(location, 0, false);
+      if (expectedReverse == null) {
+        assertNull(location.toString(), actualReverse);
+      } else {
+        assertEquals(location.toString(), asSet(expectedReverse.getSourceLocations()),
+            asSet(((ReverseEdgesLocationInfo) actualReverse).getSourceLocations()));
+      }
+      BidirectionalEdgesLocationInfo expectedEdges = (BidirectionalEdgesLocationInfo) expected.read(
+          location, 1, true);
+      BidirectionalEdgesLocationInfo actualEdges = (BidirectionalEdgesLocationInfo) actual.read(
+          location, 1, true);
+      if (expectedEdges == null) {
+        assertNull(location.toString(), actualEdges);
+      } else {
+        assertEquals(location.toString(), asSet(expectedEdges.getSourceLocations()),
+            asSet(actualEdges.getSourceLocations()));
+        assertEquals(location.toString(), asSet(expectedEdges.getDestinationLocations()),
+            asSet(actualEdges.getDestinationLocations()));
+      }
+    }
+    assertEquals(expected.readAll(0, false).keySet(), actual.readAll(0, false).keySet());
+  }
+
+  private LocationTreeStore openStore(PagedStorage pagedStorage) throws Exception {
+    return new LocationTreeStore(pagedStorage, pagedStorage.getSpecialPage(2),
+        pagedStorage.getSpecialPage(3), 2);
+  }
+
+  private PagedStorage openStorage(String name) throws Exception {
+    PagedStorage pagedStorage = new PagedStorage("memFS:" + name + System.nanoTime(),
+        AccessMode.READ_WRITE, 1024, 4);
+    pagedStorage.open();
+    return pagedStorage;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.indexer.tests.internal;
+
+import com.google.dart.indexer.locations.Location;
+import com.google.dart.indexer.locations.LocationPersitence;
+import com.google.dart.indexer.locations.LocationType;
+
+import org.eclipse.core.resources.IFile;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+
+/**
+ * Instances of the class <code>TestLocation</code> represent locations that are identified only by
+ * a name, used to exercise the storages without a workspace.
+ */
+public class TestLocation implements Location {
+  /**
+   * The type of the test locations.
+   */
+  public static final LocationType TYPE = new LocationType('X') {
+    @Override
+    public Location byUniqueIdentifier(String identifier) {
+      return new TestLocation(identifier);
+    }
+
+    @Override
+    public Location load(RandomAccessFile file) throws IOException {
+      return byUniqueIdentifier(file.readUTF());
+    }
+
+    @Override
+    public void save(Location location, RandomAccessFile file) throws IOException {
+      file.writeUTF(location.getSemiUniqueIdentifier());
+    }
+  };
+
+  /**
+   * Register the type of the test locations so that they can be stored.
+   */
+  public static void register() {
+    LocationPersitence.getInstance().registerLocationType(TYPE);
+  }
+
+  private final String name;
+
+  public TestLocation(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof TestLocation && ((TestLocation) obj).name.equals(name);
+  }
+
+  @Override
+  @Deprecated
+  public IFile getContainingFile() {
+    return null;
+  }
+
+  @Override
+  public URI getContainingUri() {
+    return null;
+  }
+
+  @Override
+  public LocationType getLocationType() {
+    return TYPE;
+  }
+
+  @Override
+  public String getSemiUniqueIdentifier() {
+    return name;
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
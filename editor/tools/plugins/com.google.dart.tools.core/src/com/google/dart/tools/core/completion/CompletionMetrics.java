@@ -44,6 +44,17 @@ public abstract class CompletionMetrics {
   public void completionEnd() {
   }
 
+  /**
+   * Called by the {@link CompletionEngine} when the proposals of the previous completion request
+   * were filtered instead of analyzing the source again. By default, this method does nothing, but
+   * subclasses may override as desired.
+   * 
+   * @param proposalCount the number of proposals that were reported
+   * @param ms the time in milliseconds
+   */
+  public void completionReused(int proposalCount, long ms) {
+  }
+
   /**
    * Called by the {@link CompletionEngine} to report an exception that occurred during completion.
    * By default, this method does nothing, but subclasses may override as desired.
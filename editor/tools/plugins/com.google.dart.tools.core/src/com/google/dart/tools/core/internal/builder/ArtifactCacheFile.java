@@ -0,0 +1,592 @@
+/*
+ * Copyright 2011 Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.builder;
+
+import com.google.common.io.Closeables;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Instances of the class <code>ArtifactCacheFile</code> represent the binary file in which a
+ * {@link CachingArtifactProvider} saves its artifacts between sessions. The file is mapped into
+ * memory when it is opened, but only its index is read; the content of an artifact is decoded the
+ * first time it is requested.
+ * <p>
+ * The file starts with a header, followed by blocks holding the content of the artifacts, an index
+ * and a trailer. The content of every artifact is encoded as UTF-8 and, if it is large enough to
+ * benefit, compressed. The index maps the name of every source to its artifacts, giving for each
+ * artifact its part, extension, modification time and the offset of its block. The trailer holds
+ * the offset, length and CRC-32 of the index followed by the magic number again.
+ * <p>
+ * A file is saved again by appending the blocks of the artifacts that are not in it yet, followed
+ * by a new index and trailer, so that only the artifacts changed during the session are written.
+ * The file is rewritten from scratch once most of it is taken by blocks that are no longer
+ * referenced. If the application stops while a file is being appended to, the trailer is missing
+ * and the whole file is rejected when it is next opened.
+ * <p>
+ * A rewritten file never replaces the file it was rewritten from, because that file may still be
+ * mapped and have blocks being read from it. Instead, every rewrite creates a new generation whose
+ * name is the name of the cache file followed by its generation number, and the older generations
+ * are deleted once they are no longer needed. Opening a cache file opens its latest generation.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class ArtifactCacheFile {
+  /**
+   * The location of the content of an artifact in a cache file.
+   */
+  static final class Block {
+    final ArtifactCacheFile file;
+    final long offset;
+    final int length;
+
+    /**
+     * The length of the content encoded as UTF-8.
+     */
+    final int size;
+
+    final boolean compressed;
+
+    Block(ArtifactCacheFile file, long offset, int length, int size, boolean compressed) {
+      this.file = file;
+      this.offset = offset;
+      this.length = length;
+      this.size = size;
+      this.compressed = compressed;
+    }
+
+    /**
+     * Return the content stored in this block.
+     */
+    String read() throws IOException {
+      return file.read(this);
+    }
+  }
+
+  /**
+   * An artifact read from or to be written to a cache file. An artifact being written has either
+   * its content, the key of its content in a spill store or a block in the cache file being
+   * replaced.
+   */
+  static final class Entry {
+    String name;
+    String part;
+    String extension;
+    long lastModified;
+    String content;
+    String spillKey;
+    Block block;
+  }
+
+  private static final long MAGIC = 0x4152544946435348L;
+
+  /**
+   * The version of the file format, to be incremented whenever the layout changes.
+   */
+  private static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 12;
+
+  private static final int TRAILER_LENGTH = 24;
+
+  /**
+   * The minimum length, in bytes, of the encoded content of an artifact for it to be compressed.
+   */
+  private static final int COMPRESSION_THRESHOLD = 1024;
+
+  /**
+   * The number of bytes that may be taken by blocks that are no longer referenced before a file is
+   * rewritten from scratch, in addition to the length of the referenced blocks.
+   */
+  private static final long MIN_GARBAGE = 1024 * 1024;
+
+  /**
+   * Return the file holding the latest generation of the given cache file, or <code>null</code> if
+   * no generation of the cache file exists.
+   * 
+   * @param target the cache file
+   * @return the file that is read when the cache file is opened
+   */
+  public static File findLatestFile(File target) {
+    int generation = findLatestGeneration(target);
+    return generation < 0 ? null : getGenerationFile(target, generation);
+  }
+
+  /**
+   * Open the latest generation of the given cache file, reading its index.
+   * 
+   * @param target the cache file
+   * @param entries the list to which the artifacts in the file are added
+   * @return the opened file
+   * @throws IOException if the file cannot be read, was written by another version or is corrupted
+   */
+  static ArtifactCacheFile open(File target, List<Entry> entries) throws IOException {
+    int generation = findLatestGeneration(target);
+    if (generation < 0) {
+      throw new FileNotFoundException("No artifact cache: " + target);
+    }
+    ArtifactCacheFile result = new ArtifactCacheFile(target, generation);
+    File file = result.file;
+    ByteBuffer buffer = result.getBuffer(0);
+    int end = buffer.limit();
+    if (end < HEADER_LENGTH + TRAILER_LENGTH || buffer.getLong(0) != MAGIC
+        || buffer.getLong(end - 8) != MAGIC) {
+      throw new IOException("Not an artifact cache: " + file);
+    }
+    if (buffer.getInt(8) != VERSION) {
+      throw new IOException("Unsupported artifact cache version " + buffer.getInt(8) + ": " + file);
+    }
+    long indexOffset = buffer.getLong(end - TRAILER_LENGTH);
+    int indexLength = buffer.getInt(end - TRAILER_LENGTH + 8);
+    if (indexOffset < HEADER_LENGTH || indexOffset + indexLength > end - TRAILER_LENGTH) {
+      throw new IOException("Corrupted artifact cache: " + file);
+    }
+    byte[] index = new byte[indexLength];
+    buffer.position((int) indexOffset);
+    buffer.get(index);
+    CRC32 crc = new CRC32();
+    crc.update(index);
+    if (buffer.getInt(end - TRAILER_LENGTH + 12) != (int) crc.getValue()) {
+      throw new IOException("Corrupted artifact cache: " + file);
+    }
+    ByteBuffer in = ByteBuffer.wrap(index);
+    int nameCount = in.getInt();
+    for (int i = 0; i < nameCount; i++) {
+      String name = readString(in);
+      int count = in.getInt();
+      for (int j = 0; j < count; j++) {
+        Entry entry = new Entry();
+        entry.name = name;
+        entry.part = readString(in);
+        entry.extension = readString(in);
+        entry.lastModified = in.getLong();
+        long offset = in.getLong();
+        int length = in.getInt();
+        int size = in.getInt();
+        boolean compressed = in.get() != 0;
+        if (offset < HEADER_LENGTH || offset + length > indexOffset) {
+          throw new IOException("Corrupted artifact cache: " + file);
+        }
+        entry.block = new Block(result, offset, length, size, compressed);
+        entries.add(entry);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Save the given artifacts to the given cache file. If the artifacts were opened from or last
+   * saved to the same file, then only the artifacts that are not in it yet are appended to it.
+   * Otherwise a new generation of the file is written from scratch. When this method returns, the
+   * block of every entry is set to its block in the saved file.
+   * 
+   * @param target the cache file
+   * @param previous the file from which the artifacts were opened or to which they were last saved,
+   *          or <code>null</code> if none
+   * @param entries the artifacts to be saved, grouped by name
+   * @param spillStore the store holding the content of the entries that have a spill key, or
+   *          <code>null</code> if none
+   * @return the saved file
+   * @throws IOException if the file could not be written
+   */
+  static ArtifactCacheFile save(File target, ArtifactCacheFile previous, List<Entry> entries,
+      ArtifactSpillStore spillStore) throws IOException {
+    boolean samePrevious = previous != null && previous.target.equals(target);
+    if (samePrevious && previous.file.length() == previous.length
+        && !previous.needsRewrite(entries)) {
+      append(previous, entries, spillStore);
+      return previous;
+    }
+    // Write a new generation, through a temporary file so that the latest generation remains
+    // valid until the new one is complete.
+    int generation = findLatestGeneration(target);
+    if (samePrevious) {
+      generation = Math.max(generation, previous.generation);
+    }
+    ArtifactCacheFile result = new ArtifactCacheFile(target, generation + 1);
+    File file = result.file;
+    File tempFile = new File(file.getPath() + ".tmp");
+    List<Block> blocks = new ArrayList<Block>(entries.size());
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+        tempFile), 1 << 16));
+    boolean failed = true;
+    try {
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      writeBlocks(result, entries, spillStore, out, 0, blocks);
+      out.flush();
+      failed = false;
+    } finally {
+      Closeables.close(out, failed);
+      if (failed) {
+        tempFile.delete();
+      }
+    }
+    if (!tempFile.renameTo(file)) {
+      // The generation is newer than any file that was opened, so a leftover can be deleted.
+      file.delete();
+      if (!tempFile.renameTo(file)) {
+        tempFile.delete();
+        throw new IOException("Could not rename " + tempFile + " to " + file);
+      }
+    }
+    result.length = file.length();
+    setBlocks(entries, blocks);
+    deleteOlderGenerations(target, result.generation);
+    return result;
+  }
+
+  private static void append(ArtifactCacheFile previous, List<Entry> entries,
+      ArtifactSpillStore spillStore) throws IOException {
+    List<Block> blocks = new ArrayList<Block>(entries.size());
+    long start = previous.length;
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+        previous.file, true), 1 << 16));
+    boolean failed = true;
+    try {
+      writeBlocks(previous, entries, spillStore, out, start, blocks);
+      out.flush();
+      failed = false;
+    } finally {
+      Closeables.close(out, failed);
+    }
+    synchronized (previous) {
+      previous.length = start + out.size();
+    }
+    setBlocks(entries, blocks);
+  }
+
+  /**
+   * Delete the generations of the given cache file older than the given generation. A generation
+   * that cannot be deleted, for example because it is still mapped, is deleted by a later save.
+   */
+  private static void deleteOlderGenerations(File target, int generation) {
+    File[] files = target.getAbsoluteFile().getParentFile().listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      int fileGeneration = getGeneration(target, file);
+      if (fileGeneration >= 0 && fileGeneration < generation) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Return the latest generation of the given cache file, or <code>-1</code> if there is none.
+   */
+  private static int findLatestGeneration(File target) {
+    File[] files = target.getAbsoluteFile().getParentFile().listFiles();
+    int latestGeneration = -1;
+    if (files != null) {
+      for (File file : files) {
+        int fileGeneration = getGeneration(target, file);
+        if (fileGeneration > latestGeneration && file.isFile()) {
+          latestGeneration = fileGeneration;
+        }
+      }
+    }
+    return latestGeneration;
+  }
+
+  /**
+   * Return the generation of the given cache file that the given file holds, or <code>-1</code> if
+   * the file is not a generation of the cache file. The cache file itself, as written before
+   * generations were introduced, is generation <code>0</code>.
+   */
+  private static int getGeneration(File target, File file) {
+    String name = file.getName();
+    String prefix = target.getName();
+    if (name.equals(prefix)) {
+      return 0;
+    }
+    if (!name.startsWith(prefix + ".") || name.length() == prefix.length() + 1) {
+      return -1;
+    }
+    String suffix = name.substring(prefix.length() + 1);
+    for (int i = 0; i < suffix.length(); i++) {
+      if (!Character.isDigit(suffix.charAt(i))) {
+        return -1;
+      }
+    }
+    try {
+      return Integer.parseInt(suffix);
+    } catch (NumberFormatException exception) {
+      return -1;
+    }
+  }
+
+  /**
+   * Return the file holding the given generation of the given cache file.
+   */
+  private static File getGenerationFile(File target, int generation) {
+    if (generation == 0) {
+      return target;
+    }
+    return new File(target.getPath() + "." + generation);
+  }
+
+  private static String readString(ByteBuffer buffer) throws IOException {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static void setBlocks(List<Entry> entries, List<Block> blocks) {
+    for (int i = 0; i < entries.size(); i++) {
+      entries.get(i).block = blocks.get(i);
+    }
+  }
+
+  /**
+   * Write the blocks of the given entries that are not in the given file, followed by the index and
+   * the trailer.
+   * 
+   * @param file the file being written
+   * @param entries the artifacts to be written
+   * @param spillStore the store holding spilled content
+   * @param out the stream to which the data is written
+   * @param start the offset in the file of the first byte written to the stream
+   * @param blocks the list to which the blocks of the entries are added, in the same order
+   */
+  private static void writeBlocks(ArtifactCacheFile file, List<Entry> entries,
+      ArtifactSpillStore spillStore, DataOutputStream out, long start, List<Block> blocks)
+      throws IOException {
+    Deflater deflater = new Deflater();
+    try {
+      for (Entry entry : entries) {
+        Block block = entry.block;
+        long offset = start + out.size();
+        if (block != null && block.file == file) {
+          blocks.add(block);
+        } else if (block != null) {
+          // Copy the block without decoding it.
+          byte[] data = block.file.readBytes(block);
+          out.write(data);
+          blocks.add(new Block(file, offset, data.length, block.size, block.compressed));
+        } else {
+          String content = entry.content;
+          if (content == null) {
+            content = spillStore.read(entry.spillKey);
+          }
+          byte[] data = content.getBytes("UTF-8");
+          int size = data.length;
+          boolean compressed = false;
+          if (size >= COMPRESSION_THRESHOLD) {
+            byte[] compressedData = deflate(deflater, data);
+            if (compressedData.length < size) {
+              data = compressedData;
+              compressed = true;
+            }
+          }
+          out.write(data);
+          blocks.add(new Block(file, offset, data.length, size, compressed));
+        }
+      }
+    } finally {
+      deflater.end();
+    }
+
+    long indexOffset = start + out.size();
+    ByteArrayOutputStream indexBytes = new ByteArrayOutputStream(64 * entries.size() + 64);
+    DataOutputStream index = new DataOutputStream(indexBytes);
+    int nameCount = 0;
+    for (int i = 0; i < entries.size(); i++) {
+      if (i == 0 || !entries.get(i).name.equals(entries.get(i - 1).name)) {
+        nameCount++;
+      }
+    }
+    index.writeInt(nameCount);
+    int i = 0;
+    while (i < entries.size()) {
+      String name = entries.get(i).name;
+      int end = i + 1;
+      while (end < entries.size() && entries.get(end).name.equals(name)) {
+        end++;
+      }
+      writeString(name, index);
+      index.writeInt(end - i);
+      for (; i < end; i++) {
+        Entry entry = entries.get(i);
+        Block block = blocks.get(i);
+        writeString(entry.part, index);
+        writeString(entry.extension, index);
+        index.writeLong(entry.lastModified);
+        index.writeLong(block.offset);
+        index.writeInt(block.length);
+        index.writeInt(block.size);
+        index.writeByte(block.compressed ? 1 : 0);
+      }
+    }
+    index.flush();
+    byte[] indexData = indexBytes.toByteArray();
+    out.write(indexData);
+    CRC32 crc = new CRC32();
+    crc.update(indexData);
+    out.writeLong(indexOffset);
+    out.writeInt(indexData.length);
+    out.writeInt((int) crc.getValue());
+    out.writeLong(MAGIC);
+  }
+
+  private static byte[] deflate(Deflater deflater, byte[] data) {
+    deflater.reset();
+    deflater.setInput(data);
+    deflater.finish();
+    ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 4 + 64);
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      int count = deflater.deflate(buffer);
+      result.write(buffer, 0, count);
+    }
+    return result.toByteArray();
+  }
+
+  private static void writeString(String string, DataOutputStream out) throws IOException {
+    byte[] bytes = (string == null ? "" : string).getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * The cache file of which this is a generation.
+   */
+  private final File target;
+
+  private final int generation;
+
+  /**
+   * The file holding this generation of the cache file.
+   */
+  private final File file;
+
+  /**
+   * The length of the file when it was last opened or saved.
+   */
+  private long length;
+
+  /**
+   * The mapping of the file, or <code>null</code> if it has not been mapped yet.
+   */
+  private MappedByteBuffer buffer;
+
+  private ArtifactCacheFile(File target, int generation) {
+    this.target = target;
+    this.generation = generation;
+    this.file = getGenerationFile(target, generation);
+  }
+
+  /**
+   * Return the file holding this generation of the cache file.
+   */
+  File getFile() {
+    return file;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Artifact cache file " + file + ", " + length + " bytes";
+  }
+
+  /**
+   * Return a buffer on the mapping of the file that contains at least the given number of bytes,
+   * mapping the file again if it has grown since it was mapped.
+   */
+  private synchronized ByteBuffer getBuffer(long end) throws IOException {
+    if (buffer == null || end > buffer.limit()) {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try {
+        long fileLength = randomAccessFile.length();
+        if (fileLength < end || fileLength > Integer.MAX_VALUE) {
+          throw new IOException("Invalid artifact cache length " + fileLength + ": " + file);
+        }
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+        if (length == 0) {
+          length = fileLength;
+        }
+      } finally {
+        randomAccessFile.close();
+      }
+    }
+    return buffer.duplicate();
+  }
+
+  /**
+   * Return <code>true</code> if saving the given artifacts to this file should rewrite it rather
+   * than append to it, because most of it would be taken by blocks that are no longer referenced
+   * or because it would grow too large to be mapped.
+   */
+  private synchronized boolean needsRewrite(List<Entry> entries) {
+    long referencedLength = 0;
+    long appendedLength = 0;
+    for (Entry entry : entries) {
+      if (entry.block != null && entry.block.file == this) {
+        referencedLength += entry.block.length;
+      } else if (entry.block != null) {
+        appendedLength += entry.block.length;
+      } else if (entry.content != null) {
+        appendedLength += entry.content.length();
+      }
+    }
+    long garbageLength = length - HEADER_LENGTH - referencedLength;
+    return garbageLength > referencedLength + MIN_GARBAGE
+        || length + 3 * appendedLength > Integer.MAX_VALUE;
+  }
+
+  private String read(Block block) throws IOException {
+    byte[] data = readBytes(block);
+    if (block.compressed) {
+      byte[] uncompressed = new byte[block.size];
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(data);
+        int count = inflater.inflate(uncompressed);
+        if (count != block.size || !inflater.finished()) {
+          throw new IOException("Corrupted artifact in " + file + " at " + block.offset);
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupted artifact in " + file + " at " + block.offset, e);
+      } finally {
+        inflater.end();
+      }
+      data = uncompressed;
+    }
+    return new String(data, "UTF-8");
+  }
+
+  private byte[] readBytes(Block block) throws IOException {
+    ByteBuffer source = getBuffer(block.offset + block.length);
+    byte[] data = new byte[block.length];
+    source.position((int) block.offset);
+    source.get(data);
+    return data;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.builder;
+
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Instances of the class <code>ArtifactSpillStore</code> hold the content of artifacts that were
+ * evicted from memory by a {@link CachingArtifactProvider}. Every content is compressed and written
+ * to a file named after the SHA-1 digest of the content, so that artifacts with the same content
+ * share a single file.
+ * <p>
+ * The store counts the references to every file and deletes a file once it is no longer
+ * referenced. A reference must be added before a file is written or read so that the file is not
+ * deleted concurrently. Reading and writing files is done without holding any lock.
+ * <p>
+ * This class is thread-safe.
+ */
+final class ArtifactSpillStore {
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static final String SUFFIX = ".z";
+
+  /**
+   * Return the key under which the given content is stored, which is the hex encoded SHA-1 digest
+   * of the content.
+   */
+  static String keyFor(String content) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] hash;
+    try {
+      hash = digest.digest(content.getBytes("UTF-8"));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    char[] key = new char[hash.length * 2];
+    for (int i = 0; i < hash.length; i++) {
+      key[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+      key[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+    }
+    return new String(key);
+  }
+
+  /**
+   * The directory containing the files of the store.
+   */
+  private final File directory;
+
+  /**
+   * A table mapping the keys of the stored contents to the number of references to them.
+   */
+  private final Map<String, Integer> referenceCounts = new HashMap<String, Integer>();
+
+  private long writeCount;
+
+  private long readCount;
+
+  /**
+   * Initialize a newly created store that keeps its files in the given directory, deleting any
+   * files left in it by an earlier store.
+   * 
+   * @param directory the directory containing the files of the store (not <code>null</code>)
+   */
+  ArtifactSpillStore(File directory) {
+    this.directory = directory;
+    directory.mkdirs();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isFile()) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Add a reference to the content with the given key.
+   */
+  synchronized void addReference(String key) {
+    Integer count = referenceCounts.get(key);
+    referenceCounts.put(key, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+  }
+
+  /**
+   * Return the number of contents that are referenced.
+   */
+  synchronized int getContentCount() {
+    return referenceCounts.size();
+  }
+
+  /**
+   * Return the content stored under the given key. The caller must hold a reference to the key.
+   * 
+   * @param key the key of the content
+   * @return the content (not <code>null</code>)
+   * @throws IOException if the content could not be read
+   */
+  String read(String key) throws IOException {
+    InputStream stream = new InflaterInputStream(new BufferedInputStream(new FileInputStream(
+        getFile(key))));
+    boolean failed = true;
+    try {
+      Reader reader = new InputStreamReader(stream, "UTF-8");
+      StringBuilder builder = new StringBuilder(8192);
+      char[] buffer = new char[8192];
+      int length;
+      while ((length = reader.read(buffer)) != -1) {
+        builder.append(buffer, 0, length);
+      }
+      failed = false;
+      synchronized (this) {
+        readCount++;
+      }
+      return builder.toString();
+    } finally {
+      Closeables.close(stream, failed);
+    }
+  }
+
+  /**
+   * Remove a reference to the content with the given key, deleting its file when the last
+   * reference is removed.
+   */
+  synchronized void removeReference(String key) {
+    Integer count = referenceCounts.get(key);
+    if (count == null) {
+      return;
+    }
+    if (count.intValue() > 1) {
+      referenceCounts.put(key, Integer.valueOf(count.intValue() - 1));
+    } else {
+      referenceCounts.remove(key);
+      getFile(key).delete();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Spilled artifacts: " + referenceCounts.size() + " contents in " + directory + ", "
+        + writeCount + " written, " + readCount + " read";
+  }
+
+  /**
+   * Store the given content under the given key unless it is already stored. The caller must hold
+   * a reference to the key.
+   * 
+   * @param key the key of the content, as returned by {@link #keyFor(String)}
+   * @param content the content to be stored
+   * @throws IOException if the content could not be written
+   */
+  void write(String key, String content) throws IOException {
+    File file = getFile(key);
+    if (file.exists()) {
+      return;
+    }
+    // Write to a temporary file first so that a partially written file is never read.
+    File tempFile = File.createTempFile(key, ".tmp", directory);
+    OutputStream stream = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(
+        tempFile)));
+    boolean failed = true;
+    try {
+      Writer writer = new OutputStreamWriter(stream, "UTF-8");
+      writer.write(content);
+      writer.flush();
+      failed = false;
+    } finally {
+      Closeables.close(stream, failed);
+      if (failed) {
+        tempFile.delete();
+      }
+    }
+    if (!tempFile.renameTo(file)) {
+      tempFile.delete();
+      if (!file.exists()) {
+        throw new IOException("Could not rename " + tempFile + " to " + file);
+      }
+    }
+    synchronized (this) {
+      writeCount++;
+    }
+  }
+
+  private File getFile(String key) {
+    return new File(directory, key + SUFFIX);
+  }
+}
@@ -13,34 +13,59 @@
  */
 package com.google.dart.tools.core.internal.builder;
 
-import com.google.common.io.Closeables;
 import com.google.dart.compiler.DartArtifactProvider;
 import com.google.dart.compiler.Source;
+import com.google.dart.tools.core.DartCore;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 /**
- * An in memory caching implementation of {@link DartArtifactProvider} that caches all content in
- * memory, never writing anything to disk.
+ * An in memory caching implementation of {@link DartArtifactProvider}. By default all content is
+ * cached in memory and nothing is written to disk. A provider that is given a memory budget and a
+ * spill directory keeps only the most recently used content in memory; the content of other
+ * artifacts is compressed and written to an {@link ArtifactSpillStore} in that directory, and read
+ * back when it is requested again.
+ * <p>
+ * The artifacts can be saved to and loaded from an {@link ArtifactCacheFile}. Loading only reads
+ * the index of the file; the content of an artifact is decoded when it is first requested.
+ * <p>
+ * Requests for artifacts never read from or write to disk while holding the lock of the cache.
  */
 public abstract class CachingArtifactProvider extends DartArtifactProvider {
   class CacheElement {
     String part;
     String extension;
+
+    /**
+     * The content of the artifact, or <code>null</code> if it is only held by the artifact cache
+     * file or the spill store.
+     */
     String content;
+
+    /**
+     * The key of the content in the spill store, or <code>null</code> if it has not been spilled.
+     */
+    String spillKey;
+
+    /**
+     * The block holding the content in the artifact cache file, or <code>null</code> if the content
+     * has not been loaded from or saved to the file.
+     */
+    ArtifactCacheFile.Block stored;
+
     long lastModified;
     CacheElement nextElement;
 
@@ -62,6 +87,19 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
     }
   }
 
+  /**
+   * The content of an element that was selected for eviction, captured while holding the lock.
+   */
+  private static class Eviction {
+    final CacheElement element;
+    final String content;
+
+    Eviction(CacheElement element, String content) {
+      this.element = element;
+      this.content = content;
+    }
+  }
+
   private int cacheSize = 0;
 
   /**
@@ -71,11 +109,71 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
    */
   private final Map<String, CacheElement> cache = new HashMap<String, CacheElement>();
 
+  /**
+   * The elements whose content is held in memory, in least recently used order, or
+   * <code>null</code> if the content of all elements is held in memory.
+   */
+  private final LinkedHashMap<CacheElement, CacheElement> residents;
+
+  /**
+   * The store holding the content evicted from memory, or <code>null</code> if content is never
+   * evicted.
+   */
+  private final ArtifactSpillStore spillStore;
+
+  /**
+   * The maximum number of characters of content held in memory by {@link #residents}.
+   */
+  private final long memoryBudget;
+
+  /**
+   * The number of characters of content held in memory by {@link #residents}.
+   */
+  private long residentSize;
+
+  /**
+   * The artifact cache file from which the artifacts were loaded or to which they were last saved,
+   * or <code>null</code> if none.
+   */
+  private ArtifactCacheFile cacheFile;
+
+  private long evictionCount;
+
+  private long reloadCount;
+
+  /**
+   * Construct a new instance that holds all content in memory.
+   */
+  public CachingArtifactProvider() {
+    residents = null;
+    spillStore = null;
+    memoryBudget = Long.MAX_VALUE;
+  }
+
+  /**
+   * Construct a new instance that holds at most the given number of characters of content in
+   * memory and spills the rest to the given directory. Any files left in the directory are deleted.
+   * 
+   * @param memoryBudget the maximum number of characters of content held in memory
+   * @param spillDirectory the directory to which content is spilled (not <code>null</code>)
+   */
+  protected CachingArtifactProvider(long memoryBudget, File spillDirectory) {
+    residents = new LinkedHashMap<CacheElement, CacheElement>(256, 0.75f, true);
+    spillStore = new ArtifactSpillStore(spillDirectory);
+    this.memoryBudget = memoryBudget;
+  }
+
   /**
    * Remove all artifacts from the cache
    */
   public void clearCachedArtifacts() {
     synchronized (cache) {
+      for (CacheElement elem : cache.values()) {
+        while (elem != null) {
+          discardContent(elem);
+          elem = elem.nextElement;
+        }
+      }
       cache.clear();
       cacheSize = 0;
     }
@@ -107,17 +205,11 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
    */
   @Override
   public Reader getArtifactReader(Source source, String part, String extension) throws IOException {
-    CacheElement elem;
-    synchronized (cache) {
-      elem = cache.get(source.getName());
-      while (elem != null) {
-        if (elem.match(part, extension)) {
-          return new StringReader(elem.content);
-        }
-        elem = elem.nextElement;
-      }
+    String content = getContent(source.getName(), part, extension);
+    if (content == null) {
+      return null;
     }
-    return null;
+    return new StringReader(content);
   }
 
   @Override
@@ -148,6 +240,7 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
       @Override
       public void close() throws IOException {
         super.close();
+        List<Eviction> evictions;
         synchronized (cache) {
           CacheElement elem = cache.get(source.getName());
           CacheElement prevElem = null;
@@ -168,10 +261,14 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
             } else {
               cache.put(source.getName(), elem);
             }
+          } else {
+            discardContent(elem);
           }
-          elem.content = toString();
+          setContent(elem, toString());
           elem.lastModified = System.currentTimeMillis();
+          evictions = selectEvictions();
         }
+        spill(evictions);
       }
     };
   }
@@ -182,6 +279,16 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
     }
   }
 
+  /**
+   * Return the number of characters of content held in memory. This is only tracked by providers
+   * that spill content to disk, and is zero for other providers.
+   */
+  public long getResidentSize() {
+    synchronized (cache) {
+      return residentSize;
+    }
+  }
+
   /**
    * Return <code>true</code> if the artifact is cached locally and was generated after the last
    * modification to source.
@@ -196,13 +303,16 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
   }
 
   /**
-   * Read artifacts from the specified file and add them to the cache
+   * Read the index of the specified artifact cache file and add the artifacts in it to the cache.
+   * The content of the artifacts is not read until it is requested.
    * 
-   * @param file the zip file from which the artifacts are read (not <code>null</code>)
-   * @return the number of artifacts written
+   * @param file the artifact cache file from which the artifacts are read (not <code>null</code>)
+   * @return the number of artifacts read
    * @see #saveCachedArtifacts(File)
    */
   public int loadCachedArtifacts(File file) throws IOException {
+    List<ArtifactCacheFile.Entry> entries = new ArrayList<ArtifactCacheFile.Entry>();
+    ArtifactCacheFile openedFile = ArtifactCacheFile.open(file, entries);
     synchronized (cache) {
 
       // Guard code because this method assumes that the cache is empty 
@@ -211,124 +321,24 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
         throw new UnsupportedOperationException();
       }
 
-      BufferedReader reader = new BufferedReader(new FileReader(file));
-      boolean failed = true;
-      try {
-
-        // First 2 characters, "v3", indicate the version
-        if (reader.read() != 'v' || reader.read() != '3' || reader.read() != '\n') {
-          throw new IOException("Invalid artifact file format");
-        }
-
-        int state = 0;
-        int contentLength = 0;
-        long lastModified = 0;
-        StringBuilder key = new StringBuilder(200);
-        StringBuilder part = new StringBuilder(200);
-        StringBuilder extension = new StringBuilder(200);
-        char[] buf = new char[4096];
-        CacheElement prevElem = null;
-
-        while (true) {
-          int ch = reader.read();
-          if (ch == -1) {
-            if (state != 0) {
-              throw new IOException("Unexpected end of artifact file");
-            }
-            break;
-          }
-          switch (state) {
-
-            case 0: // = or digit
-              if (ch == '=') {
-                state = 1;
-                key.setLength(0);
-                prevElem = null;
-              } else {
-                state = 2;
-                contentLength = ch - '0';
-              }
-              break;
-
-            case 1: // key
-              if (ch != '\n') {
-                key.append((char) ch);
-              } else {
-                state = 0;
-              }
-              break;
-
-            case 2: // content length
-              if (ch != ',') {
-                contentLength = 10 * contentLength + ch - '0';
-              } else {
-                state = 3;
-                lastModified = 0;
-              }
-              break;
-
-            case 3: // last modified
-              if (ch != ',') {
-                lastModified = 10 * lastModified + ch - '0';
-              } else {
-                state = 4;
-                part.setLength(0);
-              }
-              break;
-
-            case 4: // part
-              if (ch != ',') {
-                part.append((char) ch);
-              } else {
-                state = 5;
-                extension.setLength(0);
-              }
-              break;
-
-            case 5: // extension and content
-              if (ch != '\n') {
-                extension.append((char) ch);
-              } else {
-                state = 0;
-                if (buf.length < contentLength) {
-                  buf = new char[contentLength + 200];
-                }
-                int readLength = reader.read(buf, 0, contentLength);
-                if (readLength != contentLength) {
-                  throw new IOException("Expected " + contentLength + " characters, but read "
-                      + readLength);
-                }
-                if (reader.read() != '\n') {
-                  throw new IOException("Expected newline after artifact");
-                }
-
-                CacheElement elem = new CacheElement();
-                elem.part = part.toString();
-                elem.extension = extension.toString();
-                elem.content = new String(buf, 0, contentLength);
-                elem.lastModified = lastModified;
-                if (prevElem != null) {
-                  prevElem.nextElement = elem;
-                } else {
-                  cache.put(key.toString(), elem);
-                }
-                prevElem = elem;
-
-                cacheSize++;
-              }
-              break;
-
-            default:
-              throw new IllegalStateException("Invalid state: " + state);
-          }
-        }
-        failed = false;
-      } finally {
-        Closeables.close(reader, failed);
-        if (failed) {
-          clearCachedArtifacts();
+      CacheElement prevElem = null;
+      String prevName = null;
+      for (ArtifactCacheFile.Entry entry : entries) {
+        CacheElement elem = new CacheElement();
+        elem.part = entry.part;
+        elem.extension = entry.extension;
+        elem.lastModified = entry.lastModified;
+        elem.stored = entry.block;
+        if (prevElem != null && entry.name.equals(prevName)) {
+          prevElem.nextElement = elem;
+        } else {
+          cache.put(entry.name, elem);
         }
+        prevElem = elem;
+        prevName = entry.name;
+        cacheSize++;
       }
+      cacheFile = openedFile;
       return cacheSize;
     }
   }
@@ -340,55 +350,305 @@ public abstract class CachingArtifactProvider extends DartArtifactProvider {
     synchronized (cache) {
       CacheElement elem = cache.remove(source.getName());
       while (elem != null) {
+        discardContent(elem);
         cacheSize--;
         elem = elem.nextElement;
       }
     }
   }
 
+  @Override
+  public String toString() {
+    synchronized (cache) {
+      StringBuilder builder = new StringBuilder();
+      builder.append("Cached artifacts: ");
+      builder.append(cacheSize);
+      if (spillStore != null) {
+        builder.append(", ");
+        builder.append(residentSize);
+        builder.append(" of ");
+        builder.append(memoryBudget);
+        builder.append(" characters in memory, ");
+        builder.append(evictionCount);
+        builder.append(" evictions, ");
+        builder.append(reloadCount);
+        builder.append(" reloads; ");
+        builder.append(spillStore);
+      }
+      return builder.toString();
+    }
+  }
+
   /**
-   * Write the currently cached artifacts to the specified file
+   * Write the currently cached artifacts to the specified artifact cache file. If the artifacts
+   * were loaded from or last saved to the same file, then only the artifacts that changed since
+   * then are appended to it.
    * 
-   * @param file the zip file to which the artifacts are written (not <code>null</code>)
-   * @return the number of artifacts written
+   * @param file the artifact cache file to which the artifacts are written (not <code>null</code>)
+   * @return the number of artifacts in the saved file
    * @see #loadCachedArtifacts(File)
    */
-  @SuppressWarnings("unchecked")
   public int saveCachedArtifacts(File file) throws IOException {
-    int count = 0;
-    Entry<String, CacheElement>[] entries;
+    // Capture the elements while holding the lock, adding references to the spilled content so
+    // that it is not deleted before it has been written.
+    List<ArtifactCacheFile.Entry> entries = new ArrayList<ArtifactCacheFile.Entry>();
+    List<CacheElement> elements = new ArrayList<CacheElement>();
+    ArtifactCacheFile previous;
     synchronized (cache) {
-      entries = cache.entrySet().toArray(new Entry[cache.size()]);
-    }
-    BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-    boolean failed = true;
-    try {
-      writer.append("v3\n");
-      for (Entry<String, CacheElement> entry : entries) {
-        writer.append('=');
-        writer.append(entry.getKey());
-        writer.append('\n');
-        CacheElement elem = entry.getValue();
+      for (Entry<String, CacheElement> mapEntry : cache.entrySet()) {
+        CacheElement elem = mapEntry.getValue();
         while (elem != null) {
-          String content = elem.content;
-          writer.append(Integer.toString(content.length()));
-          writer.append(',');
-          writer.append(Long.toString(elem.lastModified));
-          writer.append(',');
-          writer.append(elem.part);
-          writer.append(',');
-          writer.append(elem.extension);
-          writer.append('\n');
-          writer.append(content);
-          writer.append('\n');
-          count++;
+          ArtifactCacheFile.Entry entry = new ArtifactCacheFile.Entry();
+          entry.name = mapEntry.getKey();
+          entry.part = elem.part;
+          entry.extension = elem.extension;
+          entry.lastModified = elem.lastModified;
+          entry.block = elem.stored;
+          if (elem.stored == null) {
+            entry.content = elem.content;
+            if (elem.content == null) {
+              entry.spillKey = elem.spillKey;
+              spillStore.addReference(elem.spillKey);
+            }
+          }
+          entries.add(entry);
+          elements.add(elem);
           elem = elem.nextElement;
         }
       }
-      failed = false;
+      previous = cacheFile;
+    }
+    ArtifactCacheFile savedFile;
+    try {
+      savedFile = ArtifactCacheFile.save(file, previous, entries, spillStore);
+    } finally {
+      for (ArtifactCacheFile.Entry entry : entries) {
+        if (entry.spillKey != null) {
+          spillStore.removeReference(entry.spillKey);
+        }
+      }
+    }
+    // Remember where the content of the artifacts that did not change in the meantime is saved, so
+    // that it does not have to be written again and no longer needs to be held elsewhere.
+    synchronized (cache) {
+      cacheFile = savedFile;
+      for (int i = 0; i < elements.size(); i++) {
+        CacheElement elem = elements.get(i);
+        ArtifactCacheFile.Entry entry = entries.get(i);
+        boolean unchanged;
+        if (entry.content != null) {
+          unchanged = elem.content == entry.content;
+        } else if (entry.spillKey != null) {
+          unchanged = entry.spillKey.equals(elem.spillKey);
+        } else {
+          // The content was saved already; replacing or removing the artifact discards it.
+          unchanged = elem.stored != null;
+        }
+        if (unchanged) {
+          elem.stored = entry.block;
+          if (elem.spillKey != null) {
+            spillStore.removeReference(elem.spillKey);
+            elem.spillKey = null;
+          }
+        }
+      }
+    }
+    return entries.size();
+  }
+
+  /**
+   * Forget the content of the given element, which is being replaced or removed. The caller must
+   * hold the lock of the cache.
+   */
+  private void discardContent(CacheElement elem) {
+    if (residents != null && elem.content != null && residents.remove(elem) != null) {
+      residentSize -= elem.content.length();
+    }
+    elem.content = null;
+    elem.stored = null;
+    if (elem.spillKey != null) {
+      spillStore.removeReference(elem.spillKey);
+      elem.spillKey = null;
+    }
+  }
+
+  /**
+   * Return the content of the specified artifact, reading it from the spill store if it has been
+   * evicted from memory, or <code>null</code> if the artifact is not cached.
+   */
+  private String getContent(String name, String part, String extension) throws IOException {
+    CacheElement elem;
+    ArtifactCacheFile.Block stored;
+    String spillKey = null;
+    synchronized (cache) {
+      elem = cache.get(name);
+      while (elem != null && !elem.match(part, extension)) {
+        elem = elem.nextElement;
+      }
+      if (elem == null) {
+        return null;
+      }
+      if (elem.content != null) {
+        if (residents != null) {
+          // Mark the element as the most recently used one.
+          residents.get(elem);
+        }
+        return elem.content;
+      }
+      stored = elem.stored;
+      if (stored == null) {
+        spillKey = elem.spillKey;
+        spillStore.addReference(spillKey);
+      }
+    }
+    String content;
+    List<Eviction> evictions = null;
+    try {
+      content = stored != null ? stored.read() : spillStore.read(spillKey);
+      synchronized (cache) {
+        // Keep the content in memory unless the artifact changed while it was being read.
+        if (elem.content == null && isContentOf(elem, stored, spillKey)) {
+          setContent(elem, content);
+          reloadCount++;
+          evictions = selectEvictions();
+        }
+      }
+    } catch (IOException e) {
+      synchronized (cache) {
+        if (isContentOf(elem, stored, spillKey)) {
+          // Forget the artifact so that it is regenerated.
+          removeElement(name, elem);
+        }
+      }
+      throw e;
     } finally {
-      Closeables.close(writer, failed);
+      if (spillKey != null) {
+        spillStore.removeReference(spillKey);
+      }
+    }
+    spill(evictions);
+    return content;
+  }
+
+  /**
+   * Return <code>true</code> if the given block or spill key still holds the content of the given
+   * element. The caller must hold the lock of the cache.
+   */
+  private boolean isContentOf(CacheElement elem, ArtifactCacheFile.Block stored, String spillKey) {
+    return stored != null ? elem.stored == stored : spillKey.equals(elem.spillKey);
+  }
+
+  /**
+   * Remove the given element from the chain of elements with the given name. The caller must hold
+   * the lock of the cache.
+   */
+  private void removeElement(String name, CacheElement elem) {
+    CacheElement first = cache.get(name);
+    if (first == elem) {
+      if (elem.nextElement != null) {
+        cache.put(name, elem.nextElement);
+      } else {
+        cache.remove(name);
+      }
+    } else {
+      CacheElement prevElem = first;
+      while (prevElem != null && prevElem.nextElement != elem) {
+        prevElem = prevElem.nextElement;
+      }
+      if (prevElem == null) {
+        return;
+      }
+      prevElem.nextElement = elem.nextElement;
+    }
+    discardContent(elem);
+    cacheSize--;
+  }
+
+  /**
+   * Select the least recently used elements whose content must be evicted for the content held in
+   * memory to fit into the memory budget. Content that is already in the artifact cache file or the
+   * spill store is dropped immediately; the content of the other elements is returned so that it
+   * can be spilled without holding the lock. The caller must hold the lock of the cache.
+   * 
+   * @return the evictions to be passed to {@link #spill(List)}, or <code>null</code> if none
+   */
+  private List<Eviction> selectEvictions() {
+    if (residents == null || residentSize <= memoryBudget) {
+      return null;
+    }
+    List<Eviction> evictions = null;
+    Iterator<CacheElement> iterator = residents.keySet().iterator();
+    while (residentSize > memoryBudget && iterator.hasNext()) {
+      CacheElement elem = iterator.next();
+      iterator.remove();
+      residentSize -= elem.content.length();
+      evictionCount++;
+      if (elem.stored != null || elem.spillKey != null) {
+        elem.content = null;
+      } else {
+        if (evictions == null) {
+          evictions = new ArrayList<Eviction>();
+        }
+        evictions.add(new Eviction(elem, elem.content));
+      }
+    }
+    return evictions;
+  }
+
+  /**
+   * Set the content of the given element, whose previous content must have been discarded. The
+   * caller must hold the lock of the cache.
+   */
+  private void setContent(CacheElement elem, String content) {
+    elem.content = content;
+    if (residents != null) {
+      residents.put(elem, elem);
+      residentSize += content.length();
+    }
+  }
+
+  /**
+   * Write the content of the given evicted elements to the spill store and release it from memory.
+   * Elements whose content changes in the meantime are left alone. Content that cannot be written
+   * is kept in memory.
+   * 
+   * @param evictions the evictions returned by {@link #selectEvictions()} (may be
+   *          <code>null</code>)
+   */
+  private void spill(List<Eviction> evictions) {
+    if (evictions == null) {
+      return;
+    }
+    for (Eviction eviction : evictions) {
+      String key = ArtifactSpillStore.keyFor(eviction.content);
+      spillStore.addReference(key);
+      boolean spilled = false;
+      try {
+        spillStore.write(key, eviction.content);
+        spilled = true;
+      } catch (IOException e) {
+        DartCore.logError("Could not spill artifact to disk", e);
+      }
+      synchronized (cache) {
+        CacheElement elem = eviction.element;
+        if (elem.content != eviction.content || elem.spillKey != null) {
+          // The element was changed or removed while its content was being written.
+          spillStore.removeReference(key);
+        } else if (elem.stored != null) {
+          // The content was saved to the artifact cache file while it was being written.
+          spillStore.removeReference(key);
+          elem.content = null;
+        } else if (spilled) {
+          elem.content = null;
+          elem.spillKey = key;
+        } else {
+          spillStore.removeReference(key);
+          if (!residents.containsKey(elem)) {
+            residents.put(elem, elem);
+            residentSize += elem.content.length();
+          }
+        }
+      }
     }
-    return count;
   }
 }
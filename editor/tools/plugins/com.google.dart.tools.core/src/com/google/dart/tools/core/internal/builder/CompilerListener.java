@@ -40,12 +40,41 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An Eclipse specific implementation of {@link DartCompilerContext} for intercepting compilation
  * errors and translating them into {@link IResource} markers.
+ * <p>
+ * The compiler may run on a thread other than the one running the build, which cannot modify the
+ * workspace while the build holds the workspace lock. The errors are therefore recorded as they are
+ * reported, and the markers are only created when {@link #createMarkers()} is invoked by the thread
+ * running the build.
  */
 class CompilerListener extends DartCompilerListener {
+  /**
+   * A marker to be created by {@link CompilerListener#createMarkers()}.
+   */
+  private static class PendingMarker {
+    final IResource resource;
+    final boolean error;
+    final int offset;
+    final int length;
+    final int lineNumber;
+    final String message;
+
+    PendingMarker(IResource resource, boolean error, int offset, int length, int lineNumber,
+        String message) {
+      this.resource = resource;
+      this.error = error;
+      this.offset = offset;
+      this.length = length;
+      this.lineNumber = lineNumber;
+      this.message = message;
+    }
+  }
+
   /**
    * The number of times that we have logged a message about compilation errors that were reported
    * for which we could not associate a source file and were forced to associate the marker with the
@@ -65,11 +94,45 @@ class CompilerListener extends DartCompilerListener {
 
   private static final int MISSING_SOURCE_REPORT_LIMIT = 5;
 
+  /**
+   * The markers that have not been created yet.
+   */
+  private final List<PendingMarker> pendingMarkers = new ArrayList<PendingMarker>();
+
   CompilerListener(DartLibrary library, IProject project) {
     this.project = project;
     this.library = library;
   }
 
+  /**
+   * Record an error marker for the specified resource, to be created by {@link #createMarkers()}.
+   */
+  public synchronized void addErrorMarker(IResource res, int offset, int length, int lineNumber,
+      String errMsg) {
+    pendingMarkers.add(new PendingMarker(res, true, offset, length, lineNumber, errMsg));
+  }
+
+  /**
+   * Create the markers for the errors reported so far. This must be invoked by the thread running
+   * the build.
+   */
+  public void createMarkers() {
+    List<PendingMarker> markers;
+    synchronized (this) {
+      markers = new ArrayList<PendingMarker>(pendingMarkers);
+      pendingMarkers.clear();
+    }
+    for (PendingMarker marker : markers) {
+      if (marker.error) {
+        createErrorMarker(marker.resource, marker.offset, marker.length, marker.lineNumber,
+            marker.message);
+      } else {
+        createWarningMarker(marker.resource, marker.offset, marker.length, marker.lineNumber,
+            marker.message);
+      }
+    }
+  }
+
   @Override
   public void onError(DartCompilationError event) {
     if (event.getErrorCode().getSubSystem() == SubSystem.STATIC_TYPE) {
@@ -170,7 +233,7 @@ class CompilerListener extends DartCompilerListener {
   private void processError(DartCompilationError error) {
     IResource res = getResource(error);
     if (res != null && res.exists() && res.getProject().equals(project)) {
-      createErrorMarker(res, error.getStartPosition(), error.getLength(), error.getLineNumber(),
+      addErrorMarker(res, error.getStartPosition(), error.getLength(), error.getLineNumber(),
           error.getMessage());
     }
   }
@@ -183,8 +246,10 @@ class CompilerListener extends DartCompilerListener {
   private void processWarning(DartCompilationError error) {
     IResource res = getResource(error);
     if (res != null && res.exists() && res.getProject().equals(project)) {
-      createWarningMarker(res, error.getStartPosition(), error.getLength(), error.getLineNumber(),
-          error.getMessage());
+      synchronized (this) {
+        pendingMarkers.add(new PendingMarker(res, false, error.getStartPosition(),
+            error.getLength(), error.getLineNumber(), error.getMessage()));
+      }
     }
   }
 }
@@ -22,23 +22,33 @@ import com.google.dart.compiler.DefaultCompilerConfiguration;
 import com.google.dart.compiler.LibrarySource;
 import com.google.dart.compiler.Source;
 import com.google.dart.compiler.SystemLibraryManager;
+import com.google.dart.compiler.ast.DartClass;
+import com.google.dart.compiler.ast.DartNode;
 import com.google.dart.compiler.ast.DartUnit;
+import com.google.dart.compiler.ast.LibraryUnit;
 import com.google.dart.compiler.backend.js.AbstractJsBackend;
 import com.google.dart.compiler.backend.js.JavascriptBackend;
 import com.google.dart.compiler.metrics.CompilerMetrics;
+import com.google.dart.compiler.resolver.ClassElement;
 import com.google.dart.compiler.resolver.CoreTypeProvider;
+import com.google.dart.compiler.type.InterfaceType;
 import com.google.dart.tools.core.DartCore;
 import com.google.dart.tools.core.DartCoreDebug;
+import com.google.dart.tools.core.internal.hierarchy.TypeHierarchyGraph;
 import com.google.dart.tools.core.internal.model.DartLibraryImpl;
 import com.google.dart.tools.core.internal.model.DartModelManager;
 import com.google.dart.tools.core.internal.model.SystemLibraryManagerProvider;
+import com.google.dart.tools.core.internal.search.names.LibraryNameIndex;
 import com.google.dart.tools.core.internal.util.Extensions;
 import com.google.dart.tools.core.internal.util.ResourceUtil;
+import com.google.dart.tools.core.internal.workingcopy.DefaultWorkingCopyOwner;
 import com.google.dart.tools.core.model.CompilationUnit;
 import com.google.dart.tools.core.model.DartLibrary;
 import com.google.dart.tools.core.model.DartModelException;
 import com.google.dart.tools.core.model.DartProject;
 import com.google.dart.tools.core.model.HTMLFile;
+import com.google.dart.tools.core.model.Type;
+import com.google.dart.tools.core.utilities.bindings.BindingUtils;
 import com.google.dart.tools.core.utilities.compiler.DartCompilerUtilities;
 import com.google.dart.tools.core.utilities.compiler.NullWriter;
 
@@ -52,6 +62,7 @@ import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.SubMonitor;
@@ -68,10 +79,23 @@ import java.io.Reader;
 import java.io.Writer;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Instances of the class <code>DartBuilder</code> implement the incremental builder for Dart
@@ -81,11 +105,11 @@ public class DartBuilder extends IncrementalProjectBuilder {
 
   /**
    * An artifact provider for tracking prerequisite projects. All artifacts are cached in memory via
-   * {@link RootArtifactProvider} except for the final app.js file which is written to disk.
+   * {@link RootArtifactProvider} except for the final app.js file which is written to disk. A new
+   * provider is used for every library being built so that libraries can be built concurrently.
    */
   private class ArtifactProvider extends CachingArtifactProvider {
     private final RootArtifactProvider rootProvider = RootArtifactProvider.getInstance();
-    private final Collection<IProject> prerequisiteProjects = new HashSet<IProject>();
     private int writeArtifactCount;
     private int outOfDateCount;
 
@@ -95,8 +119,8 @@ public class DartBuilder extends IncrementalProjectBuilder {
     }
 
     public void clean(IProgressMonitor monitor) {
-      prerequisiteProjects.clear();
       rootProvider.clearCachedArtifacts();
+      packagingArtifacts.clearCachedArtifacts();
 
       for (DartLibrary library : getDartLibraries()) {
         try {
@@ -116,6 +140,11 @@ public class DartBuilder extends IncrementalProjectBuilder {
       super.clearCachedArtifacts();
     }
 
+    @Override
+    public File getArtifactFile(Source source, String part, String extension) {
+      return getAppJsFile(source, part, extension);
+    }
+
     @Override
     public Reader getArtifactReader(Source source, String part, String extension)
         throws IOException {
@@ -124,6 +153,9 @@ public class DartBuilder extends IncrementalProjectBuilder {
         IProject project = res.getProject();
         prerequisiteProjects.add(project);
       }
+      if (isPackagingArtifact(extension)) {
+        return packagingArtifacts.getArtifactReader(source, part, extension);
+      }
       if (extension.startsWith(AbstractJsBackend.EXTENSION_APP_JS)) {
         File appJsFile = getAppJsFile(source, part, extension);
         if (appJsFile != null) {
@@ -144,6 +176,10 @@ public class DartBuilder extends IncrementalProjectBuilder {
     @Override
     public Writer getArtifactWriter(Source source, String part, String extension)
         throws IOException {
+      if (isPackagingArtifact(extension)) {
+        // Not counted: packaging an application does not mean a library was compiled
+        return packagingArtifacts.getArtifactWriter(source, part, extension);
+      }
       if (extension.startsWith(AbstractJsBackend.EXTENSION_APP_JS)) {
         final File appJsFile = getAppJsFile(source, part, extension);
         if (appJsFile != null) {
@@ -165,10 +201,6 @@ public class DartBuilder extends IncrementalProjectBuilder {
       return outOfDateCount;
     }
 
-    public IProject[] getPrerequisiteProjects() {
-      return prerequisiteProjects.toArray(new IProject[prerequisiteProjects.size()]);
-    }
-
     public int getWriteArtifactCount() {
       return writeArtifactCount;
     }
@@ -202,6 +234,15 @@ public class DartBuilder extends IncrementalProjectBuilder {
       return getJsAppArtifactFile(new Path(srcFile.getPath()));
     }
 
+    /**
+     * Answer <code>true</code> if the specified "app.js*" artifact is read by the next build to
+     * package the application incrementally, and so must be cached beyond this compilation.
+     */
+    private boolean isPackagingArtifact(String extension) {
+      return extension.equals(JavascriptBackend.EXTENSION_APP_JS_COMPLETE)
+          || extension.equals(JavascriptBackend.EXTENSION_APP_JS_MANIFEST);
+    }
+
     private List<DartLibrary> getDartLibraries() {
       List<DartLibrary> libraries = new ArrayList<DartLibrary>();
 
@@ -237,6 +278,76 @@ public class DartBuilder extends IncrementalProjectBuilder {
     }
   }
 
+  /**
+   * A compilation phase that records the names declared by every library in which a unit is being
+   * compiled. It runs before the other phases so that the names are recorded even if the library
+   * does not resolve.
+   */
+  private static class NameIndexingPhase implements DartCompilationPhase {
+    private final Set<LibraryUnit> indexedLibraries =
+        Collections.newSetFromMap(new IdentityHashMap<LibraryUnit, Boolean>());
+
+    @Override
+    public DartUnit exec(DartUnit unit, DartCompilerContext context, CoreTypeProvider typeProvider) {
+      LibraryUnit library = unit.getLibrary();
+      if (library != null && indexedLibraries.add(library)) {
+        LibraryNameIndex.getInstance().indexLibrary(library);
+      }
+      return unit;
+    }
+  }
+
+  /**
+   * A compilation phase that records the direct supertypes of every class in a resolved unit in
+   * the {@link TypeHierarchyGraph}, so that type hierarchies reflect the latest build.
+   */
+  private static class TypeHierarchyPhase implements DartCompilationPhase {
+    /**
+     * The library being built, from which the classes and their supertypes are looked up.
+     */
+    private final DartLibrary library;
+
+    TypeHierarchyPhase(DartLibrary library) {
+      this.library = library;
+    }
+
+    @Override
+    public DartUnit exec(DartUnit unit, DartCompilerContext context, CoreTypeProvider typeProvider) {
+      for (DartNode node : unit.getTopLevelNodes()) {
+        if (node instanceof DartClass) {
+          ClassElement element = ((DartClass) node).getSymbol();
+          if (element != null) {
+            recordSupertypes(element);
+          }
+        }
+      }
+      return unit;
+    }
+
+    private void recordSupertypes(ClassElement element) {
+      Type type = BindingUtils.getDartElement(library, element.getType());
+      if (type == null) {
+        return;
+      }
+      List<Type> supertypes = new ArrayList<Type>();
+      InterfaceType superclass = element.getSupertype();
+      if (superclass != null) {
+        Type supertype = BindingUtils.getDartElement(library, superclass);
+        if (supertype != null) {
+          supertypes.add(supertype);
+        }
+      }
+      for (InterfaceType superinterface : element.getInterfaces()) {
+        Type supertype = BindingUtils.getDartElement(library, superinterface);
+        if (supertype != null) {
+          supertypes.add(supertype);
+        }
+      }
+      TypeHierarchyGraph.getInstance().typeResolved(type,
+          supertypes.toArray(new Type[supertypes.size()]));
+    }
+  }
+
   /**
    * Answer the JavaScript application file for the specified source.
    * 
@@ -258,27 +369,85 @@ public class DartBuilder extends IncrementalProjectBuilder {
   }
 
   /**
-   * The artifact provider for this source.
+   * The maximum number of libraries that are built concurrently.
+   */
+  private static final int MAX_BUILD_THREADS = 4;
+
+  /**
+   * The number of milliseconds between checks for cancellation while waiting for libraries to be
+   * built.
+   */
+  private static final long CANCEL_POLL_MILLIS = 100;
+
+  /**
+   * The executor used to build libraries concurrently, or <code>null</code> if it has not been
+   * created yet.
+   */
+  private static ExecutorService buildExecutor;
+
+  /**
+   * Return the executor used to build libraries concurrently.
+   */
+  private static synchronized ExecutorService getBuildExecutor() {
+    if (buildExecutor == null) {
+      int threadCount = Math.min(MAX_BUILD_THREADS, Runtime.getRuntime().availableProcessors());
+      buildExecutor = Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "Dart builder");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return buildExecutor;
+  }
+
+  /**
+   * The artifacts used to package each application in this project incrementally. These are kept
+   * for the lifetime of this builder only, rather than in the session-wide
+   * {@link RootArtifactProvider}, so that they are neither persisted with the artifact cache nor
+   * retained for projects that are no longer built.
    */
-  private final ArtifactProvider provider = new ArtifactProvider();
+  private final CachingArtifactProvider packagingArtifacts = new CachingArtifactProvider() {
+  };
+
+  /**
+   * The projects containing sources read while building the libraries of this project.
+   */
+  private final Set<IProject> prerequisiteProjects =
+      Collections.synchronizedSet(new HashSet<IProject>());
 
   private boolean firstBuildThisSession = true;
 
   @SuppressWarnings("rawtypes")
   @Override
   protected IProject[] build(int kind, Map args, IProgressMonitor monitor) throws CoreException {
-    // If *anything* changes then find each Dart App and build it
-    if (firstBuildThisSession || hasDartSourceChanged()) {
+    if (firstBuildThisSession) {
       buildAllApplications(SubMonitor.convert(monitor, 100));
-      if (firstBuildThisSession) {
-        firstBuildThisSession = false;
-        triggerDependentBuilds(SubMonitor.convert(monitor, 100));
-      }
+      firstBuildThisSession = false;
+      triggerDependentBuilds(SubMonitor.convert(monitor, 100));
       monitor.done();
+    } else {
+      // Only build the libraries that contain or import the changed sources
+      Set<IResource> changedSources = getChangedDartSources();
+      Set<DartLibrary> affectedLibraries = null;
+      if (changedSources != null) {
+        affectedLibraries = getAffectedLibraries(changedSources);
+      }
+      if (affectedLibraries == null) {
+        buildAllApplications(SubMonitor.convert(monitor, 100));
+        monitor.done();
+      } else if (!affectedLibraries.isEmpty()) {
+        buildLibraries(affectedLibraries, SubMonitor.convert(monitor, 100));
+        monitor.done();
+      }
     }
 
     // Return the projects upon which this project depends
-    return provider.getPrerequisiteProjects();
+    synchronized (prerequisiteProjects) {
+      return prerequisiteProjects.toArray(new IProject[prerequisiteProjects.size()]);
+    }
   }
 
   /**
@@ -295,13 +464,38 @@ public class DartBuilder extends IncrementalProjectBuilder {
         "Building " + proj.getElementName() + "...", allLibraries.length * 100);
 
     try {
-      for (DartLibrary lib : allLibraries) {
-        if (monitor.isCanceled()) {
-          throw new OperationCanceledException();
-        }
+      List<DartLibrary> libraries = Arrays.asList(allLibraries);
+      buildInLevels(getImportGraph(null), libraries, subMonitor);
+    } finally {
+      monitor.done();
+    }
+  }
 
-        buildLibrary(lib, subMonitor.newChild(100));
+  /**
+   * Build the specified libraries of the project associated with the receiver, replacing the
+   * markers on their compilation units
+   * 
+   * @param libraries the libraries to be built (not <code>null</code>)
+   * @param monitor the progress monitor (not <code>null</code>)
+   */
+  protected void buildLibraries(Set<DartLibrary> libraries, IProgressMonitor monitor)
+      throws CoreException {
+    SubMonitor subMonitor = SubMonitor.convert(monitor, "Building "
+        + getProject().getName() + "...", libraries.size() * 100);
+    try {
+      for (DartLibrary library : libraries) {
+        for (CompilationUnit unit : library.getCompilationUnits()) {
+          IResource resource = unit.getResource();
+          if (resource != null && getProject().equals(resource.getProject())) {
+            clearErrorMarkers(resource);
+          }
+        }
+      }
+      if (DartCoreDebug.BUILD) {
+        DartCore.logInformation("Building " + libraries.size() + " affected libraries in "
+            + getProject().getName());
       }
+      buildInLevels(getImportGraph(null), libraries, subMonitor);
     } finally {
       monitor.done();
     }
@@ -313,8 +507,29 @@ public class DartBuilder extends IncrementalProjectBuilder {
    * @param lib the library (not <code>null</code>)
    * @param monitor the progress monitor (not <code>null</code>)
    */
-  protected void buildLibrary(DartLibrary lib, final IProgressMonitor monitor) {
+  protected void buildLibrary(DartLibrary lib, IProgressMonitor monitor) {
+    compileLibrary(lib, monitor).createMarkers();
+  }
+
+  @Override
+  protected void clean(IProgressMonitor monitor) throws CoreException {
+    prerequisiteProjects.clear();
+    new ArtifactProvider().clean(monitor);
+  }
+
+  /**
+   * Compile the specified Dart library. This method does not modify the workspace so that it can be
+   * invoked on threads other than the one running the build: the markers for the errors found are
+   * created when {@link CompilerListener#createMarkers()} is invoked on the returned listener.
+   * 
+   * @param lib the library (not <code>null</code>)
+   * @param monitor the progress monitor (not <code>null</code>)
+   * @return the listener holding the errors found in the library
+   */
+  private CompilerListener compileLibrary(DartLibrary lib, final IProgressMonitor monitor) {
     final DartLibraryImpl libImpl = (DartLibraryImpl) lib;
+    final CompilerListener listener = new CompilerListener(lib, getProject());
+    final ArtifactProvider provider = new ArtifactProvider();
 
     IResource libResource = getProject();
 
@@ -363,6 +578,8 @@ public class DartBuilder extends IncrementalProjectBuilder {
           // violates the basic requirement that it accurately reflects the
           // original source code.
           phases.add(new ErrorCheckingPhase());
+          phases.add(new TypeHierarchyPhase(libImpl));
+          phases.add(0, new NameIndexingPhase());
 
           // Wrapper all phases to provide progress feedback
           for (int i = 0; i < phases.size(); i++) {
@@ -389,8 +606,6 @@ public class DartBuilder extends IncrementalProjectBuilder {
           return true;
         }
       };
-      final CompilerListener listener = new CompilerListener(lib, getProject());
-
       //Try:
       //1. Have the compiler build the Library
       //2. Tell the CompilerMetrics that the Compiler is done
@@ -406,6 +621,7 @@ public class DartBuilder extends IncrementalProjectBuilder {
         ps.println(provider.getOutOfDateCount() + " artifacts out of date");
         ps.println(provider.getWriteArtifactCount() + " artifacts written");
         metrics.write(ps);
+        ps.println(DartCompilerUtilities.getLibraryLocks());
         DartCore.logInformation(out.toString());
       }
       MetricsMessenger.getSingleton().fireUpdates(config,
@@ -417,36 +633,206 @@ public class DartBuilder extends IncrementalProjectBuilder {
       // they can be used to drive the indexer.
       // queueFilesForIndexer(...);
     } catch (Throwable exception) {
-      BuilderUtil.createErrorMarker(libResource, 0, 0, 0,
+      listener.addErrorMarker(libResource, 0, 0, 0,
           "Internal compiler error: " + exception.toString());
 
       DartCore.logError("Exception caught while building " + lib.getElementName(), exception);
     } finally {
       monitor.done();
     }
+    return listener;
   }
 
-  @Override
-  protected void clean(IProgressMonitor monitor) throws CoreException {
-    provider.clean(monitor);
+  /**
+   * Build the given libraries in the levels returned by {@link LibraryImportGraph#getBuildLevels}.
+   * The libraries in a level are built concurrently, in the order in which they appear in the
+   * level, unless they are part of an import cycle or share an import that has not been built yet,
+   * in which case they are built one at a time. The markers for a library are created as soon as it
+   * has been built.
+   * 
+   * @param graph the graph of the imports between the libraries
+   * @param libraries the libraries to be built
+   * @param monitor the progress monitor, with 100 units of work remaining for every library
+   */
+  private void buildInLevels(LibraryImportGraph<DartLibrary> graph,
+      Collection<DartLibrary> libraries, SubMonitor monitor) {
+    ExecutorService executor = getBuildExecutor();
+    Set<DartLibrary> builtLibraries = new HashSet<DartLibrary>();
+    for (List<DartLibrary> level : graph.getBuildLevels(libraries, getOpenLibraries())) {
+      if (monitor.isCanceled()) {
+        throw new OperationCanceledException();
+      }
+      if (level.size() == 1 || !graph.canBuildConcurrently(level, builtLibraries)) {
+        for (DartLibrary library : level) {
+          if (monitor.isCanceled()) {
+            throw new OperationCanceledException();
+          }
+          buildLibrary(library, monitor.newChild(100));
+          builtLibraries.add(library);
+        }
+        continue;
+      }
+      List<Future<CompilerListener>> futures = new ArrayList<Future<CompilerListener>>();
+      for (final DartLibrary library : level) {
+        futures.add(executor.submit(new Callable<CompilerListener>() {
+          @Override
+          public CompilerListener call() {
+            return compileLibrary(library, new NullProgressMonitor());
+          }
+        }));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          waitFor(futures.get(i), monitor).createMarkers();
+        } catch (ExecutionException exception) {
+          DartCore.logError("Exception caught while building " + level.get(i).getElementName(),
+              exception.getCause());
+        }
+        monitor.worked(100);
+      }
+      builtLibraries.addAll(level);
+    }
   }
 
   /**
-   * Obtain the current resource changed delta(s) to determine if any of the resources that have
-   * changed were Dart related source files.
+   * Wait for the given library to be built, checking periodically whether the build has been
+   * canceled. Libraries that are still being built when the build is canceled are left to finish
+   * on their own; they are built again by the next build, which receives the same changes.
+   */
+  private static <T> T waitFor(Future<T> future, SubMonitor monitor) throws ExecutionException {
+    try {
+      while (true) {
+        if (monitor.isCanceled()) {
+          throw new OperationCanceledException();
+        }
+        try {
+          return future.get(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException exception) {
+          // Check for cancellation again
+        }
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new OperationCanceledException();
+    }
+  }
+
+  /**
+   * Return the libraries of the project associated with the receiver that contain or import,
+   * directly or indirectly, any of the given changed sources, or <code>null</code> if any of the
+   * sources cannot be mapped to the libraries containing it, in which case all of the libraries
+   * must be built.
+   * 
+   * @param changedSources the Dart sources that were added, changed or removed
+   */
+  private Set<DartLibrary> getAffectedLibraries(Set<IResource> changedSources)
+      throws CoreException {
+    Map<IResource, List<DartLibrary>> librariesBySource =
+        new HashMap<IResource, List<DartLibrary>>();
+    LibraryImportGraph<DartLibrary> graph = getImportGraph(librariesBySource);
+    Set<DartLibrary> changedLibraries = new HashSet<DartLibrary>();
+    for (IResource source : changedSources) {
+      List<DartLibrary> libraries = librariesBySource.get(source);
+      if (libraries == null) {
+        if (DartCoreDebug.BUILD) {
+          DartCore.logInformation("Building all libraries because " + source.getFullPath()
+              + " is not part of any library");
+        }
+        return null;
+      }
+      changedLibraries.addAll(libraries);
+    }
+    Set<DartLibrary> projectLibraries = new HashSet<DartLibrary>(
+        Arrays.asList(DartCore.create(getProject()).getDartLibraries()));
+    Set<DartLibrary> result = graph.getAffectedLibraries(changedLibraries);
+    result.retainAll(projectLibraries);
+    return result;
+  }
+
+  /**
+   * Obtain the current resource changed delta(s) of the project associated with the receiver and
+   * its prerequisite projects and return the Dart source files that were added, changed or
+   * removed.
+   * 
+   * @return the changed Dart source files, or <code>null</code> if a delta is not available and all
+   *         of the libraries must be built
+   */
+  private Set<IResource> getChangedDartSources() throws CoreException {
+    Set<IResource> changedSources = new HashSet<IResource>();
+    if (!collectChangedDartSources(getDelta(getProject()), changedSources)) {
+      return null;
+    }
+    IProject[] projects;
+    synchronized (prerequisiteProjects) {
+      projects = prerequisiteProjects.toArray(new IProject[prerequisiteProjects.size()]);
+    }
+    for (IProject project : projects) {
+      if (!project.equals(getProject())
+          && !collectChangedDartSources(getDelta(project), changedSources)) {
+        return null;
+      }
+    }
+    return changedSources;
+  }
+
+  /**
+   * Return a graph of the imports between all of the libraries in the model.
    * 
-   * @return <code>true</code> if at least one Dart related source file has changed.
+   * @param librariesBySource a table to be filled with the libraries containing every compilation
+   *          unit, or <code>null</code> if not needed
    */
-  protected boolean hasDartSourceChanged() throws CoreException {
-    if (hasDartSourceChanged(getDelta(getProject()))) {
-      return true;
+  private LibraryImportGraph<DartLibrary> getImportGraph(
+      Map<IResource, List<DartLibrary>> librariesBySource) throws DartModelException {
+    LibraryImportGraph<DartLibrary> graph = new LibraryImportGraph<DartLibrary>();
+    for (DartLibrary library : DartModelManager.getInstance().getDartModel().getDartLibraries()) {
+      for (DartLibrary importedLibrary : library.getImportedLibraries()) {
+        // Bundled libraries are never built, so they do not constrain the build order.
+        if (!isBundledLibrary(importedLibrary)) {
+          graph.addImport(library, importedLibrary);
+        }
+      }
+      if (librariesBySource != null) {
+        for (CompilationUnit unit : library.getCompilationUnits()) {
+          IResource resource = unit.getResource();
+          if (resource != null) {
+            List<DartLibrary> libraries = librariesBySource.get(resource);
+            if (libraries == null) {
+              libraries = new ArrayList<DartLibrary>(1);
+              librariesBySource.put(resource, libraries);
+            }
+            libraries.add(library);
+          }
+        }
+      }
     }
-    for (IProject project : provider.getPrerequisiteProjects()) {
-      if (hasDartSourceChanged(getDelta(project))) {
-        return true;
+    return graph;
+  }
+
+  /**
+   * Return <code>true</code> if the given library is one of the libraries bundled with the editor.
+   */
+  private static boolean isBundledLibrary(DartLibrary library) {
+    LibrarySource source = ((DartLibraryImpl) library).getLibrarySourceFile();
+    return source != null && SystemLibraryManager.isDartUri(source.getUri());
+  }
+
+  /**
+   * Return the libraries containing the compilation units that are open in editors, which are
+   * built before the other libraries that can be built at the same time.
+   */
+  private Set<DartLibrary> getOpenLibraries() {
+    Set<DartLibrary> libraries = new HashSet<DartLibrary>();
+    CompilationUnit[] workingCopies = DartModelManager.getInstance().getWorkingCopies(
+        DefaultWorkingCopyOwner.getInstance(), false);
+    if (workingCopies != null) {
+      for (CompilationUnit workingCopy : workingCopies) {
+        DartLibrary library = workingCopy.getLibrary();
+        if (library != null) {
+          libraries.add(library);
+        }
       }
     }
-    return false;
+    return libraries;
   }
 
   private void emitArtifactDetailsToConsole(DartLibraryImpl libImpl) throws DartModelException {
@@ -467,27 +853,32 @@ public class DartBuilder extends IncrementalProjectBuilder {
     }
   }
 
-  private boolean hasDartSourceChanged(IResourceDelta delta) throws CoreException {
+  /**
+   * Add the Dart source files that were added, changed or removed in the given delta to the given
+   * set.
+   * 
+   * @return <code>false</code> if the delta is not available
+   */
+  private boolean collectChangedDartSources(IResourceDelta delta,
+      final Set<IResource> changedSources) throws CoreException {
     if (delta == null) {
-      return true;
+      return false;
     }
-    final boolean shouldBuild[] = new boolean[1];
     delta.accept(new IResourceDeltaVisitor() {
       @Override
       public boolean visit(IResourceDelta delta) {
         IResource resource = delta.getResource();
         if (resource.getType() != IResource.FILE) {
-          // Visit children only if we have not already found a changed source file
-          return !shouldBuild[0];
+          return true;
         }
         String name = resource.getName();
         if (name.endsWith(Extensions.DOT_DART)) {
-          shouldBuild[0] = true;
+          changedSources.add(resource);
         }
         return false;
       }
     });
-    return shouldBuild[0];
+    return true;
   }
 
   /**
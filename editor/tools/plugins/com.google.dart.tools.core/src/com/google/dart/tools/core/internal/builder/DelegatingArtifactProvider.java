@@ -16,6 +16,7 @@ package com.google.dart.tools.core.internal.builder;
 import com.google.dart.compiler.DartArtifactProvider;
 import com.google.dart.compiler.Source;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -31,6 +32,11 @@ public class DelegatingArtifactProvider extends DartArtifactProvider {
     this.provider = provider;
   }
 
+  @Override
+  public File getArtifactFile(Source source, String part, String extension) {
+    return provider.getArtifactFile(source, part, extension);
+  }
+
   @Override
   public Reader getArtifactReader(Source source, String part, String extension) throws IOException {
     return provider.getArtifactReader(source, part, extension);
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2011 Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.builder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Instances of the class <code>LibraryImportGraph</code> record which libraries import which other
+ * libraries, so that the builder can determine the libraries affected by a change and the order in
+ * which they can be built.
+ * 
+ * @param <L> the type of the objects representing libraries
+ */
+public class LibraryImportGraph<L> {
+  /**
+   * A table mapping libraries to the libraries they import directly.
+   */
+  private final Map<L, Set<L>> imports = new HashMap<L, Set<L>>();
+
+  /**
+   * A table mapping libraries to the libraries that import them directly.
+   */
+  private final Map<L, Set<L>> importers = new HashMap<L, Set<L>>();
+
+  /**
+   * Record that the first library imports the second one.
+   * 
+   * @param importer the library containing the import
+   * @param imported the library being imported
+   */
+  public void addImport(L importer, L imported) {
+    if (importer.equals(imported)) {
+      return;
+    }
+    getOrCreate(imports, importer).add(imported);
+    getOrCreate(importers, imported).add(importer);
+  }
+
+  /**
+   * Return the given libraries together with all of the libraries that import them, directly or
+   * indirectly.
+   * 
+   * @param libraries the libraries that changed
+   * @return the libraries affected by the change
+   */
+  public Set<L> getAffectedLibraries(Collection<L> libraries) {
+    Set<L> result = new LinkedHashSet<L>(libraries);
+    List<L> pending = new ArrayList<L>(libraries);
+    while (!pending.isEmpty()) {
+      Set<L> directImporters = importers.get(pending.remove(pending.size() - 1));
+      if (directImporters != null) {
+        for (L importer : directImporters) {
+          if (result.add(importer)) {
+            pending.add(importer);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Divide the given libraries into levels such that every library is in a later level than all of
+   * the given libraries it imports, directly or indirectly. Once all of the remaining libraries are
+   * part of or depend on an import cycle, they are placed in a single level. Within every level,
+   * the libraries in the given priority set come first. Use {@link #canBuildConcurrently} to
+   * determine whether the libraries in a level can be built at the same time.
+   * 
+   * @param libraries the libraries to be built
+   * @param priorityLibraries the libraries to be built as early as possible
+   * @return the levels of libraries, in the order in which they are to be built
+   */
+  public List<List<L>> getBuildLevels(Collection<L> libraries, Set<L> priorityLibraries) {
+    Set<L> remaining = new LinkedHashSet<L>(libraries);
+    List<List<L>> levels = new ArrayList<List<L>>();
+    while (!remaining.isEmpty()) {
+      List<L> level = new ArrayList<L>();
+      for (L library : remaining) {
+        if (!importsAny(library, remaining)) {
+          level.add(library);
+        }
+      }
+      if (level.isEmpty()) {
+        // Every remaining library is in or depends on an import cycle.
+        level.addAll(remaining);
+      }
+      remaining.removeAll(level);
+      List<L> orderedLevel = new ArrayList<L>(level.size());
+      for (L library : level) {
+        if (priorityLibraries.contains(library)) {
+          orderedLevel.add(library);
+        }
+      }
+      for (L library : level) {
+        if (!priorityLibraries.contains(library)) {
+          orderedLevel.add(library);
+        }
+      }
+      levels.add(orderedLevel);
+    }
+    return levels;
+  }
+
+  /**
+   * Return <code>true</code> if the libraries in the given level can be built concurrently. That is
+   * the case when none of them imports another one and no two of them import the same library,
+   * directly or indirectly, other than the given libraries that have already been built. Otherwise
+   * a library that is out of date could be compiled by several of them at the same time.
+   * 
+   * @param level the libraries to be built at the same time
+   * @param builtLibraries the libraries that have already been built
+   * @return <code>true</code> if the libraries can be built concurrently
+   */
+  public boolean canBuildConcurrently(List<L> level, Set<L> builtLibraries) {
+    Set<L> reached = new HashSet<L>();
+    for (L library : level) {
+      Set<L> visited = new HashSet<L>();
+      List<L> pending = new ArrayList<L>();
+      visited.add(library);
+      pending.add(library);
+      while (!pending.isEmpty()) {
+        L current = pending.remove(pending.size() - 1);
+        if (!builtLibraries.contains(current) && !reached.add(current)) {
+          return false;
+        }
+        Set<L> directImports = imports.get(current);
+        if (directImports != null) {
+          for (L imported : directImports) {
+            if (visited.add(imported)) {
+              pending.add(imported);
+            }
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  private Set<L> getOrCreate(Map<L, Set<L>> map, L library) {
+    Set<L> set = map.get(library);
+    if (set == null) {
+      set = new HashSet<L>();
+      map.put(library, set);
+    }
+    return set;
+  }
+
+  /**
+   * Return <code>true</code> if the given library imports any of the given other libraries,
+   * directly or indirectly through libraries that are not among them.
+   */
+  private boolean importsAny(L library, Set<L> libraries) {
+    Set<L> visited = new HashSet<L>();
+    List<L> pending = new ArrayList<L>();
+    pending.add(library);
+    while (!pending.isEmpty()) {
+      Set<L> directImports = imports.get(pending.remove(pending.size() - 1));
+      if (directImports != null) {
+        for (L imported : directImports) {
+          if (libraries.contains(imported)) {
+            if (!imported.equals(library)) {
+              return true;
+            }
+          } else if (visited.add(imported)) {
+            pending.add(imported);
+          }
+        }
+      }
+    }
+    return false;
+  }
+}
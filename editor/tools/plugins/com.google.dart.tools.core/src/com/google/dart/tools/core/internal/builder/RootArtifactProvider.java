@@ -34,7 +34,8 @@ import java.io.File;
 import java.io.IOException;
 
 /**
- * A singleton which caches artifacts for the session
+ * A singleton which caches artifacts for the session. Only the most recently used artifacts are
+ * held in memory; the others are spilled to the plugin state location.
  */
 public class RootArtifactProvider extends CachingArtifactProvider {
 
@@ -76,6 +77,16 @@ public class RootArtifactProvider extends CachingArtifactProvider {
 
   }
 
+  /**
+   * The percentage of the maximum heap size that the content of the cached artifacts may use.
+   */
+  private static final int HEAP_PERCENT = 5;
+
+  /**
+   * The bounds, in characters, of the memory budget of the cached artifacts.
+   */
+  private static final long MIN_BUDGET = 2 * 1024 * 1024, MAX_BUDGET = 16 * 1024 * 1024;
+
   private static final Object lock = new Object();
   private static RootArtifactProvider INSTANCE;
 
@@ -85,7 +96,7 @@ public class RootArtifactProvider extends CachingArtifactProvider {
   public static RootArtifactProvider getInstance() {
     synchronized (lock) {
       if (INSTANCE == null) {
-        INSTANCE = new RootArtifactProvider();
+        INSTANCE = new RootArtifactProvider(getMemoryBudget(), getSpillDirectory());
         loadArtifacts();
         LifecycleListener.hookListener();
       }
@@ -127,6 +138,23 @@ public class RootArtifactProvider extends CachingArtifactProvider {
     return DartCore.getPlugin().getStateLocation().append("artifact.cache").toFile();
   }
 
+  /**
+   * Answer the number of characters of artifact content held in memory, which is a share of the
+   * maximum heap size
+   */
+  private static long getMemoryBudget() {
+    // Every character takes two bytes.
+    long budget = Runtime.getRuntime().maxMemory() / 2 * HEAP_PERCENT / 100;
+    return Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, budget));
+  }
+
+  /**
+   * Answer the directory to which artifacts evicted from memory are written
+   */
+  private static File getSpillDirectory() {
+    return DartCore.getPlugin().getStateLocation().append("artifacts").toFile();
+  }
+
   /**
    * Load artifacts from disk if they were cached from the prior session
    */
@@ -135,7 +163,7 @@ public class RootArtifactProvider extends CachingArtifactProvider {
     if (cacheFile == null) {
       return;
     }
-    if (!cacheFile.exists()) {
+    if (ArtifactCacheFile.findLatestFile(cacheFile) == null) {
       if (DartCoreDebug.WARMUP) {
         DartCore.logInformation("No cached artifacts file " + cacheFile);
       }
@@ -154,6 +182,7 @@ public class RootArtifactProvider extends CachingArtifactProvider {
     if (DartCoreDebug.WARMUP) {
       DartCore.logInformation("Loaded " + artifactCount + " cached artifacts in " + delta
           + " ms from " + cacheFile);
+      DartCore.logInformation(INSTANCE.toString());
     }
   }
 
@@ -190,9 +219,16 @@ public class RootArtifactProvider extends CachingArtifactProvider {
    */
   private RootArtifactProvider nextProvider;
 
+  /**
+   * Construct a provider that holds all artifacts in memory, used for testing.
+   */
   private RootArtifactProvider() {
   }
 
+  private RootArtifactProvider(long memoryBudget, File spillDirectory) {
+    super(memoryBudget, spillDirectory);
+  }
+
   /**
    * Remove the receiver from the listener's list so that it can be garbage collected. This should
    * not be called on the instance returned by {@link #getInstance()} because it exists for the
@@ -401,7 +401,9 @@ public class LRUCache<K, V> {
 
     /* Free up space by removing oldest entries */
     while (currentSpace + space > limit && entryQueueTail != null) {
-      privateRemoveEntry(entryQueueTail, false);
+      LRUCacheEntry<K, V> entry = entryQueueTail;
+      privateRemoveEntry(entry, false);
+      privateNotifyDeletionFromCache(entry);
     }
     return true;
   }
@@ -50,7 +50,6 @@ import com.google.dart.compiler.parser.ParserContext;
 import com.google.dart.compiler.resolver.ClassElement;
 import com.google.dart.compiler.resolver.ConstructorElement;
 import com.google.dart.compiler.resolver.CoreTypeProvider;
-import com.google.dart.compiler.resolver.CoreTypeProviderImplementation;
 import com.google.dart.compiler.resolver.Element;
 import com.google.dart.compiler.resolver.ElementKind;
 import com.google.dart.compiler.resolver.EnclosingElement;
@@ -157,6 +156,13 @@ public class CompletionEngine {
       }
     }
 
+    @Override
+    public void completionReused(int proposalCount, long ms) {
+      if (DEBUG_TIMING) {
+        System.out.println("Code Assist (reused " + proposalCount + " proposals): " + ms);
+      }
+    }
+
     @Override
     public void resolveLibraryFailed(Collection<DartCompilationError> parseErrors) {
       reportResolveLibraryFailed(parseErrors);
@@ -946,6 +952,7 @@ public class CompletionEngine {
   private DartUnit parsedUnit;
   private CompilationUnit currentCompilationUnit;
   private CompletionMetrics metrics;
+  private CompletionSession session;
 
   private static final String C_EXTENDS = "extends";
   private static final String C_IMPLEMENTS = "implements";
@@ -1041,6 +1048,17 @@ public class CompletionEngine {
         && source.charAt(actualCompletionPosition) == '.';
     CompletionMetrics metrics = requestor.getMetrics();
 
+    long replayStartTime = System.currentTimeMillis();
+    int reusedCount = CompletionSession.replay(library, sourceFile, source, completionPosition, pos,
+        requestor);
+    if (reusedCount >= 0) {
+      if (metrics != null) {
+        metrics.completionReused(reusedCount, System.currentTimeMillis() - replayStartTime);
+      }
+      return;
+    }
+    session = CompletionSession.begin(library, sourceFile, source, completionPosition, pos);
+
     DartCompilerListener listener = SilentDartCompilerListener.INSTANCE;
     ParserContext ctx = new DartScannerParserContext(sourceFile, source, listener);
     CompletionParser parser = new CompletionParser(ctx);
@@ -1082,8 +1100,7 @@ public class CompletionEngine {
       return;
     }
     Scope unitScope = resolvedUnit.getLibrary().getElement().getScope();
-    typeProvider = new CoreTypeProviderImplementation(unitScope,
-        SilentDartCompilerListener.INSTANCE);
+    typeProvider = session.getTypeProvider(unitScope, SilentDartCompilerListener.INSTANCE);
 
     classElement = null;
     if (resolvedMember != null) {
@@ -1119,6 +1136,7 @@ public class CompletionEngine {
     requestor.acceptContext(new InternalCompletionContext());
     resolvedNode.accept(new OuterCompletionProposer(resolvedNode));
     requestor.endReporting();
+    session.finish();
   }
 
   public CompletionEnvironment getEnvironment() {
@@ -1145,6 +1163,15 @@ public class CompletionEngine {
     return typeCache;
   }
 
+  /**
+   * Report the given proposal to the requestor and record it in the session, so that it can be
+   * reused by the next request.
+   */
+  private void accept(InternalCompletionProposal proposal) {
+    session.record(proposal);
+    requestor.accept(proposal);
+  }
+
   private Type analyzeType(DartNode target) {
     InterfaceType currentType;
     if (classElement != null) {
@@ -1203,7 +1230,7 @@ public class CompletionEngine {
       proposal.setDeclarationTypeName(returnTypeName.toCharArray());
       setSourceLoc(proposal, memberName, prefix);
       proposal.setRelevance(1);
-      requestor.accept(proposal);
+      accept(proposal);
     }
   }
 
@@ -1237,7 +1264,7 @@ public class CompletionEngine {
       proposal.setName(name.toCharArray());
       setSourceLoc(proposal, node, prefix);
       proposal.setRelevance(1);
-      requestor.accept(proposal);
+      accept(proposal);
     }
   }
 
@@ -1299,7 +1326,7 @@ public class CompletionEngine {
       proposal.setDeclarationTypeName(method.getEnclosingElement().getName().toCharArray());
       setSourceLoc(proposal, node, prefix);
       proposal.setRelevance(1);
-      requestor.accept(proposal);
+      accept(proposal);
     }
   }
 
@@ -1337,7 +1364,7 @@ public class CompletionEngine {
       proposal.setDeclarationTypeName(field.getEnclosingElement().getName().toCharArray());
       setSourceLoc(proposal, node, prefix);
       proposal.setRelevance(1);
-      requestor.accept(proposal);
+      accept(proposal);
     }
   }
 
@@ -1366,7 +1393,7 @@ public class CompletionEngine {
       proposal.setName(name.toCharArray());
       setSourceLoc(proposal, node, prefix);
       proposal.setRelevance(1);
-      requestor.accept(proposal);
+      accept(proposal);
     }
   }
 
@@ -1409,7 +1436,7 @@ public class CompletionEngine {
           proposal.setRelevance(1);
           requestor.setAllowsRequiredProposals(CompletionProposal.CONSTRUCTOR_INVOCATION,
               CompletionProposal.TYPE_REF, true);
-          requestor.accept(proposal);
+          accept(proposal);
         }
       }
     } catch (DartModelException exception) {
@@ -1420,7 +1447,7 @@ public class CompletionEngine {
       proposal.setSignature(nameChars);
       setSourceLoc(proposal, node, prefix);
       proposal.setRelevance(1);
-      requestor.accept(proposal);
+      accept(proposal);
     }
   }
 
@@ -1444,7 +1471,7 @@ public class CompletionEngine {
     proposal.setIsInterface(true); // TODO For now, use the Interface icon for generic types
     setSourceLoc(proposal, node, prefix);
     proposal.setRelevance(1);
-    requestor.accept(proposal);
+    accept(proposal);
   }
 
   private void createTypeCompletionsForParameterDecl(DartNode node, SearchMatch match, String prefix) {
@@ -1484,7 +1511,7 @@ public class CompletionEngine {
     proposal.setIsInterface(isInterface);
     setSourceLoc(proposal, node, prefix);
     proposal.setRelevance(1);
-    requestor.accept(proposal);
+    accept(proposal);
   }
 
   private void createTypeCompletionsForTypeDecl(DartNode node, SearchMatch match, String prefix,
@@ -1525,7 +1552,7 @@ public class CompletionEngine {
     proposal.setSignature(nameChars);
     setSourceLoc(proposal, node, prefix);
     proposal.setRelevance(1);
-    requestor.accept(proposal);
+    accept(proposal);
   }
 
   private String extractFilterPrefix(DartNode node) {
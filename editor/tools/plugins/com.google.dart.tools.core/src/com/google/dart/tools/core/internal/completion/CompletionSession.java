@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.completion;
+
+import com.google.dart.compiler.DartCompilerListener;
+import com.google.dart.compiler.DartSource;
+import com.google.dart.compiler.LibrarySource;
+import com.google.dart.compiler.resolver.CoreTypeProvider;
+import com.google.dart.compiler.resolver.CoreTypeProviderImplementation;
+import com.google.dart.compiler.resolver.Scope;
+import com.google.dart.tools.core.DartCore;
+import com.google.dart.tools.core.completion.CompletionProposal;
+import com.google.dart.tools.core.completion.CompletionRequestor;
+import com.google.dart.tools.core.model.ElementChangedEvent;
+import com.google.dart.tools.core.model.ElementChangedListener;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instances of the class <code>CompletionSession</code> retain the results of a code completion
+ * request so that consecutive requests in the same compilation unit can reuse them.
+ * <p>
+ * When the only change since the previous request is that identifier characters were typed at the
+ * previous completion position, the proposals of the previous request are still valid: they only
+ * need to be filtered by the longer prefix and have their ranges extended over the typed
+ * characters. Such requests are answered without parsing or resolving anything. Every other request
+ * is analyzed in full, but still reuses the core type provider of the previous request if the
+ * library scope has not changed.
+ * <p>
+ * Only the session of the most recent request is retained, and it is discarded whenever a change to
+ * the model is saved, because the proposals and the library scope of the session can depend on any
+ * unit of the library or of the libraries it imports.
+ */
+public final class CompletionSession {
+  /**
+   * The session of the most recent completion request that reported its proposals, or
+   * <code>null</code> if there is none.
+   */
+  private static CompletionSession current;
+
+  /**
+   * The listener discarding the current session when a change to the model is saved.
+   */
+  public static final ElementChangedListener CHANGE_LISTENER = new ElementChangedListener() {
+    @Override
+    public void elementChanged(ElementChangedEvent event) {
+      reset();
+    }
+  };
+
+  /**
+   * <code>true</code> if {@link #CHANGE_LISTENER} has been registered with the model.
+   */
+  private static boolean listening;
+
+  /**
+   * Return a new session for a request that is about to be analyzed in full. The session does not
+   * become current until {@link #finish()} is invoked.
+   * 
+   * @param library the library containing the compilation unit
+   * @param sourceFile the compilation unit in which completion was requested
+   * @param source the contents of the compilation unit
+   * @param completionPosition the position at which completion was requested
+   * @param offset the offset subtracted from the positions of the proposals
+   * @return the new session
+   */
+  public static synchronized CompletionSession begin(LibrarySource library, DartSource sourceFile,
+      String source, int completionPosition, int offset) {
+    CompletionSession session = new CompletionSession(library.getUri(), sourceFile.getUri(),
+        source, completionPosition, offset);
+    if (current != null && current.libraryUri.equals(session.libraryUri)) {
+      session.libraryScope = current.libraryScope;
+      session.typeProvider = current.typeProvider;
+    }
+    return session;
+  }
+
+  /**
+   * Discard the current session, if any, so that the next request is analyzed in full.
+   */
+  public static synchronized void reset() {
+    current = null;
+  }
+
+  /**
+   * Report the proposals of the current session to the given requestor if it can answer the given
+   * request, filtered by the prefix typed since then.
+   * 
+   * @param library the library containing the compilation unit
+   * @param sourceFile the compilation unit in which completion was requested
+   * @param source the contents of the compilation unit
+   * @param completionPosition the position at which completion was requested
+   * @param offset the offset subtracted from the positions of the proposals
+   * @param requestor the requestor to which proposals are to be reported
+   * @return the number of proposals that were reported, or <code>-1</code> if the request needs to
+   *         be analyzed in full
+   */
+  public static int replay(LibrarySource library, DartSource sourceFile, String source,
+      int completionPosition, int offset, CompletionRequestor requestor) {
+    CompletionSession session;
+    synchronized (CompletionSession.class) {
+      session = current;
+    }
+    if (session == null || !session.canReplay(library, sourceFile, source, completionPosition,
+        offset)) {
+      return -1;
+    }
+    int typedLength = completionPosition - session.completionPosition;
+    String prefix = source.substring(session.prefixStart, completionPosition);
+    List<InternalCompletionProposal> proposals = new ArrayList<InternalCompletionProposal>();
+    for (InternalCompletionProposal proposal : session.proposals) {
+      char[] name = proposal.getName();
+      if (name == null) {
+        name = proposal.getCompletion();
+      }
+      if (name != null && new String(name).startsWith(prefix)) {
+        proposals.add(proposal.extend(typedLength));
+      }
+    }
+    requestor.beginReporting();
+    requestor.acceptContext(new InternalCompletionContext());
+    for (InternalCompletionProposal proposal : proposals) {
+      if (proposal.isConstructor()) {
+        requestor.setAllowsRequiredProposals(CompletionProposal.CONSTRUCTOR_INVOCATION,
+            CompletionProposal.TYPE_REF, true);
+      }
+      requestor.accept(proposal);
+    }
+    requestor.endReporting();
+    return proposals.size();
+  }
+
+  private final URI libraryUri;
+
+  private final URI unitUri;
+
+  private final String source;
+
+  private final int completionPosition;
+
+  private final int offset;
+
+  /**
+   * The start of the identifier being completed, which is the completion position if the character
+   * before it is not part of an identifier.
+   */
+  private final int prefixStart;
+
+  /**
+   * The proposals reported for the request.
+   */
+  private final List<InternalCompletionProposal> proposals =
+      new ArrayList<InternalCompletionProposal>();
+
+  /**
+   * The scope of the library for which {@link #typeProvider} was created.
+   */
+  private Scope libraryScope;
+
+  private CoreTypeProvider typeProvider;
+
+  private CompletionSession(URI libraryUri, URI unitUri, String source, int completionPosition,
+      int offset) {
+    this.libraryUri = libraryUri;
+    this.unitUri = unitUri;
+    this.source = source;
+    this.completionPosition = completionPosition;
+    this.offset = offset;
+    int start = Math.min(completionPosition, source.length());
+    while (start > 0 && Character.isJavaIdentifierPart(source.charAt(start - 1))) {
+      start--;
+    }
+    this.prefixStart = start;
+  }
+
+  /**
+   * Make this session the current one, once all of its proposals have been reported.
+   */
+  public void finish() {
+    synchronized (CompletionSession.class) {
+      current = this;
+      if (!listening) {
+        listening = true;
+        DartCore.addElementChangedListener(CHANGE_LISTENER, ElementChangedEvent.POST_CHANGE);
+      }
+    }
+  }
+
+  /**
+   * Return the core type provider for the given library scope, reusing the one of the previous
+   * session if it was created for the same scope.
+   * 
+   * @param scope the scope of the library in which completion was requested
+   * @param listener the listener to which errors are reported
+   * @return the core type provider
+   */
+  public CoreTypeProvider getTypeProvider(Scope scope, DartCompilerListener listener) {
+    if (typeProvider == null || libraryScope != scope) {
+      libraryScope = scope;
+      typeProvider = new CoreTypeProviderImplementation(scope, listener);
+    }
+    return typeProvider;
+  }
+
+  /**
+   * Record that the given proposal was reported for the request.
+   * 
+   * @param proposal the proposal that was reported
+   */
+  public void record(InternalCompletionProposal proposal) {
+    proposals.add(proposal);
+  }
+
+  /**
+   * Return <code>true</code> if the given request is in the same compilation unit as this session,
+   * and the only difference between the two is that identifier characters were inserted at the
+   * completion position of this session, extending the identifier being completed, and the
+   * completion position moved past them.
+   */
+  private boolean canReplay(LibrarySource library, DartSource sourceFile, String newSource,
+      int newCompletionPosition, int newOffset) {
+    int typedLength = newCompletionPosition - completionPosition;
+    if (typedLength < 0 || newOffset != offset
+        || newSource.length() != source.length() + typedLength
+        || completionPosition > source.length() || !unitUri.equals(sourceFile.getUri())
+        || !libraryUri.equals(library.getUri())) {
+      return false;
+    }
+    for (int i = completionPosition; i < newCompletionPosition; i++) {
+      if (!Character.isJavaIdentifierPart(newSource.charAt(i))) {
+        return false;
+      }
+    }
+    if (prefixStart == completionPosition && typedLength > 0) {
+      // Without a prefix, only a request following a period is known to propose the same kind of
+      // names once an identifier has been started.
+      boolean afterPeriod = completionPosition > 0 && source.charAt(completionPosition - 1) == '.';
+      if (!afterPeriod || !Character.isJavaIdentifierStart(newSource.charAt(completionPosition))) {
+        return false;
+      }
+    }
+    return newSource.regionMatches(0, source, 0, completionPosition)
+        && newSource.regionMatches(newCompletionPosition, source, completionPosition,
+            source.length() - completionPosition);
+  }
+}
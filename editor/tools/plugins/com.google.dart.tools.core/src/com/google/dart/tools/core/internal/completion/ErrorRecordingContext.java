@@ -27,6 +27,7 @@ import com.google.dart.compiler.metrics.CompilerMetrics;
 import com.google.dart.tools.core.internal.model.SystemLibraryManagerProvider;
 import com.google.dart.tools.core.utilities.net.URIUtilities;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Reader;
@@ -76,6 +77,11 @@ class ErrorRecordingContext implements DartCompilerContext {
     throw new AssertionError();
   }
 
+  @Override
+  public File getArtifactFile(Source source, String part, String extension) {
+    throw new AssertionError();
+  }
+
   @Override
   public Writer getArtifactWriter(Source source, String part, String extension) throws IOException {
     throw new AssertionError();
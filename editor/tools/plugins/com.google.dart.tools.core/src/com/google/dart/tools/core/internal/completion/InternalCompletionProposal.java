@@ -38,7 +38,7 @@ import java.util.List;
 /**
  * Instances of the class <code>InternalCompletionProposal</code> implement a completion proposal.
  */
-public class InternalCompletionProposal extends CompletionProposal {
+public class InternalCompletionProposal extends CompletionProposal implements Cloneable {
   /**
    * Instances of the class <code>GatheringSearchListener</code> implement a search listener that
    * gathers search matches for later inspection.
@@ -193,6 +193,27 @@ public class InternalCompletionProposal extends CompletionProposal {
     this.completionLocation = completionLocation;
   }
 
+  /**
+   * Return a copy of this proposal for a request made after the given number of characters were
+   * typed at the end of the token being completed, whose token and replacement ranges extend over
+   * the typed characters.
+   * 
+   * @param typedLength the number of characters typed since this proposal was created
+   * @return the copy of this proposal
+   */
+  InternalCompletionProposal extend(int typedLength) {
+    InternalCompletionProposal copy;
+    try {
+      copy = (InternalCompletionProposal) clone();
+    } catch (CloneNotSupportedException exception) {
+      throw new AssertionError(exception);
+    }
+    copy.completionLocation += typedLength;
+    copy.tokenEnd += typedLength;
+    copy.replaceEnd += typedLength;
+    return copy;
+  }
+
   /**
    * Finds the method parameter names. This information is relevant to method reference (and method
    * declaration proposals). Returns <code>null</code> if not available or not relevant.
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.hierarchy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instances of the class <code>TypeGraph</code> represent the graph formed by types and their
+ * direct supertypes. Every type is assigned an integer id, and the edges are kept as arrays of ids
+ * in both directions, so that the subtypes of a type can be found without searching.
+ * <p>
+ * The supertypes of a type can be unknown, for example because the type was added or changed and
+ * has not been resolved since. Such a type does not appear among the subtypes of any type until
+ * its supertypes are set again.
+ * <p>
+ * Every type belongs to a group, typically the compilation unit declaring it, so that all of the
+ * types of a group can be removed at once.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @param <T> the type of the objects representing types
+ */
+public final class TypeGraph<T> {
+  /**
+   * A table mapping types to their ids.
+   */
+  private final Map<T, Integer> ids = new HashMap<T, Integer>();
+
+  /**
+   * A table mapping the groups to the ids of the types in them.
+   */
+  private final Map<String, List<Integer>> groups = new HashMap<String, List<Integer>>();
+
+  /**
+   * The types indexed by their id, with <code>null</code> for the ids that are not in use.
+   */
+  private Object[] types = new Object[64];
+
+  /**
+   * The groups of the types, indexed by their id.
+   */
+  private String[] typeGroups = new String[64];
+
+  /**
+   * The ids of the direct supertypes of each type, indexed by the id of the type, with
+   * <code>null</code> for the types whose supertypes are unknown.
+   */
+  private int[][] supertypes = new int[64][];
+
+  /**
+   * The ids of the direct subtypes of each type, indexed by the id of the type. Only the first
+   * {@link #subtypeCounts}<code>[id]</code> elements of each array are used.
+   */
+  private int[][] subtypes = new int[64][];
+
+  private int[] subtypeCounts = new int[64];
+
+  /**
+   * The ids that were used by types that have been removed, the first {@link #freeIdCount} of
+   * which can be reused.
+   */
+  private int[] freeIds = new int[16];
+
+  private int freeIdCount;
+
+  /**
+   * The number of ids that have ever been assigned.
+   */
+  private int idCount;
+
+  /**
+   * The number of types whose supertypes are unknown.
+   */
+  private int unknownCount;
+
+  /**
+   * Remove all of the types from this graph.
+   */
+  public synchronized void clear() {
+    ids.clear();
+    groups.clear();
+    types = new Object[64];
+    typeGroups = new String[64];
+    supertypes = new int[64][];
+    subtypes = new int[64][];
+    subtypeCounts = new int[64];
+    freeIdCount = 0;
+    idCount = 0;
+    unknownCount = 0;
+  }
+
+  /**
+   * Return <code>true</code> if this graph contains the given type.
+   */
+  public synchronized boolean contains(T type) {
+    return ids.containsKey(type);
+  }
+
+  /**
+   * Return the types in the given group.
+   */
+  public synchronized List<T> getGroup(String group) {
+    List<Integer> groupIds = groups.get(group);
+    if (groupIds == null) {
+      return Collections.emptyList();
+    }
+    List<T> result = new ArrayList<T>(groupIds.size());
+    for (Integer id : groupIds) {
+      result.add(getType(id.intValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Return the direct subtypes of the given type whose supertypes are known.
+   */
+  public synchronized List<T> getSubtypes(T type) {
+    Integer id = ids.get(type);
+    if (id == null) {
+      return Collections.emptyList();
+    }
+    int count = subtypeCounts[id.intValue()];
+    List<T> result = new ArrayList<T>(count);
+    int[] subtypeIds = subtypes[id.intValue()];
+    for (int i = 0; i < count; i++) {
+      result.add(getType(subtypeIds[i]));
+    }
+    return result;
+  }
+
+  /**
+   * Return the direct supertypes of the given type, or <code>null</code> if they are not known.
+   */
+  public synchronized List<T> getSupertypes(T type) {
+    Integer id = ids.get(type);
+    if (id == null) {
+      return null;
+    }
+    int[] supertypeIds = supertypes[id.intValue()];
+    if (supertypeIds == null) {
+      return null;
+    }
+    List<T> result = new ArrayList<T>(supertypeIds.length);
+    for (int supertypeId : supertypeIds) {
+      result.add(getType(supertypeId));
+    }
+    return result;
+  }
+
+  /**
+   * Return the types whose supertypes are not known.
+   */
+  public synchronized List<T> getUnknownTypes() {
+    List<T> result = new ArrayList<T>(unknownCount);
+    if (unknownCount > 0) {
+      for (int id = 0; id < idCount; id++) {
+        if (types[id] != null && supertypes[id] == null) {
+          result.add(getType(id));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Record that the supertypes of the given type are no longer known, adding the type to the graph
+   * if it is not already in it.
+   * 
+   * @param type the type whose supertypes are to be forgotten
+   * @param group the group of the type
+   */
+  public synchronized void invalidate(T type, String group) {
+    int id = getOrCreateId(type, group);
+    removeSupertypeEdges(id);
+  }
+
+  /**
+   * Remove the given type from the graph, together with all of the edges to and from it.
+   */
+  public synchronized void remove(T type) {
+    Integer id = ids.get(type);
+    if (id != null) {
+      removeId(id.intValue());
+    }
+  }
+
+  /**
+   * Remove all of the types in the given group from the graph.
+   */
+  public synchronized void removeGroup(String group) {
+    List<Integer> groupIds = groups.get(group);
+    if (groupIds != null) {
+      for (Integer id : new ArrayList<Integer>(groupIds)) {
+        removeId(id.intValue());
+      }
+    }
+  }
+
+  /**
+   * Set the direct supertypes of the given type, adding the type and its supertypes to the graph
+   * if they are not already in it. Supertypes that are added to the graph have unknown supertypes
+   * until they are set.
+   * 
+   * @param type the type whose supertypes are being set
+   * @param group the group of the type
+   * @param directSupertypes the direct supertypes of the type
+   * @param supertypeGroups the groups of the direct supertypes, in the same order
+   */
+  public synchronized void setSupertypes(T type, String group, List<T> directSupertypes,
+      List<String> supertypeGroups) {
+    int id = getOrCreateId(type, group);
+    removeSupertypeEdges(id);
+    int[] supertypeIds = new int[directSupertypes.size()];
+    int count = 0;
+    for (int i = 0; i < supertypeIds.length; i++) {
+      int supertypeId = getOrCreateId(directSupertypes.get(i), supertypeGroups.get(i));
+      if (supertypeId != id && indexOf(supertypeIds, count, supertypeId) < 0) {
+        supertypeIds[count++] = supertypeId;
+        addSubtype(supertypeId, id);
+      }
+    }
+    if (count < supertypeIds.length) {
+      int[] trimmed = new int[count];
+      System.arraycopy(supertypeIds, 0, trimmed, 0, count);
+      supertypeIds = trimmed;
+    }
+    supertypes[id] = supertypeIds;
+    unknownCount--;
+  }
+
+  /**
+   * Return the number of types in the graph.
+   */
+  public synchronized int size() {
+    return ids.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Type graph: " + ids.size() + " types, " + unknownCount + " with unknown supertypes, "
+        + groups.size() + " groups";
+  }
+
+  private void addSubtype(int id, int subtypeId) {
+    int[] subtypeIds = subtypes[id];
+    int count = subtypeCounts[id];
+    if (subtypeIds == null) {
+      subtypeIds = new int[4];
+      subtypes[id] = subtypeIds;
+    } else if (count == subtypeIds.length) {
+      int[] grown = new int[count * 2];
+      System.arraycopy(subtypeIds, 0, grown, 0, count);
+      subtypeIds = grown;
+      subtypes[id] = subtypeIds;
+    }
+    subtypeIds[count] = subtypeId;
+    subtypeCounts[id] = count + 1;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= types.length) {
+      return;
+    }
+    int newLength = Math.max(capacity, types.length * 2);
+    Object[] newTypes = new Object[newLength];
+    System.arraycopy(types, 0, newTypes, 0, idCount);
+    types = newTypes;
+    String[] newTypeGroups = new String[newLength];
+    System.arraycopy(typeGroups, 0, newTypeGroups, 0, idCount);
+    typeGroups = newTypeGroups;
+    int[][] newSupertypes = new int[newLength][];
+    System.arraycopy(supertypes, 0, newSupertypes, 0, idCount);
+    supertypes = newSupertypes;
+    int[][] newSubtypes = new int[newLength][];
+    System.arraycopy(subtypes, 0, newSubtypes, 0, idCount);
+    subtypes = newSubtypes;
+    int[] newSubtypeCounts = new int[newLength];
+    System.arraycopy(subtypeCounts, 0, newSubtypeCounts, 0, idCount);
+    subtypeCounts = newSubtypeCounts;
+  }
+
+  private int getOrCreateId(T type, String group) {
+    Integer existingId = ids.get(type);
+    if (existingId != null) {
+      return existingId.intValue();
+    }
+    int id;
+    if (freeIdCount > 0) {
+      id = freeIds[--freeIdCount];
+    } else {
+      ensureCapacity(idCount + 1);
+      id = idCount++;
+    }
+    ids.put(type, Integer.valueOf(id));
+    types[id] = type;
+    typeGroups[id] = group;
+    supertypes[id] = null;
+    subtypes[id] = null;
+    subtypeCounts[id] = 0;
+    unknownCount++;
+    List<Integer> groupIds = groups.get(group);
+    if (groupIds == null) {
+      groupIds = new ArrayList<Integer>();
+      groups.put(group, groupIds);
+    }
+    groupIds.add(Integer.valueOf(id));
+    return id;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T getType(int id) {
+    return (T) types[id];
+  }
+
+  private int indexOf(int[] array, int count, int value) {
+    for (int i = 0; i < count; i++) {
+      if (array[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void removeId(int id) {
+    removeSupertypeEdges(id);
+    // The subtypes of the type lose it as a supertype, but their other supertypes remain known.
+    int[] subtypeIds = subtypes[id];
+    for (int i = 0; i < subtypeCounts[id]; i++) {
+      int[] supertypeIds = supertypes[subtypeIds[i]];
+      int index = indexOf(supertypeIds, supertypeIds.length, id);
+      int[] remaining = new int[supertypeIds.length - 1];
+      System.arraycopy(supertypeIds, 0, remaining, 0, index);
+      System.arraycopy(supertypeIds, index + 1, remaining, index, remaining.length - index);
+      supertypes[subtypeIds[i]] = remaining;
+    }
+    ids.remove(types[id]);
+    List<Integer> groupIds = groups.get(typeGroups[id]);
+    groupIds.remove(Integer.valueOf(id));
+    if (groupIds.isEmpty()) {
+      groups.remove(typeGroups[id]);
+    }
+    types[id] = null;
+    typeGroups[id] = null;
+    subtypes[id] = null;
+    subtypeCounts[id] = 0;
+    // The supertypes are unknown after removeSupertypeEdges, which counted the id as unknown.
+    unknownCount--;
+    if (freeIdCount == freeIds.length) {
+      int[] grown = new int[freeIdCount * 2];
+      System.arraycopy(freeIds, 0, grown, 0, freeIdCount);
+      freeIds = grown;
+    }
+    freeIds[freeIdCount++] = id;
+  }
+
+  /**
+   * Remove the edges from the given type to its supertypes, leaving its supertypes unknown.
+   */
+  private void removeSupertypeEdges(int id) {
+    int[] supertypeIds = supertypes[id];
+    if (supertypeIds == null) {
+      return;
+    }
+    for (int supertypeId : supertypeIds) {
+      int[] subtypeIds = subtypes[supertypeId];
+      int count = subtypeCounts[supertypeId];
+      int index = indexOf(subtypeIds, count, id);
+      System.arraycopy(subtypeIds, index + 1, subtypeIds, index, count - index - 1);
+      subtypeCounts[supertypeId] = count - 1;
+    }
+    supertypes[id] = null;
+    unknownCount++;
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.hierarchy;
+
+import com.google.dart.indexer.exceptions.IndexTemporarilyNonOperational;
+import com.google.dart.indexer.locations.Location;
+import com.google.dart.tools.core.DartCore;
+import com.google.dart.tools.core.DartCoreDebug;
+import com.google.dart.tools.core.indexer.DartIndexer;
+import com.google.dart.tools.core.model.CompilationUnit;
+import com.google.dart.tools.core.model.DartElement;
+import com.google.dart.tools.core.model.DartElementDelta;
+import com.google.dart.tools.core.model.DartModelException;
+import com.google.dart.tools.core.model.ElementChangedEvent;
+import com.google.dart.tools.core.model.ElementChangedListener;
+import com.google.dart.tools.core.model.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The unique instance of the class <code>TypeHierarchyGraph</code> maintains the direct supertypes
+ * and subtypes of every type in the workspace, so that type hierarchies can be built without
+ * querying the index for every type they contain.
+ * <p>
+ * The graph is loaded from the index the first time the subtypes of a type are requested, and is
+ * then kept up to date incrementally. The supertypes of the types declared in a compilation unit
+ * are replaced every time the builder resolves the unit. When a compilation unit changes, the
+ * supertypes of its types are forgotten until they are either resolved again or looked up in the
+ * index, and the types that no longer exist are removed.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class TypeHierarchyGraph implements ElementChangedListener {
+  /**
+   * The unique instance of this class.
+   */
+  private static final TypeHierarchyGraph UniqueInstance = new TypeHierarchyGraph();
+
+  /**
+   * Return the unique instance of this class.
+   * 
+   * @return the unique instance of this class
+   */
+  public static TypeHierarchyGraph getInstance() {
+    return UniqueInstance;
+  }
+
+  /**
+   * Return the group of the given type within the graph, which is the handle identifier of the
+   * compilation unit declaring it.
+   */
+  private static String getGroup(Type type) {
+    CompilationUnit unit = type.getCompilationUnit();
+    return unit == null ? "" : unit.getHandleIdentifier();
+  }
+
+  private final TypeGraph<Type> graph = new TypeGraph<Type>();
+
+  /**
+   * The object used to ensure that the graph is only loaded once at a time.
+   */
+  private final Object loadLock = new Object();
+
+  /**
+   * <code>true</code> if every type in the index has been added to the graph.
+   */
+  private volatile boolean loaded;
+
+  /**
+   * <code>true</code> if this graph has been registered as an element changed listener.
+   */
+  private boolean listening;
+
+  private TypeHierarchyGraph() {
+  }
+
+  @Override
+  public void elementChanged(ElementChangedEvent event) {
+    processDelta(event.getDelta());
+  }
+
+  /**
+   * Return the direct subtypes of the given type. The graph is loaded from the index if it has not
+   * been loaded yet, and the supertypes that are not known are looked up in the index, so that no
+   * subtype is missed.
+   * 
+   * @param type the type whose subtypes are to be returned
+   * @return the direct subtypes of the given type
+   */
+  public Type[] getSubtypes(Type type) {
+    ensureLoaded();
+    for (Type unknownType : graph.getUnknownTypes()) {
+      lookUpSupertypes(unknownType);
+    }
+    List<Type> subtypes = graph.getSubtypes(type);
+    return subtypes.toArray(new Type[subtypes.size()]);
+  }
+
+  /**
+   * Return the direct supertypes of the given type, looking them up in the index if they are not
+   * known.
+   * 
+   * @param type the type whose supertypes are to be returned
+   * @return the direct supertypes of the given type
+   */
+  public Type[] getSupertypes(Type type) {
+    startListening();
+    List<Type> supertypes = graph.getSupertypes(type);
+    if (supertypes == null) {
+      supertypes = lookUpSupertypes(type);
+    }
+    return supertypes.toArray(new Type[supertypes.size()]);
+  }
+
+  /**
+   * Return the direct supertypes of the given type if they are known, or <code>null</code> if
+   * finding them would require querying the index. This method is cheap enough to be invoked from
+   * the user interface thread.
+   * 
+   * @param type the type whose supertypes are to be returned
+   * @return the direct supertypes of the given type
+   */
+  public Type[] getKnownSupertypes(Type type) {
+    List<Type> supertypes = graph.getSupertypes(type);
+    if (supertypes == null) {
+      return null;
+    }
+    return supertypes.toArray(new Type[supertypes.size()]);
+  }
+
+  /**
+   * Load the graph from the index if it has not been loaded yet. This is done the first time the
+   * subtypes of a type are requested, but can be done earlier to avoid the delay.
+   */
+  public void ensureLoaded() {
+    startListening();
+    if (loaded) {
+      return;
+    }
+    synchronized (loadLock) {
+      if (loaded) {
+        return;
+      }
+      long start = System.currentTimeMillis();
+      try {
+        for (Location location : DartIndexer.getAllTypes().getResult()) {
+          DartElement element = DartIndexer.unpackElementOrNull(location);
+          if (element instanceof Type && graph.getSupertypes((Type) element) == null) {
+            lookUpSupertypes((Type) element);
+          }
+        }
+        loaded = true;
+      } catch (IndexTemporarilyNonOperational exception) {
+        DartCore.logInformation("Could not load the type hierarchy graph", exception);
+      }
+      if (DartCoreDebug.WARMUP) {
+        DartCore.logInformation("Loaded " + graph + " in "
+            + (System.currentTimeMillis() - start) + " ms");
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return graph.toString();
+  }
+
+  /**
+   * Record the direct supertypes of the given type, as computed when the type was resolved.
+   * 
+   * @param type the type that was resolved
+   * @param supertypes the direct supertypes of the type
+   */
+  public void typeResolved(Type type, Type[] supertypes) {
+    setSupertypes(type, supertypes);
+  }
+
+  /**
+   * Look up the direct supertypes of the given type in the index and record them.
+   */
+  private List<Type> lookUpSupertypes(Type type) {
+    List<Type> supertypes = new ArrayList<Type>();
+    try {
+      for (Location location : DartIndexer.getSupertypes(type).getResult()) {
+        DartElement supertype = DartIndexer.unpackElementOrNull(location);
+        if (supertype instanceof Type) {
+          supertypes.add((Type) supertype);
+        }
+      }
+    } catch (IndexTemporarilyNonOperational exception) {
+      DartCore.logInformation("Could not access supertypes of " + type.getElementName(), exception);
+      return supertypes;
+    }
+    setSupertypes(type, supertypes.toArray(new Type[supertypes.size()]));
+    return supertypes;
+  }
+
+  /**
+   * Update the graph to reflect the changes described by the given delta.
+   */
+  private void processDelta(DartElementDelta delta) {
+    DartElement element = delta.getElement();
+    int elementType = element.getElementType();
+    if (elementType == DartElement.COMPILATION_UNIT) {
+      String group = element.getHandleIdentifier();
+      if (delta.getKind() == DartElementDelta.REMOVED) {
+        graph.removeGroup(group);
+        return;
+      }
+      for (Type type : graph.getGroup(group)) {
+        if (!type.exists()) {
+          graph.remove(type);
+        }
+      }
+      try {
+        for (Type type : ((CompilationUnit) element).getTypes()) {
+          graph.invalidate(type, group);
+        }
+      } catch (DartModelException exception) {
+        // The compilation unit cannot be opened, so its types cannot have changed.
+      }
+    } else if (elementType == DartElement.DART_MODEL || elementType == DartElement.DART_PROJECT
+        || elementType == DartElement.LIBRARY || elementType == DartElement.DART_LIBRARY_FOLDER) {
+      if (delta.getKind() == DartElementDelta.REMOVED) {
+        // Too many types are affected to remove them one by one.
+        graph.clear();
+        loaded = false;
+        return;
+      }
+      for (DartElementDelta childDelta : delta.getAffectedChildren()) {
+        processDelta(childDelta);
+      }
+    }
+  }
+
+  private void setSupertypes(Type type, Type[] supertypes) {
+    List<Type> supertypeList = new ArrayList<Type>(supertypes.length);
+    List<String> supertypeGroups = new ArrayList<String>(supertypes.length);
+    for (Type supertype : supertypes) {
+      supertypeList.add(supertype);
+      supertypeGroups.add(getGroup(supertype));
+    }
+    graph.setSupertypes(type, getGroup(type), supertypeList, supertypeGroups);
+  }
+
+  /**
+   * Register this graph to be notified of changes to the model, if it has not been registered yet.
+   */
+  private synchronized void startListening() {
+    if (!listening) {
+      listening = true;
+      DartCore.addElementChangedListener(this, ElementChangedEvent.POST_CHANGE);
+    }
+  }
+}
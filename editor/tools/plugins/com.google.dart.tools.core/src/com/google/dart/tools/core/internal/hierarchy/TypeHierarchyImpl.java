@@ -13,11 +13,7 @@
  */
 package com.google.dart.tools.core.internal.hierarchy;
 
-import com.google.dart.indexer.exceptions.IndexTemporarilyNonOperational;
-import com.google.dart.indexer.locations.Location;
 import com.google.dart.tools.core.DartCore;
-import com.google.dart.tools.core.indexer.DartIndexer;
-import com.google.dart.tools.core.indexer.DartIndexerResult;
 import com.google.dart.tools.core.internal.model.CompilationUnitImpl;
 import com.google.dart.tools.core.internal.model.DartElementImpl;
 import com.google.dart.tools.core.internal.model.DartModelStatusImpl;
@@ -1626,19 +1622,10 @@ public class TypeHierarchyImpl implements ElementChangedListener, TypeHierarchy
       return;
     }
     processedTypes.add(type);
-    try {
-      DartIndexerResult result = DartIndexer.getSubtypes(type);
-      for (Location location : result.getResult()) {
-        Type subtype = (Type) DartIndexer.unpackElementOrNull(location);
-        if (subtype == null) {
-          // Ignore for now.
-        } else {
-          addSubtype(type, subtype);
-        }
-        processSubtypes(subtype);
-      }
-    } catch (IndexTemporarilyNonOperational exception) {
-      Util.log(exception, "Could not access subtypes of " + type.getElementName());
+    for (Type subtype : TypeHierarchyGraph.getInstance().getSubtypes(type)) {
+      checkCanceled();
+      addSubtype(type, subtype);
+      processSubtypes(subtype, processedTypes);
     }
   }
 
@@ -1651,25 +1638,18 @@ public class TypeHierarchyImpl implements ElementChangedListener, TypeHierarchy
       return;
     }
     processedTypes.add(type);
-    try {
-      ArrayList<Type> interfaceList = new ArrayList<Type>();
-      DartIndexerResult result = DartIndexer.getSupertypes(type);
-      for (Location location : result.getResult()) {
-        Type supertype = (Type) DartIndexer.unpackElementOrNull(location);
-        if (supertype == null) {
-          // Ignore for now.
-        } else if (isInterface(supertype)) {
-          interfaceList.add(supertype);
-        } else {
-          cacheSuperclass(type, supertype);
-        }
-        processSupertypes(supertype);
-      }
-      if (!interfaceList.isEmpty()) {
-        cacheSuperInterfaces(type, interfaceList.toArray(new Type[interfaceList.size()]));
+    ArrayList<Type> interfaceList = new ArrayList<Type>();
+    for (Type supertype : TypeHierarchyGraph.getInstance().getSupertypes(type)) {
+      checkCanceled();
+      if (isInterface(supertype)) {
+        interfaceList.add(supertype);
+      } else {
+        cacheSuperclass(type, supertype);
       }
-    } catch (IndexTemporarilyNonOperational exception) {
-      Util.log(exception, "Could not access supertypes of " + type.getElementName());
+      processSupertypes(supertype, processedTypes);
+    }
+    if (!interfaceList.isEmpty()) {
+      cacheSuperInterfaces(type, interfaceList.toArray(new Type[interfaceList.size()]));
     }
   }
 
@@ -37,7 +37,11 @@ public class DartProcessor implements Processor {
 
   private ContributorWrapper[] contributors;
 
-  private ASTCache astCache = new ASTCache();
+  /**
+   * The cache of AST structures, shared by all of the processors so that a library indexed by
+   * several workers at once is resolved only once.
+   */
+  private static final ASTCache astCache = new ASTCache();
 
   public DartProcessor() {
     super();
@@ -38,6 +38,7 @@ import com.google.dart.tools.core.internal.model.OpenableElementImpl;
 import com.google.dart.tools.core.internal.model.SystemLibraryManagerProvider;
 import com.google.dart.tools.core.internal.model.info.DartLibraryInfo;
 import com.google.dart.tools.core.internal.model.info.OpenableElementInfo;
+import com.google.dart.tools.core.internal.search.names.LibraryNameIndex;
 import com.google.dart.tools.core.internal.util.ResourceUtil;
 import com.google.dart.tools.core.model.CompilationUnit;
 import com.google.dart.tools.core.model.DartElement;
@@ -851,6 +852,13 @@ public class DeltaProcessor {
         currentDelta().changed(element, DartElementDelta.F_PRIMARY_RESOURCE);
       } else if (elementType == DartElement.COMPILATION_UNIT
           && ((CompilationUnit) element).definesLibrary()) {
+        DartElement library = element.getParent();
+        if (library instanceof DartLibraryImpl) {
+          LibrarySource librarySource = ((DartLibraryImpl) library).getLibrarySourceFile();
+          if (librarySource != null) {
+            LibraryNameIndex.getInstance().removeLibrary(librarySource.getUri());
+          }
+        }
         close(element);
         removeFromParentInfo(element);
         currentDelta().removed(element.getParent());
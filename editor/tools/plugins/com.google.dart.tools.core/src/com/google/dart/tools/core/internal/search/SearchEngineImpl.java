@@ -13,7 +13,8 @@
  */
 package com.google.dart.tools.core.internal.search;
 
-import com.google.dart.compiler.ast.DartUnit;
+import com.google.dart.compiler.LibrarySource;
+import com.google.dart.indexer.exceptions.IndexRequestFailed;
 import com.google.dart.indexer.exceptions.IndexTemporarilyNonOperational;
 import com.google.dart.indexer.locations.Location;
 import com.google.dart.tools.core.DartCore;
@@ -29,15 +30,19 @@ import com.google.dart.tools.core.internal.indexer.location.FieldLocation;
 import com.google.dart.tools.core.internal.indexer.location.ReferenceKind;
 import com.google.dart.tools.core.internal.indexer.location.SyntheticLocation;
 import com.google.dart.tools.core.internal.model.CompilationUnitImpl;
+import com.google.dart.tools.core.internal.model.DartLibraryImpl;
 import com.google.dart.tools.core.internal.model.DartModelManager;
 import com.google.dart.tools.core.internal.search.listener.FilteredSearchListener;
 import com.google.dart.tools.core.internal.search.listener.WrappedSearchListener;
+import com.google.dart.tools.core.internal.search.names.LibraryNameIndex;
+import com.google.dart.tools.core.internal.search.pattern.NamePattern;
 import com.google.dart.tools.core.internal.workingcopy.DefaultWorkingCopyOwner;
 import com.google.dart.tools.core.model.CompilationUnit;
 import com.google.dart.tools.core.model.CompilationUnitElement;
 import com.google.dart.tools.core.model.DartElement;
 import com.google.dart.tools.core.model.DartFunction;
 import com.google.dart.tools.core.model.DartFunctionTypeAlias;
+import com.google.dart.tools.core.model.DartLibrary;
 import com.google.dart.tools.core.model.DartModelException;
 import com.google.dart.tools.core.model.Field;
 import com.google.dart.tools.core.model.Method;
@@ -51,7 +56,6 @@ import com.google.dart.tools.core.search.SearchListener;
 import com.google.dart.tools.core.search.SearchMatch;
 import com.google.dart.tools.core.search.SearchPattern;
 import com.google.dart.tools.core.search.SearchScope;
-import com.google.dart.tools.core.utilities.compiler.DartCompilerUtilities;
 import com.google.dart.tools.core.workingcopy.WorkingCopyOwner;
 
 import org.eclipse.core.runtime.IPath;
@@ -59,9 +63,24 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SubMonitor;
 
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Instances of the class <code>SearchEngineImpl</code> defines methods to perform various search
@@ -94,6 +113,152 @@ public final class SearchEngineImpl implements SearchEngine {
     public DartIndexerResult performIndexSearch() throws IndexTemporarilyNonOperational;
   }
 
+  /**
+   * The interface <code>LocationMatcher</code> defines the behavior of objects that turn the
+   * locations found by a search into the matches to be reported. Implementations must be usable by
+   * several threads at the same time.
+   */
+  public interface LocationMatcher {
+    /**
+     * Return the match represented by the given location, or <code>null</code> if the location
+     * does not represent a match that should be reported.
+     * 
+     * @param location the location found by the search
+     * @return the match represented by the given location
+     */
+    public SearchMatch toMatch(Location location);
+  }
+
+  /**
+   * Instances of the class <code>MatchFilter</code> turn the locations found by a search into the
+   * matches to be reported.
+   */
+  private final class MatchFilter implements LocationMatcher {
+    private final SearchScope scope;
+
+    private final SearchPattern pattern;
+
+    /**
+     * The handle identifiers of the primary compilation units of the current working copies.
+     */
+    private final Set<String> supersededUnits;
+
+    /**
+     * A table mapping the URIs of the libraries that have already been looked up to the names of
+     * their types that match the pattern, see {@link SearchEngineImpl#mayMatch}.
+     */
+    private final Map<URI, Set<String>> indexedMatches =
+        Collections.synchronizedMap(new HashMap<URI, Set<String>>());
+
+    MatchFilter(SearchScope scope, SearchPattern pattern, Set<String> supersededUnits) {
+      this.scope = scope;
+      this.pattern = pattern;
+      this.supersededUnits = supersededUnits;
+    }
+
+    @Override
+    public SearchMatch toMatch(Location location) {
+      if (!(location instanceof DartElementLocation)) {
+        return null;
+      }
+      DartElementLocation dartLocation = (DartElementLocation) location;
+      if (pattern instanceof NamePattern
+          && !mayMatch(dartLocation.getDartElement(), (NamePattern) pattern, indexedMatches)) {
+        return null;
+      }
+      DartElement element = DartIndexer.unpackElementOrNull(location);
+      if (element == null || !scope.encloses(element) || isSuperseded(element, supersededUnits)) {
+        return null;
+      }
+      MatchQuality quality = MatchQuality.EXACT;
+      if (pattern != null) {
+        quality = pattern.matches(element);
+      }
+      if (quality == null) {
+        return null;
+      }
+      return new SearchMatch(quality, map(dartLocation.getReferenceKind()), element,
+          dartLocation.getSourceRange());
+    }
+  }
+
+  /**
+   * The maximum number of threads used to unpack search results and to search working copies.
+   */
+  private static final int MAX_SEARCH_THREADS = 4;
+
+  /**
+   * The number of locations unpacked by a single task. Pages are small so that the first matches
+   * are reported quickly.
+   */
+  private static final int UNPACK_PAGE_SIZE = 64;
+
+  /**
+   * The maximum number of pages of locations being unpacked ahead of the page whose matches are
+   * being reported.
+   */
+  private static final int MAX_PAGES_IN_FLIGHT = 2 * MAX_SEARCH_THREADS;
+
+  /**
+   * The number of milliseconds to wait for a search task before checking whether the search has
+   * been canceled.
+   */
+  private static final long CANCEL_POLL_MILLIS = 50L;
+
+  /**
+   * The executor used to unpack search results and to search working copies concurrently, or
+   * <code>null</code> if it has not been created yet.
+   */
+  private static ExecutorService searchExecutor;
+
+  /**
+   * Return the executor used to unpack search results and to search working copies concurrently.
+   * 
+   * @return the executor used to perform the parts of searches that can run concurrently
+   */
+  private static synchronized ExecutorService getSearchExecutor() {
+    if (searchExecutor == null) {
+      int threadCount = Math.min(MAX_SEARCH_THREADS, Runtime.getRuntime().availableProcessors());
+      searchExecutor = Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "Dart search");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return searchExecutor;
+  }
+
+  /**
+   * Wait for the given task to complete, checking periodically whether the search has been
+   * canceled.
+   * 
+   * @param future the task being waited for
+   * @param progress the progress monitor used to check for cancellation
+   * @return the result of the task
+   * @throws ExecutionException if the task failed
+   * @throws OperationCanceledException if the search has been canceled
+   */
+  private static <T> T waitFor(Future<T> future, SubMonitor progress) throws ExecutionException {
+    try {
+      while (true) {
+        if (progress.isCanceled()) {
+          throw new OperationCanceledException();
+        }
+        try {
+          return future.get(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException exception) {
+          // Check for cancellation and keep waiting.
+        }
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new OperationCanceledException();
+    }
+  }
+
   /**
    * An array containing the working copies that take precedence over their original compilation
    * units.
@@ -388,33 +553,113 @@ public final class SearchEngineImpl implements SearchEngine {
       System.arraycopy(result, 0, trimmed, 0, index);
       return trimmed;
     }
-    return result;
+    return result == null ? new CompilationUnit[0] : result;
   };
 
   /**
    * Return <code>true</code> if the given element is contained in a compilation unit that is
-   * equivalent to one of the compilation units in the given array of working copies.
+   * superseded by one of the current working copies.
    * 
    * @param element the element being tested
-   * @param currentWorkingCopies the working copies being tested against
+   * @param supersededUnits the handle identifiers of the primary compilation units of the current
+   *          working copies
    * @return <code>true</code> if the given element is contained in a superseded compilation unit
    */
-  private boolean isSuperseded(DartElement element, CompilationUnit[] currentWorkingCopies) {
+  private boolean isSuperseded(DartElement element, Set<String> supersededUnits) {
     if (element instanceof CompilationUnitElement) {
       CompilationUnit unit = ((CompilationUnitElement) element).getCompilationUnit();
       if (unit.isWorkingCopy()) {
         return false;
       }
-      String unitHandle = unit.getHandleIdentifier();
-      for (CompilationUnit workingCopy : currentWorkingCopies) {
-        if (workingCopy.getPrimary().getHandleIdentifier().equals(unitHandle)) {
-          return true;
-        }
-      }
+      return supersededUnits.contains(unit.getHandleIdentifier());
     }
     return false;
   };
 
+  /**
+   * Return the references found in each of the given working copies by the contributor of the
+   * given helper, in the order of the working copies. The working copies that have changed since
+   * they were last searched are searched concurrently.
+   * 
+   * @param helper the helper providing the contributor used to find references
+   * @param currentWorkingCopies the working copies to be searched
+   * @param progress the progress monitor used to report progress and to check for cancellation
+   * @return the pairs of source and target locations of the references in each working copy
+   */
+  private List<List<Location[]>> findWorkingCopyReferences(final SearchHelper helper,
+      CompilationUnit[] currentWorkingCopies, SubMonitor progress) {
+    final WorkingCopyReferenceCache cache = WorkingCopyReferenceCache.getInstance();
+    Set<String> handles = new HashSet<String>();
+    for (CompilationUnit workingCopy : currentWorkingCopies) {
+      handles.add(workingCopy.getHandleIdentifier());
+    }
+    cache.retainAll(handles);
+    List<Future<List<Location[]>>> futures = new ArrayList<Future<List<Location[]>>>(
+        currentWorkingCopies.length);
+    ExecutorService executor = getSearchExecutor();
+    for (final CompilationUnit workingCopy : currentWorkingCopies) {
+      futures.add(executor.submit(new Callable<List<Location[]>>() {
+        @Override
+        public List<Location[]> call() throws DartModelException {
+          return cache.getReferences(workingCopy, helper.getContributor());
+        }
+      }));
+    }
+    List<List<Location[]>> references = new ArrayList<List<Location[]>>(futures.size());
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          references.add(waitFor(futures.get(i), progress));
+        } catch (ExecutionException exception) {
+          DartCore.logError("Could not search " + currentWorkingCopies[i].getPath(),
+              exception.getCause());
+        }
+        progress.worked(1);
+      }
+    } finally {
+      for (Future<List<Location[]>> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return references;
+  }
+
+  /**
+   * Return <code>false</code> if the given type cannot match the given pattern because the library
+   * declaring it has been indexed and does not declare a type with a matching name. This avoids
+   * opening the type, which is much more expensive than looking up its name.
+   * 
+   * @param type the type being tested
+   * @param pattern the pattern being matched
+   * @param indexedMatches a table mapping the URIs of the libraries that have already been looked
+   *          up to the names of their types that match the pattern, or <code>null</code> if they
+   *          have not been indexed
+   * @return <code>false</code> if the given type is known not to match the given pattern
+   */
+  private boolean mayMatch(DartElement type, NamePattern pattern,
+      Map<URI, Set<String>> indexedMatches) {
+    if (!(type instanceof CompilationUnitElement)
+        || ((CompilationUnitElement) type).getCompilationUnit().isWorkingCopy()) {
+      // Working copies can declare types that have not been compiled yet.
+      return true;
+    }
+    DartLibrary library = type.getAncestor(DartLibrary.class);
+    if (!(library instanceof DartLibraryImpl)) {
+      return true;
+    }
+    LibrarySource librarySource = ((DartLibraryImpl) library).getLibrarySourceFile();
+    if (librarySource == null) {
+      return true;
+    }
+    URI libraryUri = librarySource.getUri();
+    Set<String> names = indexedMatches.get(libraryUri);
+    if (names == null && !indexedMatches.containsKey(libraryUri)) {
+      names = LibraryNameIndex.getInstance().findTypeNames(libraryUri, pattern);
+      indexedMatches.put(libraryUri, names);
+    }
+    return names == null || names.contains(type.getElementName());
+  }
+
   /**
    * Map the given location reference kind into the corresponding match kind.
    * 
@@ -440,7 +685,8 @@ public final class SearchEngineImpl implements SearchEngine {
 
   /**
    * Use the given helper object to search for all of the results that are defined in the given
-   * scope, and match the given pattern.
+   * scope, and match the given pattern. Matches are reported to the listener as soon as they have
+   * been unpacked, first those found in the index and then those found in the working copies.
    * 
    * @param helper an object used to encode the information that is specific to each individual
    *          search operation
@@ -457,9 +703,11 @@ public final class SearchEngineImpl implements SearchEngine {
   private void performSearch(SearchHelper helper, SearchScope scope, SearchPattern pattern,
       SearchListener listener, IProgressMonitor monitor) throws SearchException {
     CompilationUnit[] currentWorkingCopies = getWorkingCopies();
-    // TODO(brianwilkerson) Figure out how best to report progress.
-    SubMonitor progress = SubMonitor.convert(monitor, "Searching...",
-        Math.max(100, (currentWorkingCopies.length + 1) * 2));
+    Set<String> supersededUnits = new HashSet<String>();
+    for (CompilationUnit workingCopy : currentWorkingCopies) {
+      supersededUnits.add(workingCopy.getPrimary().getHandleIdentifier());
+    }
+    SubMonitor progress = SubMonitor.convert(monitor, "Searching...", 100);
     //
     // Search the index for matches.
     //
@@ -474,69 +722,97 @@ public final class SearchEngineImpl implements SearchEngine {
       throw new SearchException(ex);
     }
 
-    List<Location> locations = toList(result.getResult());
-    progress.worked(1);
+    List<Location> indexLocations = Arrays.asList(result.getResult());
+    progress.setWorkRemaining(indexLocations.size() + currentWorkingCopies.length + 1);
+    MatchFilter filter = new MatchFilter(scope, pattern, supersededUnits);
+    reportMatches(indexLocations, filter, listener, progress);
     //
     // Then search the working copies for more possible matches.
     //
+    List<Location> workingCopyLocations = new ArrayList<Location>();
     try {
-      SearchLayerUpdater layerUpdater = new SearchLayerUpdater(locations, helper.getValidTargets());
-      DartContributor contributor = helper.getContributor();
-      for (CompilationUnit workingCopy : currentWorkingCopies) {
-        if (progress.isCanceled()) {
-          throw new OperationCanceledException();
-        }
-        contributor.initialize(workingCopy, layerUpdater);
-        try {
-          DartUnit ast = DartCompilerUtilities.parseUnit(workingCopy);
-          ast.accept(contributor);
-        } catch (DartModelException exception) {
-          DartCore.logError(
-              "Could not parse " + workingCopy.getResource().getLocation().toString(), exception);
+      SearchLayerUpdater layerUpdater = new SearchLayerUpdater(workingCopyLocations,
+          helper.getValidTargets());
+      for (List<Location[]> references : findWorkingCopyReferences(helper, currentWorkingCopies,
+          progress)) {
+        for (Location[] reference : references) {
+          layerUpdater.startLocation(reference[0]).hasReferenceTo(reference[1]);
         }
-        progress.worked(1);
       }
     } catch (DartModelException exception) {
       DartCore.logInformation("Could not search working copies for matches", exception);
+    } catch (IndexRequestFailed exception) {
+      DartCore.logInformation("Could not search working copies for matches", exception);
     }
-    //
-    // Filter the matches and report them to the listener.
-    //
-    progress.setWorkRemaining(locations.size());
-    for (Location location : locations) {
-      if (progress.isCanceled()) {
-        throw new OperationCanceledException();
-      }
-      if (location instanceof DartElementLocation) {
-        DartElementLocation dartLocation = (DartElementLocation) location;
-        DartElement element = DartIndexer.unpackElementOrNull(location);
-        if (element != null && scope.encloses(element)
-            && !isSuperseded(element, currentWorkingCopies)) {
-          MatchQuality quality = MatchQuality.EXACT;
-          if (pattern != null) {
-            quality = pattern.matches(element);
-          }
-          if (quality != null) {
-            listener.matchFound(new SearchMatch(quality, map(dartLocation.getReferenceKind()),
-                element, dartLocation.getSourceRange()));
-          }
-        }
-      }
-      progress.worked(1);
-    }
+    progress.setWorkRemaining(workingCopyLocations.size());
+    reportMatches(workingCopyLocations, filter, listener, progress);
   }
 
   /**
-   * Return a list containing all of the locations in the given array.
+   * Report to the given listener the matches represented by the given locations, in the order of
+   * the locations. Unless there are only a few of them, the locations are unpacked a page at a
+   * time by concurrent tasks, and the matches of each page are reported as soon as the page has
+   * been unpacked.
    * 
-   * @param locations the locations to be included in the list
-   * @return a list containing all of the locations in the given array
+   * @param locations the locations found by the search
+   * @param matcher the matcher used to turn locations into matches
+   * @param listener the listener that will be notified when matches are found
+   * @param progress the progress monitor used to report progress and to check for cancellation
+   * @throws OperationCanceledException if the search has been canceled
    */
-  private List<Location> toList(Location[] locations) {
-    List<Location> result = new ArrayList<Location>(locations.length + 20);
-    for (Location location : locations) {
-      result.add(location);
+  public static void reportMatches(final List<Location> locations, final LocationMatcher matcher,
+      SearchListener listener, SubMonitor progress) {
+    int locationCount = locations.size();
+    if (locationCount <= UNPACK_PAGE_SIZE) {
+      for (Location location : locations) {
+        if (progress.isCanceled()) {
+          throw new OperationCanceledException();
+        }
+        SearchMatch match = matcher.toMatch(location);
+        if (match != null) {
+          listener.matchFound(match);
+        }
+        progress.worked(1);
+      }
+      return;
+    }
+    ExecutorService executor = getSearchExecutor();
+    LinkedList<Future<List<SearchMatch>>> pages = new LinkedList<Future<List<SearchMatch>>>();
+    int nextPageStart = 0;
+    try {
+      while (nextPageStart < locationCount || !pages.isEmpty()) {
+        while (pages.size() < MAX_PAGES_IN_FLIGHT && nextPageStart < locationCount) {
+          final int start = nextPageStart;
+          final int end = Math.min(locationCount, start + UNPACK_PAGE_SIZE);
+          pages.add(executor.submit(new Callable<List<SearchMatch>>() {
+            @Override
+            public List<SearchMatch> call() {
+              List<SearchMatch> matches = new ArrayList<SearchMatch>();
+              for (int i = start; i < end && !Thread.currentThread().isInterrupted(); i++) {
+                SearchMatch match = matcher.toMatch(locations.get(i));
+                if (match != null) {
+                  matches.add(match);
+                }
+              }
+              return matches;
+            }
+          }));
+          nextPageStart = end;
+        }
+        try {
+          for (SearchMatch match : waitFor(pages.getFirst(), progress)) {
+            listener.matchFound(match);
+          }
+        } catch (ExecutionException exception) {
+          DartCore.logError("Could not unpack search results", exception.getCause());
+        }
+        pages.removeFirst();
+        progress.worked(UNPACK_PAGE_SIZE);
+      }
+    } finally {
+      for (Future<List<SearchMatch>> page : pages) {
+        page.cancel(true);
+      }
     }
-    return result;
   }
 }
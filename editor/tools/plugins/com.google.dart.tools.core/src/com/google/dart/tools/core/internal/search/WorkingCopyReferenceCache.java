@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.search;
+
+import com.google.dart.compiler.ast.DartUnit;
+import com.google.dart.indexer.index.updating.LayerUpdater;
+import com.google.dart.indexer.index.updating.LocationUpdater;
+import com.google.dart.indexer.locations.Location;
+import com.google.dart.tools.core.internal.indexer.contributor.DartContributor;
+import com.google.dart.tools.core.model.CompilationUnit;
+import com.google.dart.tools.core.model.DartModelException;
+import com.google.dart.tools.core.utilities.compiler.DartCompilerUtilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Instances of the class <code>WorkingCopyReferenceCache</code> cache the references found in
+ * working copies that have not yet been indexed, so that repeated searches do not parse and visit
+ * every dirty working copy again.
+ * <p>
+ * The references are recorded per working copy and per kind of contributor, independently of the
+ * targets being searched for. An entry remains valid as long as the contents of the working copy
+ * are unchanged, which is checked by comparing them with the contents from which the entry was
+ * computed, because the modification stamp of a working copy only changes when it is saved. The
+ * parsed AST of a working copy is cached as well, so that it is shared by the different kinds of
+ * contributors.
+ * <p>
+ * This class is thread-safe.
+ */
+final class WorkingCopyReferenceCache {
+  /**
+   * The references found in the contents of a working copy by one kind of contributor.
+   */
+  private static final class ReferenceEntry {
+    private final String contents;
+
+    /**
+     * The pairs of source and target locations of the references.
+     */
+    private final List<Location[]> references;
+
+    ReferenceEntry(String contents, List<Location[]> references) {
+      this.contents = contents;
+      this.references = references;
+    }
+  }
+
+  /**
+   * The AST parsed from the contents of a working copy.
+   */
+  private static final class UnitEntry {
+    private final String contents;
+
+    /**
+     * The parsed AST, or <code>null</code> if the contents could not be parsed.
+     */
+    private final DartUnit unit;
+
+    UnitEntry(String contents, DartUnit unit) {
+      this.contents = contents;
+      this.unit = unit;
+    }
+  }
+
+  /**
+   * The unique instance of this class.
+   */
+  private static final WorkingCopyReferenceCache UniqueInstance = new WorkingCopyReferenceCache();
+
+  /**
+   * Return the unique instance of this class.
+   * 
+   * @return the unique instance of this class
+   */
+  static WorkingCopyReferenceCache getInstance() {
+    return UniqueInstance;
+  }
+
+  /**
+   * A table mapping the handle identifiers of working copies to their parsed ASTs.
+   */
+  private final Map<String, UnitEntry> units = new HashMap<String, UnitEntry>();
+
+  /**
+   * A table mapping the handle identifiers of working copies to tables mapping the classes of
+   * contributors to the references they found.
+   */
+  private final Map<String, Map<Class<?>, ReferenceEntry>> references =
+      new HashMap<String, Map<Class<?>, ReferenceEntry>>();
+
+  private int hitCount;
+
+  private int missCount;
+
+  /**
+   * Return the pairs of source and target locations of the references found by the given
+   * contributor in the given working copy, visiting the working copy only if it changed since the
+   * last time a contributor of the same class visited it. Return an empty list if the working copy
+   * cannot be parsed.
+   * 
+   * @param workingCopy the working copy to be searched
+   * @param contributor the contributor used to find the references, which is only used if the
+   *          references are not cached
+   * @return the pairs of source and target locations of the references
+   * @throws DartModelException if the contents of the working copy cannot be accessed
+   */
+  List<Location[]> getReferences(CompilationUnit workingCopy, DartContributor contributor)
+      throws DartModelException {
+    String handle = workingCopy.getHandleIdentifier();
+    String contents = workingCopy.getSource();
+    synchronized (this) {
+      Map<Class<?>, ReferenceEntry> entries = references.get(handle);
+      if (entries != null) {
+        ReferenceEntry entry = entries.get(contributor.getClass());
+        if (entry != null && entry.contents.equals(contents)) {
+          hitCount++;
+          return entry.references;
+        }
+      }
+      missCount++;
+    }
+    DartUnit unit = getUnit(handle, workingCopy, contents);
+    final List<Location[]> result = new ArrayList<Location[]>();
+    if (unit != null) {
+      contributor.initialize(workingCopy, new LayerUpdater() {
+        @Override
+        public LocationUpdater startLocation(final Location sourceLocation) {
+          return new LocationUpdater() {
+            @Override
+            public Location getSourceLocation() {
+              return sourceLocation;
+            }
+
+            @Override
+            public void hasReferenceTo(Location location) {
+              result.add(new Location[] {sourceLocation, location});
+            }
+          };
+        }
+      });
+      unit.accept(contributor);
+    }
+    List<Location[]> unmodifiableResult = Collections.unmodifiableList(result);
+    synchronized (this) {
+      Map<Class<?>, ReferenceEntry> entries = references.get(handle);
+      if (entries == null) {
+        entries = new HashMap<Class<?>, ReferenceEntry>();
+        references.put(handle, entries);
+      }
+      entries.put(contributor.getClass(), new ReferenceEntry(contents, unmodifiableResult));
+    }
+    return unmodifiableResult;
+  }
+
+  /**
+   * Discard the entries of all of the working copies whose handle identifiers are not in the given
+   * set, so that the cache never retains more than the working copies that are currently dirty.
+   * 
+   * @param handles the handle identifiers of the working copies whose entries are to be kept
+   */
+  synchronized void retainAll(Set<String> handles) {
+    units.keySet().retainAll(handles);
+    Iterator<String> iterator = references.keySet().iterator();
+    while (iterator.hasNext()) {
+      if (!handles.contains(iterator.next())) {
+        iterator.remove();
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Working copy references: " + references.size() + " working copies, " + hitCount
+        + " hits, " + missCount + " misses";
+  }
+
+  /**
+   * Return the AST parsed from the given contents of the given working copy, or <code>null</code>
+   * if the contents cannot be parsed.
+   */
+  private DartUnit getUnit(String handle, CompilationUnit workingCopy, String contents)
+      throws DartModelException {
+    synchronized (this) {
+      UnitEntry entry = units.get(handle);
+      if (entry != null && entry.contents.equals(contents)) {
+        return entry.unit;
+      }
+    }
+    DartUnit unit = DartCompilerUtilities.parseSource(workingCopy.getElementName(), contents);
+    synchronized (this) {
+      units.put(handle, new UnitEntry(contents, unit));
+    }
+    return unit;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.search.names;
+
+import com.google.dart.compiler.ast.DartClass;
+import com.google.dart.compiler.ast.DartExpression;
+import com.google.dart.compiler.ast.DartFunctionTypeAlias;
+import com.google.dart.compiler.ast.DartIdentifier;
+import com.google.dart.compiler.ast.DartNode;
+import com.google.dart.compiler.ast.DartUnit;
+import com.google.dart.compiler.ast.LibraryUnit;
+import com.google.dart.tools.core.internal.search.pattern.NamePattern;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The unique instance of the class <code>LibraryNameIndex</code> maintains, for every library that
+ * has been compiled, a table of the names of the types it declares.
+ * <p>
+ * The table of a library is replaced every time the library is compiled, see
+ * {@link #indexLibrary(LibraryUnit)}, and removed when the library is removed. Libraries that have
+ * not been compiled since the workbench was started are not in the index, so clients must be
+ * prepared for a library to be missing.
+ */
+public final class LibraryNameIndex {
+  /**
+   * The unique instance of this class.
+   */
+  private static final LibraryNameIndex UniqueInstance = new LibraryNameIndex();
+
+  /**
+   * Return the unique instance of this class.
+   * 
+   * @return the unique instance of this class
+   */
+  public static LibraryNameIndex getInstance() {
+    return UniqueInstance;
+  }
+
+  /**
+   * Add the name of the given declaration to the given list if it is a simple identifier.
+   */
+  private static void addName(DartExpression name, List<String> names) {
+    if (name instanceof DartIdentifier) {
+      names.add(((DartIdentifier) name).getTargetName());
+    }
+  }
+
+  /**
+   * A table mapping the URIs of the libraries that have been indexed to the names of the types they
+   * declare.
+   */
+  private final Map<URI, NameTable> libraries = new HashMap<URI, NameTable>();
+
+  /**
+   * Prevent the creation of instances of this class other than the unique instance.
+   */
+  private LibraryNameIndex() {
+  }
+
+  /**
+   * Return the names of the types declared in the library with the given URI that match the given
+   * pattern, or <code>null</code> if the library has not been indexed.
+   * 
+   * @param libraryUri the URI of the library
+   * @param pattern the pattern the names must match
+   * @return the names of the matching types
+   */
+  public Set<String> findTypeNames(URI libraryUri, NamePattern pattern) {
+    NameTable table = getTypeNames(libraryUri);
+    if (table == null) {
+      return null;
+    }
+    Set<String> result = new HashSet<String>();
+    pattern.findMatches(table, result);
+    return result;
+  }
+
+  /**
+   * Return the names of the types declared in the library with the given URI, or
+   * <code>null</code> if the library has not been indexed.
+   * 
+   * @param libraryUri the URI of the library
+   * @return the names of the types declared in the library
+   */
+  public synchronized NameTable getTypeNames(URI libraryUri) {
+    return libraries.get(libraryUri);
+  }
+
+  /**
+   * Replace the names recorded for the given library by the names declared in its compilation
+   * units. The units only need to have been parsed, and may have been parsed without the bodies of
+   * their functions.
+   * 
+   * @param library the library whose names are to be recorded
+   */
+  public void indexLibrary(LibraryUnit library) {
+    if (library.getSource() == null) {
+      return;
+    }
+    List<String> typeNames = new ArrayList<String>();
+    for (DartUnit unit : library.getUnits()) {
+      for (DartNode node : unit.getTopLevelNodes()) {
+        if (node instanceof DartClass) {
+          typeNames.add(((DartClass) node).getClassName());
+        } else if (node instanceof DartFunctionTypeAlias) {
+          addName(((DartFunctionTypeAlias) node).getName(), typeNames);
+        }
+      }
+    }
+    NameTable names = NameTable.create(typeNames);
+    synchronized (this) {
+      libraries.put(library.getSource().getUri(), names);
+    }
+  }
+
+  /**
+   * Forget the names recorded for the library with the given URI.
+   * 
+   * @param libraryUri the URI of the library
+   */
+  public synchronized void removeLibrary(URI libraryUri) {
+    libraries.remove(libraryUri);
+  }
+}
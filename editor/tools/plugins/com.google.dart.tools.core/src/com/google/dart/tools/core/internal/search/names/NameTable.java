@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.search.names;
+
+import com.google.dart.tools.core.internal.util.CharOperation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Instances of the class <code>NameTable</code> represent an immutable set of names that can be
+ * searched by prefix or by camel-case pattern without looking at every name.
+ * <p>
+ * The names are kept in a sorted array, so that the names starting with a given prefix form a
+ * contiguous range that can be found by binary search. A second array holds the positions of the
+ * names sorted ignoring case, for case-insensitive queries. The humps of every name (its uppercase
+ * characters) are computed up front, so that most of the names that share the first character of a
+ * camel-case pattern can be rejected without running the full camel-case match.
+ */
+public final class NameTable {
+  /**
+   * A table containing no names.
+   */
+  public static final NameTable EMPTY = new NameTable(new String[0]);
+
+  /**
+   * Return a table containing the given names.
+   * 
+   * @param names the names to be included in the table, which may contain duplicates
+   * @return a table containing the given names
+   */
+  public static NameTable create(Collection<String> names) {
+    if (names.isEmpty()) {
+      return EMPTY;
+    }
+    return new NameTable(new TreeSet<String>(names).toArray(new String[0]));
+  }
+
+  /**
+   * Return the given name with every character converted to lower case the same way as
+   * {@link CharOperation#prefixEquals(char[], char[], boolean)} does.
+   */
+  private static String toLowerCase(String name) {
+    char[] result = name.toCharArray();
+    for (int i = 0; i < result.length; i++) {
+      result[i] = Character.toLowerCase(result[i]);
+    }
+    return new String(result);
+  }
+
+  /**
+   * The names in the table, sorted and without duplicates.
+   */
+  private final String[] names;
+
+  /**
+   * The names in the table converted to lower case, in the same order as {@link #names}.
+   */
+  private final String[] lowerCaseNames;
+
+  /**
+   * The indices into {@link #names} sorted by the lower case form of the names.
+   */
+  private final int[] lowerCaseOrder;
+
+  /**
+   * The uppercase characters of every name, in the same order as {@link #names}.
+   */
+  private final String[] humps;
+
+  private NameTable(String[] sortedNames) {
+    names = sortedNames;
+    int count = names.length;
+    lowerCaseNames = new String[count];
+    humps = new String[count];
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      String name = names[i];
+      lowerCaseNames[i] = toLowerCase(name);
+      StringBuilder builder = new StringBuilder();
+      for (int j = 0; j < name.length(); j++) {
+        char c = name.charAt(j);
+        if (Character.isUpperCase(c)) {
+          builder.append(c);
+        }
+      }
+      humps[i] = builder.toString();
+      order[i] = Integer.valueOf(i);
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer first, Integer second) {
+        return lowerCaseNames[first.intValue()].compareTo(lowerCaseNames[second.intValue()]);
+      }
+    });
+    lowerCaseOrder = new int[count];
+    for (int i = 0; i < count; i++) {
+      lowerCaseOrder[i] = order[i].intValue();
+    }
+  }
+
+  /**
+   * Return <code>true</code> if the table contains the given name.
+   * 
+   * @param name the name being looked for
+   * @return <code>true</code> if the table contains the given name
+   */
+  public boolean contains(String name) {
+    return Arrays.binarySearch(names, name) >= 0;
+  }
+
+  /**
+   * Add to the given collection the names in the table that match the given camel-case pattern, as
+   * defined by {@link CharOperation#camelCaseMatch(char[], char[], boolean)}.
+   * 
+   * @param pattern the camel-case pattern the names must match
+   * @param samePartCount <code>true</code> if the names must have exactly as many parts as the
+   *          pattern
+   * @param result the collection to which the matching names are added
+   */
+  public void findCamelCase(String pattern, boolean samePartCount, Collection<String> result) {
+    if (pattern.length() == 0) {
+      // An empty pattern only matches an empty name.
+      return;
+    }
+    char[] patternChars = pattern.toCharArray();
+    StringBuilder patternHumps = new StringBuilder();
+    for (char c : patternChars) {
+      if (Character.isUpperCase(c)) {
+        patternHumps.append(c);
+      }
+    }
+    // Camel-case matching is case sensitive, so every name that matches has the same first
+    // character as the pattern, and the humps of the pattern appear in the same order among the
+    // humps of the name.
+    String firstCharacter = pattern.substring(0, 1);
+    int end = upperBound(names, firstCharacter);
+    for (int i = lowerBound(names, firstCharacter); i < end; i++) {
+      if (isSubsequence(patternHumps, humps[i])
+          && CharOperation.camelCaseMatch(patternChars, names[i].toCharArray(), samePartCount)) {
+        result.add(names[i]);
+      }
+    }
+  }
+
+  /**
+   * Add to the given collection the names in the table that are equal to the given name.
+   * 
+   * @param name the name being looked for
+   * @param caseSensitive <code>true</code> if the case of the names must match
+   * @param result the collection to which the matching names are added
+   */
+  public void findExact(String name, boolean caseSensitive, Collection<String> result) {
+    if (caseSensitive) {
+      if (contains(name)) {
+        result.add(name);
+      }
+      return;
+    }
+    String lowerCaseName = toLowerCase(name);
+    for (int i = lowerBound(lowerCaseName); i < lowerCaseOrder.length; i++) {
+      int index = lowerCaseOrder[i];
+      if (!lowerCaseNames[index].equals(lowerCaseName)) {
+        break;
+      }
+      result.add(names[index]);
+    }
+  }
+
+  /**
+   * Add to the given collection the names in the table that start with the given prefix.
+   * 
+   * @param prefix the prefix the names must start with
+   * @param caseSensitive <code>true</code> if the case of the prefix must match
+   * @param result the collection to which the matching names are added
+   */
+  public void findPrefix(String prefix, boolean caseSensitive, Collection<String> result) {
+    if (caseSensitive) {
+      int end = upperBound(names, prefix);
+      for (int i = lowerBound(names, prefix); i < end; i++) {
+        result.add(names[i]);
+      }
+      return;
+    }
+    String lowerCasePrefix = toLowerCase(prefix);
+    for (int i = lowerBound(lowerCasePrefix); i < lowerCaseOrder.length; i++) {
+      int index = lowerCaseOrder[i];
+      if (!lowerCaseNames[index].startsWith(lowerCasePrefix)) {
+        break;
+      }
+      result.add(names[index]);
+    }
+  }
+
+  /**
+   * Return the names in the table, in sorted order.
+   * 
+   * @return the names in the table
+   */
+  public String[] getNames() {
+    return names.clone();
+  }
+
+  /**
+   * Return the number of names in the table.
+   * 
+   * @return the number of names in the table
+   */
+  public int size() {
+    return names.length;
+  }
+
+  private boolean isSubsequence(CharSequence pattern, String text) {
+    int position = 0;
+    for (int i = 0; i < pattern.length(); i++) {
+      position = text.indexOf(pattern.charAt(i), position) + 1;
+      if (position == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the index of the first name in the given sorted array that is not less than the given
+   * prefix.
+   */
+  private int lowerBound(String[] sortedNames, String prefix) {
+    int index = Arrays.binarySearch(sortedNames, prefix);
+    return index < 0 ? -(index + 1) : index;
+  }
+
+  /**
+   * Return the position in {@link #lowerCaseOrder} of the first name whose lower case form is not
+   * less than the given lower case prefix.
+   */
+  private int lowerBound(String lowerCasePrefix) {
+    int low = 0;
+    int high = lowerCaseOrder.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (lowerCaseNames[lowerCaseOrder[middle]].compareTo(lowerCasePrefix) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Return the index of the first name in the given sorted array that is greater than every name
+   * starting with the given prefix.
+   */
+  private int upperBound(String[] sortedNames, String prefix) {
+    int low = lowerBound(sortedNames, prefix);
+    int high = sortedNames.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sortedNames[middle].startsWith(prefix)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
@@ -13,17 +13,19 @@
  */
 package com.google.dart.tools.core.internal.search.pattern;
 
+import com.google.dart.tools.core.internal.search.names.NameTable;
 import com.google.dart.tools.core.internal.util.CharOperation;
 import com.google.dart.tools.core.model.DartElement;
 import com.google.dart.tools.core.search.MatchQuality;
-import com.google.dart.tools.core.search.SearchPattern;
+
+import java.util.Collection;
 
 /**
  * Instances of the class <code>CamelCaseSearchPattern</code> implement a search pattern that
  * matches elements whose name matches a partial identifier where camel case conventions are used to
  * perform what is essentially multiple prefix matches.
  */
-public class CamelCaseSearchPattern implements SearchPattern {
+public class CamelCaseSearchPattern implements NamePattern {
   /**
    * The pattern that matching elements must match.
    */
@@ -48,6 +50,11 @@ public class CamelCaseSearchPattern implements SearchPattern {
     this.samePartCount = samePartCount;
   }
 
+  @Override
+  public void findMatches(NameTable table, Collection<String> result) {
+    table.findCamelCase(new String(pattern), samePartCount, result);
+  }
+
   @Override
   public MatchQuality matches(DartElement element) {
     String name = element.getElementName();
@@ -13,16 +13,18 @@
  */
 package com.google.dart.tools.core.internal.search.pattern;
 
+import com.google.dart.tools.core.internal.search.names.NameTable;
 import com.google.dart.tools.core.internal.util.CharOperation;
 import com.google.dart.tools.core.model.DartElement;
 import com.google.dart.tools.core.search.MatchQuality;
-import com.google.dart.tools.core.search.SearchPattern;
+
+import java.util.Collection;
 
 /**
  * Instances of the class <code>ExactSearchPattern</code> implement a search pattern that matches
  * elements whose name matches a specified identifier exactly.
  */
-public class ExactSearchPattern implements SearchPattern {
+public class ExactSearchPattern implements NamePattern {
   /**
    * The identifier that matching elements must be equal to.
    */
@@ -45,6 +47,11 @@ public class ExactSearchPattern implements SearchPattern {
     this.caseSensitive = caseSensitive;
   }
 
+  @Override
+  public void findMatches(NameTable table, Collection<String> result) {
+    table.findExact(new String(identifier), caseSensitive, result);
+  }
+
   @Override
   public MatchQuality matches(DartElement element) {
     String name = element.getElementName();
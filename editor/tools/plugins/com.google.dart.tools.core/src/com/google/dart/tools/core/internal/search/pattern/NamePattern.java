@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.search.pattern;
+
+import com.google.dart.tools.core.internal.search.names.NameTable;
+import com.google.dart.tools.core.search.SearchPattern;
+
+import java.util.Collection;
+
+/**
+ * The interface <code>NamePattern</code> defines the behavior of search patterns that only depend
+ * on the name of an element, and that can therefore be matched against a {@link NameTable} without
+ * looking at the elements themselves.
+ */
+public interface NamePattern extends SearchPattern {
+  /**
+   * Add to the given collection the names in the given table that match this pattern.
+   * 
+   * @param table the table containing the names to be matched
+   * @param result the collection to which the matching names are added
+   */
+  public void findMatches(NameTable table, Collection<String> result);
+}
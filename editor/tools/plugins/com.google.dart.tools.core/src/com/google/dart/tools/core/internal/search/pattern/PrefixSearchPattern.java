@@ -13,16 +13,18 @@
  */
 package com.google.dart.tools.core.internal.search.pattern;
 
+import com.google.dart.tools.core.internal.search.names.NameTable;
 import com.google.dart.tools.core.internal.util.CharOperation;
 import com.google.dart.tools.core.model.DartElement;
 import com.google.dart.tools.core.search.MatchQuality;
-import com.google.dart.tools.core.search.SearchPattern;
+
+import java.util.Collection;
 
 /**
  * Instances of the class <code>PrefixSearchPattern</code> implement a search pattern that matches
  * elements whose name has a given prefix.
  */
-public class PrefixSearchPattern implements SearchPattern {
+public class PrefixSearchPattern implements NamePattern {
   /**
    * The prefix that matching elements must start with.
    */
@@ -45,6 +47,11 @@ public class PrefixSearchPattern implements SearchPattern {
     this.caseSensitive = caseSensitive;
   }
 
+  @Override
+  public void findMatches(NameTable table, Collection<String> result) {
+    table.findPrefix(new String(prefix), caseSensitive, result);
+  }
+
   @Override
   public MatchQuality matches(DartElement element) {
     String name = element.getElementName();
@@ -27,7 +27,8 @@ import java.util.HashMap;
 
 /**
  * Instances of the class <code>ASTCache</code> maintain a cache of AST structures associated with
- * compilation units.
+ * compilation units. A cache can be shared by several threads: a library is resolved by only one of
+ * them at a time, and the others wait for and reuse its AST structures.
  */
 public class ASTCache {
   /**
@@ -64,6 +65,12 @@ public class ASTCache {
    */
   private HashMap<CompilationUnit, CacheEntry> entryMap = new HashMap<CompilationUnit, CacheEntry>();
 
+  /**
+   * A table mapping libraries to the objects used to prevent more than one thread from resolving
+   * the same library at once.
+   */
+  private HashMap<DartLibraryImpl, Object> libraryLocks = new HashMap<DartLibraryImpl, Object>();
+
   /**
    * The number of milliseconds that have been spent parsing source code since the last time that
    * the time was requested.
@@ -74,7 +81,10 @@ public class ASTCache {
    * Flush the contents of the cache.
    */
   public void flush() {
-    entryMap.clear();
+    synchronized (entryMap) {
+      entryMap.clear();
+      libraryLocks.clear();
+    }
   }
 
   /**
@@ -83,7 +93,7 @@ public class ASTCache {
    * 
    * @return the number of milliseconds that have been spent parsing source code
    */
-  public long getAndResetTimeSpentParsing() {
+  public synchronized long getAndResetTimeSpentParsing() {
     long result = timeSpentParsing;
     timeSpentParsing = 0;
     return result;
@@ -97,15 +107,31 @@ public class ASTCache {
    */
   public DartUnit getAST(CompilationUnit compilationUnit) {
     CacheEntry entry = getOrCreateCacheEntry(compilationUnit);
+    DartLibraryImpl library = (DartLibraryImpl) compilationUnit.getLibrary();
+    synchronized (library == null ? entry : getLibraryLock(library)) {
+      return getAST(compilationUnit, library, entry);
+    }
+  }
+
+  private synchronized void addTimeSpentParsing(long time) {
+    timeSpentParsing += time;
+  }
+
+  /**
+   * Return the AST structure corresponding to the contents of the given compilation unit, resolving
+   * the library containing it if necessary. The caller must hold the lock for the library, or for
+   * the entry if the compilation unit is not in a library.
+   */
+  private DartUnit getAST(CompilationUnit compilationUnit, DartLibraryImpl library,
+      CacheEntry entry) {
     if (entry.isStale(compilationUnit)) {
       entry.ast = null;
-      DartLibraryImpl library = (DartLibraryImpl) compilationUnit.getLibrary();
       if (library == null) {
         try {
           long startParsing = System.currentTimeMillis();
           entry.ast = DartCompilerUtilities.resolveUnit(compilationUnit);
           long endParsing = System.currentTimeMillis();
-          timeSpentParsing += (endParsing - startParsing);
+          addTimeSpentParsing(endParsing - startParsing);
         } catch (DartModelException exception) {
           DartCore.logError("Could not parse compilation unit " + compilationUnit.getElementName(),
               exception);
@@ -115,7 +141,7 @@ public class ASTCache {
           long startParsing = System.currentTimeMillis();
           LibraryUnit libraryUnit = DartCompilerUtilities.resolveLibrary(library, true, null);
           long endParsing = System.currentTimeMillis();
-          timeSpentParsing += (endParsing - startParsing);
+          addTimeSpentParsing(endParsing - startParsing);
           if (libraryUnit != null) {
             for (CompilationUnit unitInLibrary : library.getCompilationUnits()) {
               IResource resource = unitInLibrary.getResource();
@@ -142,6 +168,23 @@ public class ASTCache {
     return entry.ast;
   }
 
+  /**
+   * Return the object to lock while resolving the given library.
+   * 
+   * @param library the library about to be resolved
+   * @return the object to lock while resolving the library
+   */
+  private Object getLibraryLock(DartLibraryImpl library) {
+    synchronized (entryMap) {
+      Object lock = libraryLocks.get(library);
+      if (lock == null) {
+        lock = new Object();
+        libraryLocks.put(library, lock);
+      }
+      return lock;
+    }
+  }
+
   /**
    * Return the cache entry associated with the given compilation unit.
    * 
@@ -149,12 +192,14 @@ public class ASTCache {
    * @return the cache entry associated with the given compilation unit
    */
   private CacheEntry getOrCreateCacheEntry(CompilationUnit compilationUnit) {
-    CacheEntry entry = entryMap.get(compilationUnit);
-    if (entry == null) {
-      entry = new CacheEntry();
-      entry.modificationStamp = compilationUnit.getModificationStamp();
-      entryMap.put(compilationUnit, entry);
+    synchronized (entryMap) {
+      CacheEntry entry = entryMap.get(compilationUnit);
+      if (entry == null) {
+        entry = new CacheEntry();
+        entry.modificationStamp = compilationUnit.getModificationStamp();
+        entryMap.put(compilationUnit, entry);
+      }
+      return entry;
     }
-    return entry;
   }
 }
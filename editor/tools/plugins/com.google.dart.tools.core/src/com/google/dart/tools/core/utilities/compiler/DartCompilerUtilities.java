@@ -27,6 +27,7 @@ import com.google.dart.compiler.SourceDelta;
 import com.google.dart.compiler.SystemLibraryManager;
 import com.google.dart.compiler.ast.DartNode;
 import com.google.dart.compiler.ast.DartUnit;
+import com.google.dart.compiler.ast.LibraryNode;
 import com.google.dart.compiler.ast.LibraryUnit;
 import com.google.dart.compiler.parser.CommentPreservingParser;
 import com.google.dart.compiler.parser.DartParser;
@@ -35,11 +36,11 @@ import com.google.dart.compiler.util.DartSourceString;
 import com.google.dart.tools.core.DartCore;
 import com.google.dart.tools.core.internal.builder.LocalArtifactProvider;
 import com.google.dart.tools.core.internal.builder.RootArtifactProvider;
-import com.google.dart.tools.core.internal.cache.LRUCache;
 import com.google.dart.tools.core.internal.model.CompilationUnitImpl;
 import com.google.dart.tools.core.internal.model.DartLibraryImpl;
 import com.google.dart.tools.core.internal.model.ExternalCompilationUnitImpl;
 import com.google.dart.tools.core.internal.model.SystemLibraryManagerProvider;
+import com.google.dart.tools.core.internal.search.names.LibraryNameIndex;
 import com.google.dart.tools.core.model.CompilationUnit;
 import com.google.dart.tools.core.model.DartModelException;
 import com.google.dart.tools.core.utilities.net.URIUtilities;
@@ -204,7 +205,12 @@ public class DartCompilerUtilities {
     @Override
     public void run() throws Exception {
       final SystemLibraryManager libraryManager = SystemLibraryManagerProvider.getSystemLibraryManager();
-      LibraryElement enclosingLibrary = cachedLibraries.get(librarySource.wrappedSource).getElement();
+      LibraryUnit enclosingLibraryUnit = cachedLibraries.get(librarySource.wrappedSource);
+      if (enclosingLibraryUnit == null) {
+        throw new IllegalStateException("Library is no longer cached: "
+            + librarySource.wrappedSource.getName());
+      }
+      LibraryElement enclosingLibrary = enclosingLibraryUnit.getElement();
 
       // Try to find the core library in the enclosing set of libraries, otherwise the typeAnalyzer
       // will be void of core types.
@@ -436,6 +442,10 @@ public class DartCompilerUtilities {
         }
       };
       libraryResult = secureAnalyzeLibrary(librarySource, parsedUnits, config, provider, this);
+      if (libraryResult != null) {
+        cachedLibraries.libraryResolved(libraryResult);
+        LibraryNameIndex.getInstance().indexLibrary(libraryResult);
+      }
       if (libraryResult != null && unitUri != null) {
         for (DartUnit unit : libraryResult.getUnits()) {
           DartSource source = unit.getSource();
@@ -451,12 +461,12 @@ public class DartCompilerUtilities {
   }
 
   /**
-   * Synchronize against this field when calling the compiler and passing an artifact provider
+   * The locks to be held when calling the compiler and passing an artifact provider, which keep
+   * the artifacts of a library from being checked or written by more than one thread at a time.
    */
-  private static final Object compilerLock = new Object();
+  private static final LibraryLocks libraryLocks = new LibraryLocks();
 
-  private static LRUCache<LibrarySource, LibraryUnit> cachedLibraries = new LRUCache<LibrarySource, LibraryUnit>(
-      10);
+  private static final ResolvedLibraryCache cachedLibraries = new ResolvedLibraryCache();
 
   public static DartNode analyzeDelta(LibrarySource library, String sourceString,
       DartUnit suppliedUnit, DartNode completionNode, int completionLocation,
@@ -465,11 +475,8 @@ public class DartCompilerUtilities {
       Collection<DartUnit> parsedUnits = new ArrayList<DartUnit>();
       parsedUnits.add(suppliedUnit);
       LibraryUnit resolvedLib = resolveLibrary(library, parsedUnits, parseErrors);
-      synchronized (cachedLibraries) {
-        LibraryUnit newLib = cachedLibraries.get(library);
-        if (newLib == null) {
-          cachedLibraries.put(library, resolvedLib);
-        }
+      if (resolvedLib != null) {
+        cachedLibraries.put(library, resolvedLib);
       }
       return completionNode;
     }
@@ -487,6 +494,27 @@ public class DartCompilerUtilities {
     return runnable.analyzedNode;
   }
 
+  /**
+   * Return the locks held while libraries are analyzed or compiled, which record how long callers
+   * waited for them.
+   * 
+   * @return the locks held while libraries are analyzed or compiled
+   */
+  public static LibraryLocks getLibraryLocks() {
+    return libraryLocks;
+  }
+
+  /**
+   * Return the cache of resolved libraries used by
+   * {@link #analyzeDelta(LibrarySource, String, DartUnit, DartNode, int, Collection)}, which
+   * records how often libraries were found in it.
+   * 
+   * @return the cache of resolved libraries
+   */
+  public static ResolvedLibraryCache getResolvedLibraryCache() {
+    return cachedLibraries;
+  }
+
   /**
    * Parse the specified source. Any exceptions thrown by the {@link DartParser} will be logged and
    * a {@link DartModelException} thrown.
@@ -607,12 +635,11 @@ public class DartCompilerUtilities {
   }
 
   /**
-   * Remove the given LibraryUnit from the cache of previously-analyzed libraries.
+   * Remove the given LibraryUnit from the cache of previously-analyzed libraries. The libraries
+   * that import it are discarded once it is resolved again with a different API.
    */
   public static void removeCachedLibrary(LibrarySource library) {
-    synchronized (cachedLibraries) {
-      cachedLibraries.removeKey(library);
-    }
+    cachedLibraries.remove(library);
   }
 
   /**
@@ -764,28 +791,83 @@ public class DartCompilerUtilities {
   }
 
   /**
-   * A synchronized call to
+   * A call to
    * {@link DartCompiler#analyzeLibrary(LibrarySource, Map, CompilerConfiguration, DartArtifactProvider, DartCompilerListener)}
+   * holding the locks of the library and of the libraries it imports, so that only calls whose
+   * import closures do not overlap run concurrently.
    */
   public static LibraryUnit secureAnalyzeLibrary(LibrarySource librarySource,
       Map<URI, DartUnit> parsedUnits, final CompilerConfiguration config,
       DartArtifactProvider provider, DartCompilerListener listener) throws IOException {
-    synchronized (compilerLock) {
-      // Any calls to compiler involving artifact provider must be synchronized
+    Collection<LibrarySource> libraries = getImportClosure(librarySource);
+    libraryLocks.lock(libraries);
+    try {
       return DartCompiler.analyzeLibrary(librarySource, parsedUnits, config, provider, listener);
+    } finally {
+      libraryLocks.unlock(libraries);
     }
   }
 
   /**
-   * A synchronized call to
+   * A call to
    * {@link DartCompiler#compileLib(LibrarySource, CompilerConfiguration, DartArtifactProvider, DartCompilerListener)}
+   * holding the locks of the library and of the libraries it imports, so that only calls whose
+   * import closures do not overlap run concurrently.
    */
   public static void secureCompileLib(LibrarySource libSource, CompilerConfiguration config,
       DartArtifactProvider provider, DartCompilerListener listener) throws IOException {
-    synchronized (compilerLock) {
-      // Any calls to compiler involving artifact provider must be synchronized
+    Collection<LibrarySource> libraries = getImportClosure(libSource);
+    libraryLocks.lock(libraries);
+    try {
       DartCompiler.compileLib(libSource, config, provider, listener);
+    } finally {
+      libraryLocks.unlock(libraries);
+    }
+  }
+
+  /**
+   * Return the given library and the libraries it imports directly or indirectly, which are the
+   * libraries whose artifacts the compiler may check or write when passed the given library. Only
+   * the directives of each library are parsed. System libraries are not included, and libraries
+   * that cannot be read are left for the compiler to report.
+   */
+  private static Collection<LibrarySource> getImportClosure(LibrarySource library) {
+    DartCompilerListener listener = new DartCompilerListener() {
+      @Override
+      public void onError(DartCompilationError event) {
+      }
+
+      @Override
+      public void unitCompiled(DartUnit unit) {
+      }
+    };
+    Map<URI, LibrarySource> closure = new HashMap<URI, LibrarySource>();
+    ArrayList<LibrarySource> pending = new ArrayList<LibrarySource>();
+    closure.put(library.getUri(), library);
+    pending.add(library);
+    while (!pending.isEmpty()) {
+      LibrarySource source = pending.remove(pending.size() - 1);
+      try {
+        LibraryUnit unit = DartParser.getSourceParser(source, listener).preProcessLibraryDirectives(
+            source);
+        for (LibraryNode node : unit.getImportPaths()) {
+          String spec = node.getText();
+          if (SystemLibraryManager.isDartSpec(spec)) {
+            continue;
+          }
+          LibrarySource importedLibrary = source.getImportFor(spec);
+          if (importedLibrary != null && !closure.containsKey(importedLibrary.getUri())) {
+            closure.put(importedLibrary.getUri(), importedLibrary);
+            pending.add(importedLibrary);
+          }
+        }
+      } catch (IOException exception) {
+        // The compiler reports the library as missing.
+      } catch (IllegalArgumentException exception) {
+        // The compiler reports the import as invalid.
+      }
     }
+    return closure.values();
   }
 
   private static Map<URI, DartUnit> createMap(Collection<DartUnit> suppliedUnits) {
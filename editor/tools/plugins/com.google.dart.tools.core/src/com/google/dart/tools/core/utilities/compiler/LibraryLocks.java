@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.utilities.compiler;
+
+import com.google.dart.compiler.LibrarySource;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Instances of the class <code>LibraryLocks</code> serialize calls to the compiler that involve the
+ * same library, while letting calls for different libraries run concurrently. Libraries are mapped
+ * onto a fixed number of locks by the hash of their name, so two libraries can occasionally share
+ * a lock. A caller locking several libraries acquires their locks in a fixed order, so that two
+ * callers whose libraries overlap cannot deadlock.
+ * <p>
+ * The locks also record how often callers had to wait for them and for how long.
+ */
+public final class LibraryLocks {
+  /**
+   * The number of locks onto which libraries are mapped, which must be a power of two.
+   */
+  private static final int STRIPE_COUNT = 32;
+
+  private final ReentrantLock[] stripes = new ReentrantLock[STRIPE_COUNT];
+
+  private final AtomicLong acquisitionCount = new AtomicLong();
+
+  private final AtomicLong contendedCount = new AtomicLong();
+
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  /**
+   * Initialize a newly created set of library locks, none of which is held.
+   */
+  public LibraryLocks() {
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Return the number of times a lock was acquired.
+   */
+  public long getAcquisitionCount() {
+    return acquisitionCount.get();
+  }
+
+  /**
+   * Return the number of times a caller had to wait because the lock was held by another thread.
+   */
+  public long getContendedCount() {
+    return contendedCount.get();
+  }
+
+  /**
+   * Return the longest time, in milliseconds, that a caller waited for a lock.
+   */
+  public long getMaxWaitMillis() {
+    return maxWaitNanos.get() / 1000000L;
+  }
+
+  /**
+   * Return the total time, in milliseconds, that callers waited for locks.
+   */
+  public long getTotalWaitMillis() {
+    return totalWaitNanos.get() / 1000000L;
+  }
+
+  @Override
+  public String toString() {
+    return "Library locks: " + getAcquisitionCount() + " acquired, " + getContendedCount()
+        + " contended, " + getTotalWaitMillis() + " ms waited in total, " + getMaxWaitMillis()
+        + " ms at most";
+  }
+
+  /**
+   * Acquire the locks of all of the given libraries, waiting until they are available.
+   * 
+   * @param libraries the libraries whose artifacts are about to be checked or written by the
+   *          compiler (not <code>null</code>)
+   */
+  public void lock(Collection<LibrarySource> libraries) {
+    acquisitionCount.incrementAndGet();
+    boolean contended = false;
+    long wait = 0L;
+    for (int index : getStripeIndices(libraries)) {
+      ReentrantLock stripe = stripes[index];
+      if (!stripe.tryLock()) {
+        long start = System.nanoTime();
+        stripe.lock();
+        wait += System.nanoTime() - start;
+        contended = true;
+      }
+    }
+    if (!contended) {
+      return;
+    }
+    contendedCount.incrementAndGet();
+    totalWaitNanos.addAndGet(wait);
+    long max = maxWaitNanos.get();
+    while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+      max = maxWaitNanos.get();
+    }
+  }
+
+  /**
+   * Acquire the lock of the given library, waiting until it is available.
+   * 
+   * @param library the library about to be passed to the compiler (not <code>null</code>)
+   */
+  public void lock(LibrarySource library) {
+    lock(Collections.singleton(library));
+  }
+
+  /**
+   * Release the locks of the given libraries acquired by {@link #lock(Collection)}.
+   * 
+   * @param libraries the libraries that were locked (not <code>null</code>)
+   */
+  public void unlock(Collection<LibrarySource> libraries) {
+    for (int index : getStripeIndices(libraries)) {
+      stripes[index].unlock();
+    }
+  }
+
+  /**
+   * Release the lock of the given library acquired by {@link #lock(LibrarySource)}.
+   * 
+   * @param library the library that was passed to the compiler (not <code>null</code>)
+   */
+  public void unlock(LibrarySource library) {
+    unlock(Collections.singleton(library));
+  }
+
+  private int getStripeIndex(LibrarySource library) {
+    int hash = library.getName().hashCode();
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return hash & (STRIPE_COUNT - 1);
+  }
+
+  /**
+   * Return the indices of the locks of the given libraries, in the order in which they are
+   * acquired.
+   */
+  private SortedSet<Integer> getStripeIndices(Collection<LibrarySource> libraries) {
+    SortedSet<Integer> indices = new TreeSet<Integer>();
+    for (LibrarySource library : libraries) {
+      indices.add(getStripeIndex(library));
+    }
+    return indices;
+  }
+}
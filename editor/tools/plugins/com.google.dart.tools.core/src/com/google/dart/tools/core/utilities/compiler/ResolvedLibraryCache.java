@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.utilities.compiler;
+
+import com.google.dart.compiler.LibrarySource;
+import com.google.dart.compiler.SystemLibraryManager;
+import com.google.dart.compiler.ast.DartNode;
+import com.google.dart.compiler.ast.DartUnit;
+import com.google.dart.compiler.ast.LibraryUnit;
+import com.google.dart.tools.core.internal.cache.LRUCache;
+
+import java.lang.ref.SoftReference;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Instances of the class <code>ResolvedLibraryCache</code> cache fully resolved libraries, keyed by
+ * the URI of the library.
+ * <p>
+ * The cache is bounded by the estimated size of the ASTs it retains rather than by the number of
+ * libraries. Libraries that fall out of it are still held through soft references, so they remain
+ * available until the garbage collector needs the memory.
+ * <p>
+ * The cache also tracks the import graph of the libraries it contains and the API signature of
+ * every library they import. When a library is resolved again and its signature has changed, every
+ * cached library that imports it, directly or indirectly, is discarded.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ResolvedLibraryCache {
+  /**
+   * The LRU cache of the most recently used libraries, whose space is measured in kilobytes.
+   */
+  private class LibraryLRUCache extends LRUCache<URI, LibraryUnit> {
+    LibraryLRUCache(int spaceLimit) {
+      super(spaceLimit);
+    }
+
+    @Override
+    protected void privateNotifyDeletionFromCache(LRUCacheEntry<URI, LibraryUnit> entry) {
+      evictionCount++;
+      Iterator<SoftReference<LibraryUnit>> iterator = softEntries.values().iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().get() == null) {
+          iterator.remove();
+        }
+      }
+      softEntries.put(entry.key, new SoftReference<LibraryUnit>(entry.value));
+    }
+
+    @Override
+    protected int spaceFor(LibraryUnit value) {
+      return estimateSizeKb(value);
+    }
+  }
+
+  /**
+   * The percentage of the maximum heap size that the retained libraries may use.
+   */
+  private static final int HEAP_PERCENT = 5;
+
+  /**
+   * The bounds, in KB, of the memory budget of the retained libraries.
+   */
+  private static final int MIN_BUDGET_KB = 8 * 1024, MAX_BUDGET_KB = 64 * 1024;
+
+  /**
+   * The estimated number of bytes retained by a resolved AST per character of source, including
+   * the elements and types created by the resolver.
+   */
+  private static final int BYTES_PER_SOURCE_CHARACTER = 64;
+
+  /**
+   * The estimated number of bytes retained by a resolved library apart from its compilation units.
+   */
+  private static final int LIBRARY_OVERHEAD_BYTES = 16 * 1024;
+
+  /**
+   * Return the API signature of the given library, computed from the hashes of the declarations of
+   * its compilation units without their bodies.
+   */
+  static int computeSignature(LibraryUnit library) {
+    int signature = 0;
+    for (DartUnit unit : library.getUnits()) {
+      int unitSignature = unit.getSourceName().hashCode();
+      for (DartNode node : unit.getTopLevelNodes()) {
+        unitSignature = 31 * unitSignature + node.computeHash();
+      }
+      // Units are combined independently of their order.
+      signature += unitSignature;
+    }
+    return signature;
+  }
+
+  /**
+   * Return the default memory budget, in KB, of the retained libraries.
+   */
+  private static int getDefaultBudgetKb() {
+    long budgetKb = Runtime.getRuntime().maxMemory() / 1024 * HEAP_PERCENT / 100;
+    return (int) Math.max(MIN_BUDGET_KB, Math.min(MAX_BUDGET_KB, budgetKb));
+  }
+
+  private final LibraryLRUCache entries;
+
+  /**
+   * The libraries that were evicted from {@link #entries}, held until memory runs low.
+   */
+  private final Map<URI, SoftReference<LibraryUnit>> softEntries =
+      new HashMap<URI, SoftReference<LibraryUnit>>();
+
+  /**
+   * A table mapping the URI of every library imported by a cached library to the URIs of the
+   * libraries that import it directly.
+   */
+  private final Map<URI, Set<URI>> importers = new HashMap<URI, Set<URI>>();
+
+  /**
+   * A table mapping the URI of every library imported by a cached library to its API signature.
+   */
+  private final Map<URI, Integer> signatures = new HashMap<URI, Integer>();
+
+  private long hitCount;
+
+  private long softHitCount;
+
+  private long missCount;
+
+  private long evictionCount;
+
+  private long invalidationCount;
+
+  /**
+   * Initialize a newly created cache whose budget is a share of the maximum heap size.
+   */
+  public ResolvedLibraryCache() {
+    this(getDefaultBudgetKb());
+  }
+
+  /**
+   * Initialize a newly created cache that retains libraries of the given estimated size.
+   * 
+   * @param budgetKb the estimated size, in KB, of the libraries retained by the cache
+   */
+  public ResolvedLibraryCache(int budgetKb) {
+    entries = new LibraryLRUCache(budgetKb);
+  }
+
+  /**
+   * Return the resolved library with the given source, or <code>null</code> if it is not cached.
+   * 
+   * @param library the source of the library
+   * @return the resolved library
+   */
+  public synchronized LibraryUnit get(LibrarySource library) {
+    URI uri = library.getUri();
+    LibraryUnit result = entries.get(uri);
+    if (result != null) {
+      hitCount++;
+      return result;
+    }
+    SoftReference<LibraryUnit> reference = softEntries.remove(uri);
+    if (reference != null) {
+      result = reference.get();
+      if (result != null) {
+        softHitCount++;
+        cache(uri, result);
+        return result;
+      }
+    }
+    missCount++;
+    return null;
+  }
+
+  /**
+   * Return the number of libraries that were evicted from the cache to stay within its budget.
+   * Evicted libraries can still be found until the garbage collector reclaims them.
+   */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Return the number of requests that found the library in the cache.
+   */
+  public synchronized long getHitCount() {
+    return hitCount + softHitCount;
+  }
+
+  /**
+   * Return the number of libraries that were discarded because a library they import changed.
+   */
+  public synchronized long getInvalidationCount() {
+    return invalidationCount;
+  }
+
+  /**
+   * Return the number of requests that did not find the library in the cache.
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Return the number of requests that found the library only among the libraries that had been
+   * evicted from the cache.
+   */
+  public synchronized long getSoftHitCount() {
+    return softHitCount;
+  }
+
+  /**
+   * Record that the given library has been resolved. If its API signature is different from the
+   * one recorded for it, discard every cached library that imports it, directly or indirectly.
+   * 
+   * @param library the library that has been resolved
+   */
+  public synchronized void libraryResolved(LibraryUnit library) {
+    URI uri = library.getSource().getUri();
+    if (!signatures.containsKey(uri)) {
+      // No cached library depends on it.
+      return;
+    }
+    int signature = computeSignature(library);
+    Integer oldSignature = signatures.put(uri, Integer.valueOf(signature));
+    if (oldSignature.intValue() != signature) {
+      invalidateImporters(uri);
+    }
+  }
+
+  /**
+   * Add the given resolved library to the cache, replacing any library with the same source.
+   * 
+   * @param library the source of the library
+   * @param unit the resolved library
+   */
+  public synchronized void put(LibrarySource library, LibraryUnit unit) {
+    URI uri = library.getUri();
+    softEntries.remove(uri);
+    cache(uri, unit);
+    recordImports(unit, new HashSet<URI>());
+  }
+
+  /**
+   * Remove the library with the given source from the cache.
+   * 
+   * @param library the source of the library
+   */
+  public synchronized void remove(LibrarySource library) {
+    URI uri = library.getUri();
+    entries.removeKey(uri);
+    softEntries.remove(uri);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Resolved libraries: " + entries.keySet().size() + " cached using "
+        + entries.getCurrentSpace() + " of " + entries.getSpaceLimit() + " KB, " + hitCount
+        + " hits, " + softHitCount + " soft hits, " + missCount + " misses, " + evictionCount
+        + " evictions, " + invalidationCount + " invalidations";
+  }
+
+  /**
+   * Add the given library to the LRU cache, or only hold it through a soft reference if it is too
+   * large to fit into the cache at all.
+   */
+  private void cache(URI uri, LibraryUnit library) {
+    entries.put(uri, library);
+    if (entries.peek(uri) == null) {
+      softEntries.put(uri, new SoftReference<LibraryUnit>(library));
+    }
+  }
+
+  private int estimateSizeKb(LibraryUnit library) {
+    long bytes = LIBRARY_OVERHEAD_BYTES;
+    for (DartUnit unit : library.getUnits()) {
+      bytes += (long) unit.getSourceLength() * BYTES_PER_SOURCE_CHARACTER;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, bytes / 1024);
+  }
+
+  /**
+   * Discard every cached library that imports the library with the given URI, directly or
+   * indirectly.
+   */
+  private void invalidateImporters(URI uri) {
+    Set<URI> visited = new HashSet<URI>();
+    List<URI> pending = new ArrayList<URI>();
+    pending.add(uri);
+    while (!pending.isEmpty()) {
+      Set<URI> directImporters = importers.get(pending.remove(pending.size() - 1));
+      if (directImporters == null) {
+        continue;
+      }
+      for (URI importer : directImporters) {
+        if (visited.add(importer)) {
+          pending.add(importer);
+          boolean cached = entries.removeKey(importer) != null;
+          cached |= softEntries.remove(importer) != null;
+          if (cached) {
+            invalidationCount++;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Record the imports of the given library and of the libraries it imports, together with the
+   * API signatures of the imported libraries that can change.
+   */
+  private void recordImports(LibraryUnit library, Set<URI> visited) {
+    URI uri = library.getSource().getUri();
+    if (!visited.add(uri)) {
+      return;
+    }
+    for (LibraryUnit importedLibrary : library.getImports()) {
+      URI importedUri = importedLibrary.getSource().getUri();
+      Set<URI> directImporters = importers.get(importedUri);
+      if (directImporters == null) {
+        directImporters = new HashSet<URI>();
+        importers.put(importedUri, directImporters);
+      }
+      directImporters.add(uri);
+      if (!SystemLibraryManager.isDartUri(importedUri) && !signatures.containsKey(importedUri)) {
+        signatures.put(importedUri, Integer.valueOf(computeSignature(importedLibrary)));
+      }
+      recordImports(importedLibrary, visited);
+    }
+  }
+}
@@ -22,6 +22,7 @@ import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
 
@@ -102,6 +103,203 @@ public class CachingArtifactProviderTest extends TestCase {
     assertEquals(lastModified1, provider.getArtifactLastModified(getSource1(), getSource1(), "js"));
   }
 
+  public void test_CachingArtifactProvider_saveAndLoad_corrupted() throws Exception {
+    TestUtilities.runWithTempDirectory(new FileOperation() {
+
+      @Override
+      public void run(File tempDir) throws Exception {
+        File cacheFile = new File(tempDir, "artifact.cache");
+        CachingArtifactProvider provider = newProvider();
+        writeArtifact1(provider);
+        provider.saveCachedArtifacts(cacheFile);
+
+        // Simulate a save that was interrupted while appending
+        RandomAccessFile file = new RandomAccessFile(ArtifactCacheFile.findLatestFile(cacheFile),
+            "rw");
+        try {
+          file.setLength(file.length() - 1);
+        } finally {
+          file.close();
+        }
+        provider = newProvider();
+        try {
+          provider.loadCachedArtifacts(cacheFile);
+          fail("Expected IOException");
+        } catch (IOException e) {
+          // Expected
+        }
+        assertEquals(0, provider.getCacheSize());
+      }
+    });
+  }
+
+  public void test_CachingArtifactProvider_saveAndLoad_incremental() throws Exception {
+    TestUtilities.runWithTempDirectory(new FileOperation() {
+
+      @Override
+      public void run(File tempDir) throws Exception {
+        test_CachingArtifactProvider_saveAndLoad_incremental(tempDir);
+      }
+    });
+  }
+
+  public void test_CachingArtifactProvider_saveAndLoad_incremental(File tempDir)
+      throws IOException {
+    File cacheFile = new File(tempDir, "artifact.cache");
+    CachingArtifactProvider provider = newProvider();
+    writeArtifact1(provider);
+    writeArtifact1a(provider);
+    provider.saveCachedArtifacts(cacheFile);
+
+    // Loading a file and saving it again without changes only appends a new index
+    provider = newProvider();
+    provider.loadCachedArtifacts(cacheFile);
+    long length = getLength(cacheFile);
+    assertEquals(2, provider.saveCachedArtifacts(cacheFile));
+    long indexLength = getLength(cacheFile) - length;
+    assertTrue(indexLength > 0);
+
+    // Only changed artifacts are appended
+    writeArtifact2(provider);
+    provider.removeArtifactsFor(getSource1());
+    length = getLength(cacheFile);
+    assertEquals(1, provider.saveCachedArtifacts(cacheFile));
+    assertTrue(getLength(cacheFile) - length < indexLength + getArtifact2().length());
+
+    provider = newProvider();
+    assertEquals(1, provider.loadCachedArtifacts(cacheFile));
+    assertNull(provider.getArtifactReader(getSource1(), "", "js"));
+    readArtifact2(provider);
+
+    // Content that does not fit into memory is saved from the spill store
+    provider = newProvider(0, new File(tempDir, "spill"));
+    provider.loadCachedArtifacts(cacheFile);
+    writeArtifact1(provider);
+    readArtifact2(provider);
+    assertEquals(2, provider.saveCachedArtifacts(cacheFile));
+    assertEquals(0, new File(tempDir, "spill").list().length);
+    readArtifact1(provider);
+
+    provider = newProvider();
+    assertEquals(2, provider.loadCachedArtifacts(cacheFile));
+    readArtifact1(provider);
+    readArtifact2(provider);
+
+    // Large artifacts are compressed
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.append(getArtifact1a());
+    }
+    String largeArtifact = builder.toString();
+    writeArtifact(provider, getSource1(), "a", "js", largeArtifact);
+    length = getLength(cacheFile);
+    provider.saveCachedArtifacts(cacheFile);
+    assertTrue(getLength(cacheFile) - length < largeArtifact.length() / 10);
+    provider = newProvider();
+    assertEquals(3, provider.loadCachedArtifacts(cacheFile));
+    readArtifact(provider, getSource1(), "a", "js", largeArtifact);
+    readArtifact1(provider);
+  }
+
+  public void test_CachingArtifactProvider_saveAndLoad_rewrite() throws Exception {
+    TestUtilities.runWithTempDirectory(new FileOperation() {
+
+      @Override
+      public void run(File tempDir) throws Exception {
+        File cacheFile = new File(tempDir, "artifact.cache");
+        CachingArtifactProvider provider = newProvider();
+        writeArtifact1(provider);
+        provider.saveCachedArtifacts(cacheFile);
+        File firstFile = ArtifactCacheFile.findLatestFile(cacheFile);
+
+        // A file that is still being read from is not replaced by a rewrite
+        CachingArtifactProvider loadedProvider = newProvider();
+        loadedProvider.loadCachedArtifacts(cacheFile);
+        provider = newProvider();
+        writeArtifact2(provider);
+        provider.saveCachedArtifacts(cacheFile);
+        File secondFile = ArtifactCacheFile.findLatestFile(cacheFile);
+        assertFalse(secondFile.equals(firstFile));
+        assertEquals(1, tempDir.list().length);
+        readArtifact1(loadedProvider);
+
+        provider = newProvider();
+        assertEquals(1, provider.loadCachedArtifacts(cacheFile));
+        readArtifact2(provider);
+        assertNull(provider.getArtifactReader(getSource1(), "", "js"));
+      }
+    });
+  }
+
+  public void test_CachingArtifactProvider_spill() throws Exception {
+    TestUtilities.runWithTempDirectory(new FileOperation() {
+
+      @Override
+      public void run(File tempDir) throws Exception {
+        test_CachingArtifactProvider_spill(tempDir);
+      }
+    });
+  }
+
+  public void test_CachingArtifactProvider_spill(File tempDir) throws IOException {
+    File spillDir = new File(tempDir, "spill");
+    // Only one artifact fits into memory at a time
+    CachingArtifactProvider provider = newProvider(getArtifact1a().length(), spillDir);
+    writeArtifact1(provider);
+    assertEquals(0, spillDir.list().length);
+    writeArtifact1a(provider);
+    assertEquals(getArtifact1a().length(), provider.getResidentSize());
+    assertEquals(1, spillDir.list().length);
+    writeArtifact2(provider);
+    assertEquals(2, spillDir.list().length);
+    assertEquals(3, provider.getCacheSize());
+
+    // Reading a spilled artifact brings it back into memory
+    readArtifact1(provider);
+    assertEquals(getArtifact1().length(), provider.getResidentSize());
+    readArtifact1a(provider);
+    readArtifact2(provider);
+    assertEquals(3, spillDir.list().length);
+
+    // Removing artifacts deletes their spilled content
+    provider.removeArtifactsFor(getSource1());
+    assertEquals(1, spillDir.list().length);
+    readArtifact2(provider);
+    provider.clearCachedArtifacts();
+    assertEquals(0, spillDir.list().length);
+    assertEquals(0, provider.getResidentSize());
+  }
+
+  public void test_CachingArtifactProvider_spill_saveAndLoad() throws Exception {
+    TestUtilities.runWithTempDirectory(new FileOperation() {
+
+      @Override
+      public void run(File tempDir) throws Exception {
+        test_CachingArtifactProvider_spill_saveAndLoad(tempDir);
+      }
+    });
+  }
+
+  public void test_CachingArtifactProvider_spill_saveAndLoad(File tempDir) throws IOException {
+    File cacheFile = new File(tempDir, "artifacts.zip");
+    File spillDir = new File(tempDir, "spill");
+    CachingArtifactProvider provider = newProvider(0, spillDir);
+    writeArtifact1(provider);
+    writeArtifact1a(provider);
+    writeArtifact2(provider);
+    assertEquals(0, provider.getResidentSize());
+    assertEquals(3, provider.saveCachedArtifacts(cacheFile));
+
+    // A new provider deletes the content spilled by an earlier one
+    provider = newProvider(getArtifact2().length(), spillDir);
+    assertEquals(0, spillDir.list().length);
+    assertEquals(3, provider.loadCachedArtifacts(cacheFile));
+    assertTrue(provider.getResidentSize() <= getArtifact2().length());
+    readArtifact1(provider);
+    readArtifact1a(provider);
+    readArtifact2(provider);
+  }
+
   public void test_CachingArtifactProvider_writeAndRead() throws Exception {
     CachingArtifactProvider provider = newProvider();
 
@@ -119,6 +317,13 @@ public class CachingArtifactProviderTest extends TestCase {
     readArtifact2(provider);
   }
 
+  /**
+   * Return the length of the latest generation of the given cache file.
+   */
+  private long getLength(File cacheFile) {
+    return ArtifactCacheFile.findLatestFile(cacheFile).length();
+  }
+
   private String getArtifact1() {
     return "a;klsdjf this is artifact 1 a;sdkljf";
   }
@@ -144,6 +349,11 @@ public class CachingArtifactProviderTest extends TestCase {
     };
   }
 
+  private CachingArtifactProvider newProvider(long memoryBudget, File spillDirectory) {
+    return new CachingArtifactProvider(memoryBudget, spillDirectory) {
+    };
+  }
+
   private void readArtifact(CachingArtifactProvider provider, DartSourceString source, String part,
       String extension, String artifact) throws IOException {
     Reader reader = provider.getArtifactReader(source, part, extension);
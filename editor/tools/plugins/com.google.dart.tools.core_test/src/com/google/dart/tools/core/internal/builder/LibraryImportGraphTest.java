@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.builder;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class LibraryImportGraphTest extends TestCase {
+  public void test_LibraryImportGraph_canBuildConcurrently() {
+    LibraryImportGraph<String> graph = newGraph();
+    graph.addImport("other", "base");
+    assertTrue(graph.canBuildConcurrently(Arrays.asList("app1", "other"),
+        Collections.<String> emptySet()));
+    assertTrue(graph.canBuildConcurrently(Arrays.asList("app1", "util"), set("common")));
+  }
+
+  public void test_LibraryImportGraph_canBuildConcurrently_cycle() {
+    LibraryImportGraph<String> graph = new LibraryImportGraph<String>();
+    graph.addImport("a", "b");
+    graph.addImport("b", "a");
+    assertFalse(graph.canBuildConcurrently(Arrays.asList("a", "b"),
+        Collections.<String> emptySet()));
+  }
+
+  public void test_LibraryImportGraph_canBuildConcurrently_sharedImport() {
+    LibraryImportGraph<String> graph = newGraph();
+    // common is imported by both app1 and util and has not been built
+    assertFalse(graph.canBuildConcurrently(Arrays.asList("app1", "util"),
+        Collections.<String> emptySet()));
+    // app1 and app2 share common indirectly, through util
+    assertFalse(graph.canBuildConcurrently(Arrays.asList("app1", "app2"), set("util")));
+    assertTrue(graph.canBuildConcurrently(Arrays.asList("app1", "app2"), set("util", "common")));
+  }
+
+  public void test_LibraryImportGraph_getAffectedLibraries() {
+    LibraryImportGraph<String> graph = newGraph();
+    assertEquals(set("common", "util", "app1", "app2"),
+        graph.getAffectedLibraries(Arrays.asList("common")));
+    assertEquals(set("util", "app2"), graph.getAffectedLibraries(Arrays.asList("util")));
+    assertEquals(set("app1"), graph.getAffectedLibraries(Arrays.asList("app1")));
+    assertEquals(set("other"), graph.getAffectedLibraries(Arrays.asList("other")));
+  }
+
+  public void test_LibraryImportGraph_getAffectedLibraries_cycle() {
+    LibraryImportGraph<String> graph = new LibraryImportGraph<String>();
+    graph.addImport("a", "b");
+    graph.addImport("b", "a");
+    graph.addImport("app", "a");
+    assertEquals(set("a", "b", "app"), graph.getAffectedLibraries(Arrays.asList("b")));
+  }
+
+  public void test_LibraryImportGraph_getBuildLevels() {
+    LibraryImportGraph<String> graph = newGraph();
+    List<List<String>> levels = graph.getBuildLevels(
+        Arrays.asList("app1", "app2", "util", "common"), Collections.<String> emptySet());
+    assertEquals(3, levels.size());
+    assertEquals(Arrays.asList("common"), levels.get(0));
+    assertEquals(set("app1", "util"), new HashSet<String>(levels.get(1)));
+    assertEquals(Arrays.asList("app2"), levels.get(2));
+  }
+
+  public void test_LibraryImportGraph_getBuildLevels_cycle() {
+    LibraryImportGraph<String> graph = new LibraryImportGraph<String>();
+    graph.addImport("a", "b");
+    graph.addImport("b", "a");
+    graph.addImport("app", "a");
+    graph.addImport("b", "common");
+    List<List<String>> levels = graph.getBuildLevels(Arrays.asList("app", "a", "b", "common"),
+        Collections.<String> emptySet());
+    assertEquals(2, levels.size());
+    assertEquals(Arrays.asList("common"), levels.get(0));
+    assertEquals(set("a", "b", "app"), new HashSet<String>(levels.get(1)));
+  }
+
+  public void test_LibraryImportGraph_getBuildLevels_indirect() {
+    LibraryImportGraph<String> graph = newGraph();
+    // app2 depends on common through util, which is not being built
+    List<List<String>> levels = graph.getBuildLevels(Arrays.asList("app2", "common"),
+        Collections.<String> emptySet());
+    assertEquals(Arrays.asList(Arrays.asList("common"), Arrays.asList("app2")), levels);
+  }
+
+  public void test_LibraryImportGraph_getBuildLevels_priority() {
+    LibraryImportGraph<String> graph = newGraph();
+    List<List<String>> levels = graph.getBuildLevels(Arrays.asList("app1", "util", "other"),
+        set("util"));
+    assertEquals(1, levels.size());
+    assertEquals("util", levels.get(0).get(0));
+    assertEquals(set("app1", "util", "other"), new HashSet<String>(levels.get(0)));
+  }
+
+  /**
+   * Return a graph in which app1 imports common and app2 imports common through util.
+   */
+  private LibraryImportGraph<String> newGraph() {
+    LibraryImportGraph<String> graph = new LibraryImportGraph<String>();
+    graph.addImport("app1", "common");
+    graph.addImport("app2", "util");
+    graph.addImport("util", "common");
+    return graph;
+  }
+
+  private Set<String> set(String... libraries) {
+    return new HashSet<String>(Arrays.asList(libraries));
+  }
+}
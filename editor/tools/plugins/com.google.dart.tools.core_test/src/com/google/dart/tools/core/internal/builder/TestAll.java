@@ -21,6 +21,7 @@ public class TestAll {
     TestSuite suite = new TestSuite("Tests in " + TestAll.class.getPackage().getName());
     suite.addTestSuite(CachingArtifactProviderTest.class);
 //    suite.addTestSuite(DartBuilderTest.class);
+    suite.addTestSuite(LibraryImportGraphTest.class);
     suite.addTestSuite(LocalArtifactProviderTest.class);
     suite.addTestSuite(RootArtifactProviderTest.class);
     return suite;
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.completion;
+
+import com.google.dart.tools.core.completion.CompletionProposal;
+import com.google.dart.tools.core.internal.model.DartModelManager;
+import com.google.dart.tools.core.internal.model.delta.DartElementDeltaImpl;
+import com.google.dart.tools.core.model.ElementChangedEvent;
+
+import junit.framework.TestCase;
+
+public class CompletionSessionTest extends TestCase {
+  private MockLibrarySource library;
+  private MockDartSource sourceFile;
+
+  public void test_CompletionSession_afterPeriod() throws Exception {
+    String source = "main() { a. }";
+    startSession(source, 11, "foo", "bar");
+    MockCompletionRequestor requestor = new MockCompletionRequestor();
+    assertEquals(1, CompletionSession.replay(library, sourceFile, "main() { a.b }", 12, 0,
+        requestor));
+    requestor.assertSuggested("bar");
+    requestor.assertNotSuggested("foo");
+  }
+
+  public void test_CompletionSession_modelChanged() throws Exception {
+    String source = "main() { fo }";
+    startSession(source, 11, "foo", "for");
+    CompletionSession.CHANGE_LISTENER.elementChanged(new ElementChangedEvent(
+        new DartElementDeltaImpl(DartModelManager.getInstance().getDartModel()),
+        ElementChangedEvent.POST_CHANGE));
+    assertEquals(-1, CompletionSession.replay(library, sourceFile, source, 11, 0,
+        new MockCompletionRequestor()));
+  }
+
+  public void test_CompletionSession_noPrefix() throws Exception {
+    String source = "main() {  }";
+    startSession(source, 9, "foo", "bar");
+    assertEquals(-1, CompletionSession.replay(library, sourceFile, "main() { b }", 10, 0,
+        new MockCompletionRequestor()));
+  }
+
+  public void test_CompletionSession_otherEdit() throws Exception {
+    String source = "main() { fo }";
+    startSession(source, 11, "foo", "for");
+    assertEquals(-1, CompletionSession.replay(library, sourceFile, "main() { fo; }", 11, 0,
+        new MockCompletionRequestor()));
+    assertEquals(-1, CompletionSession.replay(library, sourceFile, "main() { fo( }", 12, 0,
+        new MockCompletionRequestor()));
+    assertEquals(-1, CompletionSession.replay(library, sourceFile, "main() { fox }", 11, 0,
+        new MockCompletionRequestor()));
+  }
+
+  public void test_CompletionSession_typedPrefix() throws Exception {
+    String source = "main() { fo }";
+    startSession(source, 11, "foo", "fox", "for");
+    final InternalCompletionProposal[] accepted = new InternalCompletionProposal[1];
+    MockCompletionRequestor requestor = new MockCompletionRequestor() {
+      @Override
+      public void accept(CompletionProposal proposal) {
+        super.accept(proposal);
+        accepted[0] = (InternalCompletionProposal) proposal;
+      }
+    };
+    assertEquals(1, CompletionSession.replay(library, sourceFile, "main() { fox }", 12, 0,
+        requestor));
+    requestor.assertSuggested("fox");
+    assertEquals(9, accepted[0].getReplaceStart());
+    assertEquals(12, accepted[0].getReplaceEnd());
+    assertEquals(11, accepted[0].getCompletionLocation());
+  }
+
+  public void test_CompletionSession_unchanged() throws Exception {
+    String source = "main() { fo }";
+    startSession(source, 11, "foo", "for");
+    MockCompletionRequestor requestor = new MockCompletionRequestor();
+    assertEquals(2, CompletionSession.replay(library, sourceFile, source, 11, 0, requestor));
+    requestor.assertSuggested("foo");
+    requestor.assertSuggested("for");
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    library = new MockLibrarySource("FooLib");
+    sourceFile = new MockDartSource(library, "Foo.dart", "");
+    CompletionSession.reset();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    CompletionSession.reset();
+    super.tearDown();
+  }
+
+  private void startSession(String source, int completionPosition, String... names) {
+    CompletionSession session = CompletionSession.begin(library, sourceFile, source,
+        completionPosition, 0);
+    int prefixStart = completionPosition;
+    while (Character.isJavaIdentifierPart(source.charAt(prefixStart - 1))) {
+      prefixStart--;
+    }
+    for (String name : names) {
+      InternalCompletionProposal proposal = (InternalCompletionProposal) CompletionProposal.create(
+          CompletionProposal.LOCAL_VARIABLE_REF, completionPosition - 1);
+      proposal.setCompletion(name.toCharArray());
+      proposal.setName(name.toCharArray());
+      proposal.setReplaceRange(prefixStart, completionPosition);
+      proposal.setTokenRange(prefixStart, completionPosition);
+      session.record(proposal);
+    }
+    session.finish();
+  }
+}
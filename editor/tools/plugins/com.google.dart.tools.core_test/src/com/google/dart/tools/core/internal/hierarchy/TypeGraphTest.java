@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.hierarchy;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class TypeGraphTest extends TestCase {
+  private static final String UNIT_A = "a.dart";
+
+  private static final String UNIT_B = "b.dart";
+
+  public void test_TypeGraph_invalidate() {
+    TypeGraph<String> graph = new TypeGraph<String>();
+    setSupertypes(graph, "B", UNIT_B, "A");
+    graph.invalidate("B", UNIT_B);
+    assertNull(graph.getSupertypes("B"));
+    assertEquals(Collections.emptyList(), graph.getSubtypes("A"));
+    assertEquals(new HashSet<String>(Arrays.asList("A", "B")),
+        new HashSet<String>(graph.getUnknownTypes()));
+  }
+
+  public void test_TypeGraph_remove() {
+    TypeGraph<String> graph = new TypeGraph<String>();
+    setSupertypes(graph, "A", UNIT_A);
+    setSupertypes(graph, "B", UNIT_B, "A", "I");
+    setSupertypes(graph, "I", UNIT_A);
+    graph.remove("A");
+    assertFalse(graph.contains("A"));
+    assertEquals(Arrays.asList("I"), graph.getSupertypes("B"));
+    assertEquals(Arrays.asList("B"), graph.getSubtypes("I"));
+    assertEquals(Collections.emptyList(), graph.getUnknownTypes());
+    assertEquals(Arrays.asList("I"), graph.getGroup(UNIT_A));
+  }
+
+  public void test_TypeGraph_removeGroup() {
+    TypeGraph<String> graph = new TypeGraph<String>();
+    setSupertypes(graph, "A", UNIT_A);
+    setSupertypes(graph, "B", UNIT_B, "A");
+    setSupertypes(graph, "C", UNIT_B, "B");
+    graph.removeGroup(UNIT_B);
+    assertEquals(1, graph.size());
+    assertEquals(Collections.emptyList(), graph.getSubtypes("A"));
+    assertEquals(Collections.emptyList(), graph.getGroup(UNIT_B));
+    // Identifiers of removed types are reused.
+    setSupertypes(graph, "D", UNIT_B, "A");
+    assertEquals(Arrays.asList("D"), graph.getSubtypes("A"));
+  }
+
+  public void test_TypeGraph_setSupertypes() {
+    TypeGraph<String> graph = new TypeGraph<String>();
+    setSupertypes(graph, "B", UNIT_B, "A", "A");
+    assertEquals(Arrays.asList("A"), graph.getSupertypes("B"));
+    assertEquals(Arrays.asList("B"), graph.getSubtypes("A"));
+    assertNull(graph.getSupertypes("A"));
+    assertEquals(Arrays.asList("A"), graph.getUnknownTypes());
+  }
+
+  public void test_TypeGraph_setSupertypes_replace() {
+    TypeGraph<String> graph = new TypeGraph<String>();
+    setSupertypes(graph, "C", UNIT_B, "A");
+    setSupertypes(graph, "C", UNIT_B, "B");
+    assertEquals(Arrays.asList("B"), graph.getSupertypes("C"));
+    assertEquals(Collections.emptyList(), graph.getSubtypes("A"));
+    assertEquals(Arrays.asList("C"), graph.getSubtypes("B"));
+  }
+
+  private void setSupertypes(TypeGraph<String> graph, String type, String group,
+      String... supertypes) {
+    List<String> supertypeGroups = Collections.nCopies(supertypes.length, UNIT_A);
+    graph.setSupertypes(type, group, Arrays.asList(supertypes), supertypeGroups);
+  }
+}
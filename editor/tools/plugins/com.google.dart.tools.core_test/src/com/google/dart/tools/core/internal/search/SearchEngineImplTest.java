@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.search;
+
+import com.google.dart.indexer.locations.Location;
+import com.google.dart.indexer.locations.LocationType;
+import com.google.dart.tools.core.internal.search.SearchEngineImpl.LocationMatcher;
+import com.google.dart.tools.core.search.MatchQuality;
+import com.google.dart.tools.core.search.SearchListener;
+import com.google.dart.tools.core.search.SearchMatch;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SearchEngineImplTest extends TestCase {
+  /**
+   * A location that is only identified by its index.
+   */
+  private static class MockLocation implements Location {
+    private final int index;
+
+    MockLocation(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public IFile getContainingFile() {
+      return null;
+    }
+
+    @Override
+    public URI getContainingUri() {
+      return null;
+    }
+
+    @Override
+    public LocationType getLocationType() {
+      return null;
+    }
+
+    @Override
+    public String getSemiUniqueIdentifier() {
+      return Integer.toString(index);
+    }
+
+    @Override
+    public String toString() {
+      return getSemiUniqueIdentifier();
+    }
+  }
+
+  /**
+   * A listener recording the matches it is given.
+   */
+  private static class MockSearchListener implements SearchListener {
+    private final List<SearchMatch> matches = Collections.synchronizedList(
+        new ArrayList<SearchMatch>());
+
+    @Override
+    public void matchFound(SearchMatch match) {
+      matches.add(match);
+    }
+  }
+
+  /**
+   * A matcher mapping every other location onto a match of its own.
+   */
+  private static class MockMatcher implements LocationMatcher {
+    private final Map<Location, SearchMatch> matches = new HashMap<Location, SearchMatch>();
+
+    MockMatcher(List<Location> locations) {
+      for (int i = 0; i < locations.size(); i += 2) {
+        matches.put(locations.get(i), new SearchMatch(MatchQuality.EXACT, null, null));
+      }
+    }
+
+    List<SearchMatch> getExpectedMatches(List<Location> locations) {
+      List<SearchMatch> expected = new ArrayList<SearchMatch>();
+      for (Location location : locations) {
+        SearchMatch match = matches.get(location);
+        if (match != null) {
+          expected.add(match);
+        }
+      }
+      return expected;
+    }
+
+    @Override
+    public SearchMatch toMatch(Location location) {
+      return matches.get(location);
+    }
+  }
+
+  public void test_SearchEngineImpl_reportMatches_canceled() throws Exception {
+    List<Location> locations = createLocations(1000);
+    MockMatcher matcher = new MockMatcher(locations);
+    final NullProgressMonitor monitor = new NullProgressMonitor();
+    MockSearchListener listener = new MockSearchListener() {
+      @Override
+      public void matchFound(SearchMatch match) {
+        super.matchFound(match);
+        monitor.setCanceled(true);
+      }
+    };
+    try {
+      SearchEngineImpl.reportMatches(locations, matcher, listener, SubMonitor.convert(monitor));
+      fail("Expected OperationCanceledException");
+    } catch (OperationCanceledException exception) {
+      // expected
+    }
+    List<SearchMatch> expected = matcher.getExpectedMatches(locations);
+    assertTrue(listener.matches.size() < expected.size());
+    assertEquals(expected.subList(0, listener.matches.size()), listener.matches);
+  }
+
+  public void test_SearchEngineImpl_reportMatches_canceledInline() throws Exception {
+    List<Location> locations = createLocations(10);
+    final NullProgressMonitor monitor = new NullProgressMonitor();
+    MockSearchListener listener = new MockSearchListener() {
+      @Override
+      public void matchFound(SearchMatch match) {
+        super.matchFound(match);
+        monitor.setCanceled(true);
+      }
+    };
+    try {
+      SearchEngineImpl.reportMatches(locations, new MockMatcher(locations), listener,
+          SubMonitor.convert(monitor));
+      fail("Expected OperationCanceledException");
+    } catch (OperationCanceledException exception) {
+      // expected
+    }
+    assertEquals(1, listener.matches.size());
+  }
+
+  public void test_SearchEngineImpl_reportMatches_order() throws Exception {
+    List<Location> locations = createLocations(1000);
+    MockMatcher matcher = new MockMatcher(locations);
+    MockSearchListener listener = new MockSearchListener();
+    SearchEngineImpl.reportMatches(locations, matcher, listener,
+        SubMonitor.convert(new NullProgressMonitor()));
+    assertEquals(matcher.getExpectedMatches(locations), listener.matches);
+  }
+
+  public void test_SearchEngineImpl_reportMatches_orderInline() throws Exception {
+    List<Location> locations = createLocations(10);
+    MockMatcher matcher = new MockMatcher(locations);
+    MockSearchListener listener = new MockSearchListener();
+    SearchEngineImpl.reportMatches(locations, matcher, listener,
+        SubMonitor.convert(new NullProgressMonitor()));
+    assertEquals(matcher.getExpectedMatches(locations), listener.matches);
+  }
+
+  private List<Location> createLocations(int count) {
+    List<Location> locations = new ArrayList<Location>(count);
+    for (int i = 0; i < count; i++) {
+      locations.add(new MockLocation(i));
+    }
+    return locations;
+  }
+}
@@ -20,6 +20,8 @@ public class TestAll {
   public static Test suite() {
     TestSuite suite = new TestSuite("Tests in " + TestAll.class.getPackage().getName());
 
+    suite.addTestSuite(SearchEngineImplTest.class);
+    suite.addTest(com.google.dart.tools.core.internal.search.names.TestAll.suite());
     suite.addTest(com.google.dart.tools.core.internal.search.pattern.TestAll.suite());
     return suite;
   }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.internal.search.names;
+
+import com.google.dart.tools.core.internal.util.CharOperation;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+public class NameTableTest extends TestCase {
+  private static final List<String> NAMES = Arrays.asList("Array", "ArrayImpl", "array",
+      "HashMap", "HashMapEntry", "HashSet", "HatMapper", "NullPointerException",
+      "NoPermissionException", "UTF16DocumentScannerSupport", "Object", "aRRay", "Array");
+
+  public void test_NameTable_contains() {
+    NameTable table = NameTable.create(NAMES);
+    assertEquals(12, table.size());
+    assertTrue(table.contains("HashMap"));
+    assertFalse(table.contains("hashMap"));
+    assertFalse(NameTable.EMPTY.contains("HashMap"));
+  }
+
+  public void test_NameTable_findCamelCase() {
+    NameTable table = NameTable.create(NAMES);
+    for (String pattern : new String[] {
+        "HM", "HaMa", "HMap", "HME", "NPE", "NuPoEx", "npe", "UTFDSS", "UTF16DSS", "A", "a", "",
+        "Xyz"}) {
+      for (boolean samePartCount : new boolean[] {false, true}) {
+        TreeSet<String> expected = new TreeSet<String>();
+        for (String name : NAMES) {
+          if (CharOperation.camelCaseMatch(pattern.toCharArray(), name.toCharArray(),
+              samePartCount)) {
+            expected.add(name);
+          }
+        }
+        TreeSet<String> actual = new TreeSet<String>();
+        table.findCamelCase(pattern, samePartCount, actual);
+        assertEquals(pattern, expected, actual);
+      }
+    }
+  }
+
+  public void test_NameTable_findExact() {
+    NameTable table = NameTable.create(NAMES);
+    List<String> result = new ArrayList<String>();
+    table.findExact("array", true, result);
+    assertEquals(Arrays.asList("array"), result);
+    TreeSet<String> caseInsensitive = new TreeSet<String>();
+    table.findExact("ARRAY", false, caseInsensitive);
+    assertEquals(new TreeSet<String>(Arrays.asList("Array", "aRRay", "array")), caseInsensitive);
+  }
+
+  public void test_NameTable_findPrefix() {
+    NameTable table = NameTable.create(NAMES);
+    for (String prefix : new String[] {"", "A", "Arr", "arr", "Hash", "HashMapEntryX", "Z"}) {
+      for (boolean caseSensitive : new boolean[] {false, true}) {
+        TreeSet<String> expected = new TreeSet<String>();
+        for (String name : NAMES) {
+          if (CharOperation.prefixEquals(prefix.toCharArray(), name.toCharArray(), caseSensitive)) {
+            expected.add(name);
+          }
+        }
+        TreeSet<String> actual = new TreeSet<String>();
+        table.findPrefix(prefix, caseSensitive, actual);
+        assertEquals(prefix, expected, actual);
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.utilities.compiler;
+
+import com.google.dart.compiler.LibrarySource;
+import com.google.dart.compiler.UrlLibrarySource;
+
+import junit.framework.TestCase;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LibraryLocksTest extends TestCase {
+
+  public void test_LibraryLocks_overlappingLibraries() throws Exception {
+    final LibraryLocks locks = new LibraryLocks();
+    LibrarySource a = new UrlLibrarySource(new URI("file:/test/a.dart"));
+    LibrarySource b = new UrlLibrarySource(new URI("file:/test/b.dart"));
+    LibrarySource c = new UrlLibrarySource(new URI("file:/test/c.dart"));
+    List<LibrarySource> first = Arrays.asList(a, b);
+    final List<LibrarySource> second = Arrays.asList(c, b);
+    final CountDownLatch unlocked = new CountDownLatch(1);
+    final CountDownLatch locked = new CountDownLatch(1);
+    final boolean[] lockedAfterUnlock = new boolean[1];
+    locks.lock(first);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        locks.lock(second);
+        lockedAfterUnlock[0] = unlocked.getCount() == 0;
+        locks.unlock(second);
+        locked.countDown();
+      }
+    };
+    thread.start();
+    while (locks.getAcquisitionCount() < 2) {
+      Thread.sleep(1);
+    }
+    assertFalse(locked.await(50, TimeUnit.MILLISECONDS));
+    unlocked.countDown();
+    locks.unlock(first);
+    assertTrue(locked.await(5, TimeUnit.SECONDS));
+    thread.join();
+    assertTrue(lockedAfterUnlock[0]);
+    assertEquals(1, locks.getContendedCount());
+  }
+
+  public void test_LibraryLocks_sameLibrary() throws Exception {
+    final LibraryLocks locks = new LibraryLocks();
+    final LibrarySource library = new UrlLibrarySource(new URI("file:/test/a.dart"));
+    final CountDownLatch unlocked = new CountDownLatch(1);
+    final CountDownLatch locked = new CountDownLatch(1);
+    final boolean[] lockedAfterUnlock = new boolean[1];
+    locks.lock(library);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        locks.lock(library);
+        lockedAfterUnlock[0] = unlocked.getCount() == 0;
+        locks.unlock(library);
+        locked.countDown();
+      }
+    };
+    thread.start();
+    while (locks.getAcquisitionCount() < 2) {
+      Thread.sleep(1);
+    }
+    assertFalse(locked.await(50, TimeUnit.MILLISECONDS));
+    unlocked.countDown();
+    locks.unlock(library);
+    assertTrue(locked.await(5, TimeUnit.SECONDS));
+    thread.join();
+    assertTrue(lockedAfterUnlock[0]);
+    assertEquals(2, locks.getAcquisitionCount());
+    assertEquals(1, locks.getContendedCount());
+    assertTrue(locks.getMaxWaitMillis() <= locks.getTotalWaitMillis());
+  }
+
+  public void test_LibraryLocks_uncontended() throws Exception {
+    LibraryLocks locks = new LibraryLocks();
+    LibrarySource library = new UrlLibrarySource(new URI("file:/test/a.dart"));
+    locks.lock(library);
+    locks.unlock(library);
+    locks.lock(library);
+    locks.unlock(library);
+    assertEquals(2, locks.getAcquisitionCount());
+    assertEquals(0, locks.getContendedCount());
+    assertEquals(0, locks.getTotalWaitMillis());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011, the Dart project authors.
+ * 
+ * Licensed under the Eclipse Public License v1.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.dart.tools.core.utilities.compiler;
+
+import com.google.dart.compiler.LibrarySource;
+import com.google.dart.compiler.UrlLibrarySource;
+import com.google.dart.compiler.ast.LibraryUnit;
+
+import junit.framework.TestCase;
+
+import java.net.URI;
+
+public class ResolvedLibraryCacheTest extends TestCase {
+
+  public void test_ResolvedLibraryCache_evictToSoftReference() throws Exception {
+    ResolvedLibraryCache cache = new ResolvedLibraryCache(20);
+    LibrarySource firstSource = createSource("first");
+    LibrarySource secondSource = createSource("second");
+    LibraryUnit first = createLibrary(firstSource, "class A {}");
+    LibraryUnit second = createLibrary(secondSource, "class B {}");
+    cache.put(firstSource, first);
+    cache.put(secondSource, second);
+    assertEquals(1, cache.getEvictionCount());
+    assertSame(first, cache.get(firstSource));
+    assertEquals(1, cache.getSoftHitCount());
+    assertEquals(1, cache.getHitCount());
+  }
+
+  public void test_ResolvedLibraryCache_getAndPut() throws Exception {
+    ResolvedLibraryCache cache = new ResolvedLibraryCache();
+    LibrarySource source = createSource("lib");
+    assertNull(cache.get(source));
+    LibraryUnit library = createLibrary(source, "class A {}");
+    cache.put(source, library);
+    assertSame(library, cache.get(source));
+    assertSame(library, cache.get(createSource("lib")));
+    cache.remove(source);
+    assertNull(cache.get(source));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  public void test_ResolvedLibraryCache_invalidateImporters() throws Exception {
+    ResolvedLibraryCache cache = new ResolvedLibraryCache();
+    LibrarySource baseSource = createSource("base");
+    LibrarySource middleSource = createSource("middle");
+    LibrarySource topSource = createSource("top");
+    LibraryUnit base = createLibrary(baseSource, "class A { int f() { return 1; } }");
+    LibraryUnit middle = createLibrary(middleSource, "class B extends A {}");
+    middle.addImport(base, null);
+    LibraryUnit top = createLibrary(topSource, "class C extends B {}");
+    top.addImport(middle, null);
+    cache.put(middleSource, middle);
+    cache.put(topSource, top);
+
+    // A change to a method body does not change the API
+    cache.libraryResolved(createLibrary(baseSource, "class A { int f() { return 2; } }"));
+    assertEquals(0, cache.getInvalidationCount());
+    assertSame(middle, cache.get(middleSource));
+    assertSame(top, cache.get(topSource));
+
+    // A change to the API discards every library importing it, directly or indirectly
+    cache.libraryResolved(createLibrary(baseSource, "class A { int f() { return 2; } int g; }"));
+    assertEquals(2, cache.getInvalidationCount());
+    assertNull(cache.get(middleSource));
+    assertNull(cache.get(topSource));
+  }
+
+  private LibraryUnit createLibrary(LibrarySource source, String code) throws Exception {
+    LibraryUnit library = new LibraryUnit(source);
+    library.putUnit(DartCompilerUtilities.parseSource(source.getUri().toString(), code));
+    return library;
+  }
+
+  private LibrarySource createSource(String name) throws Exception {
+    return new UrlLibrarySource(new URI("file:/test/" + name + ".dart"));
+  }
+}
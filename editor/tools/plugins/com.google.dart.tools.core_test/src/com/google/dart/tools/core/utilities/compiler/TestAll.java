@@ -21,6 +21,8 @@ public class TestAll {
     TestSuite suite = new TestSuite("Tests in " + TestAll.class.getPackage().getName());
     suite.addTestSuite(DartCompilerUtilitiesTest.class);
     suite.addTestSuite(DartCompilerWarmupTest.class);
+    suite.addTestSuite(LibraryLocksTest.class);
+    suite.addTestSuite(ResolvedLibraryCacheTest.class);
     return suite;
   }
 }
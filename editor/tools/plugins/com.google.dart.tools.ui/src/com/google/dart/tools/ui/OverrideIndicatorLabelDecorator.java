@@ -16,8 +16,10 @@
 package com.google.dart.tools.ui;
 
 import com.google.dart.compiler.ast.DartUnit;
+import com.google.dart.tools.core.internal.hierarchy.TypeHierarchyGraph;
 import com.google.dart.tools.core.model.DartModelException;
 import com.google.dart.tools.core.model.Method;
+import com.google.dart.tools.core.model.Type;
 import com.google.dart.tools.ui.internal.viewsupport.ImageDescriptorRegistry;
 import com.google.dart.tools.ui.internal.viewsupport.ImageImageDescriptor;
 
@@ -30,6 +32,10 @@ import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
 /**
  * LabelDecorator that decorates an method's image with override or implements overlays. The viewer
  * using this decorator is responsible for updating the images on element changes.
@@ -199,29 +205,19 @@ public class OverrideIndicatorLabelDecorator implements ILabelDecorator, ILightw
    * @throws DartModelException
    */
   protected int getOverrideIndicators(Method method) throws DartModelException {
-    DartX.todo();
-//    DartUnit astRoot = DartToolsPlugin.getDefault().getASTProvider().getAST(
-//        (DartElement) method.getOpenable(), ASTProvider.WAIT_ACTIVE_ONLY, null);
-//    if (astRoot != null) {
-//      int res = findInHierarchyWithAST(astRoot, method);
-//      if (res != -1) {
-//        return res;
-//      }
-//    }
-//
-//    Type type = method.getDeclaringType();
-//    if (type == null)
-//      return 0;
-//
-//    MethodOverrideTester methodOverrideTester = SuperTypeHierarchyCache.getMethodOverrideTester(type);
-//    IFunction defining = methodOverrideTester.findOverriddenMethod(method, true);
-//    if (defining != null) {
-//      if (JdtFlags.isAbstract(defining)) {
-//        return DartElementImageDescriptor.IMPLEMENTS;
-//      } else {
-//        return DartElementImageDescriptor.OVERRIDES;
-//      }
-//    }
+    Type type = method.getDeclaringType();
+    if (type == null) {
+      return 0;
+    }
+    Method defining = findOverriddenMethod(type, method.getElementName());
+    if (defining != null) {
+      Type definingType = defining.getDeclaringType();
+      if (defining.isAbstract() || (definingType != null && definingType.isInterface())) {
+        return DartElementImageDescriptor.IMPLEMENTS;
+      } else {
+        return DartElementImageDescriptor.OVERRIDES;
+      }
+    }
     return 0;
   }
 
@@ -247,6 +243,35 @@ public class OverrideIndicatorLabelDecorator implements ILabelDecorator, ILightw
     return -1;
   }
 
+  /**
+   * Return the closest method with the given name declared in a supertype of the given type, or
+   * <code>null</code> if there is none. Only the supertypes already known to the type hierarchy
+   * graph are searched, so that decorating does not wait for the index.
+   */
+  private Method findOverriddenMethod(Type type, String methodName) throws DartModelException {
+    Set<Type> visitedTypes = new HashSet<Type>();
+    LinkedList<Type> pendingTypes = new LinkedList<Type>();
+    pendingTypes.add(type);
+    while (!pendingTypes.isEmpty()) {
+      Type[] supertypes = TypeHierarchyGraph.getInstance().getKnownSupertypes(
+          pendingTypes.removeFirst());
+      if (supertypes == null) {
+        continue;
+      }
+      for (Type supertype : supertypes) {
+        if (visitedTypes.add(supertype)) {
+          for (Method candidate : supertype.getMethods()) {
+            if (!candidate.isConstructor() && candidate.getElementName().equals(methodName)) {
+              return candidate;
+            }
+          }
+          pendingTypes.add(supertype);
+        }
+      }
+    }
+    return null;
+  }
+
   private ImageDescriptorRegistry getRegistry() {
     if (fRegistry == null) {
       fRegistry = fUseNewRegistry ? new ImageDescriptorRegistry()